@@ -120,6 +120,7 @@ import org.bimserver.schemaconverter.Ifc2x3tc1ToIfc4SchemaConverterFactory;
 import org.bimserver.schemaconverter.Ifc4ToIfc2x3tc1SchemaConverterFactory;
 import org.bimserver.schemaconverter.SchemaConverterManager;
 import org.bimserver.serializers.SerializerFactory;
+import org.bimserver.servlets.Streamer;
 import org.bimserver.shared.BimServerClientFactory;
 import org.bimserver.shared.InterfaceList;
 import org.bimserver.shared.exceptions.ServerException;
@@ -181,6 +182,8 @@ public class BimServer {
 	private Map<String, WebModulePlugin> webModules;
 	private WebModulePlugin defaultWebModule;
 	private ExecutorService executorService = Executors.newFixedThreadPool(50);
+	private final ExecutorService geometryExecutor = GeometryGenerator.createExecutor();
+	private final ExecutorService streamingDownloadExecutor = Streamer.createDownloadExecutor();
 	private InternalServicesManager internalServicesManager;
 	private OpenIdManager openIdManager;
 	private MetaDataManager metaDataManager;
@@ -422,7 +425,7 @@ public class BimServer {
 
 			mailSystem = new MailSystem(this);
 
-			diskCacheManager = new DiskCacheManager(this, new File(config.getHomeDir(), "cache"));
+			diskCacheManager = new DiskCacheManager(this, new File(config.getHomeDir(), "cache"), config.getDiskCacheSize());
 
 			mergerFactory = new MergerFactory(this);
 
@@ -878,9 +881,17 @@ public class BimServer {
 	public void stop() {
 		LOGGER.info("Stopping BIMserver");
 		executorService.shutdown();
+		geometryExecutor.shutdown();
+		streamingDownloadExecutor.shutdown();
+		if (pluginManager != null) {
+			pluginManager.shutdown();
+		}
 		if (bimDatabase != null) {
 			bimDatabase.close();
 		}
+		if (diskCacheManager != null) {
+			diskCacheManager.close();
+		}
 		if (bimScheduler != null) {
 			bimScheduler.close();
 		}
@@ -1002,6 +1013,17 @@ public class BimServer {
 		return longTransactionManager;
 	}
 	
+	/**
+	 * @return The threads render engines run on, shared by all geometry generations
+	 */
+	public ExecutorService getGeometryExecutor() {
+		return geometryExecutor;
+	}
+
+	public ExecutorService getStreamingDownloadExecutor() {
+		return streamingDownloadExecutor;
+	}
+
 	public ExecutorService getExecutorService() {
 		return executorService;
 	}
@@ -31,6 +31,16 @@ public class BimServerConfig {
 	private int initialProtocolBuffersPort = 8020;
 	private boolean localDev;
 	private boolean autoMigrate = false;
+	// Size of the RecordCache in bytes, 0 disables it
+	private long recordCacheSize = 256 * 1024 * 1024;
+	// Keep the values of objects in arrays in the objects (CompactServerEStore) instead of one map per session (ServerEStore), off by default until it has seen more use
+	private boolean compactEStore = false;
+	// Estimated size in bytes of the values of objects read by one session that stay on the heap, the rest goes to scratch files in home/tmp, 0 disables it (only with compactEStore)
+	private long objectSpillHeapBudget = 0;
+	// Branch revisions by referencing their data (CopyOnWriteBranchDatabaseAction) instead of checking in a copy
+	private boolean copyOnWriteBranches = false;
+	// Size in bytes of the cached downloads in home/cache, the least recently used files are removed when it gets bigger, 0 for no limit
+	private long diskCacheSize = 10L * 1024 * 1024 * 1024;
 	
 	public boolean isStartEmbeddedWebServer() {
 		return startEmbeddedWebServer;
@@ -103,4 +113,44 @@ public class BimServerConfig {
 	public void setAutoMigrate(boolean autoMigrate) {
 		this.autoMigrate = autoMigrate;
 	}
+
+	public long getRecordCacheSize() {
+		return recordCacheSize;
+	}
+
+	public void setRecordCacheSize(long recordCacheSize) {
+		this.recordCacheSize = recordCacheSize;
+	}
+
+	public boolean isCompactEStore() {
+		return compactEStore;
+	}
+
+	public void setCompactEStore(boolean compactEStore) {
+		this.compactEStore = compactEStore;
+	}
+
+	public long getObjectSpillHeapBudget() {
+		return objectSpillHeapBudget;
+	}
+
+	public void setObjectSpillHeapBudget(long objectSpillHeapBudget) {
+		this.objectSpillHeapBudget = objectSpillHeapBudget;
+	}
+
+	public boolean isCopyOnWriteBranches() {
+		return copyOnWriteBranches;
+	}
+
+	public void setCopyOnWriteBranches(boolean copyOnWriteBranches) {
+		this.copyOnWriteBranches = copyOnWriteBranches;
+	}
+
+	public long getDiskCacheSize() {
+		return diskCacheSize;
+	}
+
+	public void setDiskCacheSize(long diskCacheSize) {
+		this.diskCacheSize = diskCacheSize;
+	}
 }
\ No newline at end of file
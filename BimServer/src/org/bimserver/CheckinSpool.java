@@ -0,0 +1,164 @@
+package org.bimserver;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Writes an upload to a file and calculates its checksum, so a checkin of a
+ * file that is the same as the last revision can be refused before it is
+ * parsed.
+ *
+ * The checksum is the MD5 of all bytes except line endings, the same checksum
+ * the IFC STEP deserializers put in the ModelMetaData (and that is stored with
+ * a ConcreteRevision). ConcreteRevisions that were checked in before the
+ * deserializers parsed bytes have a different checksum for most files: those
+ * deserializers only hashed the first line of a statement that spans several
+ * lines. So that checksum (see LegacyStepChecksum) is calculated as well,
+ * duplicates of those revisions have to be refused too.
+ *
+ * For a .zip or .ifczip upload the checksums are those of the IFC file inside
+ * it, so the zip is read again after it has been written. When the zip does
+ * not contain exactly one IFC file there are no checksums, the deserializer
+ * reports what is wrong with it.
+ */
+public class CheckinSpool {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private final File file;
+	private byte[] checksum;
+	private byte[] legacyChecksum;
+	private long size;
+
+	public CheckinSpool(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Copies the stream to the file, the stream is closed afterwards
+	 */
+	public void spool(InputStream inputStream, String fileName) throws IOException {
+		boolean zipped = fileName != null && (fileName.toUpperCase().endsWith(".ZIP") || fileName.toUpperCase().endsWith(".IFCZIP"));
+		MessageDigest messageDigest = zipped ? null : createMessageDigest();
+		LegacyStepChecksum legacyStepChecksum = zipped ? null : new LegacyStepChecksum(createMessageDigest());
+		FileOutputStream fileOutputStream = new FileOutputStream(file);
+		try {
+			this.size = copy(inputStream, fileOutputStream, messageDigest, legacyStepChecksum);
+		} finally {
+			fileOutputStream.close();
+			inputStream.close();
+		}
+		if (zipped) {
+			readZippedChecksums();
+		} else {
+			this.checksum = messageDigest.digest();
+			this.legacyChecksum = legacyStepChecksum.digest();
+		}
+	}
+
+	private void readZippedChecksums() throws IOException {
+		ZipInputStream zipInputStream = new ZipInputStream(new FileInputStream(file));
+		try {
+			ZipEntry entry = zipInputStream.getNextEntry();
+			if (entry == null || !entry.getName().toUpperCase().endsWith(".IFC")) {
+				return;
+			}
+			MessageDigest messageDigest = createMessageDigest();
+			LegacyStepChecksum legacyStepChecksum = new LegacyStepChecksum(createMessageDigest());
+			copy(zipInputStream, null, messageDigest, legacyStepChecksum);
+			if (zipInputStream.getNextEntry() != null) {
+				return;
+			}
+			this.checksum = messageDigest.digest();
+			this.legacyChecksum = legacyStepChecksum.digest();
+		} catch (ZipException e) {
+			return;
+		} finally {
+			zipInputStream.close();
+		}
+	}
+
+	/**
+	 * @return The number of bytes read
+	 */
+	private long copy(InputStream inputStream, FileOutputStream fileOutputStream, MessageDigest messageDigest, LegacyStepChecksum legacyStepChecksum) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		byte[] checksumBuffer = new byte[BUFFER_SIZE];
+		long size = 0;
+		int read = inputStream.read(buffer);
+		while (read != -1) {
+			if (fileOutputStream != null) {
+				fileOutputStream.write(buffer, 0, read);
+			}
+			if (messageDigest != null) {
+				int length = 0;
+				for (int i = 0; i < read; i++) {
+					byte b = buffer[i];
+					if (b != '\n' && b != '\r') {
+						checksumBuffer[length++] = b;
+					}
+				}
+				messageDigest.update(checksumBuffer, 0, length);
+			}
+			if (legacyStepChecksum != null) {
+				legacyStepChecksum.update(buffer, 0, read);
+			}
+			size += read;
+			read = inputStream.read(buffer);
+		}
+		return size;
+	}
+
+	private MessageDigest createMessageDigest() throws IOException {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return The checksum, only available after spool, null for a zip that does not contain exactly one IFC file
+	 */
+	public byte[] getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * @return The checksum the line based deserializers calculated, null when getChecksum is null
+	 */
+	public byte[] getLegacyChecksum() {
+		return legacyChecksum;
+	}
+
+	public long getSize() {
+		return size;
+	}
+}
@@ -0,0 +1,645 @@
+package org.bimserver;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.emf.BimServerEStore;
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IdEObjectImpl;
+import org.eclipse.emf.common.util.BasicEList;
+import org.eclipse.emf.common.util.ECollections;
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.common.util.Enumerator;
+import org.eclipse.emf.common.util.UniqueEList;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EEnum;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.InternalEObject;
+
+import com.google.common.base.Charsets;
+
+/**
+ * EStore that keeps the values of an object in an array in the object itself
+ * (see IdEObjectImpl.getStoreValues), indexed by feature id. Single valued
+ * double and int attributes are kept in primitive arrays and lists are only
+ * created when something is added to them. Compared to ServerEStore there is
+ * no map entry, key object or boxed number per value and no hashing on every
+ * access.
+ *
+ * isSet gives the same answers as ServerEStore: reading a list feature sets
+ * it (ServerEStore creates the list on any access), a list that has been read
+ * but not changed is kept as EMPTY_LIST.
+ *
+ * The array of an object has one slot per feature, followed by the double[]
+ * and the int[] when the class has such attributes. A slot is null when the
+ * feature is not set, NULL when it has been set to null, EMPTY_LIST for a list
+ * that has only been read and PRIMITIVE when the value is in one of the
+ * primitive arrays.
+ *
+ * With a spill heap budget, the arrays of cold objects are moved to scratch
+ * files by an ObjectSpill. The array of a spilled object is null until it is
+ * used again, getValues reads it back. EMF does not keep a second copy of
+ * the values in the object, see IdEObjectImpl.eIsCaching.
+ */
+public class CompactServerEStore implements BimServerEStore {
+	private static final Object NULL = new Object();
+	private static final Object PRIMITIVE = new Object();
+	private static final Object EMPTY_LIST = new Object();
+	private static final Map<EClass, Layout> LAYOUTS = new ConcurrentHashMap<EClass, Layout>();
+	// Tags of the values of spilled objects
+	private static final byte UNSET_VALUE = 0;
+	private static final byte NULL_VALUE = 1;
+	private static final byte PRIMITIVE_VALUE = 2;
+	private static final byte STRING_VALUE = 3;
+	private static final byte DOUBLE_VALUE = 4;
+	private static final byte FLOAT_VALUE = 5;
+	private static final byte INT_VALUE = 6;
+	private static final byte LONG_VALUE = 7;
+	private static final byte SHORT_VALUE = 8;
+	private static final byte BOOLEAN_VALUE = 9;
+	private static final byte BYTES_VALUE = 10;
+	private static final byte DATE_VALUE = 11;
+	private static final byte ENUM_VALUE = 12;
+	private static final byte REFERENCE_VALUE = 13;
+	private static final byte WRAPPED_VALUE = 14;
+	private static final byte LIST_VALUE = 15;
+	private static final byte EMPTY_LIST_VALUE = 16;
+	private final DatabaseSession databaseSession;
+	private final ObjectSpill objectSpill;
+
+	public CompactServerEStore(DatabaseSession databaseSession) {
+		this(databaseSession, null, 0);
+	}
+
+	/**
+	 * @param spillHeapBudget Estimated size in bytes of the values of objects
+	 *            read from the database that is kept on the heap, 0 to never
+	 *            spill
+	 */
+	public CompactServerEStore(DatabaseSession databaseSession, File spillDirectory, long spillHeapBudget) {
+		this.databaseSession = databaseSession;
+		this.objectSpill = spillHeapBudget > 0 ? new ObjectSpill(this, spillDirectory, spillHeapBudget) : null;
+	}
+
+	/**
+	 * @return The spill of this store, or null when spilling is disabled
+	 */
+	public ObjectSpill getObjectSpill() {
+		return objectSpill;
+	}
+
+	@Override
+	public void load(IdEObject idEObject) {
+		databaseSession.load(idEObject);
+	}
+
+	@Override
+	public void remove(IdEObject object) {
+	}
+
+	private static Layout getLayout(EClass eClass) {
+		Layout layout = LAYOUTS.get(eClass);
+		if (layout == null) {
+			layout = new Layout(eClass);
+			LAYOUTS.put(eClass, layout);
+		}
+		return layout;
+	}
+
+	private static int getFeatureID(InternalEObject eObject, EStructuralFeature feature) {
+		return eObject.eClass().getFeatureID(feature);
+	}
+
+	private Object[] getValues(InternalEObject eObject) {
+		((IdEObject) eObject).load();
+		if (objectSpill != null) {
+			// Reading the array and reading it back happen under the lock of the spill, so it can not be spilled in between
+			return objectSpill.getValues((IdEObjectImpl) eObject);
+		}
+		return ((IdEObjectImpl) eObject).getStoreValues();
+	}
+
+	private Object[] getOrCreateValues(InternalEObject eObject) {
+		Object[] values = getValues(eObject);
+		if (values == null) {
+			values = getLayout(eObject.eClass()).createValues();
+			((IdEObjectImpl) eObject).setStoreValues(values);
+		}
+		return values;
+	}
+
+	/**
+	 * @return The list, or an empty list that can not be changed when nothing
+	 *         has been added yet, in which case the feature is marked as set
+	 */
+	@SuppressWarnings("unchecked")
+	private EList<Object> getList(InternalEObject eObject, EStructuralFeature feature) {
+		Object[] values = getOrCreateValues(eObject);
+		int featureID = getFeatureID(eObject, feature);
+		Object list = values[featureID];
+		if (list instanceof EList) {
+			return (EList<Object>) list;
+		}
+		values[featureID] = EMPTY_LIST;
+		return ECollections.emptyEList();
+	}
+
+	@SuppressWarnings("unchecked")
+	private EList<Object> getOrCreateList(InternalEObject eObject, EStructuralFeature feature) {
+		Object[] values = getOrCreateValues(eObject);
+		int featureID = getFeatureID(eObject, feature);
+		Object value = values[featureID];
+		if (value instanceof EList) {
+			return (EList<Object>) value;
+		}
+		EList<Object> list;
+		if (feature.isUnique()) {
+			list = new UniqueEList<Object>();
+		} else {
+			list = new BasicEList<Object>();
+		}
+		values[featureID] = list;
+		return list;
+	}
+
+	@Override
+	public Object get(InternalEObject eObject, EStructuralFeature feature, int index) {
+		if (index == NO_INDEX) {
+			Object[] values = getValues(eObject);
+			if (values == null) {
+				return null;
+			}
+			Object value = getLayout(eObject.eClass()).get(values, getFeatureID(eObject, feature));
+			if (value == EMPTY_LIST) {
+				return getOrCreateList(eObject, feature);
+			}
+			return value;
+		} else {
+			return getList(eObject, feature).get(index);
+		}
+	}
+
+	@Override
+	public Object set(InternalEObject eObject, EStructuralFeature feature, int index, Object value) {
+		if (index == NO_INDEX) {
+			Object[] values = getOrCreateValues(eObject);
+			Layout layout = getLayout(eObject.eClass());
+			int featureID = getFeatureID(eObject, feature);
+			Object oldValue = layout.get(values, featureID);
+			layout.set(values, featureID, value);
+			return oldValue == EMPTY_LIST ? ECollections.emptyEList() : oldValue;
+		} else {
+			return getOrCreateList(eObject, feature).set(index, value);
+		}
+	}
+
+	@Override
+	public void add(InternalEObject eObject, EStructuralFeature feature, int index, Object value) {
+		try {
+			getOrCreateList(eObject, feature).add(index, value);
+		} catch (Exception e) {
+			// DO NOTHING, same as ServerEStore
+		}
+	}
+
+	@Override
+	public Object remove(InternalEObject eObject, EStructuralFeature feature, int index) {
+		return getOrCreateList(eObject, feature).remove(index);
+	}
+
+	@Override
+	public Object move(InternalEObject eObject, EStructuralFeature feature, int targetIndex, int sourceIndex) {
+		return getOrCreateList(eObject, feature).move(targetIndex, sourceIndex);
+	}
+
+	@Override
+	public void clear(InternalEObject eObject, EStructuralFeature feature) {
+		unset(eObject, feature);
+	}
+
+	@Override
+	public boolean isSet(InternalEObject eObject, EStructuralFeature feature) {
+		Object[] values = getValues(eObject);
+		return values != null && values[getFeatureID(eObject, feature)] != null;
+	}
+
+	@Override
+	public void unset(InternalEObject eObject, EStructuralFeature feature) {
+		Object[] values = getValues(eObject);
+		if (values != null) {
+			values[getFeatureID(eObject, feature)] = null;
+		}
+	}
+
+	@Override
+	public int size(InternalEObject eObject, EStructuralFeature feature) {
+		return getList(eObject, feature).size();
+	}
+
+	@Override
+	public int indexOf(InternalEObject eObject, EStructuralFeature feature, Object value) {
+		return getList(eObject, feature).indexOf(value);
+	}
+
+	@Override
+	public int lastIndexOf(InternalEObject eObject, EStructuralFeature feature, Object value) {
+		return getList(eObject, feature).lastIndexOf(value);
+	}
+
+	@Override
+	public Object[] toArray(InternalEObject eObject, EStructuralFeature feature) {
+		return getList(eObject, feature).toArray();
+	}
+
+	@Override
+	public <T> T[] toArray(InternalEObject eObject, EStructuralFeature feature, T[] array) {
+		return getList(eObject, feature).toArray(array);
+	}
+
+	@Override
+	public boolean isEmpty(InternalEObject eObject, EStructuralFeature feature) {
+		return getList(eObject, feature).isEmpty();
+	}
+
+	@Override
+	public boolean contains(InternalEObject eObject, EStructuralFeature feature, Object value) {
+		return getList(eObject, feature).contains(value);
+	}
+
+	@Override
+	public int hashCode(InternalEObject eObject, EStructuralFeature feature) {
+		return getList(eObject, feature).hashCode();
+	}
+
+	@Override
+	public InternalEObject getContainer(InternalEObject eObject) {
+		return null;
+	}
+
+	@Override
+	public EStructuralFeature getContainingFeature(InternalEObject eObject) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public EObject create(EClass eClass) {
+		return null;
+	}
+
+	/**
+	 * @return A rough estimate of the heap used by the values of one object
+	 */
+	static long estimateSize(Object[] values) {
+		long size = 16 + 8 * values.length;
+		for (Object value : values) {
+			size += estimateValueSize(value);
+		}
+		return size;
+	}
+
+	private static long estimateValueSize(Object value) {
+		if (value instanceof String) {
+			return 40 + 2 * ((String) value).length();
+		} else if (value instanceof EList) {
+			EList<?> list = (EList<?>) value;
+			long size = 40 + 8 * list.size();
+			for (Object element : list) {
+				if (!(element instanceof IdEObject) || ((IdEObject) element).eClass().getEAnnotation("wrapped") != null) {
+					size += estimateValueSize(element);
+				}
+			}
+			return size;
+		} else if (value instanceof double[]) {
+			return 16 + 8 * ((double[]) value).length;
+		} else if (value instanceof int[]) {
+			return 16 + 4 * ((int[]) value).length;
+		} else if (value instanceof byte[]) {
+			return 16 + ((byte[]) value).length;
+		} else if (value instanceof IdEObject) {
+			if (((IdEObject) value).eClass().getEAnnotation("wrapped") != null) {
+				Object[] values = ((IdEObjectImpl) value).getStoreValues();
+				return 64 + (values == null ? 0 : estimateSize(values));
+			}
+			return 0;
+		} else if (value instanceof Number || value instanceof Date) {
+			return 24;
+		}
+		return 0;
+	}
+
+	/**
+	 * @param references Gets the referenced objects, the bytes have their
+	 *            index in this list
+	 * @return The values of the object as bytes, or null when they can not be
+	 *         spilled (a value of an unknown type, or a wrapped value of
+	 *         another package)
+	 */
+	byte[] encodeValues(IdEObjectImpl object, Object[] values, List<IdEObjectImpl> references) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			if (!writeValues(out, object, object.eClass(), values, references)) {
+				return null;
+			}
+			out.flush();
+		} catch (IOException e) {
+			// Not possible with a ByteArrayOutputStream
+			return null;
+		}
+		return bytes.toByteArray();
+	}
+
+	private boolean writeValues(DataOutputStream out, IdEObjectImpl owner, EClass eClass, Object[] values, List<IdEObjectImpl> references) throws IOException {
+		Layout layout = getLayout(eClass);
+		for (int featureID = 0; featureID < layout.nrFeatures; featureID++) {
+			if (!writeValue(out, owner, eClass.getEStructuralFeature(featureID), values[featureID], references)) {
+				return false;
+			}
+		}
+		if (layout.doublesSlot != -1) {
+			for (double value : (double[]) values[layout.doublesSlot]) {
+				out.writeDouble(value);
+			}
+		}
+		if (layout.intsSlot != -1) {
+			for (int value : (int[]) values[layout.intsSlot]) {
+				out.writeInt(value);
+			}
+		}
+		return true;
+	}
+
+	private boolean writeValue(DataOutputStream out, IdEObjectImpl owner, EStructuralFeature feature, Object value, List<IdEObjectImpl> references) throws IOException {
+		if (value == null) {
+			out.writeByte(UNSET_VALUE);
+		} else if (value == NULL) {
+			out.writeByte(NULL_VALUE);
+		} else if (value == PRIMITIVE) {
+			out.writeByte(PRIMITIVE_VALUE);
+		} else if (value == EMPTY_LIST) {
+			out.writeByte(EMPTY_LIST_VALUE);
+		} else if (value instanceof EList) {
+			EList<?> list = (EList<?>) value;
+			out.writeByte(LIST_VALUE);
+			out.writeInt(list.size());
+			for (Object element : list) {
+				if (!writeValue(out, owner, feature, element, references)) {
+					return false;
+				}
+			}
+		} else if (value instanceof String) {
+			byte[] bytes = ((String) value).getBytes(Charsets.UTF_8);
+			out.writeByte(STRING_VALUE);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		} else if (value instanceof Double) {
+			out.writeByte(DOUBLE_VALUE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof Float) {
+			out.writeByte(FLOAT_VALUE);
+			out.writeFloat((Float) value);
+		} else if (value instanceof Integer) {
+			out.writeByte(INT_VALUE);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Long) {
+			out.writeByte(LONG_VALUE);
+			out.writeLong((Long) value);
+		} else if (value instanceof Short) {
+			out.writeByte(SHORT_VALUE);
+			out.writeShort((Short) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(BOOLEAN_VALUE);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof byte[]) {
+			out.writeByte(BYTES_VALUE);
+			out.writeInt(((byte[]) value).length);
+			out.write((byte[]) value);
+		} else if (value instanceof Date) {
+			out.writeByte(DATE_VALUE);
+			out.writeLong(((Date) value).getTime());
+		} else if (value instanceof Enumerator && feature.getEType() instanceof EEnum) {
+			out.writeByte(ENUM_VALUE);
+			out.writeInt(((Enumerator) value).getValue());
+		} else if (value instanceof IdEObjectImpl) {
+			IdEObjectImpl referenced = (IdEObjectImpl) value;
+			EClass referencedClass = referenced.eClass();
+			if (referencedClass.getEAnnotation("wrapped") != null) {
+				// Wrapped values belong to the object, they are spilled with it
+				Object[] values = referenced.getStoreValues();
+				if (values == null || referencedClass.getEPackage() != owner.eClass().getEPackage()) {
+					return false;
+				}
+				out.writeByte(WRAPPED_VALUE);
+				out.writeUTF(referencedClass.getName());
+				return writeValues(out, owner, referencedClass, values, references);
+			}
+			out.writeByte(REFERENCE_VALUE);
+			out.writeInt(references.size());
+			references.add(referenced);
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	Object[] decodeValues(IdEObjectImpl object, ByteBuffer buffer, IdEObjectImpl[] references) {
+		return readValues(buffer, object, object.eClass(), references);
+	}
+
+	private Object[] readValues(ByteBuffer buffer, IdEObjectImpl owner, EClass eClass, IdEObjectImpl[] references) {
+		Layout layout = getLayout(eClass);
+		Object[] values = layout.createValues();
+		for (int featureID = 0; featureID < layout.nrFeatures; featureID++) {
+			values[featureID] = readValue(buffer, owner, eClass.getEStructuralFeature(featureID), references);
+		}
+		if (layout.doublesSlot != -1) {
+			double[] doubles = (double[]) values[layout.doublesSlot];
+			for (int i = 0; i < doubles.length; i++) {
+				doubles[i] = buffer.getDouble();
+			}
+		}
+		if (layout.intsSlot != -1) {
+			int[] ints = (int[]) values[layout.intsSlot];
+			for (int i = 0; i < ints.length; i++) {
+				ints[i] = buffer.getInt();
+			}
+		}
+		return values;
+	}
+
+	private Object readValue(ByteBuffer buffer, IdEObjectImpl owner, EStructuralFeature feature, IdEObjectImpl[] references) {
+		byte tag = buffer.get();
+		switch (tag) {
+		case UNSET_VALUE:
+			return null;
+		case NULL_VALUE:
+			return NULL;
+		case PRIMITIVE_VALUE:
+			return PRIMITIVE;
+		case EMPTY_LIST_VALUE:
+			return EMPTY_LIST;
+		case LIST_VALUE: {
+			int size = buffer.getInt();
+			BasicEList<Object> list = feature.isUnique() ? new UniqueEList<Object>(size) : new BasicEList<Object>(size);
+			for (int i = 0; i < size; i++) {
+				list.addUnique(readValue(buffer, owner, feature, references));
+			}
+			return list;
+		}
+		case STRING_VALUE: {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			return new String(bytes, Charsets.UTF_8);
+		}
+		case DOUBLE_VALUE:
+			return buffer.getDouble();
+		case FLOAT_VALUE:
+			return buffer.getFloat();
+		case INT_VALUE:
+			return buffer.getInt();
+		case LONG_VALUE:
+			return buffer.getLong();
+		case SHORT_VALUE:
+			return buffer.getShort();
+		case BOOLEAN_VALUE:
+			return buffer.get() != 0;
+		case BYTES_VALUE: {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			return bytes;
+		}
+		case DATE_VALUE:
+			return new Date(buffer.getLong());
+		case ENUM_VALUE:
+			return ((EEnum) feature.getEType()).getEEnumLiteral(buffer.getInt()).getInstance();
+		case REFERENCE_VALUE:
+			return references[buffer.getInt()];
+		case WRAPPED_VALUE: {
+			EClass wrappedClass = (EClass) owner.eClass().getEPackage().getEClassifier(readUTF(buffer));
+			IdEObjectImpl wrapped = (IdEObjectImpl) wrappedClass.getEPackage().getEFactoryInstance().create(wrappedClass);
+			wrapped.eSetStore(this);
+			wrapped.setQueryInterface(owner.getQueryInterface());
+			wrapped.setLoaded();
+			wrapped.setStoreValues(readValues(buffer, owner, wrappedClass, references));
+			return wrapped;
+		}
+		default:
+			throw new IllegalStateException("Unknown tag " + tag + " in spilled values");
+		}
+	}
+
+	private static String readUTF(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		// Modified UTF-8 of DataOutput.writeUTF, the same as UTF-8 for class names
+		return new String(bytes, Charsets.UTF_8);
+	}
+
+	/**
+	 * Where the values of the features of one EClass are stored
+	 */
+	private static class Layout {
+		private static final byte OBJECT = 0;
+		private static final byte DOUBLE = 1;
+		private static final byte INT = 2;
+		private final byte[] types;
+		private final int[] primitiveIndexes;
+		private final int nrFeatures;
+		private final int nrDoubles;
+		private final int nrInts;
+		private final int doublesSlot;
+		private final int intsSlot;
+
+		public Layout(EClass eClass) {
+			nrFeatures = eClass.getFeatureCount();
+			types = new byte[nrFeatures];
+			primitiveIndexes = new int[nrFeatures];
+			int doubles = 0;
+			int ints = 0;
+			for (int featureID = 0; featureID < nrFeatures; featureID++) {
+				EStructuralFeature feature = eClass.getEStructuralFeature(featureID);
+				Class<?> instanceClass = feature instanceof EAttribute && !feature.isMany() ? feature.getEType().getInstanceClass() : null;
+				if (instanceClass == double.class) {
+					types[featureID] = DOUBLE;
+					primitiveIndexes[featureID] = doubles++;
+				} else if (instanceClass == int.class) {
+					types[featureID] = INT;
+					primitiveIndexes[featureID] = ints++;
+				} else {
+					types[featureID] = OBJECT;
+					primitiveIndexes[featureID] = -1;
+				}
+			}
+			nrDoubles = doubles;
+			nrInts = ints;
+			doublesSlot = nrDoubles > 0 ? nrFeatures : -1;
+			intsSlot = nrInts > 0 ? nrFeatures + (nrDoubles > 0 ? 1 : 0) : -1;
+		}
+
+		public Object[] createValues() {
+			Object[] values = new Object[nrFeatures + (doublesSlot == -1 ? 0 : 1) + (intsSlot == -1 ? 0 : 1)];
+			if (doublesSlot != -1) {
+				values[doublesSlot] = new double[nrDoubles];
+			}
+			if (intsSlot != -1) {
+				values[intsSlot] = new int[nrInts];
+			}
+			return values;
+		}
+
+		public Object get(Object[] values, int featureID) {
+			Object value = values[featureID];
+			if (value == NULL) {
+				return null;
+			} else if (value == PRIMITIVE) {
+				if (types[featureID] == DOUBLE) {
+					return ((double[]) values[doublesSlot])[primitiveIndexes[featureID]];
+				} else {
+					return ((int[]) values[intsSlot])[primitiveIndexes[featureID]];
+				}
+			}
+			return value;
+		}
+
+		public void set(Object[] values, int featureID, Object value) {
+			if (value == null) {
+				values[featureID] = NULL;
+			} else if (types[featureID] == DOUBLE) {
+				((double[]) values[doublesSlot])[primitiveIndexes[featureID]] = ((Number) value).doubleValue();
+				values[featureID] = PRIMITIVE;
+			} else if (types[featureID] == INT) {
+				((int[]) values[intsSlot])[primitiveIndexes[featureID]] = ((Number) value).intValue();
+				values[featureID] = PRIMITIVE;
+			} else {
+				values[featureID] = value;
+			}
+		}
+	}
+}
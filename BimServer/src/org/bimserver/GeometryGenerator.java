@@ -21,13 +21,19 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bimserver.database.BimserverDatabaseException;
 import org.bimserver.database.DatabaseSession;
@@ -65,10 +71,24 @@ import org.eclipse.emf.ecore.EStructuralFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Generates the geometry of all products of a model. The model is opened in
+ * one or more render engines (each on its own thread) that take products from
+ * a shared counter, the calling thread creates the objects in the
+ * DatabaseSession (which is not thread safe) as results come in.
+ */
 public class GeometryGenerator {
 	private static final Logger LOGGER = LoggerFactory.getLogger(GeometryGenerator.class);
+	// Every render engine holds the complete model, the pool also limits the number of engines of all concurrent calls
+	private static final int MAX_RENDER_ENGINES = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	private static final int MIN_PRODUCTS_PER_RENDER_ENGINE = 250;
+	private static final int QUEUE_SIZE = 64;
 	private BimServer bimServer;
-	private final Map<Integer, GeometryData> hashes = new HashMap<>();
+	private final Map<HashCode, GeometryData> hashes = new HashMap<>();
 	
 	public GeometryGenerator(BimServer bimServer) {
 		this.bimServer = bimServer;
@@ -99,6 +119,7 @@ public class GeometryGenerator {
 
 			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
 			serializer.writeToOutputStream(outputStream);
+			byte[] data = outputStream.toByteArray();
 
 			User user = (User) databaseSession.get(uoid, Query.getDefault());
 			UserSettings userSettings = user.getUserSettings();
@@ -111,107 +132,45 @@ public class GeometryGenerator {
 				throw new UserException("No (enabled) render engine found of type " + defaultRenderEngine.getPluginDescriptor().getPluginClassName());
 			}
 			try {
-				RenderEngine renderEngine = renderEnginePlugin.createRenderEngine(new PluginConfiguration(), packageMetaData.getSchema().getEPackageName());
-				renderEngine.init();
-				try {
-					RenderEngineModel renderEngineModel = renderEngine.openModel(new ByteArrayInputStream(outputStream.toByteArray()), outputStream.size());
-
-					RenderEngineSettings settings = new RenderEngineSettings();
-					settings.setPrecision(Precision.SINGLE);
-					settings.setIndexFormat(IndexFormat.AUTO_DETECT);
-					settings.setGenerateNormals(true);
-					settings.setGenerateTriangles(true);
-					settings.setGenerateWireFrame(false);
-					renderEngineModel.setSettings(settings);
-					try {
-						renderEngineModel.generateGeneralGeometry();
-
-						EClass productClass = model.getPackageMetaData().getEClass("IfcProduct");
-						List<IdEObject> products = model.getAllWithSubTypes(productClass);
-						
-						EStructuralFeature geometryFeature = productClass.getEStructuralFeature("geometry");
-						for (IdEObject ifcProduct : products) {
-							RenderEngineInstance renderEngineInstance = renderEngineModel.getInstanceFromExpressId(ifcProduct.getExpressId());
-							RenderEngineGeometry geometry = renderEngineInstance.generateGeometry();
-							if (geometry != null && geometry.getNrIndices() > 0) {
-								GeometryInfo geometryInfo = null;
-								if (store) {
-									geometryInfo = databaseSession.create(GeometryPackage.eINSTANCE.getGeometryInfo(), pid, rid);
-								} else {
-									geometryInfo = GeometryFactory.eINSTANCE.createGeometryInfo();
-								}
-
-								geometryInfo.setMinBounds(createVector3f(Float.POSITIVE_INFINITY, databaseSession, store, pid, rid));
-								geometryInfo.setMaxBounds(createVector3f(Float.NEGATIVE_INFINITY, databaseSession, store, pid, rid));
-
-								GeometryData geometryData = null;
-								if (store) {
-									geometryData = databaseSession.create(GeometryPackage.eINSTANCE.getGeometryData(), pid, rid);
-								} else {
-									geometryData = GeometryFactory.eINSTANCE.createGeometryData();
-								}
-
-								geometryData.setIndices(intArrayToByteArray(geometry.getIndices()));
-								geometryData.setVertices(floatArrayToByteArray(geometry.getVertices()));
-								geometryData.setMaterialIndices(intArrayToByteArray(geometry.getMaterialIndices()));
-								geometryData.setNormals(floatArrayToByteArray(geometry.getNormals()));
-
-								if (geometry.getMaterialIndices() != null && geometry.getMaterialIndices().length > 0) {
-									boolean hasMaterial = false;
-									float[] vertex_colors = new float[geometry.getVertices().length / 3 * 4];
-									for (int i = 0; i < geometry.getMaterialIndices().length; ++i) {
-										int c = geometry.getMaterialIndices()[i];
-										for (int j = 0; j < 3; ++j) {
-											int k = geometry.getIndices()[i * 3 + j];
-											if (c > -1) {
-												hasMaterial = true;
-												for (int l = 0; l < 4; ++l) {
-													vertex_colors[4 * k + l] = geometry.getMaterials()[4 * c + l];
-												}
-											}
-										}
-									}
-									if (hasMaterial) {
-										geometryData.setMaterials(floatArrayToByteArray(vertex_colors));
-									}
-								}
-
-								float[] tranformationMatrix = new float[16];
-								if (renderEngineInstance.getTransformationMatrix() != null) {
-									tranformationMatrix = renderEngineInstance.getTransformationMatrix();
-									tranformationMatrix = Matrix.changeOrientation(tranformationMatrix);
-								} else {
-									Matrix.setIdentityM(tranformationMatrix, 0);
-								}
-
-								for (int i=0; i<geometry.getIndices().length; i++) {
-									processExtends(geometryInfo, tranformationMatrix, geometry.getVertices(), geometry.getIndices()[i] * 3);
-								}
+				EClass productClass = model.getPackageMetaData().getEClass("IfcProduct");
+				List<IdEObject> products = model.getAllWithSubTypes(productClass);
+				EStructuralFeature geometryFeature = productClass.getEStructuralFeature("geometry");
+				int[] expressIds = new int[products.size()];
+				for (int i = 0; i < expressIds.length; i++) {
+					expressIds[i] = products.get(i).getExpressId();
+				}
 
-								geometryInfo.setData(geometryData);
-
-								setTransformationMatrix(geometryInfo, tranformationMatrix);
-								if (bimServer.getServerSettingsCache().getServerSettings().isReuseGeometry()) {
-									int hash = hash(geometryData);
-									if (hashes.containsKey(hash)) {
-										databaseSession.removeFromCommit(geometryData);
-										geometryInfo.setData(hashes.get(hash));
-									} else {
-										hashes.put(hash, geometryData);
-									}
-								}
-								
-								ifcProduct.eSet(geometryFeature, geometryInfo);
+				int nrWorkers = Math.min(MAX_RENDER_ENGINES, Math.max(1, products.size() / MIN_PRODUCTS_PER_RENDER_ENGINE));
+				BlockingQueue<GeneratedGeometry> queue = new ArrayBlockingQueue<GeneratedGeometry>(QUEUE_SIZE);
+				AtomicInteger nextProduct = new AtomicInteger();
+				List<Future<Void>> workers = new ArrayList<Future<Void>>();
+				try {
+					for (int i = 0; i < nrWorkers; i++) {
+						workers.add(bimServer.getGeometryExecutor().submit(new GeometryWorker(renderEnginePlugin, packageMetaData.getSchema().getEPackageName(), data, expressIds, nextProduct, queue)));
+					}
+					List<GeneratedGeometry> batch = new ArrayList<GeneratedGeometry>(QUEUE_SIZE);
+					int running = nrWorkers;
+					while (running > 0) {
+						batch.add(queue.take());
+						queue.drainTo(batch);
+						for (GeneratedGeometry generatedGeometry : batch) {
+							if (generatedGeometry.isDone()) {
+								running--;
+								generatedGeometry.rethrow();
+							} else {
+								IdEObject ifcProduct = products.get(generatedGeometry.getProductIndex());
+								ifcProduct.eSet(geometryFeature, createGeometryInfo(generatedGeometry, packageMetaData, databaseSession, store, pid, rid));
 								if (store) {
 									databaseSession.store(ifcProduct, pid, rid);
 								}
 							}
 						}
-					} finally {
-						renderEngineModel.close();
+						batch.clear();
 					}
 				} finally {
-					renderEngine.close();
+					for (Future<Void> worker : workers) {
+						worker.cancel(true);
+					}
 				}
 			} catch (RenderEngineException e) {
 				LOGGER.error("", e);
@@ -221,78 +180,348 @@ public class GeometryGenerator {
 			throw new GeometryGeneratingException(e);
 		}
 	}
-	
-	private int hash(GeometryData geometryData) {
-		int hashCode = 0;
-		if (geometryData.getIndices() != null) {
-			hashCode += Arrays.hashCode(geometryData.getIndices());
+
+	private GeometryInfo createGeometryInfo(GeneratedGeometry generatedGeometry, PackageMetaData packageMetaData, DatabaseSession databaseSession, boolean store, int pid, int rid) throws BimserverDatabaseException {
+		GeometryInfo geometryInfo = null;
+		if (store) {
+			geometryInfo = databaseSession.create(GeometryPackage.eINSTANCE.getGeometryInfo(), pid, rid);
+		} else {
+			geometryInfo = GeometryFactory.eINSTANCE.createGeometryInfo();
 		}
-		if (geometryData.getVertices() != null) {
-			hashCode += Arrays.hashCode(geometryData.getVertices());
+
+		geometryInfo.setMinBounds(createVector3f(generatedGeometry.getMinBounds(), databaseSession, store, pid, rid));
+		geometryInfo.setMaxBounds(createVector3f(generatedGeometry.getMaxBounds(), databaseSession, store, pid, rid));
+
+		geometryInfo.setData(getGeometryData(generatedGeometry, packageMetaData, databaseSession, store, pid, rid));
+		geometryInfo.setTransformation(generatedGeometry.getTransformation());
+		return geometryInfo;
+	}
+
+	/**
+	 * With reuseGeometry enabled this returns GeometryData with the same
+	 * content (by SHA-256) that was created earlier in this run or stored by an
+	 * earlier revision of the project, new GeometryData otherwise
+	 */
+	private GeometryData getGeometryData(GeneratedGeometry generatedGeometry, PackageMetaData packageMetaData, DatabaseSession databaseSession, boolean store, int pid, int rid) throws BimserverDatabaseException {
+		boolean reuseGeometry = bimServer.getServerSettingsCache().getServerSettings().isReuseGeometry();
+		HashCode hash = HashCode.fromBytes(generatedGeometry.getHash());
+		if (reuseGeometry) {
+			GeometryData geometryData = hashes.get(hash);
+			if (geometryData != null) {
+				return geometryData;
+			}
+			if (store) {
+				long oid = databaseSession.getGeometryDataOid(pid, generatedGeometry.getHash());
+				if (oid != -1) {
+					// Null when it has been deleted since
+					geometryData = databaseSession.get(GeometryPackage.eINSTANCE.getGeometryData(), oid, new Query(packageMetaData, pid, rid));
+					if (geometryData != null) {
+						hashes.put(hash, geometryData);
+						return geometryData;
+					}
+				}
+			}
 		}
-		if (geometryData.getNormals() != null) {
-			hashCode += Arrays.hashCode(geometryData.getNormals());
+
+		GeometryData geometryData = null;
+		if (store) {
+			geometryData = databaseSession.create(GeometryPackage.eINSTANCE.getGeometryData(), pid, rid);
+		} else {
+			geometryData = GeometryFactory.eINSTANCE.createGeometryData();
 		}
-		if (geometryData.getMaterialIndices() != null) {
-			hashCode += Arrays.hashCode(geometryData.getMaterialIndices());
+
+		geometryData.setIndices(generatedGeometry.getIndices());
+		geometryData.setVertices(generatedGeometry.getVertices());
+		geometryData.setMaterialIndices(generatedGeometry.getMaterialIndices());
+		geometryData.setNormals(generatedGeometry.getNormals());
+		if (generatedGeometry.getMaterials() != null) {
+			geometryData.setMaterials(generatedGeometry.getMaterials());
 		}
-		if (geometryData.getMaterials() != null) {
-			hashCode += Arrays.hashCode(geometryData.getMaterials());
+
+		if (reuseGeometry) {
+			hashes.put(hash, geometryData);
+			if (store) {
+				databaseSession.storeGeometryDataHash(pid, generatedGeometry.getHash(), geometryData.getOid());
+			}
 		}
-		return hashCode;
+		return geometryData;
+	}
+
+	/**
+	 * @return The threads for the render engines, the BimServer owns them
+	 */
+	public static ExecutorService createExecutor() {
+		return Executors.newFixedThreadPool(MAX_RENDER_ENGINES, new ThreadFactory() {
+			private final AtomicInteger counter = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "GeometryGenerator-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	private static RenderEngineSettings createSettings() {
+		RenderEngineSettings settings = new RenderEngineSettings();
+		settings.setPrecision(Precision.SINGLE);
+		settings.setIndexFormat(IndexFormat.AUTO_DETECT);
+		settings.setGenerateNormals(true);
+		settings.setGenerateTriangles(true);
+		settings.setGenerateWireFrame(false);
+		return settings;
+	}
+
+	/**
+	 * Opens its own render engine on the serialized model and generates the
+	 * geometry of products until there are no products left. Everything that
+	 * does not need the DatabaseSession is done here, the results go to the
+	 * queue, the last element is always a "done" element.
+	 */
+	private static class GeometryWorker implements Callable<Void> {
+		private final RenderEnginePlugin renderEnginePlugin;
+		private final String schema;
+		private final byte[] data;
+		private final int[] expressIds;
+		private final AtomicInteger nextProduct;
+		private final BlockingQueue<GeneratedGeometry> queue;
+
+		public GeometryWorker(RenderEnginePlugin renderEnginePlugin, String schema, byte[] data, int[] expressIds, AtomicInteger nextProduct, BlockingQueue<GeneratedGeometry> queue) {
+			this.renderEnginePlugin = renderEnginePlugin;
+			this.schema = schema;
+			this.data = data;
+			this.expressIds = expressIds;
+			this.nextProduct = nextProduct;
+			this.queue = queue;
+		}
+
+		@Override
+		public Void call() throws InterruptedException {
+			Exception exception = null;
+			try {
+				generate();
+			} catch (InterruptedException e) {
+				throw e;
+			} catch (Exception e) {
+				exception = e;
+			}
+			queue.put(new GeneratedGeometry(exception));
+			return null;
+		}
+
+		private void generate() throws RenderEngineException, InterruptedException {
+			RenderEngine renderEngine = renderEnginePlugin.createRenderEngine(new PluginConfiguration(), schema);
+			renderEngine.init();
+			try {
+				RenderEngineModel renderEngineModel = renderEngine.openModel(new ByteArrayInputStream(data), data.length);
+				try {
+					renderEngineModel.setSettings(createSettings());
+					renderEngineModel.generateGeneralGeometry();
+					int productIndex = nextProduct.getAndIncrement();
+					while (productIndex < expressIds.length) {
+						RenderEngineInstance renderEngineInstance = renderEngineModel.getInstanceFromExpressId(expressIds[productIndex]);
+						RenderEngineGeometry geometry = renderEngineInstance.generateGeometry();
+						if (geometry != null && geometry.getNrIndices() > 0) {
+							queue.put(new GeneratedGeometry(productIndex, geometry, renderEngineInstance.getTransformationMatrix()));
+						}
+						productIndex = nextProduct.getAndIncrement();
+					}
+				} finally {
+					renderEngineModel.close();
+				}
+			} finally {
+				renderEngine.close();
+			}
+		}
+	}
+
+	/**
+	 * The geometry of one product, converted to the form it is stored in
+	 */
+	private static class GeneratedGeometry {
+		private final int productIndex;
+		private final Exception exception;
+		private final boolean done;
+		private byte[] indices;
+		private byte[] vertices;
+		private byte[] normals;
+		private byte[] materialIndices;
+		private byte[] materials;
+		private byte[] transformation;
+		private byte[] hash;
+		private final float[] minBounds = new float[] { Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY };
+		private final float[] maxBounds = new float[] { Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY };
+
+		public GeneratedGeometry(Exception exception) {
+			this.productIndex = -1;
+			this.exception = exception;
+			this.done = true;
+		}
+
+		public GeneratedGeometry(int productIndex, RenderEngineGeometry geometry, float[] transformationMatrix) {
+			this.productIndex = productIndex;
+			this.exception = null;
+			this.done = false;
+			indices = intArrayToByteArray(geometry.getIndices());
+			vertices = floatArrayToByteArray(geometry.getVertices());
+			materialIndices = intArrayToByteArray(geometry.getMaterialIndices());
+			normals = floatArrayToByteArray(geometry.getNormals());
+			materials = createVertexColors(geometry);
+
+			if (transformationMatrix != null) {
+				transformationMatrix = Matrix.changeOrientation(transformationMatrix);
+			} else {
+				transformationMatrix = new float[16];
+				Matrix.setIdentityM(transformationMatrix, 0);
+			}
+			processExtends(minBounds, maxBounds, transformationMatrix, geometry.getVertices(), geometry.getIndices());
+			transformation = createTransformation(transformationMatrix);
+			hash = hash(indices, vertices, normals, materialIndices, materials);
+		}
+
+		public boolean isDone() {
+			return done;
+		}
+
+		public void rethrow() throws RenderEngineException {
+			if (exception instanceof RenderEngineException) {
+				throw (RenderEngineException) exception;
+			} else if (exception != null) {
+				throw new RenderEngineException(exception);
+			}
+		}
+
+		public int getProductIndex() {
+			return productIndex;
+		}
+
+		public byte[] getIndices() {
+			return indices;
+		}
+
+		public byte[] getVertices() {
+			return vertices;
+		}
+
+		public byte[] getNormals() {
+			return normals;
+		}
+
+		public byte[] getMaterialIndices() {
+			return materialIndices;
+		}
+
+		public byte[] getMaterials() {
+			return materials;
+		}
+
+		public byte[] getTransformation() {
+			return transformation;
+		}
+
+		public byte[] getHash() {
+			return hash;
+		}
+
+		public float[] getMinBounds() {
+			return minBounds;
+		}
+
+		public float[] getMaxBounds() {
+			return maxBounds;
+		}
+	}
+
+	/**
+	 * SHA-256 of the arrays, every array is preceded by its length (-1 for
+	 * null) so different splits of the same bytes give different hashes
+	 */
+	private static byte[] hash(byte[]... arrays) {
+		Hasher hasher = Hashing.sha256().newHasher();
+		for (byte[] array : arrays) {
+			if (array == null) {
+				hasher.putInt(-1);
+			} else {
+				hasher.putInt(array.length);
+				hasher.putBytes(array);
+			}
+		}
+		return hasher.hash().asBytes();
 	}
 	
-	private void processExtends(GeometryInfo geometryInfo, float[] transformationMatrix, float[] vertices, int index) {
-		float x = vertices[index];
-		float y = vertices[index + 1];
-		float z = vertices[index + 2];
-		float[] result = new float[4];
-		Matrix.multiplyMV(result, 0, transformationMatrix, 0, new float[]{x, y, z, 1}, 0);
-		x = result[0];
-		y = result[1];
-		z = result[2];
-		geometryInfo.getMinBounds().setX(Math.min(x, geometryInfo.getMinBounds().getX()));
-		geometryInfo.getMinBounds().setY(Math.min(y, geometryInfo.getMinBounds().getY()));
-		geometryInfo.getMinBounds().setZ(Math.min(z, geometryInfo.getMinBounds().getZ()));
-		geometryInfo.getMaxBounds().setX(Math.max(x, geometryInfo.getMaxBounds().getX()));
-		geometryInfo.getMaxBounds().setY(Math.max(y, geometryInfo.getMaxBounds().getY()));
-		geometryInfo.getMaxBounds().setZ(Math.max(z, geometryInfo.getMaxBounds().getZ()));
+	/**
+	 * @return The colors per vertex, or null when no triangle has a material
+	 */
+	private static byte[] createVertexColors(RenderEngineGeometry geometry) {
+		int[] materialIndices = geometry.getMaterialIndices();
+		if (materialIndices == null || materialIndices.length == 0) {
+			return null;
+		}
+		int[] indices = geometry.getIndices();
+		float[] materials = geometry.getMaterials();
+		boolean hasMaterial = false;
+		float[] vertex_colors = new float[geometry.getVertices().length / 3 * 4];
+		for (int i = 0; i < materialIndices.length; ++i) {
+			int c = materialIndices[i];
+			if (c > -1) {
+				hasMaterial = true;
+				for (int j = 0; j < 3; ++j) {
+					System.arraycopy(materials, 4 * c, vertex_colors, 4 * indices[i * 3 + j], 4);
+				}
+			}
+		}
+		return hasMaterial ? floatArrayToByteArray(vertex_colors) : null;
+	}
+	
+	/**
+	 * Extends the bounds with the transformed vertices of all indices, the
+	 * matrix is applied inline (the same as Matrix.multiplyMV with w = 1)
+	 */
+	private static void processExtends(float[] minBounds, float[] maxBounds, float[] m, float[] vertices, int[] indices) {
+		for (int i = 0; i < indices.length; i++) {
+			int index = indices[i] * 3;
+			float vx = vertices[index];
+			float vy = vertices[index + 1];
+			float vz = vertices[index + 2];
+			float x = m[0] * vx + m[4] * vy + m[8] * vz + m[12];
+			float y = m[1] * vx + m[5] * vy + m[9] * vz + m[13];
+			float z = m[2] * vx + m[6] * vy + m[10] * vz + m[14];
+			minBounds[0] = Math.min(x, minBounds[0]);
+			minBounds[1] = Math.min(y, minBounds[1]);
+			minBounds[2] = Math.min(z, minBounds[2]);
+			maxBounds[0] = Math.max(x, maxBounds[0]);
+			maxBounds[1] = Math.max(y, maxBounds[1]);
+			maxBounds[2] = Math.max(z, maxBounds[2]);
+		}
 	}
 	
-	private byte[] floatArrayToByteArray(float[] vertices) {
+	private static byte[] floatArrayToByteArray(float[] vertices) {
 		if (vertices == null) {
 			return null;
 		}
 		ByteBuffer buffer = ByteBuffer.wrap(new byte[vertices.length * 4]);
 		buffer.order(ByteOrder.LITTLE_ENDIAN);
-		FloatBuffer asFloatBuffer = buffer.asFloatBuffer();
-		for (float f : vertices) {
-			asFloatBuffer.put(f);
-		}
+		buffer.asFloatBuffer().put(vertices);
 		return buffer.array();
 	}
 
-	private byte[] intArrayToByteArray(int[] indices) {
+	private static byte[] intArrayToByteArray(int[] indices) {
 		if (indices == null) {
 			return null;
 		}
 		ByteBuffer buffer = ByteBuffer.wrap(new byte[indices.length * 4]);
 		buffer.order(ByteOrder.LITTLE_ENDIAN);
-		IntBuffer asIntBuffer = buffer.asIntBuffer();
-		for (int i : indices) {
-			asIntBuffer.put(i);
-		}
+		buffer.asIntBuffer().put(indices);
 		return buffer.array();
 	}
 
-	private void setTransformationMatrix(GeometryInfo geometryInfo, float[] transformationMatrix) {
+	private static byte[] createTransformation(float[] transformationMatrix) {
 		ByteBuffer byteBuffer = ByteBuffer.allocate(16 * 4);
-		byteBuffer.order(ByteOrder.nativeOrder());
-		FloatBuffer asFloatBuffer = byteBuffer.asFloatBuffer();
-		for (float f : transformationMatrix) {
-			asFloatBuffer.put(f);
-		}
-		geometryInfo.setTransformation(byteBuffer.array());
+		// Little endian like the vertices and indices, the serializers read it that way (was the native order, the same on x86)
+		byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
+		byteBuffer.asFloatBuffer().put(transformationMatrix);
+		return byteBuffer.array();
 	}
 
 	private static boolean almostTheSame(float f1, float f2, float maxDiff) {
@@ -602,16 +831,16 @@ public class GeometryGenerator {
 		}
 	}
 
-	private Vector3f createVector3f(float defaultValue, DatabaseSession session, boolean store, int pid, int rid) throws BimserverDatabaseException {
+	private Vector3f createVector3f(float[] values, DatabaseSession session, boolean store, int pid, int rid) throws BimserverDatabaseException {
 		Vector3f vector3f = null;
 		if (store) {
 			vector3f = (Vector3f) session.create(GeometryPackage.eINSTANCE.getVector3f(), pid, rid);
 		} else {
 			vector3f = GeometryFactory.eINSTANCE.createVector3f();
 		}
-		vector3f.setX(defaultValue);
-		vector3f.setY(defaultValue);
-		vector3f.setZ(defaultValue);
+		vector3f.setX(values[0]);
+		vector3f.setY(values[1]);
+		vector3f.setZ(values[2]);
 		return vector3f;
 	}
 }
\ No newline at end of file
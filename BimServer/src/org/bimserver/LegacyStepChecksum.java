@@ -0,0 +1,130 @@
+package org.bimserver;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.security.MessageDigest;
+
+import com.google.common.base.Charsets;
+
+/**
+ * The checksum the line based IFC STEP deserializers calculated, stored with
+ * the ConcreteRevisions that were checked in before the deserializers parsed
+ * bytes. They read the file line by line and only hashed the first line of
+ * a statement, the lines a statement was continued on were appended to it
+ * without being hashed. Which lines continue a statement depends on the
+ * section of the file, so this follows the same rules.
+ */
+class LegacyStepChecksum {
+	private static enum Mode {
+		HEADER, DATA, FOOTER, DONE
+	}
+
+	private final MessageDigest messageDigest;
+	private Mode mode = Mode.HEADER;
+	private byte[] line = new byte[1024];
+	private int lineLength;
+	private boolean lastWasCarriageReturn;
+	private StringBuilder statement;
+
+	LegacyStepChecksum(MessageDigest messageDigest) {
+		this.messageDigest = messageDigest;
+	}
+
+	/**
+	 * Splits the bytes into lines the way BufferedReader.readLine does
+	 */
+	void update(byte[] buffer, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			byte b = buffer[i];
+			if (b == '\n') {
+				if (!lastWasCarriageReturn) {
+					processLine();
+				}
+				lastWasCarriageReturn = false;
+			} else if (b == '\r') {
+				processLine();
+				lastWasCarriageReturn = true;
+			} else {
+				if (lineLength == line.length) {
+					byte[] newLine = new byte[line.length * 2];
+					System.arraycopy(line, 0, newLine, 0, lineLength);
+					line = newLine;
+				}
+				line[lineLength++] = b;
+				lastWasCarriageReturn = false;
+			}
+		}
+	}
+
+	byte[] digest() {
+		if (lineLength > 0) {
+			processLine();
+		}
+		return messageDigest.digest();
+	}
+
+	private void processLine() {
+		String string = new String(line, 0, lineLength, Charsets.UTF_8);
+		lineLength = 0;
+		if (statement == null) {
+			byte[] bytes = string.getBytes(Charsets.UTF_8);
+			messageDigest.update(bytes, 0, bytes.length);
+			statement = new StringBuilder(string);
+		} else {
+			statement.append(string);
+		}
+		if (isComplete(statement.toString().trim())) {
+			statement = null;
+		}
+	}
+
+	private boolean isComplete(String statement) {
+		switch (mode) {
+		case HEADER:
+			if (statement.length() > 0 && !statement.endsWith(";")) {
+				return false;
+			}
+			if (statement.equals("DATA;")) {
+				mode = Mode.DATA;
+			}
+			break;
+		case DATA:
+			if (statement.equals("ENDSEC;")) {
+				mode = Mode.FOOTER;
+			} else if (statement.length() > 0 && statement.charAt(0) == '#') {
+				while (statement.endsWith("*/")) {
+					int commentStart = statement.lastIndexOf("/*");
+					if (commentStart == -1) {
+						// The deserializers failed on this, there is no checksum to match
+						return true;
+					}
+					statement = statement.substring(0, commentStart).trim();
+				}
+				return statement.endsWith(";");
+			}
+			break;
+		case FOOTER:
+			if (statement.equals("ENDSEC;")) {
+				mode = Mode.DONE;
+			}
+			break;
+		case DONE:
+		}
+		return true;
+	}
+}
@@ -0,0 +1,328 @@
+package org.bimserver;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bimserver.emf.IdEObjectImpl;
+import org.bimserver.emf.IdEObjectImpl.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves the values of cold objects of a CompactServerEStore out of the heap,
+ * into memory-mapped scratch files, when the (estimated) size of the values
+ * on the heap exceeds a budget. The objects themselves stay where they are,
+ * only their value arrays are written out and dropped. The values are read
+ * back the next time the object is used, see getValues.
+ *
+ * Objects are registered when they are read from the database and evicted in
+ * that order, an object that is read back goes to the end of the line again.
+ * Objects that are being loaded stay on the heap. The objects a spilled
+ * object refers to are kept (pinned) with its position in the scratch space,
+ * they are not looked up again when the values are read back.
+ *
+ * The scratch space is divided in segments, each in its own file that is
+ * deleted right after it has been mapped. Values that have been read back
+ * leave dead bytes behind. A segment without live values is reused, a segment
+ * that is mostly dead has its live values moved to the segment that is being
+ * written and is reused after that. close() unmaps all segments.
+ */
+public class ObjectSpill {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ObjectSpill.class);
+	private static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+	// Empty segments that stay mapped to be written again, the others are unmapped
+	private static final int MAX_FREE_SEGMENTS = 2;
+	// The values of objects that were spilled when the spill was closed
+	private static final Object[] RELEASED = new Object[0];
+	private final CompactServerEStore eStore;
+	private final File directory;
+	private final long heapBudget;
+	private final ArrayDeque<IdEObjectImpl> resident = new ArrayDeque<IdEObjectImpl>();
+	private final Map<IdEObjectImpl, Spilled> spilled = new HashMap<IdEObjectImpl, Spilled>();
+	// Segments with (live or dead) values, the last one is being written
+	private final List<Segment> segments = new ArrayList<Segment>();
+	private final ArrayDeque<Segment> freeSegments = new ArrayDeque<Segment>();
+	private long residentSize;
+	private long spilledSize;
+	private boolean closed;
+
+	public ObjectSpill(CompactServerEStore eStore, File directory, long heapBudget) {
+		this.eStore = eStore;
+		this.directory = directory;
+		this.heapBudget = heapBudget;
+	}
+
+	/**
+	 * Called when the values of an object have been read, evicts other objects
+	 * when the budget has been exceeded
+	 */
+	public synchronized void register(IdEObjectImpl object) {
+		Object[] values = object.getStoreValues();
+		if (values == null || closed) {
+			return;
+		}
+		long size = CompactServerEStore.estimateSize(values);
+		residentSize += size;
+		if (residentSize > heapBudget) {
+			evict();
+		}
+		resident.add(object);
+	}
+
+	/**
+	 * @return The values of the object, read back from the scratch space when
+	 *         it has been spilled, or null when the object has no values
+	 */
+	public synchronized Object[] getValues(IdEObjectImpl object) {
+		Object[] values = object.getStoreValues();
+		if (values == RELEASED) {
+			throw new IllegalStateException("The values of " + object.eClass().getName() + " " + object.getOid() + " were spilled, the spill has been closed");
+		}
+		if (values != null) {
+			return values;
+		}
+		Spilled position = spilled.remove(object);
+		if (position == null) {
+			return null;
+		}
+		ByteBuffer buffer = position.segment.buffer.duplicate();
+		buffer.position(position.offset);
+		int length = buffer.getInt();
+		buffer.limit(buffer.position() + length);
+		values = eStore.decodeValues(object, buffer, position.references);
+		object.setStoreValues(values);
+		spilledSize -= length;
+		position.segment.objects.remove(object);
+		position.segment.deadBytes += 4 + length;
+		collect(position.segment);
+		register(object);
+		return values;
+	}
+
+	/**
+	 * @return The number of bytes of mapped scratch space
+	 */
+	public synchronized long getMappedSize() {
+		long size = 0;
+		for (Segment segment : segments) {
+			size += segment.buffer.capacity();
+		}
+		for (Segment segment : freeSegments) {
+			size += segment.buffer.capacity();
+		}
+		return size;
+	}
+
+	/**
+	 * Unmaps the scratch space. Objects that are spilled at this moment can
+	 * not be used anymore, call this when the model of the objects is done
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		for (IdEObjectImpl object : spilled.keySet()) {
+			object.setStoreValues(RELEASED);
+		}
+		spilled.clear();
+		resident.clear();
+		for (Segment segment : segments) {
+			unmap(segment.buffer);
+		}
+		segments.clear();
+		for (Segment segment : freeSegments) {
+			unmap(segment.buffer);
+		}
+		freeSegments.clear();
+		residentSize = 0;
+		spilledSize = 0;
+	}
+
+	/**
+	 * Spills objects in registration order until the resident values fit in
+	 * 3/4 of the budget, so the next objects do not all trigger an eviction
+	 */
+	private void evict() {
+		long target = heapBudget / 4 * 3;
+		int nrSpilled = 0;
+		while (residentSize > target && !resident.isEmpty()) {
+			IdEObjectImpl object = resident.poll();
+			Object[] values = object.getStoreValues();
+			if (values == null) {
+				// Registered twice, already spilled
+				continue;
+			}
+			residentSize -= CompactServerEStore.estimateSize(values);
+			if (object.getLoadingState() != State.LOADED && object.getLoadingState() != State.NO_LAZY_LOADING) {
+				// Being loaded now, will be registered again when done
+				continue;
+			}
+			List<IdEObjectImpl> references = new ArrayList<IdEObjectImpl>();
+			byte[] bytes = eStore.encodeValues(object, values, references);
+			if (bytes == null) {
+				// A value of an unknown type, stays on the heap and is not counted anymore
+				continue;
+			}
+			try {
+				spilled.put(object, write(object, bytes, references.toArray(new IdEObjectImpl[references.size()])));
+			} catch (IOException e) {
+				LOGGER.error("Could not write to scratch space in " + directory, e);
+				return;
+			}
+			spilledSize += bytes.length;
+			object.setStoreValues(null);
+			nrSpilled++;
+		}
+		if (residentSize < 0) {
+			// Estimates of objects that changed after registration
+			residentSize = 0;
+		}
+		LOGGER.debug("Spilled " + nrSpilled + " objects, " + spilled.size() + " objects (" + spilledSize + " bytes) in scratch space");
+	}
+
+	private Spilled write(IdEObjectImpl object, byte[] bytes, IdEObjectImpl[] references) throws IOException {
+		int length = 4 + bytes.length;
+		Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+		if (segment == null || segment.buffer.remaining() < length) {
+			Segment full = segment;
+			if (length <= SEGMENT_SIZE && !freeSegments.isEmpty()) {
+				segment = freeSegments.poll();
+			} else {
+				segment = new Segment(createSegment(Math.max(SEGMENT_SIZE, length)));
+			}
+			segments.add(segment);
+			if (full != null) {
+				collect(full);
+			}
+		}
+		Spilled position = new Spilled(segment, segment.buffer.position(), references);
+		segment.buffer.putInt(bytes.length);
+		segment.buffer.put(bytes);
+		segment.objects.add(object);
+		return position;
+	}
+
+	/**
+	 * Reuses a segment that is not being written when it has no live values
+	 * anymore, moves its live values first when less than a quarter is live
+	 */
+	private void collect(Segment segment) {
+		if (segment == segments.get(segments.size() - 1)) {
+			return;
+		}
+		if (!segment.objects.isEmpty() && segment.deadBytes < segment.buffer.position() / 4 * 3) {
+			return;
+		}
+		for (IdEObjectImpl object : new ArrayList<IdEObjectImpl>(segment.objects)) {
+			Spilled position = spilled.get(object);
+			ByteBuffer buffer = segment.buffer.duplicate();
+			buffer.position(position.offset);
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			try {
+				spilled.put(object, write(object, bytes, position.references));
+			} catch (IOException e) {
+				LOGGER.error("Could not write to scratch space in " + directory, e);
+				return;
+			}
+			segment.objects.remove(object);
+		}
+		segments.remove(segment);
+		if (segment.buffer.capacity() == SEGMENT_SIZE && freeSegments.size() < MAX_FREE_SEGMENTS) {
+			segment.buffer.clear();
+			segment.deadBytes = 0;
+			freeSegments.add(segment);
+		} else {
+			unmap(segment.buffer);
+		}
+	}
+
+	private MappedByteBuffer createSegment(int size) throws IOException {
+		if (!directory.isDirectory()) {
+			directory.mkdirs();
+		}
+		File file = File.createTempFile("spill", ".tmp", directory);
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			return randomAccessFile.getChannel().map(MapMode.READ_WRITE, 0, size);
+		} finally {
+			// The mapping stays valid after the file has been closed (and on most platforms, deleted)
+			randomAccessFile.close();
+			if (!file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+	}
+
+	/**
+	 * Unmaps the segment now, the JDK only does that when the buffer is
+	 * garbage collected. No duplicate of a segment buffer is used outside the
+	 * lock of this spill, so nothing reads the segment afterwards.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (Exception e) {
+			LOGGER.debug("Could not unmap scratch segment, it is unmapped when it is garbage collected", e);
+		}
+	}
+
+	private static class Segment {
+		private final MappedByteBuffer buffer;
+		// Spilled objects with their values in this segment
+		private final Set<IdEObjectImpl> objects = new HashSet<IdEObjectImpl>();
+		// Bytes of values that have been read back
+		private int deadBytes;
+
+		public Segment(MappedByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+	}
+
+	private static class Spilled {
+		private final Segment segment;
+		private final int offset;
+		private final IdEObjectImpl[] references;
+
+		public Spilled(Segment segment, int offset, IdEObjectImpl[] references) {
+			this.segment = segment;
+			this.offset = offset;
+			this.references = references;
+		}
+	}
+}
@@ -44,6 +44,11 @@ public class SummaryMap {
 			}
 		}
 	}
+
+	public SummaryMap(PackageMetaData packageMetaData, Map<EClass, Integer> counts) {
+		this.packageMetaData = packageMetaData;
+		summaryMap.putAll(counts);
+	}
 
 	public SummaryMap(PackageMetaData packageMetaData) {
 		this.packageMetaData = packageMetaData;
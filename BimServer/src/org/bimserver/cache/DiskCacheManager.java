@@ -17,10 +17,23 @@ package org.bimserver.cache;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -31,22 +44,70 @@ import org.bimserver.longaction.DownloadParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Charsets;
+
+/**
+ * Cache of serialized downloads in home/cache, bounded by a size in bytes.
+ * When a new file makes the cache too big, the least recently used files
+ * are removed. Files that are still being written are not counted until
+ * they are done.
+ *
+ * The entries are kept in the file "index" in the cache directory, in the
+ * order of use, one line per entry: id, size, time of last use, number of
+ * hits, roids (? when not known) and file name, separated by tabs. It is
+ * written when entries are added or removed and when the server stops. On
+ * startup files that are not in the index (left by a crash) are removed.
+ * When there is no index (a cache of an older version) it is rebuilt from
+ * the files, see seedIndex.
+ *
+ * Administrators can see the statistics and the entries with the download
+ * servlet (action getfile, type outputfilecache), see getReport.
+ */
 public class DiskCacheManager {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(DiskCacheManager.class);
+	// Suffix of the gzip compressed variant of a cached file, compressed once while caching so downloads don't have to compress it again
+	public static final String GZIP_EXTENSION = ".gz";
+	private static final String INDEX_FILE = "index";
+	private static final String TEMP_EXTENSION = ".tmp";
+	// Roids of an entry rebuilt by seedIndex
+	private static final String UNKNOWN_ROIDS = "?";
 	private final File cacheDir;
 	private final BimServer bimServer;
-	private final Set<String> cachedFileNames = new HashSet<String>();
+	private final long maxSizeInBytes;
+	// Access ordered, the first entry is the least recently used
+	private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
 	private final Map<DownloadParameters, DiskCacheOutputStream> busyCaching = new HashMap<DownloadParameters, DiskCacheOutputStream>();
+	private long sizeInBytes;
+	private long hits;
+	private long misses;
+	private long evictions;
 
-	public DiskCacheManager(BimServer bimServer, File cacheDir) {
+	/**
+	 * @param maxSizeInBytes
+	 *            Size of the cached files (including the gzip variants), 0
+	 *            for no limit
+	 */
+	public DiskCacheManager(BimServer bimServer, File cacheDir, long maxSizeInBytes) {
 		this.bimServer = bimServer;
 		this.cacheDir = cacheDir;
+		this.maxSizeInBytes = maxSizeInBytes;
 		if (!cacheDir.exists()) {
 			cacheDir.mkdir();
 		}
-		for (File file : this.cacheDir.listFiles()) {
-			cachedFileNames.add(file.getName());
+		synchronized (entries) {
+			if (readIndex()) {
+				for (File file : this.cacheDir.listFiles()) {
+					String id = file.getName().endsWith(GZIP_EXTENSION) ? file.getName().substring(0, file.getName().length() - GZIP_EXTENSION.length()) : file.getName();
+					if (!file.getName().equals(INDEX_FILE) && !entries.containsKey(id)) {
+						file.delete();
+					}
+				}
+			} else {
+				seedIndex();
+			}
+			evict();
+			writeIndex();
 		}
 	}
 	
@@ -57,8 +118,8 @@ public class DiskCacheManager {
 					return true;
 				}
 			}
-			synchronized (cachedFileNames) {
-				return cachedFileNames.contains(downloadParameters.getId());
+			synchronized (entries) {
+				return entries.containsKey(downloadParameters.getId());
 			}
 		} else {
 			return false;
@@ -84,14 +145,23 @@ public class DiskCacheManager {
 				}
 			}
 			File file = new File(cacheDir, downloadParameters.getId());
-			if (!file.exists()) {
-				LOGGER.error("File " + file.getName() + " not found in cache");
-			} else {
-				LOGGER.info("Reading from cache " + downloadParameters.getFileName());
-				FileInputStreamDataSource fileInputStreamDataSource = new FileInputStreamDataSource(file);
-				fileInputStreamDataSource.setName(downloadParameters.getFileName());
-				return fileInputStreamDataSource;
+			synchronized (entries) {
+				CacheEntry cacheEntry = entries.get(downloadParameters.getId());
+				if (cacheEntry == null || !file.exists()) {
+					LOGGER.error("File " + file.getName() + " not found in cache");
+					return null;
+				}
+				cacheEntry.used();
+				hits++;
 			}
+			LOGGER.info("Reading from cache " + downloadParameters.getFileName());
+			FileInputStreamDataSource fileInputStreamDataSource = new FileInputStreamDataSource(file);
+			fileInputStreamDataSource.setName(downloadParameters.getFileName());
+			File gzipFile = new File(cacheDir, downloadParameters.getId() + GZIP_EXTENSION);
+			if (gzipFile.exists()) {
+				fileInputStreamDataSource.setGzipFile(gzipFile);
+			}
+			return fileInputStreamDataSource;
 		}
 		return null;
 	}
@@ -99,37 +169,339 @@ public class DiskCacheManager {
 	public DiskCacheOutputStream startCaching(DownloadParameters downloadParameters) {
 		try {
 			LOGGER.info("Start caching " + downloadParameters.getFileName());
-			DiskCacheOutputStream out = new DiskCacheOutputStream(this, new File(cacheDir, downloadParameters.getId()), downloadParameters);
+			DiskCacheOutputStream out = new DiskCacheOutputStream(this, new File(cacheDir, downloadParameters.getId()), new File(cacheDir, downloadParameters.getId() + GZIP_EXTENSION), downloadParameters);
 			synchronized (busyCaching) {
 				busyCaching.put(downloadParameters, out);
 			}
+			synchronized (entries) {
+				misses++;
+			}
 			return out;
-		} catch (FileNotFoundException e) {
+		} catch (IOException e) {
 			LOGGER.error("", e);
 		}
 		return null;
 	}
 
-	public synchronized Integer cleanup() {
+	/**
+	 * Removes all cached files
+	 */
+	public Integer cleanup() {
 		int removed = 0;
-		for (File file : cacheDir.listFiles()) {
-			if (file.delete()) {
-				removed++;
+		synchronized (entries) {
+			for (File file : cacheDir.listFiles()) {
+				if (!file.getName().equals(INDEX_FILE) && file.delete()) {
+					removed++;
+				}
 			}
+			entries.clear();
+			sizeInBytes = 0;
+			writeIndex();
 		}
-		cachedFileNames.clear();
 		return removed;
 	}
 
+	/**
+	 * Removes the cached files of the given revisions, for example because the
+	 * project was deleted. Files of which the revisions are not known are
+	 * removed as well.
+	 */
+	public void invalidate(Collection<Long> roids) {
+		synchronized (entries) {
+			Iterator<CacheEntry> iterator = entries.values().iterator();
+			int removed = 0;
+			while (iterator.hasNext()) {
+				CacheEntry cacheEntry = iterator.next();
+				if (cacheEntry.roids == null || !Collections.disjoint(cacheEntry.roids, roids)) {
+					iterator.remove();
+					delete(cacheEntry);
+					removed++;
+				}
+			}
+			if (removed > 0) {
+				LOGGER.info("Removed " + removed + " files from cache");
+				writeIndex();
+			}
+		}
+	}
+
 	public void doneGenerating(DiskCacheOutputStream diskCacheOutputStream) {
+		DownloadParameters downloadParameters = diskCacheOutputStream.getDownloadParameters();
 		synchronized (busyCaching) {
-			LOGGER.info("Done caching " + diskCacheOutputStream.getDownloadParameters().getFileName());
-			busyCaching.remove(diskCacheOutputStream.getDownloadParameters());
-			cachedFileNames.add(diskCacheOutputStream.getDownloadParameters().getId());
+			LOGGER.info("Done caching " + downloadParameters.getFileName());
+			busyCaching.remove(downloadParameters);
+		}
+		synchronized (entries) {
+			CacheEntry cacheEntry = new CacheEntry(downloadParameters.getId(), downloadParameters.getFileName(), downloadParameters.getRoids() == null ? Collections.<Long> emptySet()
+					: new HashSet<Long>(downloadParameters.getRoids()));
+			cacheEntry.size = getSizeOnDisk(cacheEntry.id);
+			cacheEntry.lastUsed = System.currentTimeMillis();
+			CacheEntry replaced = entries.put(cacheEntry.id, cacheEntry);
+			if (replaced != null) {
+				sizeInBytes -= replaced.size;
+			}
+			sizeInBytes += cacheEntry.size;
+			evict();
+			writeIndex();
 		}
 	}
 
 	public void remove(DiskCacheOutputStream diskCacheOutputStream) {
-		cachedFileNames.remove(diskCacheOutputStream.getDownloadParameters().getId());
+		synchronized (busyCaching) {
+			busyCaching.remove(diskCacheOutputStream.getDownloadParameters());
+		}
+		synchronized (entries) {
+			CacheEntry cacheEntry = entries.remove(diskCacheOutputStream.getDownloadParameters().getId());
+			if (cacheEntry != null) {
+				sizeInBytes -= cacheEntry.size;
+				writeIndex();
+			}
+		}
+	}
+
+	/**
+	 * Writes the index, so the times of use are kept
+	 */
+	public void close() {
+		synchronized (entries) {
+			writeIndex();
+		}
+	}
+
+	public long getSizeInBytes() {
+		synchronized (entries) {
+			return sizeInBytes;
+		}
+	}
+
+	public long getMaxSizeInBytes() {
+		return maxSizeInBytes;
+	}
+
+	public int getNrFiles() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long getHits() {
+		synchronized (entries) {
+			return hits;
+		}
+	}
+
+	public long getMisses() {
+		synchronized (entries) {
+			return misses;
+		}
+	}
+
+	public long getEvictions() {
+		synchronized (entries) {
+			return evictions;
+		}
+	}
+
+	/**
+	 * @return The statistics, followed by the entries as they are in the
+	 *         index: least recently used first
+	 */
+	public String getReport() {
+		StringBuilder report = new StringBuilder();
+		synchronized (entries) {
+			report.append("Size (bytes)\t").append(sizeInBytes).append("\n");
+			report.append("Maximum size (bytes)\t").append(maxSizeInBytes <= 0 ? "unlimited" : Long.toString(maxSizeInBytes)).append("\n");
+			report.append("Files\t").append(entries.size()).append("\n");
+			report.append("Hits\t").append(hits).append("\n");
+			report.append("Misses\t").append(misses).append("\n");
+			report.append("Evictions\t").append(evictions).append("\n");
+			report.append("\nid\tsize\tlast used\thits\troids\tfile name\n");
+			for (CacheEntry cacheEntry : entries.values()) {
+				report.append(toLine(cacheEntry)).append("\n");
+			}
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Removes the least recently used files until the cache fits, the most
+	 * recently used file is always kept
+	 */
+	private void evict() {
+		if (maxSizeInBytes <= 0) {
+			return;
+		}
+		Iterator<CacheEntry> iterator = entries.values().iterator();
+		while (sizeInBytes > maxSizeInBytes && entries.size() > 1) {
+			CacheEntry cacheEntry = iterator.next();
+			iterator.remove();
+			delete(cacheEntry);
+			evictions++;
+			LOGGER.info("Evicted " + cacheEntry.fileName + " from cache (" + cacheEntry.hits + " hits), " + sizeInBytes + " of " + maxSizeInBytes + " bytes used, " + hits + " hits, " + misses + " misses");
+		}
+	}
+
+	private void delete(CacheEntry cacheEntry) {
+		new File(cacheDir, cacheEntry.id).delete();
+		new File(cacheDir, cacheEntry.id + GZIP_EXTENSION).delete();
+		sizeInBytes -= cacheEntry.size;
+	}
+
+	private long getSizeOnDisk(String id) {
+		return new File(cacheDir, id).length() + new File(cacheDir, id + GZIP_EXTENSION).length();
+	}
+
+	/**
+	 * Without an index the files in the directory are kept. Their size is
+	 * known and the time they were last modified is used as the time of last
+	 * use. The revisions and names of the downloads are not known, so these
+	 * entries are removed by any invalidate, they could belong to the
+	 * invalidated revisions. A file that still has a
+	 * temporary gzip variant was being written when the server stopped, it is
+	 * removed.
+	 */
+	private void seedIndex() {
+		List<File> files = new ArrayList<File>();
+		for (File file : cacheDir.listFiles()) {
+			String name = file.getName();
+			if (name.equals(INDEX_FILE) || name.endsWith(TEMP_EXTENSION) || entries.containsKey(name)) {
+				continue;
+			}
+			if (name.endsWith(GZIP_EXTENSION)) {
+				if (!new File(cacheDir, name.substring(0, name.length() - GZIP_EXTENSION.length())).exists()) {
+					file.delete();
+				}
+			} else if (new File(cacheDir, name + GZIP_EXTENSION + TEMP_EXTENSION).exists()) {
+				file.delete();
+				new File(cacheDir, name + GZIP_EXTENSION).delete();
+			} else {
+				files.add(file);
+			}
+		}
+		for (File file : cacheDir.listFiles()) {
+			if (file.getName().endsWith(TEMP_EXTENSION)) {
+				file.delete();
+			}
+		}
+		Collections.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				return Long.compare(o1.lastModified(), o2.lastModified());
+			}
+		});
+		for (File file : files) {
+			CacheEntry cacheEntry = new CacheEntry(file.getName(), file.getName(), null);
+			cacheEntry.size = getSizeOnDisk(cacheEntry.id);
+			cacheEntry.lastUsed = file.lastModified();
+			entries.put(cacheEntry.id, cacheEntry);
+			sizeInBytes += cacheEntry.size;
+		}
+		if (!files.isEmpty()) {
+			LOGGER.info("Rebuilt cache index from " + files.size() + " files");
+		}
+	}
+
+	/**
+	 * @return false when there is no (valid) index
+	 */
+	private boolean readIndex() {
+		File indexFile = new File(cacheDir, INDEX_FILE);
+		if (!indexFile.exists()) {
+			return false;
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), Charsets.UTF_8));
+			try {
+				String line = reader.readLine();
+				while (line != null) {
+					String[] fields = line.split("\t", 6);
+					if (fields.length == 6 && new File(cacheDir, fields[0]).exists()) {
+						Set<Long> roids = null;
+						if (!fields[4].equals(UNKNOWN_ROIDS)) {
+							roids = new HashSet<Long>();
+							for (String roid : fields[4].split(",")) {
+								if (!roid.isEmpty()) {
+									roids.add(Long.parseLong(roid));
+								}
+							}
+						}
+						CacheEntry cacheEntry = new CacheEntry(fields[0], fields[5], roids);
+						cacheEntry.size = getSizeOnDisk(cacheEntry.id);
+						cacheEntry.lastUsed = Long.parseLong(fields[2]);
+						cacheEntry.hits = Long.parseLong(fields[3]);
+						entries.put(cacheEntry.id, cacheEntry);
+						sizeInBytes += cacheEntry.size;
+					}
+					line = reader.readLine();
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException | NumberFormatException e) {
+			// The files that are not in the index are added by seedIndex
+			LOGGER.error("Invalid cache index " + indexFile.getAbsolutePath(), e);
+			return false;
+		}
+		return true;
+	}
+
+	private void writeIndex() {
+		File indexFile = new File(cacheDir, INDEX_FILE);
+		File tempFile = new File(cacheDir, INDEX_FILE + TEMP_EXTENSION);
+		try {
+			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), Charsets.UTF_8));
+			try {
+				for (CacheEntry cacheEntry : entries.values()) {
+					writer.write(toLine(cacheEntry));
+					writer.newLine();
+				}
+			} finally {
+				writer.close();
+			}
+			if (!tempFile.renameTo(indexFile)) {
+				indexFile.delete();
+				if (!tempFile.renameTo(indexFile)) {
+					LOGGER.error("Could not write cache index " + indexFile.getAbsolutePath());
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.error("", e);
+		}
+	}
+
+	private String toLine(CacheEntry cacheEntry) {
+		StringBuilder roids = new StringBuilder();
+		if (cacheEntry.roids == null) {
+			roids.append(UNKNOWN_ROIDS);
+		} else {
+			for (Long roid : cacheEntry.roids) {
+				if (roids.length() > 0) {
+					roids.append(",");
+				}
+				roids.append(roid);
+			}
+		}
+		return cacheEntry.id + "\t" + cacheEntry.size + "\t" + cacheEntry.lastUsed + "\t" + cacheEntry.hits + "\t" + roids + "\t" + cacheEntry.fileName.replace('\t', ' ').replace('\n', ' ');
+	}
+
+	private static class CacheEntry {
+		private final String id;
+		private final String fileName;
+		// Null when not known
+		private final Set<Long> roids;
+		private long size;
+		private long lastUsed;
+		private long hits;
+
+		public CacheEntry(String id, String fileName, Set<Long> roids) {
+			this.id = id;
+			this.fileName = fileName == null ? "" : fileName;
+			this.roids = roids;
+		}
+
+		public void used() {
+			lastUsed = System.currentTimeMillis();
+			hits++;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -19,25 +19,55 @@ package org.bimserver.cache;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 import org.bimserver.longaction.DownloadParameters;
 import org.bimserver.plugins.serializers.RemovableFileOutputStream;
 
+/**
+ * Writes the cached file and, next to it, a gzip compressed variant. The
+ * compressed variant is written to a temporary file that is renamed when
+ * the stream is closed, so it is either complete or absent.
+ */
 public class DiskCacheOutputStream extends RemovableFileOutputStream {
 
 	private DiskCacheManager diskCacheManager;
 	private File file;
+	private final File gzipFile;
+	private final File gzipTempFile;
+	private final GZIPOutputStream gzipOutputStream;
 	private final CountDownLatch latch = new CountDownLatch(1);
 	private DownloadParameters downloadParameters;
 
-	public DiskCacheOutputStream(DiskCacheManager diskCacheManager, File file, DownloadParameters downloadParameters) throws FileNotFoundException {
+	public DiskCacheOutputStream(DiskCacheManager diskCacheManager, File file, File gzipFile, DownloadParameters downloadParameters) throws IOException {
 		super(file);
 		this.diskCacheManager = diskCacheManager;
 		this.file = file;
+		this.gzipFile = gzipFile;
+		this.gzipTempFile = new File(gzipFile.getPath() + ".tmp");
+		this.gzipOutputStream = new GZIPOutputStream(new FileOutputStream(gzipTempFile));
 		this.downloadParameters = downloadParameters;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		super.write(b);
+		gzipOutputStream.write(b);
+	}
+
+	@Override
+	public void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		super.write(b, off, len);
+		gzipOutputStream.write(b, off, len);
 	}
 	
 	public DownloadParameters getDownloadParameters() {
@@ -51,6 +81,10 @@ public class DiskCacheOutputStream extends RemovableFileOutputStream {
 	@Override
 	public void close() throws IOException {
 		super.close();
+		gzipOutputStream.close();
+		if (!gzipTempFile.renameTo(gzipFile)) {
+			gzipTempFile.delete();
+		}
 		diskCacheManager.doneGenerating(this);
 		latch.countDown();
 	}
@@ -58,6 +92,13 @@ public class DiskCacheOutputStream extends RemovableFileOutputStream {
 	@Override
 	public void remove() {
 		super.remove();
+		try {
+			gzipOutputStream.close();
+		} catch (IOException e) {
+			// Deleted anyway
+		}
+		gzipTempFile.delete();
+		gzipFile.delete();
 		diskCacheManager.remove(this);
 	}
 
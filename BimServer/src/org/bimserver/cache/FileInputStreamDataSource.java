@@ -30,6 +30,7 @@ public class FileInputStreamDataSource implements DataSource {
 	private final File file;
 	private FileInputStream fileInputStream;
 	private String name;
+	private File gzipFile;
 	
 	public FileInputStreamDataSource(File file) {
 		this.file = file;
@@ -62,4 +63,20 @@ public class FileInputStreamDataSource implements DataSource {
 	public void setName(String name) {
 		this.name = name;
 	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return The same content, gzip compressed, or null when there is no
+	 *         compressed variant
+	 */
+	public File getGzipFile() {
+		return gzipFile;
+	}
+
+	public void setGzipFile(File gzipFile) {
+		this.gzipFile = gzipFile;
+	}
 }
\ No newline at end of file
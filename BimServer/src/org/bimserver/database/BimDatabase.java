@@ -39,4 +39,6 @@ public interface BimDatabase {
 	Registry getRegistry();
 
 	EClass getEClassForOid(long oid);
+
+	CopyOnWriteBases getCopyOnWriteBases();
 }
\ No newline at end of file
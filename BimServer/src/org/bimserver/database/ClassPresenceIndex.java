@@ -0,0 +1,187 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Which class tables have records of a revision, and the range of oids of
+ * those records, so a scan of a whole revision (DatabaseSession.getMap) only
+ * opens cursors on the tables that have something to read, and only on the
+ * part of the table that can contain it.
+ *
+ * Key: pid (4), rid (4), cid (2) -> lowest oid (8), highest oid (8). Deleted
+ * objects count as records. The key pid (4) on its own holds the first rid
+ * (4) of the project that was written with this index, the revisions from
+ * that one on all have their entries. Revisions stored before this index
+ * existed have none and have to be scanned completely.
+ */
+public class ClassPresenceIndex {
+	public static final String CLASS_PRESENCE_TABLE = "INT-ClassPresence";
+	private final KeyValueStore keyValueStore;
+
+	public ClassPresenceIndex(KeyValueStore keyValueStore) {
+		this.keyValueStore = keyValueStore;
+	}
+
+	/**
+	 * Opens the index table, existing databases get it on first start
+	 */
+	public void init() throws BimserverDatabaseException {
+		if (keyValueStore.containsTable(CLASS_PRESENCE_TABLE)) {
+			keyValueStore.openTable(CLASS_PRESENCE_TABLE);
+		} else {
+			keyValueStore.createTable(CLASS_PRESENCE_TABLE, null);
+		}
+	}
+
+	/**
+	 * Adds the entries of one commit to the batch, merged with the entries
+	 * that are already stored for the same revisions
+	 */
+	public void write(Changes changes, WriteBatch writeBatch, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
+		Map<Integer, Integer> firstRids = new HashMap<Integer, Integer>();
+		for (Map.Entry<Long, Map<Short, OidRange>> revision : changes.revisions.entrySet()) {
+			int pid = (int) (revision.getKey() >> 32);
+			int rid = (int) (long) revision.getKey();
+			for (Map.Entry<Short, OidRange> entry : revision.getValue().entrySet()) {
+				byte[] key = ByteBuffer.allocate(10).putInt(pid).putInt(rid).putShort(entry.getKey()).array();
+				OidRange range = entry.getValue();
+				byte[] existing = keyValueStore.get(CLASS_PRESENCE_TABLE, key, databaseSession);
+				if (existing != null) {
+					range.include(readRange(existing));
+				}
+				writeBatch.store(CLASS_PRESENCE_TABLE, key, ByteBuffer.allocate(16).putLong(range.getLowest()).putLong(range.getHighest()).array(), true);
+			}
+			Integer firstRid = firstRids.get(pid);
+			if (firstRid == null || rid < firstRid) {
+				firstRids.put(pid, rid);
+			}
+		}
+		for (Map.Entry<Integer, Integer> entry : firstRids.entrySet()) {
+			byte[] key = ByteBuffer.allocate(4).putInt(entry.getKey()).array();
+			if (keyValueStore.get(CLASS_PRESENCE_TABLE, key, databaseSession) == null) {
+				writeBatch.store(CLASS_PRESENCE_TABLE, key, ByteBuffer.allocate(4).putInt(entry.getValue()).array(), true);
+			}
+		}
+	}
+
+	/**
+	 * @return The oid range of the records per cid in the revisions stopRid
+	 *         to rid of the project, or null when not all of these revisions
+	 *         are indexed
+	 */
+	public Map<Short, OidRange> get(int pid, int rid, int stopRid, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
+		byte[] pidBytes = ByteBuffer.allocate(4).putInt(pid).array();
+		byte[] firstRid = keyValueStore.get(CLASS_PRESENCE_TABLE, pidBytes, databaseSession);
+		// Revisions start at 1
+		int startRid = Math.max(stopRid, 1);
+		if (firstRid == null || ByteBuffer.wrap(firstRid).getInt() > startRid) {
+			return null;
+		}
+		Map<Short, OidRange> result = new HashMap<Short, OidRange>();
+		SearchingRecordIterator recordIterator = keyValueStore.getRecordIterator(CLASS_PRESENCE_TABLE, pidBytes, ByteBuffer.allocate(8).putInt(pid).putInt(startRid).array(), databaseSession);
+		try {
+			Record record = recordIterator.next();
+			while (record != null) {
+				ByteBuffer key = ByteBuffer.wrap(record.getKey());
+				key.getInt();
+				if (key.getInt() > rid) {
+					break;
+				}
+				short cid = key.getShort();
+				OidRange range = result.get(cid);
+				if (range == null) {
+					result.put(cid, readRange(record.getValue()));
+				} else {
+					range.include(readRange(record.getValue()));
+				}
+				record = recordIterator.next();
+			}
+		} finally {
+			recordIterator.close();
+		}
+		return result;
+	}
+
+	private OidRange readRange(byte[] value) {
+		ByteBuffer buffer = ByteBuffer.wrap(value);
+		return new OidRange(buffer.getLong(), buffer.getLong());
+	}
+
+	/**
+	 * The records written by one session, collected until commit
+	 */
+	public static class Changes {
+		// pid (high 32 bits) and rid -> cid -> oids
+		private final Map<Long, Map<Short, OidRange>> revisions = new HashMap<Long, Map<Short, OidRange>>();
+
+		public void add(int pid, int rid, short cid, long oid) {
+			long revision = ((long) pid << 32) | (rid & 0xFFFFFFFFL);
+			Map<Short, OidRange> classes = revisions.get(revision);
+			if (classes == null) {
+				classes = new HashMap<Short, OidRange>();
+				revisions.put(revision, classes);
+			}
+			OidRange range = classes.get(cid);
+			if (range == null) {
+				classes.put(cid, new OidRange(oid, oid));
+			} else {
+				range.include(oid);
+			}
+		}
+
+		public boolean isEmpty() {
+			return revisions.isEmpty();
+		}
+
+		public void clear() {
+			revisions.clear();
+		}
+	}
+
+	public static class OidRange {
+		private long lowest;
+		private long highest;
+
+		public OidRange(long lowest, long highest) {
+			this.lowest = lowest;
+			this.highest = highest;
+		}
+
+		public void include(long oid) {
+			lowest = Math.min(lowest, oid);
+			highest = Math.max(highest, oid);
+		}
+
+		public void include(OidRange range) {
+			lowest = Math.min(lowest, range.lowest);
+			highest = Math.max(highest, range.highest);
+		}
+
+		public long getLowest() {
+			return lowest;
+		}
+
+		public long getHighest() {
+			return highest;
+		}
+	}
+}
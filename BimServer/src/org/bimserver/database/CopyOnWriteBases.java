@@ -0,0 +1,100 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+
+/**
+ * Base layers of copy-on-write branches. A branch made in copy-on-write mode
+ * gets a ConcreteRevision without records of its own, its Revision reads the
+ * ConcreteRevision it was branched from instead. The records of the base are
+ * only copied into the branch when it is changed by a transaction, see
+ * DatabaseSession.copyRecords.
+ *
+ * Key: pid (4), rid (4) of the branch's ConcreteRevision -> pid (4), rid (4),
+ * stop rid (4) of the base.
+ */
+public class CopyOnWriteBases {
+	public static final String COPY_ON_WRITE_BASES_TABLE = "INT-CopyOnWriteBases";
+	private final KeyValueStore keyValueStore;
+
+	public CopyOnWriteBases(KeyValueStore keyValueStore) {
+		this.keyValueStore = keyValueStore;
+	}
+
+	/**
+	 * Opens the table, existing databases get it on first start
+	 */
+	public void init() throws BimserverDatabaseException {
+		if (keyValueStore.containsTable(COPY_ON_WRITE_BASES_TABLE)) {
+			keyValueStore.openTable(COPY_ON_WRITE_BASES_TABLE);
+		} else {
+			keyValueStore.createTable(COPY_ON_WRITE_BASES_TABLE, null);
+		}
+	}
+
+	public void put(int pid, int rid, Base base, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
+		byte[] value = ByteBuffer.allocate(12).putInt(base.getPid()).putInt(base.getRid()).putInt(base.getStopRid()).array();
+		keyValueStore.store(COPY_ON_WRITE_BASES_TABLE, createKey(pid, rid), value, databaseSession);
+	}
+
+	/**
+	 * @return The base of the ConcreteRevision, or null when it has records
+	 *         of its own
+	 */
+	public Base get(int pid, int rid, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
+		byte[] value = keyValueStore.get(COPY_ON_WRITE_BASES_TABLE, createKey(pid, rid), databaseSession);
+		if (value == null) {
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(value);
+		return new Base(buffer.getInt(), buffer.getInt(), buffer.getInt());
+	}
+
+	public void remove(int pid, int rid, DatabaseSession databaseSession) throws BimserverLockConflictException {
+		keyValueStore.delete(COPY_ON_WRITE_BASES_TABLE, createKey(pid, rid), databaseSession);
+	}
+
+	private byte[] createKey(int pid, int rid) {
+		return ByteBuffer.allocate(8).putInt(pid).putInt(rid).array();
+	}
+
+	public static class Base {
+		private final int pid;
+		private final int rid;
+		private final int stopRid;
+
+		public Base(int pid, int rid, int stopRid) {
+			this.pid = pid;
+			this.rid = rid;
+			this.stopRid = stopRid;
+		}
+
+		public int getPid() {
+			return pid;
+		}
+
+		public int getRid() {
+			return rid;
+		}
+
+		public int getStopRid() {
+			return stopRid;
+		}
+	}
+}
@@ -17,6 +17,7 @@ package org.bimserver.database;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.File;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -27,6 +28,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -75,6 +79,17 @@ public class Database implements BimDatabase {
 	private final Map<EClass, AtomicLong> oidCounters = new HashMap<EClass, AtomicLong>();
 	private final AtomicInteger pidCounter = new AtomicInteger(1);
 	private final Registry registry;
+	private final IfcRootIndexes ifcRootIndexes;
+	private final GeometryDataIndex geometryDataIndex;
+	private final CopyOnWriteBases copyOnWriteBases;
+	private final ClassPresenceIndex classPresenceIndex;
+	private final RecordCache recordCache;
+	private final boolean compactEStore;
+	private final long objectSpillHeapBudget;
+	// Threads shared by all sessions, created when first needed and stopped on close
+	private ExecutorService encodingExecutor;
+	private ExecutorService scanExecutor;
+	private final File objectSpillDirectory;
 	private Date created;
 	private final Set<DatabaseSession> sessions = Collections.newSetFromMap(new ConcurrentHashMap<DatabaseSession, Boolean>());
 	private int databaseSchemaVersion;
@@ -101,6 +116,14 @@ public class Database implements BimDatabase {
 			this.emfPackages.put(ePackage.getName(), ePackage);
 		}
 		this.registry = new Registry(keyValueStore);
+		this.ifcRootIndexes = new IfcRootIndexes(keyValueStore);
+		this.geometryDataIndex = new GeometryDataIndex(keyValueStore);
+		this.copyOnWriteBases = new CopyOnWriteBases(keyValueStore);
+		this.classPresenceIndex = new ClassPresenceIndex(keyValueStore);
+		this.recordCache = new RecordCache(bimServer == null ? 0 : bimServer.getConfig().getRecordCacheSize());
+		this.compactEStore = bimServer != null && bimServer.getConfig().isCompactEStore();
+		this.objectSpillHeapBudget = bimServer == null ? 0 : bimServer.getConfig().getObjectSpillHeapBudget();
+		this.objectSpillDirectory = bimServer == null || bimServer.getConfig().getHomeDir() == null ? new File(System.getProperty("java.io.tmpdir")) : new File(bimServer.getConfig().getHomeDir(), "tmp");
 	}
 
 	public int getApplicationSchemaVersion() {
@@ -131,6 +154,10 @@ public class Database implements BimDatabase {
 					registry.save(DATE_CREATED, created, databaseSession);
 				}
 			}
+			ifcRootIndexes.init();
+			geometryDataIndex.init();
+			copyOnWriteBases.init();
+			classPresenceIndex.init();
 			
 			databaseSchemaVersion = registry.readInt(SCHEMA_VERSION, databaseSession, -1);
 			
@@ -307,9 +334,53 @@ public class Database implements BimDatabase {
 	}
 
 	public void close() {
+		synchronized (this) {
+			if (encodingExecutor != null) {
+				encodingExecutor.shutdown();
+			}
+			if (scanExecutor != null) {
+				scanExecutor.shutdown();
+			}
+		}
 		keyValueStore.close();
 	}
 
+	/**
+	 * @return The threads that encode the objects of large commits, see DatabaseSession.commit
+	 */
+	synchronized ExecutorService getEncodingExecutor() {
+		if (encodingExecutor == null) {
+			encodingExecutor = Executors.newFixedThreadPool(DatabaseSession.ENCODING_THREADS, new DaemonThreadFactory("CommitEncoder"));
+		}
+		return encodingExecutor;
+	}
+
+	/**
+	 * @return The threads that read the tables of a revision, see DatabaseSession.getMap
+	 */
+	synchronized ExecutorService getScanExecutor() {
+		if (scanExecutor == null) {
+			scanExecutor = Executors.newFixedThreadPool(DatabaseSession.SCAN_THREADS, new DaemonThreadFactory("TableScanner"));
+		}
+		return scanExecutor;
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final AtomicInteger counter = new AtomicInteger();
+		private final String name;
+
+		public DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
 	public List<String> getAvailableClasses() {
 		return realClasses;
 	}
@@ -340,6 +411,38 @@ public class Database implements BimDatabase {
 		return registry;
 	}
 
+	public IfcRootIndexes getIfcRootIndexes() {
+		return ifcRootIndexes;
+	}
+
+	public GeometryDataIndex getGeometryDataIndex() {
+		return geometryDataIndex;
+	}
+
+	public CopyOnWriteBases getCopyOnWriteBases() {
+		return copyOnWriteBases;
+	}
+
+	public ClassPresenceIndex getClassPresenceIndex() {
+		return classPresenceIndex;
+	}
+
+	public RecordCache getRecordCache() {
+		return recordCache;
+	}
+
+	public boolean isCompactEStore() {
+		return compactEStore;
+	}
+
+	public long getObjectSpillHeapBudget() {
+		return objectSpillHeapBudget;
+	}
+
+	public File getObjectSpillDirectory() {
+		return objectSpillDirectory;
+	}
+
 	public Date getCreated() {
 		return created;
 	}
@@ -20,21 +20,39 @@ package org.bimserver.database;
 import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.Set;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bimserver.CompactServerEStore;
+import org.bimserver.ObjectSpill;
 import org.bimserver.ServerEStore;
 import org.bimserver.database.actions.BimDatabaseAction;
 import org.bimserver.database.berkeley.BimserverConcurrentModificationDatabaseException;
+import org.bimserver.database.ClassPresenceIndex.OidRange;
+import org.bimserver.database.Query.Deep;
+import org.bimserver.database.RecordCache.CachedRecord;
 import org.bimserver.database.query.conditions.Condition;
 import org.bimserver.database.query.conditions.IsOfTypeCondition;
 import org.bimserver.emf.IdEObject;
@@ -45,7 +63,6 @@ import org.bimserver.emf.IfcModelInterfaceException;
 import org.bimserver.emf.LazyLoader;
 import org.bimserver.emf.MetaDataException;
 import org.bimserver.emf.MetaDataManager;
-import org.bimserver.emf.OidProvider;
 import org.bimserver.emf.PackageMetaData;
 import org.bimserver.emf.QueryInterface;
 import org.bimserver.ifc.IfcModel;
@@ -89,11 +106,30 @@ import com.sleepycat.je.LockConflictException;
 import com.sleepycat.je.LockTimeoutException;
 import com.sleepycat.je.TransactionTimeoutException;
 
-public class DatabaseSession implements LazyLoader, OidProvider<Long> {
+public class DatabaseSession implements LazyLoader, DatabaseSessionInterface {
 	public static final int DEFAULT_CONFLICT_RETRIES = 10;
 	private static final boolean DEVELOPER_DEBUG = false;
 	private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseSession.class);
 	private static final EcorePackage ECORE_PACKAGE = EcorePackage.eINSTANCE;
+	private static final byte[] DELETED_VALUE = new byte[] { -1 };
+	private static final long MAX_WRITE_BATCH_SIZE = 64 * 1024 * 1024;
+	// Commits with fewer objects are encoded on the committing thread
+	private static final int PARALLEL_ENCODING_THRESHOLD = 4096;
+	private static final int ENCODING_CHUNK_SIZE = 1024;
+	static final int ENCODING_THREADS = Runtime.getRuntime().availableProcessors();
+	private static final Set<EClass> PREPARED_CLASSES = Collections.newSetFromMap(new ConcurrentHashMap<EClass, Boolean>());
+	// Tables of one revision that are read at the same time by getMap, the records are decoded on the calling thread
+	static final int SCAN_THREADS = Runtime.getRuntime().availableProcessors();
+	// Undecoded records of a parallel scan are passed on in batches of about this size, at most SCAN_BATCHES_PER_TABLE per table are waiting
+	private static final int SCAN_BATCH_SIZE_IN_BYTES = 1024 * 1024;
+	private static final int SCAN_BATCHES_PER_TABLE = 2;
+	private static final List<CachedRecord> END_OF_TABLE = new ArrayList<CachedRecord>(0);
+	private static final ThreadLocal<ByteBuffer> ENCODING_BUFFERS = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(32768);
+		}
+	};
 	private final Database database;
 	private BimTransaction bimTransaction;
 	private final Set<PostCommitAction> postCommitActions = new LinkedHashSet<PostCommitAction>();
@@ -102,7 +138,20 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 	private StackTraceElement[] stackTrace;
 	private final ObjectCache objectCache = new ObjectCache();
 	private int reads;
+	private int recordWrites;
+	// Index entries of records that were written directly, these are written on commit
+	private final WriteBatch recordIndexWrites = new WriteBatch();
+	// pid/rid combinations of all indexed objects and records of this session
+	private final Set<Long> indexedRevisions = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+	// Projects of which IFC data was written, the shared RecordCache entries of these are invalidated on commit
+	private final Set<Integer> modifiedProjects = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+	// Classes and oids per revision of all IFC objects and records of this session, written to the ClassPresenceIndex on commit
+	private final ClassPresenceIndex.Changes classPresence = new ClassPresenceIndex.Changes();
 	private EStore eStore;
+	// Only with a CompactServerEStore and a spill heap budget
+	private final ObjectSpill objectSpill;
+	// Closed by whoever detached it, not by close()
+	private boolean objectSpillDetached;
 
 	private enum SessionState {
 		OPEN, CLOSED
@@ -119,7 +168,14 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 			LOGGER.info("");
 			LOGGER.info("NEW SESSION");
 		}
-		this.eStore = new ServerEStore(this);
+		if (database.isCompactEStore()) {
+			CompactServerEStore compactServerEStore = new CompactServerEStore(this, database.getObjectSpillDirectory(), database.getObjectSpillHeapBudget());
+			this.eStore = compactServerEStore;
+			this.objectSpill = compactServerEStore.getObjectSpill();
+		} else {
+			this.eStore = new ServerEStore(this);
+			this.objectSpill = null;
+		}
 	}
 	
 	public void setOverwriteEnabled(boolean overwriteEnabled) {
@@ -137,6 +193,19 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		objectsToCommit.put(idEObject);
 	}
 
+	/**
+	 * Keeps the object spill of this session open when the session is closed,
+	 * for a model that is used after that (downloads are serialized after
+	 * their session has been closed). The caller closes the spill when it is
+	 * done with the model.
+	 * 
+	 * @return The spill, or null when this session does not spill
+	 */
+	public ObjectSpill detachObjectSpill() {
+		objectSpillDetached = true;
+		return objectSpill;
+	}
+
 	public void close() {
 		state = SessionState.CLOSED;
 		database.unregisterSession(this);
@@ -148,6 +217,9 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 				database.getKeyValueStore().dumpOpenCursors();
 			}
 		}
+		if (objectSpill != null && !objectSpillDetached) {
+			objectSpill.close();
+		}
 		if (DEVELOPER_DEBUG) {
 			LOGGER.info("END SESSION");
 		}
@@ -162,37 +234,50 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 			int current = 0;
 			int writes = 0;
 			ByteBuffer keyBuffer = ByteBuffer.wrap(new byte[16]);
+			// Writes are collected per table and written sorted by key, the batch is flushed when it gets too big
+			WriteBatch writeBatch = new WriteBatch();
 			for (RecordIdentifierPlusType recordIdentifier : objectsToDelete) {
+				modifiedProjects.add(recordIdentifier.getPid());
+				addClassPresence(recordIdentifier.getPid(), recordIdentifier.getRid(), recordIdentifier.getEClass(), recordIdentifier.getOid());
 				fillKeyBuffer(keyBuffer, recordIdentifier);
-				database.getKeyValueStore().storeNoOverwrite(recordIdentifier.getPackageName() + "_" + recordIdentifier.getClassName(), keyBuffer.array(), new byte[] { -1 }, this);
-				writes++;
+				writeBatch.store(recordIdentifier.getEClass(), keyBuffer.array(), DELETED_VALUE, 0, DELETED_VALUE.length, false);
 			}
-			// This buffer is reused for the values, it's position must be reset at the end of the loop, and the convertObjectToByteArray function is responsible for setting the buffer's position to the end of the (used part of the) buffer
-			ByteBuffer reusableBuffer = ByteBuffer.allocate(32768);
 			for (IdEObject object : objectsToCommit) {
-				if (object.getOid() == -1) {
-					throw new BimserverDatabaseException("Cannot store object with oid -1");
-				}
-				fillKeyBuffer(keyBuffer, object);
-				if (DEVELOPER_DEBUG) {
-					LOGGER.info("Write: " + object.eClass().getName() + " " + "pid=" + object.getPid() + " oid=" + object.getOid() + " rid=" + object.getRid());
-				}
-				ByteBuffer valueBuffer = convertObjectToByteArray(object, reusableBuffer);
-				if (object.eClass().getEAnnotation("nolazyload") == null && !overwriteEnabled) {
-					database.getKeyValueStore().storeNoOverwrite(object.eClass().getEPackage().getName() + "_" + object.eClass().getName(), keyBuffer.array(),
-							valueBuffer.array(), 0, valueBuffer.position(), this);
-				} else {
-					database.getKeyValueStore().store(object.eClass().getEPackage().getName() + "_" + object.eClass().getName(), keyBuffer.array(),
-							valueBuffer.array(), 0, valueBuffer.position(), this);
-				}
-				if (progressHandler != null) {
-					progressHandler.progress(++current, objectsToCommit.size());
+				addClassPresence(object.getPid(), object.getRid(), object.eClass(), object.getOid());
+			}
+			if (objectsToCommit.size() >= PARALLEL_ENCODING_THRESHOLD) {
+				writes += encodeInParallel(writeBatch, progressHandler);
+			} else {
+				// This buffer is reused for the values, it's position must be reset at the end of the loop, and the convertObjectToByteArray function is responsible for setting the buffer's position to the end of the (used part of the) buffer
+				ByteBuffer reusableBuffer = ByteBuffer.allocate(32768);
+				for (IdEObject object : objectsToCommit) {
+					if (object.getOid() == -1) {
+						throw new BimserverDatabaseException("Cannot store object with oid -1");
+					}
+					encode(object, keyBuffer, reusableBuffer, writeBatch);
+					if (writeBatch.getSizeInBytes() > MAX_WRITE_BATCH_SIZE) {
+						writes += flush(writeBatch);
+					}
+					if (progressHandler != null) {
+						progressHandler.progress(++current, objectsToCommit.size());
+					}
 				}
-				writes++;
-				reusableBuffer.position(0);
 			}
+			writeBatch.addAll(recordIndexWrites);
+			for (long revision : indexedRevisions) {
+				database.getIfcRootIndexes().markIndexed((int) (revision >> 32), (int) revision, writeBatch);
+			}
+			if (!classPresence.isEmpty()) {
+				database.getClassPresenceIndex().write(classPresence, writeBatch, this);
+			}
+			writes += flush(writeBatch);
 			bimTransaction.commit();
-			database.incrementCommittedWrites(writes);
+			for (Integer pid : modifiedProjects) {
+				if (pid != Database.STORE_PROJECT_ID) {
+					database.getRecordCache().invalidate(pid);
+				}
+			}
+			database.incrementCommittedWrites(writes + recordWrites);
 			close();
 			for (PostCommitAction postCommitAction : postCommitActions) {
 				postCommitAction.execute();
@@ -204,6 +289,175 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		}
 	}
 
+	/**
+	 * Encodes one object and adds it (and any records it writes on the side,
+	 * like IfcGloballyUniqueId) to the batch. The value buffer's position is
+	 * reset afterwards.
+	 */
+	private void encode(IdEObject object, ByteBuffer keyBuffer, ByteBuffer reusableBuffer, WriteBatch writeBatch) throws BimserverDatabaseException {
+		modifiedProjects.add(object.getPid());
+		fillKeyBuffer(keyBuffer, object);
+		if (DEVELOPER_DEBUG) {
+			LOGGER.info("Write: " + object.eClass().getName() + " " + "pid=" + object.getPid() + " oid=" + object.getOid() + " rid=" + object.getRid());
+		}
+		ByteBuffer valueBuffer = convertObjectToByteArray(object, reusableBuffer, writeBatch);
+		boolean overwrite = object.eClass().getEAnnotation("nolazyload") != null || overwriteEnabled;
+		writeBatch.store(object.eClass(), keyBuffer.array(), valueBuffer.array(), 0, valueBuffer.position(), overwrite);
+		reusableBuffer.position(0);
+		if (IfcRootIndexes.isIndexed(object.eClass())) {
+			EClass eClass = object.eClass();
+			Object guid = object.eGet(eClass.getEStructuralFeature("GlobalId"));
+			EStructuralFeature nameFeature = eClass.getEStructuralFeature("Name");
+			Object name = nameFeature == null ? null : object.eGet(nameFeature);
+			index(object.getPid(), object.getRid(), object.getOid(), eClass, guid, name, writeBatch);
+		}
+	}
+
+	private void index(int pid, int rid, long oid, EClass eClass, Object guid, Object name, WriteBatch writeBatch) {
+		database.getIfcRootIndexes().index(pid, rid, oid, database.getCidOfEClass(eClass), guid instanceof String ? (String) guid : null,
+				name instanceof String ? (String) name : null, writeBatch);
+		indexedRevisions.add(((long) pid << 32) | (rid & 0xFFFFFFFFL));
+	}
+
+	private void addClassPresence(int pid, int rid, EClass eClass, long oid) {
+		if (pid != Database.STORE_PROJECT_ID) {
+			classPresence.add(pid, rid, database.getCidOfEClass(eClass), oid);
+		}
+	}
+
+	private int flush(WriteBatch writeBatch) throws BimserverDatabaseException, BimserverLockConflictException {
+		int nrWrites = writeBatch.getNrWrites();
+		database.getKeyValueStore().storeBatch(writeBatch, this);
+		writeBatch.clear();
+		return nrWrites;
+	}
+
+	/**
+	 * Objects are encoded in chunks on the encoding threads, each into its own
+	 * WriteBatch. This (the committing) thread is the only one using the
+	 * transaction, it merges the chunks in order and writes them. The number
+	 * of chunks in flight is limited, so memory use is bounded by the batch
+	 * size.
+	 *
+	 * Lazy loading and the lazily initialized parts of the EMF meta model are
+	 * not thread safe, so all objects are loaded and the classes prepared
+	 * before the first chunk is submitted. The same goes for the lists, the
+	 * EStore of a (non compact) session creates them on first access in a map
+	 * shared by all objects, so they are all created here as well, after
+	 * that the encoding threads only read from the store.
+	 */
+	private int encodeInParallel(WriteBatch writeBatch, ProgressHandler progressHandler) throws BimserverDatabaseException, BimserverLockConflictException {
+		prepareClassesForEncoding();
+		List<List<IdEObject>> chunks = new ArrayList<List<IdEObject>>();
+		List<IdEObject> chunk = new ArrayList<IdEObject>(ENCODING_CHUNK_SIZE);
+		for (IdEObject object : objectsToCommit) {
+			if (object.getOid() == -1) {
+				throw new BimserverDatabaseException("Cannot store object with oid -1");
+			}
+			object.load();
+			for (EStructuralFeature feature : object.eClass().getEAllStructuralFeatures()) {
+				if (feature.isMany()) {
+					((List<?>) object.eGet(feature)).size();
+				}
+			}
+			chunk.add(object);
+			if (chunk.size() == ENCODING_CHUNK_SIZE) {
+				chunks.add(chunk);
+				chunk = new ArrayList<IdEObject>(ENCODING_CHUNK_SIZE);
+			}
+		}
+		if (!chunk.isEmpty()) {
+			chunks.add(chunk);
+		}
+		ExecutorService executor = database.getEncodingExecutor();
+		LinkedList<Future<WriteBatch>> inFlight = new LinkedList<Future<WriteBatch>>();
+		int writes = 0;
+		int current = 0;
+		int nextChunk = 0;
+		try {
+			while (nextChunk < chunks.size() || !inFlight.isEmpty()) {
+				while (nextChunk < chunks.size() && inFlight.size() < ENCODING_THREADS * 2) {
+					inFlight.add(executor.submit(new EncodeChunk(chunks.get(nextChunk++))));
+				}
+				WriteBatch encoded = waitFor(inFlight.removeFirst());
+				current += Math.min(ENCODING_CHUNK_SIZE, objectsToCommit.size() - current);
+				writeBatch.addAll(encoded);
+				if (writeBatch.getSizeInBytes() > MAX_WRITE_BATCH_SIZE) {
+					writes += flush(writeBatch);
+				}
+				if (progressHandler != null) {
+					progressHandler.progress(current, objectsToCommit.size());
+				}
+			}
+		} finally {
+			for (Future<WriteBatch> future : inFlight) {
+				future.cancel(true);
+			}
+		}
+		return writes;
+	}
+
+	private <T> T waitFor(Future<T> future) throws BimserverDatabaseException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BimserverDatabaseException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof BimserverDatabaseException) {
+				throw (BimserverDatabaseException) e.getCause();
+			}
+			throw new BimserverDatabaseException(e.getCause());
+		}
+	}
+
+	private class EncodeChunk implements Callable<WriteBatch> {
+		private final List<IdEObject> objects;
+
+		public EncodeChunk(List<IdEObject> objects) {
+			this.objects = objects;
+		}
+
+		@Override
+		public WriteBatch call() throws BimserverDatabaseException {
+			WriteBatch writeBatch = new WriteBatch();
+			ByteBuffer keyBuffer = ByteBuffer.wrap(new byte[16]);
+			ByteBuffer reusableBuffer = ENCODING_BUFFERS.get();
+			reusableBuffer.position(0);
+			for (IdEObject object : objects) {
+				encode(object, keyBuffer, reusableBuffer, writeBatch);
+			}
+			return writeBatch;
+		}
+	}
+
+	/**
+	 * Initializes the lazily calculated parts of the meta model that
+	 * convertObjectToByteArray uses, so the encoding threads only read them
+	 */
+	private void prepareClassesForEncoding() {
+		for (EClass eClass : database.getClasses()) {
+			if (PREPARED_CLASSES.contains(eClass)) {
+				continue;
+			}
+			eClass.getEAnnotation("nolazyload");
+			if (IfcRootIndexes.isIndexed(eClass)) {
+				eClass.getEStructuralFeature("Name");
+			}
+			if (eClass.getEAnnotation("wrapped") != null) {
+				eClass.getEStructuralFeature("wrappedValue");
+			}
+			for (EStructuralFeature feature : eClass.getEAllStructuralFeatures()) {
+				feature.getEType();
+				feature.getDefaultValue();
+				if (feature instanceof EAttribute) {
+					((EAttribute) feature).getEAttributeType();
+				}
+			}
+			PREPARED_CLASSES.add(eClass);
+		}
+	}
+
 	private void fillKeyBuffer(ByteBuffer buffer, RecordIdentifierPlusType recordIdentifier) {
 		fillKeyBuffer(buffer, recordIdentifier.getPid(), recordIdentifier.getOid(), recordIdentifier.getRid());
 	}
@@ -218,7 +472,11 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 	private IdEObject convertByteArrayToObject(EClass originalQueryClass, EClass eClass, long oid, ByteBuffer buffer, IfcModelInterface model, int rid, QueryInterface query,
 			TodoList todoList) throws BimserverDatabaseException {
 		if (model.contains(oid)) {
-			return model.get(oid);
+			IdEObject idEObject = model.get(oid);
+			if (isProjectedByOtherQuery(idEObject, query)) {
+				return convertByteArrayToObject(idEObject, originalQueryClass, eClass, oid, buffer, model, rid, query, todoList);
+			}
+			return idEObject;
 		}
 		RecordIdentifier recordIdentifier = new RecordIdentifier(query.getPid(), oid, rid);
 		if (objectCache.contains(recordIdentifier.getOid())) {
@@ -267,6 +525,9 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 	private IdEObject convertByteArrayToObject(IdEObject idEObject, EClass originalQueryClass, EClass eClass, long oid, ByteBuffer buffer, IfcModelInterface model, int rid,
 			QueryInterface query, TodoList todoList) throws BimserverDatabaseException {
 		try {
+			// A projected object that is read again is completed, the features its projection decoded are kept
+			QueryInterface projectedBy = idEObject != null && ((IdEObjectImpl) idEObject).getLoadingState() == State.PROJECTED ? ((IdEObjectImpl) idEObject).getQueryInterface() : null;
+			boolean projected = projectedBy == null && query.getLastFeatureToDecode(eClass) != Integer.MAX_VALUE;
 			if (idEObject == null) {
 				idEObject = createInternal(eClass, query);
 
@@ -284,14 +545,21 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 
 			((IdEObjectImpl) idEObject).setLoadingState(State.LOADING);
 
-			objectCache.put(new RecordIdentifier(query.getPid(), oid, rid), idEObject);
+			if (!projected) {
+				objectCache.put(new RecordIdentifier(query.getPid(), oid, rid), idEObject);
+			}
 
 			byte unsettedLength = buffer.get();
 			byte[] unsetted = new byte[unsettedLength];
 			buffer.get(unsetted);
 
+			// Features after the last projected one are not even skipped, every record has its own buffer
+			int lastFeatureToDecode = projected ? query.getLastFeatureToDecode(eClass) : Integer.MAX_VALUE;
 			int fieldCounter = 0;
 			for (EStructuralFeature feature : eClass.getEAllStructuralFeatures()) {
+				if (fieldCounter > lastFeatureToDecode) {
+					break;
+				}
 				boolean isUnsetted = (unsetted[fieldCounter / 8] & (1 << (fieldCounter % 8))) != 0;
 				if (isUnsetted) {
 					if (feature.isUnsettable()) {
@@ -302,7 +570,7 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 						idEObject.eSet(feature, feature.getDefaultValue());
 					}
 				} else {
-					if (!query.shouldFollowReference(originalQueryClass, eClass, feature)) {
+					if (!shouldDecode(originalQueryClass, eClass, feature, query, projectedBy)) {
 						// we have to do some reading to maintain a correct
 						// index
 						fakeRead(buffer, feature);
@@ -430,7 +698,15 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 				}
 				fieldCounter++;
 			}
-			((IdEObjectImpl) idEObject).setLoaded();
+			if (projected) {
+				// Not LOADED, so it is neither cached nor returned as a complete object to other queries
+				((IdEObjectImpl) idEObject).setLoadingState(State.PROJECTED);
+			} else {
+				((IdEObjectImpl) idEObject).setLoaded();
+				if (objectSpill != null && idEObject.getPid() != Database.STORE_PROJECT_ID) {
+					objectSpill.register((IdEObjectImpl) idEObject);
+				}
+			}
 			if (DEVELOPER_DEBUG && idEObject.getRid() > 100000 || idEObject.getRid() < -100000) {
 				LOGGER.debug("Improbable rid " + idEObject.getRid() + " - " + idEObject);
 			}
@@ -442,6 +718,26 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		}
 	}
 
+	/**
+	 * When a projected object is completed (projectedBy is the query that
+	 * decoded it) the features that projection skipped are decoded, all of
+	 * them, also when the given query is projected itself
+	 */
+	private boolean shouldDecode(EClass originalQueryClass, EClass eClass, EStructuralFeature feature, QueryInterface query, QueryInterface projectedBy) {
+		if (projectedBy == null) {
+			return query.shouldFollowReference(originalQueryClass, eClass, feature);
+		}
+		if (projectedBy.shouldFollowReference(originalQueryClass, eClass, feature)) {
+			return false;
+		}
+		return query.getLastFeatureToDecode(eClass) != Integer.MAX_VALUE || query.shouldFollowReference(originalQueryClass, eClass, feature);
+	}
+
+	private boolean isProjectedByOtherQuery(IdEObject idEObject, QueryInterface query) {
+		IdEObjectImpl object = (IdEObjectImpl) idEObject;
+		return object.getLoadingState() == State.PROJECTED && object.getQueryInterface() != query;
+	}
+
 	private boolean useUnsetBit(EStructuralFeature feature, IdEObject object) {
 		// TODO non-unsettable boolean values can also be stored in these bits
 		Object value = object.eGet(feature);
@@ -460,7 +756,11 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		return false;
 	}
 	
-	private ByteBuffer convertObjectToByteArray(IdEObject object, ByteBuffer buffer) throws BimserverDatabaseException {
+	/**
+	 * @param sideWrites Records that have to be written because of this object
+	 *            (wrapped IfcGloballyUniqueId values) are added to this batch
+	 */
+	private ByteBuffer convertObjectToByteArray(IdEObject object, ByteBuffer buffer, WriteBatch sideWrites) throws BimserverDatabaseException {
 		int bufferSize = getExactSize(object);
 		if (bufferSize > buffer.capacity()) {
 			LOGGER.debug("Buffer too small (" + bufferSize + ")");
@@ -492,7 +792,7 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 							} else {
 								IdEObject listObject = (IdEObject) o;
 								if (listObject.eClass().getEAnnotation("wrapped") != null) {
-									writeWrappedValue(object.getPid(), object.getRid(), listObject, buffer);
+									writeWrappedValue(object.getPid(), object.getRid(), listObject, buffer, sideWrites);
 								} else {
 									writeReference(object, listObject, buffer, feature);
 								}
@@ -527,7 +827,7 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 							IdEObject referencedObject = (IdEObject) value;
 							EClass referencedClass = referencedObject.eClass();
 							if (referencedClass.getEAnnotation("wrapped") != null) {
-								writeWrappedValue(object.getPid(), object.getRid(), value, buffer);
+								writeWrappedValue(object.getPid(), object.getRid(), value, buffer, sideWrites);
 							} else {
 								writeReference(object, value, buffer, feature);
 							}
@@ -620,11 +920,21 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 				bimTransaction.rollback();
 				objectCache.clear();
 				objectsToCommit.clear();
+				recordWrites = 0;
+				recordIndexWrites.clear();
+				classPresence.clear();
+				indexedRevisions.clear();
+				modifiedProjects.clear();
 				bimTransaction = database.getKeyValueStore().startTransaction();
 			} catch (BimserverLockConflictException e) {
 				bimTransaction.rollback();
 				objectCache.clear();
 				objectsToCommit.clear();
+				recordWrites = 0;
+				recordIndexWrites.clear();
+				classPresence.clear();
+				indexedRevisions.clear();
+				modifiedProjects.clear();
 				bimTransaction = database.getKeyValueStore().startTransaction();
 				if (DEVELOPER_DEBUG) {
 					LockConflictException lockException = e.getLockException();
@@ -648,6 +958,11 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 				bimTransaction.rollback();
 				objectCache.clear();
 				objectsToCommit.clear();
+				recordWrites = 0;
+				recordIndexWrites.clear();
+				classPresence.clear();
+				indexedRevisions.clear();
+				modifiedProjects.clear();
 				bimTransaction = database.getKeyValueStore().startTransaction();
 			} catch (BimserverDatabaseException e) {
 				throw e;
@@ -781,6 +1096,10 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 				if (model.contains(keyOid) && ((IdEObjectImpl) model.get(keyOid)).getLoadingState() == State.LOADED) {
 					return (T) model.get(keyOid);
 				} else {
+					if (idEObject == null && model.contains(keyOid) && isProjectedByOtherQuery(model.get(keyOid), query)) {
+						// Complete the projected object instead of adding a second one for the same oid
+						idEObject = model.get(keyOid);
+					}
 					if (valueBuffer.capacity() == 1 && valueBuffer.get(0) == -1) {
 						valueBuffer.position(valueBuffer.position() + 1);
 						return null;
@@ -1026,7 +1345,7 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 					return GetResult.CONTINUE_WITH_NEXT_OID;
 				} else {
 					IdEObject object = null;
-					if (model.contains(keyOid)) {
+					if (model.contains(keyOid) && !isProjectedByOtherQuery(model.get(keyOid), query)) {
 						object = model.get(keyOid);
 					} else {
 						if (buffer.capacity() == 1 && buffer.get(0) == -1) {
@@ -1052,8 +1371,31 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 	}
 
 	public void getMap(EClass eClass, IfcModelInterface ifcModel, QueryInterface query, TodoList todoList) throws BimserverDatabaseException {
-		SearchingRecordIterator recordIterator = database.getKeyValueStore().getRecordIterator(eClass.getEPackage().getName() + "_" + eClass.getName(),
-				BinUtils.intToByteArray(query.getPid()), BinUtils.intToByteArray(query.getPid()), this);
+		getMap(eClass, ifcModel, query, todoList, null);
+	}
+
+	/**
+	 * @param oidRange
+	 *            The oids of the records in the revision range of the query
+	 *            (from the ClassPresenceIndex), or null to scan all records of
+	 *            the project
+	 */
+	private void getMap(EClass eClass, IfcModelInterface ifcModel, QueryInterface query, TodoList todoList, OidRange oidRange) throws BimserverDatabaseException {
+		RecordCache recordCache = database.getRecordCache();
+		boolean useRecordCache = useRecordCache(eClass, query);
+		if (useRecordCache) {
+			List<CachedRecord> cachedRecords = recordCache.get(eClass, query.getPid(), query.getRid(), query.getStopRid());
+			if (cachedRecords != null) {
+				checkOpen();
+				replay(eClass, ifcModel, query, todoList, cachedRecords);
+				return;
+			}
+		}
+		// Collects the records in the revision range (the ones getMap actually looks at) for the RecordCache
+		List<CachedRecord> visitedRecords = useRecordCache ? new ArrayList<CachedRecord>() : null;
+		long visitedSize = 0;
+		long generation = recordCache.getGeneration();
+		SearchingRecordIterator recordIterator = getRecordIterator(eClass, query.getPid(), oidRange);
 		checkOpen();
 		try {
 			Record record = recordIterator.next();
@@ -1067,8 +1409,18 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 				int keyPid = keyBuffer.getInt();
 				long keyOid = keyBuffer.getLong();
 				int keyRid = -keyBuffer.getInt();
+				if (oidRange != null && keyOid > oidRange.getHighest()) {
+					break;
+				}
 				ByteBuffer valueBuffer = ByteBuffer.wrap(record.getValue());
 				GetResult map = getMap(eClass, eClass, ifcModel, valueBuffer, keyPid, keyOid, keyRid, query, todoList);
+				if (visitedRecords != null && map != GetResult.CONTINUE_WITH_NEXT_RECORD) {
+					visitedRecords.add(new CachedRecord(keyOid, keyRid, record.getValue()));
+					visitedSize += RecordCache.getSizeInBytes(record.getValue());
+					if (visitedSize > recordCache.getMaxEntrySizeInBytes()) {
+						visitedRecords = null;
+					}
+				}
 				if (map == GetResult.CONTINUE_WITH_NEXT_OID) {
 					nextKeyStart.position(0);
 					nextKeyStart.putInt(query.getPid());
@@ -1081,24 +1433,419 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		} finally {
 			recordIterator.close();
 		}
+		if (visitedRecords != null) {
+			recordCache.put(eClass, query.getPid(), query.getRid(), query.getStopRid(), visitedRecords, generation);
+		}
+	}
+
+	private SearchingRecordIterator getRecordIterator(EClass eClass, int pid, OidRange oidRange) throws BimserverDatabaseException {
+		byte[] pidBytes = BinUtils.intToByteArray(pid);
+		byte[] startSearchingAt = oidRange == null ? pidBytes : createKeyBuffer(pid, oidRange.getLowest()).array();
+		return database.getKeyValueStore().getRecordIterator(eClass.getEPackage().getName() + "_" + eClass.getName(), pidBytes, startSearchingAt, this);
+	}
+
+	/**
+	 * Reads the records a scan in getMap looks at without decoding them: per
+	 * oid the newest one in the revision range of the query (which can mark
+	 * the object as deleted). They are passed to the scan table in batches of
+	 * about SCAN_BATCH_SIZE_IN_BYTES.
+	 *
+	 * @return The records for the RecordCache, null when it is disabled or
+	 *         they do not fit in an entry
+	 */
+	private List<CachedRecord> readRecords(EClass eClass, QueryInterface query, OidRange oidRange, ScanTable scanTable) throws BimserverDatabaseException {
+		RecordCache recordCache = database.getRecordCache();
+		List<CachedRecord> cacheRecords = recordCache.isEnabled() ? new ArrayList<CachedRecord>() : null;
+		long cacheSize = 0;
+		List<CachedRecord> batch = new ArrayList<CachedRecord>();
+		long batchSize = 0;
+		SearchingRecordIterator recordIterator = getRecordIterator(eClass, query.getPid(), oidRange);
+		try {
+			Record record = recordIterator.next();
+			ByteBuffer nextKeyStart = ByteBuffer.allocate(12);
+			while (record != null) {
+				if (Thread.currentThread().isInterrupted()) {
+					throw new BimserverThreadInterruptedException("Thread interrupted");
+				}
+				if (scanTable.isCancelled()) {
+					throw new BimserverThreadInterruptedException("Scan cancelled");
+				}
+				ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+				keyBuffer.getInt();
+				long keyOid = keyBuffer.getLong();
+				int keyRid = -keyBuffer.getInt();
+				if (oidRange != null && keyOid > oidRange.getHighest()) {
+					break;
+				}
+				if (keyRid <= query.getRid() && keyRid >= query.getStopRid()) {
+					CachedRecord cachedRecord = new CachedRecord(keyOid, keyRid, record.getValue());
+					long size = RecordCache.getSizeInBytes(record.getValue());
+					batch.add(cachedRecord);
+					batchSize += size;
+					if (batchSize >= SCAN_BATCH_SIZE_IN_BYTES) {
+						scanTable.put(batch);
+						batch = new ArrayList<CachedRecord>();
+						batchSize = 0;
+					}
+					if (cacheRecords != null) {
+						cacheRecords.add(cachedRecord);
+						cacheSize += size;
+						if (cacheSize > recordCache.getMaxEntrySizeInBytes()) {
+							cacheRecords = null;
+						}
+					}
+					nextKeyStart.position(0);
+					nextKeyStart.putInt(query.getPid());
+					nextKeyStart.putLong(keyOid + 1);
+					record = recordIterator.next(nextKeyStart.array());
+				} else {
+					record = recordIterator.next();
+				}
+			}
+		} finally {
+			recordIterator.close();
+		}
+		if (!batch.isEmpty()) {
+			scanTable.put(batch);
+		}
+		return cacheRecords;
+	}
+
+	/**
+	 * Same as the scan in getMap, but on the records from the RecordCache. Per
+	 * oid these are ordered newest first, the older ones are skipped once one
+	 * has been used.
+	 */
+	private void replay(EClass eClass, IfcModelInterface ifcModel, QueryInterface query, TodoList todoList, List<CachedRecord> cachedRecords) throws BimserverDatabaseException {
+		long skipOid = -1;
+		for (CachedRecord cachedRecord : cachedRecords) {
+			if (Thread.currentThread().isInterrupted()) {
+				throw new BimserverThreadInterruptedException("Thread interrupted");
+			}
+			if (cachedRecord.getOid() == skipOid) {
+				continue;
+			}
+			GetResult map = getMap(eClass, eClass, ifcModel, ByteBuffer.wrap(cachedRecord.getValue()), query.getPid(), cachedRecord.getOid(), cachedRecord.getRid(), query, todoList);
+			if (map == GetResult.CONTINUE_WITH_NEXT_OID) {
+				skipOid = cachedRecord.getOid();
+			}
+		}
+	}
+
+	/**
+	 * Only committed IFC data is shared between sessions, not the store
+	 * project (which is updated in place) and not when this session has
+	 * written something itself
+	 */
+	private boolean useRecordCache(EClass eClass, QueryInterface query) {
+		return database.getRecordCache().isEnabled() && eClass.getEAnnotation("nolazyload") == null && isCommittedIfcData(query);
+	}
+
+	/**
+	 * IFC data this session has not written to, the ClassPresenceIndex is
+	 * complete for it
+	 */
+	private boolean isCommittedIfcData(QueryInterface query) {
+		return query.getPid() != Database.STORE_PROJECT_ID && objectsToCommit.size() == 0 && objectsToDelete.size() == 0 && recordWrites == 0;
 	}
 
 	public void getMap(IfcModelInterface ifcModel, QueryInterface query) throws BimserverDatabaseException {
 		checkOpen();
 		TodoList todoList = new TodoList();
+		boolean committed = isCommittedIfcData(query);
+		// Null when (some of) the revisions were stored before the index existed
+		Map<Short, OidRange> presentClasses = committed ? database.getClassPresenceIndex().get(query.getPid(), query.getRid(), query.getStopRid(), this) : null;
+		List<EClass> eClasses = new ArrayList<EClass>();
 		for (EClass eClass : database.getClasses()) {
-			if (Thread.currentThread().isInterrupted()) {
-				throw new BimserverDatabaseException("Thread interrupted");
-			}
 			if (eClass.getEAnnotation("nolazyload") == null && eClass.getEAnnotation("nodatabase") == null) {
-				if (query.shouldIncludeClass(eClass)) {
-					getMap(eClass, ifcModel, query, todoList);
+				if (query.shouldIncludeClass(eClass) && (presentClasses == null || presentClasses.containsKey(database.getCidOfEClass(eClass)))) {
+					eClasses.add(eClass);
+				}
+			}
+		}
+		if (committed && eClasses.size() > 1) {
+			scanInParallel(eClasses, presentClasses, ifcModel, query, todoList);
+		} else {
+			for (EClass eClass : eClasses) {
+				if (Thread.currentThread().isInterrupted()) {
+					throw new BimserverDatabaseException("Thread interrupted");
 				}
+				getMap(eClass, ifcModel, query, todoList, presentClasses == null ? null : presentClasses.get(database.getCidOfEClass(eClass)));
 			}
 		}
 		processTodoList(ifcModel, todoList, query);
 	}
 
+	/**
+	 * The tables are read on the scan threads, the records that are visible in
+	 * the revision range are passed to this thread in batches. This thread
+	 * decodes them into the model in the order of the classes, the same order
+	 * as a serial scan, the model and the object cache are not thread safe.
+	 * Berkeley transactions can be shared by threads, every table gets its
+	 * own cursor.
+	 *
+	 * The number of tables in flight is limited, and a scan waits when
+	 * SCAN_BATCHES_PER_TABLE of its batches have not been decoded yet. So the
+	 * undecoded records held are bounded by the number of tables in flight
+	 * times a few batches, not by the size of the tables. Only the records of
+	 * a table that fits in a RecordCache entry are kept until the table is
+	 * done, to be put in the cache.
+	 */
+	private void scanInParallel(List<EClass> eClasses, Map<Short, OidRange> presentClasses, IfcModelInterface ifcModel, QueryInterface query, TodoList todoList)
+			throws BimserverDatabaseException {
+		ExecutorService executor = database.getScanExecutor();
+		LinkedList<ScanTable> inFlight = new LinkedList<ScanTable>();
+		AtomicBoolean cancelled = new AtomicBoolean();
+		int nextTable = 0;
+		try {
+			for (EClass eClass : eClasses) {
+				while (nextTable < eClasses.size() && inFlight.size() < SCAN_THREADS * 2) {
+					EClass next = eClasses.get(nextTable++);
+					ScanTable scanTable = new ScanTable(next, query, presentClasses == null ? null : presentClasses.get(database.getCidOfEClass(next)), cancelled);
+					scanTable.start(executor);
+					inFlight.add(scanTable);
+				}
+				ScanTable scanTable = inFlight.removeFirst();
+				List<CachedRecord> batch = scanTable.take();
+				while (batch != null) {
+					checkOpen();
+					reads += batch.size();
+					replay(eClass, ifcModel, query, todoList, batch);
+					batch = scanTable.take();
+				}
+				// Throws what ended the scan of the table, if anything
+				waitFor(scanTable.getFuture());
+			}
+		} finally {
+			// Scans still in flight stop at their next record or batch, they are not interrupted: an interrupt during I/O invalidates the Berkeley environment
+			cancelled.set(true);
+			for (ScanTable scanTable : inFlight) {
+				scanTable.getFuture().cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Reads one table on a scan thread, the batches are taken by the decoding
+	 * thread. After the last batch (also when the scan failed) END_OF_TABLE is
+	 * queued.
+	 */
+	private class ScanTable implements Callable<Void> {
+		private final EClass eClass;
+		private final QueryInterface query;
+		private final OidRange oidRange;
+		private final AtomicBoolean cancelled;
+		private final BlockingQueue<List<CachedRecord>> batches = new ArrayBlockingQueue<List<CachedRecord>>(SCAN_BATCHES_PER_TABLE);
+		private Future<Void> future;
+
+		public ScanTable(EClass eClass, QueryInterface query, OidRange oidRange, AtomicBoolean cancelled) {
+			this.eClass = eClass;
+			this.query = query;
+			this.oidRange = oidRange;
+			this.cancelled = cancelled;
+		}
+
+		public void start(ExecutorService executor) {
+			future = executor.submit(this);
+		}
+
+		public Future<Void> getFuture() {
+			return future;
+		}
+
+		public boolean isCancelled() {
+			return cancelled.get();
+		}
+
+		@Override
+		public Void call() throws BimserverDatabaseException {
+			try {
+				RecordCache recordCache = database.getRecordCache();
+				if (recordCache.isEnabled()) {
+					List<CachedRecord> cachedRecords = recordCache.get(eClass, query.getPid(), query.getRid(), query.getStopRid());
+					if (cachedRecords != null) {
+						// Already held by the cache, so passed as one batch
+						if (!cachedRecords.isEmpty()) {
+							put(cachedRecords);
+						}
+						return null;
+					}
+				}
+				long generation = recordCache.getGeneration();
+				List<CachedRecord> records = readRecords(eClass, query, oidRange, this);
+				if (records != null) {
+					recordCache.put(eClass, query.getPid(), query.getRid(), query.getStopRid(), records, generation);
+				}
+				return null;
+			} finally {
+				end();
+			}
+		}
+
+		/**
+		 * Waits while the queue is full, until the scan is cancelled
+		 */
+		public void put(List<CachedRecord> batch) throws BimserverDatabaseException {
+			try {
+				while (!batches.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+					if (cancelled.get()) {
+						throw new BimserverThreadInterruptedException("Scan cancelled");
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new BimserverThreadInterruptedException("Thread interrupted");
+			}
+		}
+
+		private void end() {
+			try {
+				while (!batches.offer(END_OF_TABLE, 100, TimeUnit.MILLISECONDS)) {
+					if (cancelled.get()) {
+						return;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * @return The next batch, null after the last one
+		 */
+		public List<CachedRecord> take() throws BimserverDatabaseException {
+			try {
+				List<CachedRecord> batch = batches.take();
+				return batch == END_OF_TABLE ? null : batch;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new BimserverThreadInterruptedException("Thread interrupted");
+			}
+		}
+	}
+
+	/**
+	 * Copies the records that are visible in a revision range of one project
+	 * (the ones getMap would read) to a revision of another project, without
+	 * decoding them. References are stored as oids, so the records are valid
+	 * in the other project as they are. The copies are written in the
+	 * transaction of this session, so they can be read (and changed) before
+	 * it is committed.
+	 *
+	 * Objects of nolazyload classes (GeometryData) are not part of the range,
+	 * they are only read through references, and get ignores the stop rid for
+	 * those: reused GeometryData is stored in older revisions. So the records
+	 * that copied objects reference are read (as get reads them) and copied
+	 * as well, whatever revision they were stored in.
+	 *
+	 * @return The number of records copied
+	 */
+	public int copyRecords(PackageMetaData packageMetaData, int sourcePid, int sourceRid, int sourceStopRid, int pid, int rid) throws BimserverDatabaseException {
+		checkOpen();
+		int copied = 0;
+		ByteBuffer nextKeyStart = ByteBuffer.allocate(12);
+		Query query = new Query(packageMetaData, sourcePid, sourceRid, null, Deep.NO, sourceStopRid);
+		Set<Long> referencedOids = new HashSet<Long>();
+		for (EClass eClass : database.getClasses()) {
+			if (eClass.getEAnnotation("nolazyload") != null || eClass.getEAnnotation("nodatabase") != null) {
+				continue;
+			}
+			List<EReference> noLazyLoadReferences = new ArrayList<EReference>();
+			for (EReference eReference : eClass.getEAllReferences()) {
+				if (eReference.getEReferenceType().getEAnnotation("nolazyload") != null) {
+					noLazyLoadReferences.add(eReference);
+				}
+			}
+			IfcModelInterface model = noLazyLoadReferences.isEmpty() ? null : createModel(packageMetaData);
+			String tableName = eClass.getEPackage().getName() + "_" + eClass.getName();
+			SearchingRecordIterator recordIterator = database.getKeyValueStore().getRecordIterator(tableName, BinUtils.intToByteArray(sourcePid), BinUtils.intToByteArray(sourcePid), this);
+			try {
+				Record record = recordIterator.next();
+				while (record != null) {
+					if (Thread.currentThread().isInterrupted()) {
+						throw new BimserverThreadInterruptedException("Thread interrupted");
+					}
+					reads++;
+					ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+					keyBuffer.getInt();
+					long keyOid = keyBuffer.getLong();
+					int keyRid = -keyBuffer.getInt();
+					if (keyRid > sourceRid) {
+						record = recordIterator.next();
+						continue;
+					}
+					// Newest first, only the first record in the range counts (also when it marks a deleted object)
+					byte[] value = record.getValue();
+					if (keyRid >= sourceStopRid && !(value.length == 1 && value[0] == -1)) {
+						database.getKeyValueStore().store(tableName, createKeyBuffer(pid, keyOid, rid).array(), value, this);
+						addClassPresence(pid, rid, eClass, keyOid);
+						copied++;
+						if (model != null) {
+							IdEObject object = convertByteArrayToObject(null, eClass, eClass, keyOid, ByteBuffer.wrap(value), model, keyRid, query, new TodoList());
+							for (EReference eReference : noLazyLoadReferences) {
+								if (eReference.isMany()) {
+									for (Object referenced : (List<?>) object.eGet(eReference)) {
+										referencedOids.add(((IdEObject) referenced).getOid());
+									}
+								} else {
+									IdEObject referenced = (IdEObject) object.eGet(eReference);
+									if (referenced != null) {
+										referencedOids.add(referenced.getOid());
+									}
+								}
+							}
+						}
+					}
+					nextKeyStart.position(0);
+					nextKeyStart.putInt(sourcePid);
+					nextKeyStart.putLong(keyOid + 1);
+					record = recordIterator.next(nextKeyStart.array());
+				}
+			} finally {
+				recordIterator.close();
+			}
+		}
+		for (long oid : referencedOids) {
+			if (copyRecord(sourcePid, sourceRid, oid, pid, rid)) {
+				copied++;
+			}
+		}
+		recordWrites += copied;
+		modifiedProjects.add(pid);
+		return copied;
+	}
+
+	/**
+	 * Copies the newest record of an object up to sourceRid, the one get
+	 * would read
+	 */
+	private boolean copyRecord(int sourcePid, int sourceRid, long oid, int pid, int rid) throws BimserverDatabaseException {
+		EClass eClass = getEClassForOid(oid);
+		String tableName = eClass.getEPackage().getName() + "_" + eClass.getName();
+		SearchingRecordIterator recordIterator = database.getKeyValueStore().getRecordIterator(tableName, createKeyBuffer(sourcePid, oid).array(),
+				createKeyBuffer(sourcePid, oid, sourceRid).array(), this);
+		try {
+			Record record = recordIterator.next();
+			if (record == null) {
+				return false;
+			}
+			reads++;
+			ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+			keyBuffer.getInt();
+			keyBuffer.getLong();
+			int keyRid = -keyBuffer.getInt();
+			byte[] value = record.getValue();
+			if (keyRid > sourceRid || (value.length == 1 && value[0] == -1)) {
+				return false;
+			}
+			database.getKeyValueStore().store(tableName, createKeyBuffer(pid, oid, rid).array(), value, this);
+			addClassPresence(pid, rid, eClass, oid);
+			return true;
+		} finally {
+			recordIterator.close();
+		}
+	}
+
 	public IfcModelInterface getMapWithObjectIdentifiers(Set<ObjectIdentifier> oids, QueryInterface query) throws BimserverDatabaseException {
 		checkOpen();
 		IfcModelInterface model = createModel(query.getPackageMetaData());
@@ -1190,7 +1937,29 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		return query(condition, clazz, query).size();
 	}
 
+	/**
+	 * @return The oid of the GeometryData of project pid with the given content
+	 *         hash, or -1 when there is none (yet)
+	 */
+	public long getGeometryDataOid(int pid, byte[] hash) throws BimserverDatabaseException {
+		reads++;
+		return database.getGeometryDataIndex().getOid(pid, hash, this);
+	}
+
+	/**
+	 * Adds the GeometryData with the given content hash to the index, written
+	 * on commit
+	 */
+	public void storeGeometryDataHash(int pid, byte[] hash, long oid) {
+		database.getGeometryDataIndex().put(pid, hash, oid, recordIndexWrites);
+	}
+
 	public ObjectIdentifier getOidOfGuid(String schema, String guid, int pid, int rid) throws BimserverDatabaseException {
+		IfcRootIndexes ifcRootIndexes = database.getIfcRootIndexes();
+		if (ifcRootIndexes.isIndexed(pid, rid, this)) {
+			reads += 2;
+			return ifcRootIndexes.getOidOfGuid(pid, rid, guid, this);
+		}
 		for (EClass eClass : getMetaDataManager().getEPackage(schema).getAllSubClasses(Ifc2x3tc1Package.eINSTANCE.getIfcRoot())) {
 			RecordIterator recordIterator = database.getKeyValueStore().getRecordIterator(eClass.getEPackage().getName() + "_" + eClass.getName(), BinUtils.intToByteArray(pid),
 					BinUtils.intToByteArray(pid), this);
@@ -1231,6 +2000,12 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 	}
 
 	public Set<ObjectIdentifier> getOidsOfName(String schema, String name, int pid, int rid) throws BimserverDatabaseException, MetaDataException {
+		IfcRootIndexes ifcRootIndexes = database.getIfcRootIndexes();
+		if (ifcRootIndexes.isIndexed(pid, rid, this)) {
+			Set<ObjectIdentifier> result = ifcRootIndexes.getOidsOfName(pid, rid, name, this);
+			reads += 1 + result.size();
+			return result;
+		}
 		Set<ObjectIdentifier> result = new HashSet<ObjectIdentifier>();
 		for (EClass eClass : getMetaDataManager().getEPackage(schema).getAllSubClasses(Ifc2x3tc1Package.eINSTANCE.getIfcRoot())) {
 			RecordIterator recordIterator = database.getKeyValueStore().getRecordIterator(eClass.getEPackage().getName() + "_" + eClass.getName(), BinUtils.intToByteArray(pid),
@@ -1366,6 +2141,90 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		}
 	}
 
+	/**
+	 * Loads the given lazy objects, the same as calling loadExplicit on each
+	 * of them but with one cursor per class that seeks through the table in
+	 * key order, instead of a new cursor and a random read per object. Objects
+	 * that are not lazy, or already loaded, and nulls are skipped.
+	 */
+	public void loadAll(Collection<? extends IdEObject> objects) throws BimserverDatabaseException {
+		checkOpen();
+		Map<EClass, List<IdEObjectImpl>> objectsPerClass = new HashMap<EClass, List<IdEObjectImpl>>();
+		for (IdEObject idEObject : objects) {
+			IdEObjectImpl object = (IdEObjectImpl) idEObject;
+			if (object != null && object.getLoadingState() == State.TO_BE_LOADED && object.getOid() != -1 && !objectsToCommit.containsOid(object.getOid())) {
+				List<IdEObjectImpl> list = objectsPerClass.get(object.eClass());
+				if (list == null) {
+					list = new ArrayList<IdEObjectImpl>();
+					objectsPerClass.put(object.eClass(), list);
+				}
+				list.add(object);
+			}
+		}
+		for (Map.Entry<EClass, List<IdEObjectImpl>> entry : objectsPerClass.entrySet()) {
+			loadAll(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private void loadAll(EClass eClass, List<IdEObjectImpl> objects) throws BimserverDatabaseException {
+		Collections.sort(objects, new Comparator<IdEObjectImpl>() {
+			@Override
+			public int compare(IdEObjectImpl o1, IdEObjectImpl o2) {
+				int result = Integer.compare(o1.getQueryInterface().getPid(), o2.getQueryInterface().getPid());
+				return result != 0 ? result : Long.compare(o1.getOid(), o2.getOid());
+			}
+		});
+		String tableName = eClass.getEPackage().getName() + "_" + eClass.getName();
+		SearchingRecordIterator recordIterator = null;
+		int iteratorPid = 0;
+		try {
+			for (IdEObjectImpl object : objects) {
+				if (object.getLoadingState() != State.TO_BE_LOADED) {
+					continue;
+				}
+				QueryInterface query = object.getQueryInterface();
+				if (recordIterator == null || iteratorPid != query.getPid()) {
+					if (recordIterator != null) {
+						recordIterator.close();
+					}
+					byte[] pidBytes = BinUtils.intToByteArray(query.getPid());
+					recordIterator = database.getKeyValueStore().getRecordIterator(tableName, pidBytes, pidBytes, this);
+					iteratorPid = query.getPid();
+				}
+				object.setLoading();
+				// The first record at or after this key is the latest version of the object in the revision, if it exists
+				Record record = recordIterator.next(createKeyBuffer(query.getPid(), object.getOid(), -query.getRid()).array());
+				if (record != null) {
+					reads++;
+					ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+					keyBuffer.getInt();
+					long keyOid = keyBuffer.getLong();
+					int keyRid = -keyBuffer.getInt();
+					ByteBuffer valueBuffer = ByteBuffer.wrap(record.getValue());
+					if (keyOid == object.getOid() && keyRid <= query.getRid() && !(valueBuffer.capacity() == 1 && valueBuffer.get(0) == -1)) {
+						IfcModelInterface model = object.getModel();
+						if (model == null) {
+							model = createModel(getMetaDataManager().getEPackage(eClass.getEPackage().getName()));
+						}
+						TodoList todoList = new TodoList();
+						convertByteArrayToObject(object, eClass, eClass, keyOid, valueBuffer, model, keyRid, query, todoList);
+						objectCache.put(new RecordIdentifier(query.getPid(), keyOid, query.getRid()), object);
+						if (!todoList.isEmpty()) {
+							processTodoList(model, todoList, query);
+						}
+					}
+				}
+				if (object.getLoadingState() != State.PROJECTED) {
+					object.setLoaded();
+				}
+			}
+		} finally {
+			if (recordIterator != null) {
+				recordIterator.close();
+			}
+		}
+	}
+
 	public Long newOid(EClass eClass) {
 		return database.newOid(eClass);
 	}
@@ -1706,34 +2565,34 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		buffer.putShort(cid);
 		IdEObject idEObject = (IdEObject) value;
 		if (idEObject.getOid() == -1) {
-			LOGGER.warn("Writing a reference with oid -1, this is not supposed to happen");
-			((IdEObjectImpl) idEObject).setOid(newOid(idEObject.eClass()));
-			((IdEObjectImpl) idEObject).setPid(object.getPid());
-			((IdEObjectImpl) idEObject).setRid(object.getRid());
+			// Objects can be encoded concurrently, the same object should only get one oid
+			synchronized (idEObject) {
+				if (idEObject.getOid() == -1) {
+					LOGGER.warn("Writing a reference with oid -1, this is not supposed to happen");
+					((IdEObjectImpl) idEObject).setOid(newOid(idEObject.eClass()));
+					((IdEObjectImpl) idEObject).setPid(object.getPid());
+					((IdEObjectImpl) idEObject).setRid(object.getRid());
+				}
+			}
 		}
 		buffer.putLong(idEObject.getOid());
 	}
 
-	private void writeWrappedValue(int pid, int rid, Object value, ByteBuffer buffer) throws BimserverDatabaseException {
+	private void writeWrappedValue(int pid, int rid, Object value, ByteBuffer buffer, WriteBatch sideWrites) throws BimserverDatabaseException {
 		IdEObject wrappedValue = (IdEObject) value;
 		EStructuralFeature eStructuralFeature = wrappedValue.eClass().getEStructuralFeature("wrappedValue");
 		Short cid = database.getCidOfEClass(wrappedValue.eClass());
 		buffer.putShort((short) -cid);
 		writePrimitiveValue(eStructuralFeature, wrappedValue.eGet(eStructuralFeature), buffer);
 		if (wrappedValue instanceof IfcGloballyUniqueId) {
-			if (wrappedValue.getOid() == -1) {
-				((IdEObjectImpl) wrappedValue).setOid(newOid(Ifc2x3tc1Package.eINSTANCE.getIfcGloballyUniqueId()));
+			synchronized (wrappedValue) {
+				if (wrappedValue.getOid() == -1) {
+					((IdEObjectImpl) wrappedValue).setOid(newOid(Ifc2x3tc1Package.eINSTANCE.getIfcGloballyUniqueId()));
+				}
 			}
-			ByteBuffer valueBuffer = convertObjectToByteArray(wrappedValue, ByteBuffer.allocate(getExactSize(wrappedValue)));
+			ByteBuffer valueBuffer = convertObjectToByteArray(wrappedValue, ByteBuffer.allocate(getExactSize(wrappedValue)), sideWrites);
 			ByteBuffer keyBuffer = createKeyBuffer(pid, wrappedValue.getOid(), rid);
-			try {
-				EClass ifcGloballyUniqueIdEClass = Ifc2x3tc1Package.eINSTANCE.getIfcGloballyUniqueId();
-				database.getKeyValueStore().storeNoOverwrite(ifcGloballyUniqueIdEClass.getEPackage().getName() + "_" + ifcGloballyUniqueIdEClass.getName(),
-						keyBuffer.array(), valueBuffer.array(), this);
-				database.incrementCommittedWrites(1);
-			} catch (BimserverLockConflictException e) {
-				LOGGER.error("", e);
-			}
+			sideWrites.store(Ifc2x3tc1Package.eINSTANCE.getIfcGloballyUniqueId(), keyBuffer.array(), valueBuffer.array(), 0, valueBuffer.position(), false);
 		}
 	}
 
@@ -1810,6 +2669,242 @@ public class DatabaseSession implements LazyLoader, OidProvider<Long> {
 		return allOfType.getAllWithSubTypes(clazz);
 	}
 
+	@Override
+	public void save(org.bimserver.shared.Record record, int pid, int rid) throws BimserverDatabaseException {
+		checkOpen();
+		writeRecord(record, pid, rid, false);
+	}
+
+	@Override
+	public void update(org.bimserver.shared.Record record, int pid, int rid) throws BimserverDatabaseException {
+		checkOpen();
+		writeRecord(record, pid, rid, true);
+	}
+
+	private void writeRecord(org.bimserver.shared.Record record, int pid, int rid, boolean overwrite) throws BimserverDatabaseException {
+		if (record.getOid() == -1) {
+			throw new BimserverDatabaseException("Cannot store record with oid -1");
+		}
+		EClass eClass = record.eClass();
+		ByteBuffer keyBuffer = createKeyBuffer(pid, record.getOid(), rid);
+		ByteBuffer valueBuffer = convertRecordToByteArray(record);
+		if (overwrite) {
+			database.getKeyValueStore().store(eClass.getEPackage().getName() + "_" + eClass.getName(), keyBuffer.array(), valueBuffer.array(), this);
+		} else {
+			database.getKeyValueStore().storeNoOverwrite(eClass.getEPackage().getName() + "_" + eClass.getName(), keyBuffer.array(), valueBuffer.array(), this);
+		}
+		recordWrites++;
+		modifiedProjects.add(pid);
+		addClassPresence(pid, rid, eClass, record.getOid());
+		if (IfcRootIndexes.isIndexed(eClass)) {
+			EStructuralFeature nameFeature = eClass.getEStructuralFeature("Name");
+			index(pid, rid, record.getOid(), eClass, record.eGet(eClass.getEStructuralFeature("GlobalId")), nameFeature == null ? null : record.eGet(nameFeature), recordIndexWrites);
+			if (recordIndexWrites.getSizeInBytes() > MAX_WRITE_BATCH_SIZE) {
+				try {
+					recordWrites += flush(recordIndexWrites);
+				} catch (BimserverLockConflictException e) {
+					throw new UncheckedBimserverLockConflictException(e);
+				}
+			}
+		}
+	}
+
+	@Override
+	public org.bimserver.shared.Record getRecord(long oid, int pid, int rid) throws BimserverDatabaseException {
+		checkOpen();
+		EClass eClass = getEClassForOid(oid);
+		ByteBuffer keyBuffer = createKeyBuffer(pid, oid, rid);
+		byte[] value = database.getKeyValueStore().get(eClass.getEPackage().getName() + "_" + eClass.getName(), keyBuffer.array(), this);
+		reads++;
+		if (value == null || (value.length == 1 && value[0] == -1)) {
+			return null;
+		}
+		return convertByteArrayToRecord(eClass, oid, ByteBuffer.wrap(value));
+	}
+
+	private boolean useUnsetBit(EStructuralFeature feature, org.bimserver.shared.Record record) {
+		Object value = record.eGet(feature);
+		if (feature.isUnsettable()) {
+			return !record.eIsSet(feature);
+		}
+		if (feature.isMany()) {
+			return value == null || ((List<?>) value).isEmpty();
+		}
+		return value == null || value.equals(feature.getDefaultValue());
+	}
+
+	private int getExactSize(org.bimserver.shared.Record record) {
+		int size = 1 + (int) Math.ceil(record.eClass().getEAllStructuralFeatures().size() / 8.0);
+		for (EStructuralFeature eStructuralFeature : record.eClass().getEAllStructuralFeatures()) {
+			if (!useUnsetBit(eStructuralFeature, record)) {
+				Object val = record.eGet(eStructuralFeature);
+				if (eStructuralFeature instanceof EAttribute) {
+					EAttribute eAttribute = (EAttribute) eStructuralFeature;
+					if (eAttribute.isMany()) {
+						size += 4;
+						for (Object v : ((List<?>) val)) {
+							size += getPrimitiveSize(eAttribute.getEAttributeType(), v);
+						}
+					} else {
+						size += getPrimitiveSize(eAttribute.getEAttributeType(), val);
+					}
+				} else if (eStructuralFeature.isMany()) {
+					size += 4;
+					for (Object v : ((List<?>) val)) {
+						size += getRecordReferenceSize(v);
+					}
+				} else {
+					size += getRecordReferenceSize(val);
+				}
+			}
+		}
+		return size;
+	}
+
+	private int getRecordReferenceSize(Object val) {
+		if (val == null) {
+			return 2;
+		}
+		if (val instanceof org.bimserver.shared.Record) {
+			org.bimserver.shared.Record wrappedValue = (org.bimserver.shared.Record) val;
+			EStructuralFeature wrappedValueFeature = wrappedValue.eClass().getEStructuralFeature("wrappedValue");
+			return 2 + getPrimitiveSize((EDataType) wrappedValueFeature.getEType(), wrappedValue.eGet(wrappedValueFeature));
+		}
+		return 10;
+	}
+
+	/**
+	 * Same format as convertObjectToByteArray, but for a Record, so without
+	 * the need to have the referenced objects in memory
+	 */
+	private ByteBuffer convertRecordToByteArray(org.bimserver.shared.Record record) throws BimserverDatabaseException {
+		int bufferSize = getExactSize(record);
+		ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+		EClass eClass = record.eClass();
+		byte[] unsetted = new byte[(int) Math.ceil(eClass.getEAllStructuralFeatures().size() / 8.0)];
+		int fieldCounter = 0;
+		for (EStructuralFeature feature : eClass.getEAllStructuralFeatures()) {
+			if (useUnsetBit(feature, record)) {
+				unsetted[fieldCounter / 8] |= (1 << (fieldCounter % 8));
+			}
+			fieldCounter++;
+		}
+		buffer.put((byte) unsetted.length);
+		buffer.put(unsetted);
+
+		for (EStructuralFeature feature : eClass.getEAllStructuralFeatures()) {
+			if (!useUnsetBit(feature, record)) {
+				Object value = record.eGet(feature);
+				if (feature.isMany()) {
+					if (feature.getEType() instanceof EEnum) {
+						// Aggregate relations to enums never occur... at this
+						// moment
+					} else if (feature.getEType() instanceof EClass) {
+						List<?> list = (List<?>) value;
+						buffer.putInt(list.size());
+						for (Object o : list) {
+							writeRecordReference(o, buffer);
+						}
+					} else if (feature.getEType() instanceof EDataType) {
+						List<?> list = (List<?>) value;
+						buffer.putInt(list.size());
+						for (Object o : list) {
+							writePrimitiveValue(feature, o, buffer);
+						}
+					}
+				} else {
+					if (feature.getEType() instanceof EEnum) {
+						buffer.putInt(((Enumerator) value).getValue());
+					} else if (feature.getEType() instanceof EClass) {
+						writeRecordReference(value, buffer);
+					} else if (feature.getEType() instanceof EDataType) {
+						writePrimitiveValue(feature, value, buffer);
+					}
+				}
+			}
+		}
+		if (buffer.position() != bufferSize) {
+			throw new BimserverDatabaseException("Value buffer sizes do not match for " + eClass.getName() + " " + buffer.position() + "/" + bufferSize);
+		}
+		return buffer;
+	}
+
+	private void writeRecordReference(Object value, ByteBuffer buffer) throws BimserverDatabaseException {
+		if (value == null) {
+			buffer.putShort((short) -1);
+		} else if (value instanceof org.bimserver.shared.Record) {
+			org.bimserver.shared.Record wrappedValue = (org.bimserver.shared.Record) value;
+			EStructuralFeature eStructuralFeature = wrappedValue.eClass().getEStructuralFeature("wrappedValue");
+			buffer.putShort((short) -database.getCidOfEClass(wrappedValue.eClass()));
+			writePrimitiveValue(eStructuralFeature, wrappedValue.eGet(eStructuralFeature), buffer);
+		} else {
+			long oid = (Long) value;
+			buffer.putShort(database.getCidOfEClass(getEClassForOid(oid)));
+			buffer.putLong(oid);
+		}
+	}
+
+	private org.bimserver.shared.Record convertByteArrayToRecord(EClass eClass, long oid, ByteBuffer buffer) throws BimserverDatabaseException {
+		org.bimserver.shared.Record record = new org.bimserver.shared.Record(eClass, oid);
+		try {
+			byte unsettedLength = buffer.get();
+			byte[] unsetted = new byte[unsettedLength];
+			buffer.get(unsetted);
+			int fieldCounter = 0;
+			for (EStructuralFeature feature : eClass.getEAllStructuralFeatures()) {
+				boolean isUnsetted = (unsetted[fieldCounter / 8] & (1 << (fieldCounter % 8))) != 0;
+				fieldCounter++;
+				if (isUnsetted) {
+					continue;
+				}
+				if (feature.isMany()) {
+					if (feature.getEType() instanceof EEnum) {
+						// Aggregate relations to enums never occur... at this
+						// moment
+					} else if (feature.getEType() instanceof EClass) {
+						int listSize = buffer.getInt();
+						List<Object> list = record.getList(feature);
+						for (int i = 0; i < listSize; i++) {
+							list.add(readRecordReference(buffer));
+						}
+					} else if (feature.getEType() instanceof EDataType) {
+						int listSize = buffer.getInt();
+						List<Object> list = record.getList(feature);
+						for (int i = 0; i < listSize; i++) {
+							list.add(readPrimitiveValue(feature.getEType(), buffer));
+						}
+					}
+				} else {
+					if (feature.getEType() instanceof EEnum) {
+						int enumOrdinal = buffer.getInt();
+						if (enumOrdinal != -1) {
+							record.eSet(feature, ((EEnum) feature.getEType()).getEEnumLiteral(enumOrdinal).getInstance());
+						}
+					} else if (feature.getEType() instanceof EClass) {
+						record.eSet(feature, readRecordReference(buffer));
+					} else if (feature.getEType() instanceof EDataType) {
+						record.eSet(feature, readPrimitiveValue(feature.getEType(), buffer));
+					}
+				}
+			}
+			return record;
+		} catch (BufferUnderflowException e) {
+			throw new BimserverDatabaseException("Reading " + eClass.getName(), e);
+		}
+	}
+
+	private Object readRecordReference(ByteBuffer buffer) {
+		short cid = buffer.getShort();
+		if (cid == -1) {
+			return null;
+		} else if (cid < 0) {
+			EClass wrappedClass = database.getEClassForCid((short) -cid);
+			EStructuralFeature eStructuralFeature = wrappedClass.getEStructuralFeature("wrappedValue");
+			return org.bimserver.shared.Record.createWrapped(wrappedClass, readPrimitiveValue(eStructuralFeature.getEType(), buffer));
+		}
+		return buffer.getLong();
+	}
+
 	public EClass getEClassForOid(long oid) {
 		return database.getEClassForOid(oid);
 	}
@@ -0,0 +1,68 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+
+/**
+ * Index from the content hash (SHA-256) of GeometryData to the oid of the
+ * GeometryData that was stored with that content, so new revisions of a
+ * project can reference geometry that has already been stored instead of
+ * storing it again.
+ *
+ * Key: pid (4), hash (32) -> oid (8). The index is per project because
+ * references are resolved within the project of the referencing object.
+ */
+public class GeometryDataIndex {
+	public static final String GEOMETRY_DATA_INDEX_TABLE = "INT-GeometryDataIndex";
+	private final KeyValueStore keyValueStore;
+
+	public GeometryDataIndex(KeyValueStore keyValueStore) {
+		this.keyValueStore = keyValueStore;
+	}
+
+	/**
+	 * Opens the index table, existing databases get it on first start
+	 */
+	public void init() throws BimserverDatabaseException {
+		if (keyValueStore.containsTable(GEOMETRY_DATA_INDEX_TABLE)) {
+			keyValueStore.openTable(GEOMETRY_DATA_INDEX_TABLE);
+		} else {
+			keyValueStore.createTable(GEOMETRY_DATA_INDEX_TABLE, null);
+		}
+	}
+
+	public void put(int pid, byte[] hash, long oid, WriteBatch writeBatch) {
+		writeBatch.store(GEOMETRY_DATA_INDEX_TABLE, createKey(pid, hash), ByteBuffer.allocate(8).putLong(oid).array(), true);
+	}
+
+	/**
+	 * @return The oid of the GeometryData with this hash, or -1
+	 */
+	public long getOid(int pid, byte[] hash, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
+		byte[] value = keyValueStore.get(GEOMETRY_DATA_INDEX_TABLE, createKey(pid, hash), databaseSession);
+		if (value == null) {
+			return -1;
+		}
+		return ByteBuffer.wrap(value).getLong();
+	}
+
+	private byte[] createKey(int pid, byte[] hash) {
+		return ByteBuffer.allocate(4 + hash.length).putInt(pid).put(hash).array();
+	}
+}
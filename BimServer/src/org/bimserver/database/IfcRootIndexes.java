@@ -0,0 +1,132 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.emf.ecore.EClass;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+/**
+ * Secondary indexes on the GlobalId and Name of IfcRoot objects, written in
+ * the same transaction as the objects themselves.
+ *
+ * GUID table: pid (4), rid (4), GlobalId (UTF-8) -> cid (2), oid (8). The key
+ * pid (4), rid (4) on its own marks a revision as indexed, revisions stored
+ * before these indexes existed have no marker and have to be scanned.
+ *
+ * Name table: pid (4), rid (4), MD5 of Name (16), oid (8) -> cid (2), Name
+ * (UTF-8). All keys have the same length so a prefix search on pid, rid and
+ * hash never runs into shorter keys, the name in the value is compared to
+ * rule out hash collisions.
+ */
+public class IfcRootIndexes {
+	public static final String GUID_INDEX_TABLE = "INT-GuidIndex";
+	public static final String NAME_INDEX_TABLE = "INT-NameIndex";
+	private static final byte[] MARKER_VALUE = new byte[] { 1 };
+	private final KeyValueStore keyValueStore;
+
+	public IfcRootIndexes(KeyValueStore keyValueStore) {
+		this.keyValueStore = keyValueStore;
+	}
+
+	/**
+	 * Opens the index tables, existing databases get them on first start
+	 */
+	public void init() throws BimserverDatabaseException {
+		for (String tableName : new String[] { GUID_INDEX_TABLE, NAME_INDEX_TABLE }) {
+			if (keyValueStore.containsTable(tableName)) {
+				keyValueStore.openTable(tableName);
+			} else {
+				keyValueStore.createTable(tableName, null);
+			}
+		}
+	}
+
+	public static boolean isIndexed(EClass eClass) {
+		return eClass.getEStructuralFeature("GlobalId") != null;
+	}
+
+	/**
+	 * Adds the index entries of an object (or record) with the given GlobalId
+	 * and Name to the batch
+	 */
+	public void index(int pid, int rid, long oid, short cid, String guid, String name, WriteBatch writeBatch) {
+		if (guid != null) {
+			writeBatch.store(GUID_INDEX_TABLE, createGuidKey(pid, rid, guid), ByteBuffer.allocate(10).putShort(cid).putLong(oid).array(), true);
+		}
+		if (name != null) {
+			byte[] nameBytes = name.getBytes(Charsets.UTF_8);
+			byte[] key = ByteBuffer.allocate(32).put(createNamePrefix(pid, rid, name)).putLong(oid).array();
+			writeBatch.store(NAME_INDEX_TABLE, key, ByteBuffer.allocate(2 + nameBytes.length).putShort(cid).put(nameBytes).array(), true);
+		}
+	}
+
+	public void markIndexed(int pid, int rid, WriteBatch writeBatch) {
+		writeBatch.store(GUID_INDEX_TABLE, ByteBuffer.allocate(8).putInt(pid).putInt(rid).array(), MARKER_VALUE, true);
+	}
+
+	public boolean isIndexed(int pid, int rid, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
+		return keyValueStore.get(GUID_INDEX_TABLE, ByteBuffer.allocate(8).putInt(pid).putInt(rid).array(), databaseSession) != null;
+	}
+
+	public ObjectIdentifier getOidOfGuid(int pid, int rid, String guid, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
+		byte[] value = keyValueStore.get(GUID_INDEX_TABLE, createGuidKey(pid, rid, guid), databaseSession);
+		if (value == null) {
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(value);
+		short cid = buffer.getShort();
+		return new ObjectIdentifier(buffer.getLong(), cid);
+	}
+
+	public Set<ObjectIdentifier> getOidsOfName(int pid, int rid, String name, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
+		Set<ObjectIdentifier> result = new HashSet<ObjectIdentifier>();
+		byte[] prefix = createNamePrefix(pid, rid, name);
+		byte[] nameBytes = name.getBytes(Charsets.UTF_8);
+		SearchingRecordIterator recordIterator = keyValueStore.getRecordIterator(NAME_INDEX_TABLE, prefix, prefix, databaseSession);
+		try {
+			Record record = recordIterator.next();
+			while (record != null) {
+				ByteBuffer value = ByteBuffer.wrap(record.getValue());
+				short cid = value.getShort();
+				if (Arrays.equals(nameBytes, Arrays.copyOfRange(record.getValue(), 2, record.getValue().length))) {
+					result.add(new ObjectIdentifier(ByteBuffer.wrap(record.getKey()).getLong(24), cid));
+				}
+				record = recordIterator.next();
+			}
+		} finally {
+			recordIterator.close();
+		}
+		return result;
+	}
+
+	private byte[] createGuidKey(int pid, int rid, String guid) {
+		byte[] guidBytes = guid.getBytes(Charsets.UTF_8);
+		return ByteBuffer.allocate(8 + guidBytes.length).putInt(pid).putInt(rid).put(guidBytes).array();
+	}
+
+	private byte[] createNamePrefix(int pid, int rid, String name) {
+		return ByteBuffer.allocate(24).putInt(pid).putInt(rid).put(Hashing.md5().hashString(name, Charsets.UTF_8).asBytes()).array();
+	}
+}
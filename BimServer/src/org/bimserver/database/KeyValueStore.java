@@ -74,5 +74,7 @@ public interface KeyValueStore {
 	
 	void store(String tableName, byte[] key, byte[] value, int offset, int length, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException;
 
+	void storeBatch(WriteBatch batch, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException;
+
 	void dumpOpenCursors();
 }
\ No newline at end of file
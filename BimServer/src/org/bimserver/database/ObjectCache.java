@@ -19,6 +19,7 @@ package org.bimserver.database;
 
 import org.bimserver.emf.IdEObject;
 import org.bimserver.emf.IdEObjectImpl;
+import org.bimserver.emf.IdEObjectImpl.State;
 import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Package;
 
 import com.google.common.collect.BiMap;
@@ -29,6 +30,10 @@ public class ObjectCache {
 	private final BiMap<Long, IdEObjectImpl> oidCache = HashBiMap.create();
 
 	public void put(RecordIdentifier recordIdentifier, IdEObject object) {
+		if (((IdEObjectImpl) object).getLoadingState() == State.PROJECTED) {
+			// Half decoded, other queries have to read the record themselves
+			return;
+		}
 		if (useRecordLevelVersioning(object)) {
 			if (!oidCache.containsValue(object)) {
 				oidCache.put(recordIdentifier.getOid(), (IdEObjectImpl) object);
@@ -16,6 +16,10 @@ package org.bimserver.database;
  * You should have received a copy of the GNU Affero General Public License
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.bimserver.emf.PackageMetaData;
 import org.bimserver.emf.QueryInterface;
@@ -36,6 +40,9 @@ public class Query implements QueryInterface {
 	private final Deep deep;
 	private final int stopRid;
 	private PackageMetaData packageMetaData;
+	private EClass projectedClass;
+	private Set<EStructuralFeature> projectedFeatures;
+	private final Map<EClass, Integer> lastFeaturesToDecode = new ConcurrentHashMap<EClass, Integer>();
 
 	private static final Query DEFAULT = new Query();
 	
@@ -126,7 +133,45 @@ public class Query implements QueryInterface {
 	}
 
 	public boolean shouldFollowReference(EClass originalQueryClass, EClass eClass, EStructuralFeature feature) {
+		if (isProjected(eClass) && !projectedFeatures.contains(feature)) {
+			return false;
+		}
 		return objectIDM == null || objectIDM.shouldFollowReference(originalQueryClass, eClass, feature);
+	}
+
+	/**
+	 * Only decode the given features of objects of the given class (and its
+	 * subclasses), the other features stay empty. Records of other classes are
+	 * decoded completely.
+	 */
+	public void setProjection(EClass projectedClass, Set<EStructuralFeature> projectedFeatures) {
+		this.projectedClass = projectedClass;
+		this.projectedFeatures = projectedFeatures;
+		lastFeaturesToDecode.clear();
+	}
+
+	private boolean isProjected(EClass eClass) {
+		return projectedFeatures != null && projectedClass.isSuperTypeOf(eClass);
+	}
+
+	@Override
+	public int getLastFeatureToDecode(EClass eClass) {
+		if (!isProjected(eClass)) {
+			return Integer.MAX_VALUE;
+		}
+		Integer lastFeature = lastFeaturesToDecode.get(eClass);
+		if (lastFeature == null) {
+			lastFeature = -1;
+			int index = 0;
+			for (EStructuralFeature feature : eClass.getEAllStructuralFeatures()) {
+				if (projectedFeatures.contains(feature)) {
+					lastFeature = index;
+				}
+				index++;
+			}
+			lastFeaturesToDecode.put(eClass, lastFeature);
+		}
+		return lastFeature;
 	}
 	
 	@Override
@@ -0,0 +1,175 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.emf.ecore.EClass;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * Server wide cache of the records of one class that are visible in a revision
+ * range of a project, as found by a table scan in DatabaseSession.getMap. Only
+ * used for committed IFC data, those records never change once written, the
+ * objects of the store project are still only cached per session.
+ *
+ * The cache holds the undecoded values, IdEObjects belong to a model and a
+ * session and can not be shared. A hit saves the table scan and the reads of
+ * records of other revisions, but every record is still decoded into a new
+ * IdEObject, see PerformanceTestRecordCache for what that gains. Eviction is
+ * least recently used, weighed by the (estimated) size in bytes.
+ *
+ * Commits that write IFC data invalidate the entries of that project. A scan
+ * that started before an invalidation can not add its result anymore, see
+ * getGeneration.
+ */
+public class RecordCache {
+	// Estimated overhead of an entry: the CachedRecord object, the array header and the list slot
+	private static final int RECORD_OVERHEAD = 48;
+	private final Cache<Key, List<CachedRecord>> cache;
+	private final long maxSizeInBytes;
+	private final AtomicLong generation = new AtomicLong();
+
+	public RecordCache(long maxSizeInBytes) {
+		this.maxSizeInBytes = maxSizeInBytes;
+		this.cache = CacheBuilder.newBuilder().maximumWeight(maxSizeInBytes).weigher(new Weigher<Key, List<CachedRecord>>() {
+			@Override
+			public int weigh(Key key, List<CachedRecord> records) {
+				return (int) Math.min(Integer.MAX_VALUE, getSizeInBytes(records));
+			}
+		}).build();
+	}
+
+	public boolean isEnabled() {
+		return maxSizeInBytes > 0;
+	}
+
+	/**
+	 * @return The largest list that is worth collecting, bigger lists would
+	 *         evict (almost) everything else
+	 */
+	public long getMaxEntrySizeInBytes() {
+		return maxSizeInBytes / 4;
+	}
+
+	public List<CachedRecord> get(EClass eClass, int pid, int rid, int stopRid) {
+		return cache.getIfPresent(new Key(eClass, pid, rid, stopRid));
+	}
+
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * @param generation The generation before the records were read
+	 */
+	public synchronized void put(EClass eClass, int pid, int rid, int stopRid, List<CachedRecord> records, long generation) {
+		if (this.generation.get() == generation) {
+			cache.put(new Key(eClass, pid, rid, stopRid), records);
+		}
+	}
+
+	public synchronized void invalidate(int pid) {
+		generation.incrementAndGet();
+		List<Key> keys = new ArrayList<Key>();
+		for (Key key : cache.asMap().keySet()) {
+			if (key.pid == pid) {
+				keys.add(key);
+			}
+		}
+		cache.invalidateAll(keys);
+	}
+
+	public static long getSizeInBytes(List<CachedRecord> records) {
+		long size = 0;
+		for (CachedRecord record : records) {
+			size += record.getValue().length + RECORD_OVERHEAD;
+		}
+		return size;
+	}
+
+	public static long getSizeInBytes(byte[] value) {
+		return value.length + RECORD_OVERHEAD;
+	}
+
+	public static class CachedRecord {
+		private final long oid;
+		private final int rid;
+		private final byte[] value;
+
+		public CachedRecord(long oid, int rid, byte[] value) {
+			this.oid = oid;
+			this.rid = rid;
+			this.value = value;
+		}
+
+		public long getOid() {
+			return oid;
+		}
+
+		public int getRid() {
+			return rid;
+		}
+
+		public byte[] getValue() {
+			return value;
+		}
+	}
+
+	private static class Key {
+		private final EClass eClass;
+		private final int pid;
+		private final int rid;
+		private final int stopRid;
+
+		public Key(EClass eClass, int pid, int rid, int stopRid) {
+			this.eClass = eClass;
+			this.pid = pid;
+			this.rid = rid;
+			this.stopRid = stopRid;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + eClass.hashCode();
+			result = prime * result + pid;
+			result = prime * result + rid;
+			result = prime * result + stopRid;
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			Key other = (Key) obj;
+			return eClass == other.eClass && pid == other.pid && rid == other.rid && stopRid == other.stopRid;
+		}
+	}
+}
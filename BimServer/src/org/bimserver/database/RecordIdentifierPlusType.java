@@ -20,6 +20,7 @@ package org.bimserver.database;
 import org.eclipse.emf.ecore.EClass;
 
 public class RecordIdentifierPlusType {
+	private final EClass eClass;
 	private final String packageName;
 	private final String className;
 	private final int pid;
@@ -27,6 +28,7 @@ public class RecordIdentifierPlusType {
 	private final int rid;
 
 	public RecordIdentifierPlusType(EClass eClass, int pid, long oid, int rid) {
+		this.eClass = eClass;
 		this.packageName = eClass.getEPackage().getName();
 		this.className = eClass.getName();
 		this.pid = pid;
@@ -34,6 +36,10 @@ public class RecordIdentifierPlusType {
 		this.rid = rid;
 	}
 
+	public EClass getEClass() {
+		return eClass;
+	}
+
 	public String getClassName() {
 		return className;
 	}
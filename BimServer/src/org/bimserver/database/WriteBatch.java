@@ -0,0 +1,147 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.emf.ecore.EClass;
+
+/**
+ * Collects writes for multiple tables (the tables of EClasses, or other tables
+ * by name), so a KeyValueStore can write them table by table in key order.
+ * Keys and values are copied, so reused buffers can be passed.
+ */
+public class WriteBatch {
+	private final Map<EClass, List<Write>> writes = new LinkedHashMap<EClass, List<Write>>();
+	private final Map<String, List<Write>> tableWrites = new LinkedHashMap<String, List<Write>>();
+	private long sizeInBytes;
+	private int nrWrites;
+
+	public void store(EClass eClass, byte[] key, byte[] value, int offset, int length, boolean overwrite) {
+		add(writes, eClass, new Write(Arrays.copyOf(key, key.length), Arrays.copyOfRange(value, offset, offset + length), overwrite));
+	}
+
+	public void store(String tableName, byte[] key, byte[] value, boolean overwrite) {
+		add(tableWrites, tableName, new Write(Arrays.copyOf(key, key.length), Arrays.copyOf(value, value.length), overwrite));
+	}
+
+	private <K> void add(Map<K, List<Write>> map, K table, Write write) {
+		List<Write> list = map.get(table);
+		if (list == null) {
+			list = new ArrayList<Write>();
+			map.put(table, list);
+		}
+		list.add(write);
+		sizeInBytes += write.getKey().length + write.getValue().length;
+		nrWrites++;
+	}
+
+	/**
+	 * Moves all writes of the given batch to this batch, the given batch is
+	 * cleared
+	 */
+	public void addAll(WriteBatch batch) {
+		addAll(writes, batch.writes);
+		addAll(tableWrites, batch.tableWrites);
+		sizeInBytes += batch.sizeInBytes;
+		nrWrites += batch.nrWrites;
+		batch.clear();
+	}
+
+	private <K> void addAll(Map<K, List<Write>> map, Map<K, List<Write>> other) {
+		for (Map.Entry<K, List<Write>> entry : other.entrySet()) {
+			List<Write> list = map.get(entry.getKey());
+			if (list == null) {
+				map.put(entry.getKey(), entry.getValue());
+			} else {
+				list.addAll(entry.getValue());
+			}
+		}
+	}
+
+	public Map<EClass, List<Write>> getWrites() {
+		return writes;
+	}
+
+	public Map<String, List<Write>> getTableWrites() {
+		return tableWrites;
+	}
+
+	public long getSizeInBytes() {
+		return sizeInBytes;
+	}
+
+	public int getNrWrites() {
+		return nrWrites;
+	}
+
+	public boolean isEmpty() {
+		return nrWrites == 0;
+	}
+
+	public void clear() {
+		writes.clear();
+		tableWrites.clear();
+		sizeInBytes = 0;
+		nrWrites = 0;
+	}
+
+	public static class Write implements Comparable<Write> {
+		private final byte[] key;
+		private final byte[] value;
+		private final boolean overwrite;
+
+		public Write(byte[] key, byte[] value, boolean overwrite) {
+			this.key = key;
+			this.value = value;
+			this.overwrite = overwrite;
+		}
+
+		public byte[] getKey() {
+			return key;
+		}
+
+		public byte[] getValue() {
+			return value;
+		}
+
+		public boolean isOverwrite() {
+			return overwrite;
+		}
+
+		/**
+		 * Unsigned byte by byte, the same order the store uses for its keys
+		 */
+		@Override
+		public int compareTo(Write other) {
+			int length = Math.min(key.length, other.key.length);
+			for (int i = 0; i < length; i++) {
+				int a = key[i] & 0xFF;
+				int b = other.key[i] & 0xFF;
+				if (a != b) {
+					return a - b;
+				}
+			}
+			return key.length - other.key.length;
+		}
+	}
+}
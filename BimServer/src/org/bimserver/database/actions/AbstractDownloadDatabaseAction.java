@@ -57,19 +57,25 @@ public abstract class AbstractDownloadDatabaseAction<T> extends BimDatabaseActio
 				// TODO When generating geometry for a partial model download (by types for example), this will fail (for example walls have no openings)
 				new GeometryGenerator(bimServer).generateGeometry(authorization.getUoid(), pluginManager, getDatabaseSession(), model, project.getId(), concreteRevision.getId(), false, null);
 			} else {
+				// Loaded level by level, every level with one pass per table
 				EClass productClass = model.getPackageMetaData().getEClass("IfcProduct");
 				List<IdEObject> allWithSubTypes = new ArrayList<>(model.getAllWithSubTypes(productClass));
+				getDatabaseSession().loadAll(allWithSubTypes);
+				List<GeometryInfo> geometryInfos = new ArrayList<>();
 				for (IdEObject ifcProduct : allWithSubTypes) {
-					ifcProduct.loadExplicit();
 					GeometryInfo geometryInfo = (GeometryInfo) ifcProduct.eGet(productClass.getEStructuralFeature("geometry"));
 					if (geometryInfo != null) {
-						geometryInfo.loadExplicit();
-						geometryInfo.getData().loadExplicit();
-						geometryInfo.getTransformation();
-						geometryInfo.getMinBounds().loadExplicit();
-						geometryInfo.getMaxBounds().loadExplicit();
+						geometryInfos.add(geometryInfo);
 					}
 				}
+				getDatabaseSession().loadAll(geometryInfos);
+				List<IdEObject> geometryParts = new ArrayList<>();
+				for (GeometryInfo geometryInfo : geometryInfos) {
+					geometryParts.add(geometryInfo.getData());
+					geometryParts.add(geometryInfo.getMinBounds());
+					geometryParts.add(geometryInfo.getMaxBounds());
+				}
+				getDatabaseSession().loadAll(geometryParts);
 			}
 		}
 	}
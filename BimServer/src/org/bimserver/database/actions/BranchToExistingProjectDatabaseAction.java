@@ -71,6 +71,12 @@ public class BranchToExistingProjectDatabaseAction extends AbstractBranchDatabas
 		if (!authorization.hasRightsOnProjectOrSuperProjectsOrSubProjects(user, oldProject)) {
 			throw new UserException("User has insufficient rights to download revisions from this project");
 		}
+		if (bimServer.getConfig().isCopyOnWriteBranches()) {
+			Project destProject = getProjectByPoid(destPoid);
+			if (destProject != null && CopyOnWriteBranchDatabaseAction.canBranch(oldRevision, destProject)) {
+				return new CopyOnWriteBranchDatabaseAction(bimServer, getDatabaseSession(), getAccessMethod(), authorization, destPoid, oldRevision, comment).execute();
+			}
+		}
 		PackageMetaData lastMetaData = null;
 		IfcModelSet ifcModelSet = new IfcModelSet();
 		for (ConcreteRevision subRevision : oldRevision.getConcreteRevisions()) {
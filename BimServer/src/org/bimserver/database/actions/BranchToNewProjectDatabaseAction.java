@@ -73,6 +73,10 @@ public class BranchToNewProjectDatabaseAction extends AbstractBranchDatabaseActi
 		if (!authorization.hasRightsOnProjectOrSuperProjectsOrSubProjects(user, oldProject)) {
 			throw new UserException("User has insufficient rights to download revisions from this project");
 		}
+		final Project newProject = new AddProjectDatabaseAction(bimServer, getDatabaseSession(), getAccessMethod(), projectName, "ifc2x3tc1", authorization).execute();
+		if (bimServer.getConfig().isCopyOnWriteBranches() && CopyOnWriteBranchDatabaseAction.canBranch(oldRevision, newProject)) {
+			return new CopyOnWriteBranchDatabaseAction(bimServer, getDatabaseSession(), getAccessMethod(), authorization, newProject.getOid(), oldRevision, comment).execute();
+		}
 		IfcModelSet ifcModelSet = new IfcModelSet();
 		PackageMetaData lastMetaData = null;
 		for (ConcreteRevision subRevision : oldRevision.getConcreteRevisions()) {
@@ -92,7 +96,6 @@ public class BranchToNewProjectDatabaseAction extends AbstractBranchDatabaseActi
 			throw new UserException(e);
 		}
 		model.resetOids();
-		final Project newProject = new AddProjectDatabaseAction(bimServer, getDatabaseSession(), getAccessMethod(), projectName, "ifc2x3tc1", authorization).execute();
 		CheckinDatabaseAction createCheckinAction = new CheckinDatabaseAction(bimServer, getDatabaseSession(), getAccessMethod(), newProject.getOid(), authorization, model, comment, comment, false);
 		return createCheckinAction.execute();
 	}
@@ -17,6 +17,10 @@ package org.bimserver.database.actions;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Date;
 
 import org.bimserver.BimServer;
@@ -43,6 +47,8 @@ import org.bimserver.models.store.Revision;
 import org.bimserver.models.store.Service;
 import org.bimserver.models.store.User;
 import org.bimserver.notifications.NewRevisionNotification;
+import org.bimserver.plugins.deserializers.DeserializeException;
+import org.bimserver.plugins.deserializers.Deserializer;
 import org.bimserver.plugins.modelchecker.ModelChecker;
 import org.bimserver.plugins.modelchecker.ModelCheckerPlugin;
 import org.bimserver.shared.exceptions.UserException;
@@ -63,6 +69,9 @@ public class CheckinDatabaseAction extends GenericCheckinDatabaseAction {
 	private Authorization authorization;
 	private final GeometryCache geometryCache = new GeometryCache();
 	private String fileName;
+	// Set when the model still has to be read from a spooled upload
+	private Deserializer deserializer;
+	private File file;
 
 	public CheckinDatabaseAction(BimServer bimServer, DatabaseSession databaseSession, AccessMethod accessMethod, long poid, Authorization authorization, IfcModelInterface model,
 			String comment, String fileName, boolean merge) {
@@ -75,6 +84,18 @@ public class CheckinDatabaseAction extends GenericCheckinDatabaseAction {
 		this.merge = merge;
 	}
 
+	/**
+	 * Checkin of an uploaded file that is parsed by the (initialized)
+	 * deserializer when this action is executed, so the upload does not have
+	 * to wait for the parsing. The model is kept when the action is retried.
+	 */
+	public CheckinDatabaseAction(BimServer bimServer, DatabaseSession databaseSession, AccessMethod accessMethod, long poid, Authorization authorization, Deserializer deserializer,
+			File file, String comment, String fileName, boolean merge) {
+		this(bimServer, databaseSession, accessMethod, poid, authorization, (IfcModelInterface) null, comment, fileName, merge);
+		this.deserializer = deserializer;
+		this.file = file;
+	}
+
 	@Override
 	public ConcreteRevision execute() throws UserException, BimserverDatabaseException {
 		try {
@@ -91,6 +112,9 @@ public class CheckinDatabaseAction extends GenericCheckinDatabaseAction {
 			if (!MailSystem.isValidEmailAddress(user.getUsername())) {
 				throw new UserException("Users must have a valid e-mail address to checkin");
 			}
+			if (deserializer != null) {
+				setModel(readModel());
+			}
 			if (getModel() != null) {
 				checkCheckSum(project);
 			}
@@ -198,6 +222,29 @@ public class CheckinDatabaseAction extends GenericCheckinDatabaseAction {
 	public String getFileName() {
 		return fileName;
 	}
+
+	private IfcModelInterface readModel() throws UserException {
+		setProgress("Parsing " + fileName + "...", -1);
+		try {
+			InputStream inputStream = new FileInputStream(file);
+			try {
+				IfcModelInterface model = deserializer.read(inputStream, file.getName(), file.length());
+				if (model.size() == 0) {
+					throw new UserException("Cannot checkin empty model");
+				}
+				// Not needed anymore, also not when this action is retried
+				deserializer = null;
+				return model;
+			} finally {
+				inputStream.close();
+			}
+		} catch (DeserializeException e) {
+			throw new UserException(e);
+		} catch (IOException e) {
+			LOGGER.error("", e);
+			throw new UserException(e);
+		}
+	}
 	
 	private IfcModelInterface checkinMerge(Revision lastRevision) throws BimserverLockConflictException, BimserverDatabaseException, UserException {
 		throw new RuntimeException("Not implemented");
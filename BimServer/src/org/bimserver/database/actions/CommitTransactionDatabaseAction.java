@@ -85,6 +85,10 @@ public class CommitTransactionDatabaseAction extends GenericCheckinDatabaseActio
 		if (!MailSystem.isValidEmailAddress(user.getUsername())) {
 			throw new UserException("Users must have a valid e-mail address to checkin");
 		}
+		if (!CopyOnWriteBranchDatabaseAction.isMaterialized(bimServer, getDatabaseSession(), project)) {
+			// Branched onto after the commit materialized it, the changes would be applied to records the project does not have
+			throw new UserException("Project has been branched onto during this transaction, start a new transaction");
+		}
 		long size = 0;
 		if (project.getLastRevision() != null) {
 			for (ConcreteRevision concreteRevision : project.getLastRevision().getConcreteRevisions()) {
@@ -0,0 +1,180 @@
+package org.bimserver.database.actions;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import org.bimserver.BimServer;
+import org.bimserver.database.BimserverDatabaseException;
+import org.bimserver.database.BimserverLockConflictException;
+import org.bimserver.database.CopyOnWriteBases;
+import org.bimserver.database.CopyOnWriteBases.Base;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.PostCommitAction;
+import org.bimserver.models.log.AccessMethod;
+import org.bimserver.models.log.NewRevisionAdded;
+import org.bimserver.models.store.ConcreteRevision;
+import org.bimserver.models.store.Project;
+import org.bimserver.models.store.Revision;
+import org.bimserver.models.store.User;
+import org.bimserver.notifications.NewRevisionNotification;
+import org.bimserver.shared.exceptions.UserException;
+import org.bimserver.webservices.authorization.Authorization;
+
+/**
+ * Branch without copying any data. The new ConcreteRevision of the
+ * destination project gets no records, its Revision reads the ConcreteRevision
+ * of the source revision instead, the same way revisions of a parent project
+ * read the ConcreteRevisions of their sub projects. The base is registered in
+ * CopyOnWriteBases.
+ *
+ * A checkin on the branch replaces the data anyway, the records of the base
+ * are only copied into the branch when it is changed by a transaction (see
+ * materialize). That copy costs what the full branch saved, minus decoding and
+ * new oids: every record of the base is read and written once.
+ */
+public class CopyOnWriteBranchDatabaseAction extends GenericCheckinDatabaseAction {
+	private final BimServer bimServer;
+	private final Authorization authorization;
+	private final long poid;
+	private final Revision sourceRevision;
+	private final String comment;
+
+	public CopyOnWriteBranchDatabaseAction(BimServer bimServer, DatabaseSession databaseSession, AccessMethod accessMethod, Authorization authorization, long poid, Revision sourceRevision,
+			String comment) {
+		super(databaseSession, accessMethod, null);
+		this.bimServer = bimServer;
+		this.authorization = authorization;
+		this.poid = poid;
+		this.sourceRevision = sourceRevision;
+		this.comment = comment;
+	}
+
+	/**
+	 * Revisions that combine sub projects need the merger, and revisions of
+	 * a parent project are generated from the ConcreteRevisions of its sub
+	 * projects, those are branched the normal way
+	 */
+	public static boolean canBranch(Revision sourceRevision, Project destination) {
+		if (sourceRevision.getConcreteRevisions().size() != 1 || destination.getParent() != null) {
+			return false;
+		}
+		return sourceRevision.getConcreteRevisions().get(0).getProject().getSchema().equals(destination.getSchema());
+	}
+
+	@Override
+	public ConcreteRevision execute() throws UserException, BimserverLockConflictException, BimserverDatabaseException {
+		final Project project = getProjectByPoid(poid);
+		if (project == null) {
+			throw new UserException("Project with poid " + poid + " not found");
+		}
+		User user = getUserByUoid(authorization.getUoid());
+		if (!authorization.hasRightsOnProjectOrSuperProjects(user, project)) {
+			throw new UserException("User has no rights to checkin models to this project");
+		}
+		ConcreteRevision base = sourceRevision.getConcreteRevisions().get(0);
+		int nrConcreteRevisionsBefore = project.getConcreteRevisions().size();
+		CreateRevisionResult result = createNewConcreteRevision(getDatabaseSession(), base.getSize(), project, user, comment.trim());
+		ConcreteRevision concreteRevision = result.getConcreteRevision();
+		project.getConcreteRevisions().add(concreteRevision);
+		concreteRevision.setChecksum(base.getChecksum());
+		concreteRevision.setSummary(base.getSummary());
+		concreteRevision.setIfcHeader(base.getIfcHeader());
+		if (nrConcreteRevisionsBefore != 0) {
+			// There already was a revision, the same as a checkin
+			concreteRevision.setClear(true);
+		}
+		final Revision revision = concreteRevision.getRevisions().get(0);
+		revision.getConcreteRevisions().clear();
+		revision.getConcreteRevisions().add(base);
+		revision.setLastConcreteRevision(base);
+		revision.setHasGeometry(sourceRevision.isHasGeometry());
+
+		Project baseProject = base.getProject();
+		bimServer.getDatabase().getCopyOnWriteBases().put(project.getId(), concreteRevision.getId(),
+				new Base(baseProject.getId(), base.getId(), AbstractDownloadDatabaseAction.findHighestStopRid(baseProject, base)), getDatabaseSession());
+
+		NewRevisionAdded newRevisionAdded = getDatabaseSession().create(NewRevisionAdded.class);
+		newRevisionAdded.setDate(new Date());
+		newRevisionAdded.setExecutor(user);
+		newRevisionAdded.setRevision(revision);
+		newRevisionAdded.setProject(project);
+		newRevisionAdded.setAccessMethod(getAccessMethod());
+
+		getDatabaseSession().addPostCommitAction(new PostCommitAction() {
+			@Override
+			public void execute() throws UserException {
+				bimServer.getNotificationsManager().notify(new NewRevisionNotification(bimServer, project.getOid(), revision.getOid()));
+			}
+		});
+
+		getDatabaseSession().store(base);
+		getDatabaseSession().store(revision);
+		getDatabaseSession().store(concreteRevision);
+		getDatabaseSession().store(project);
+		return concreteRevision;
+	}
+
+	/**
+	 * @return Whether the last ConcreteRevision of the project still reads the
+	 *         records of a copy-on-write base
+	 */
+	public static boolean isMaterialized(BimServer bimServer, DatabaseSession databaseSession, Project project) throws BimserverLockConflictException, BimserverDatabaseException {
+		ConcreteRevision concreteRevision = project.getLastConcreteRevision();
+		return concreteRevision == null || bimServer.getDatabase().getCopyOnWriteBases().get(project.getId(), concreteRevision.getId(), databaseSession) == null;
+	}
+
+	/**
+	 * Copies the records of the base into the last ConcreteRevision of the
+	 * project when that is a copy-on-write branch, so the project can be
+	 * changed. The last Revision reads the project's own records afterwards.
+	 * This writes as many records as the base has, it is run in a transaction
+	 * of its own by MaterializeBranchDatabaseAction.
+	 *
+	 * @return false when the project already had records of its own
+	 */
+	public static boolean materialize(BimServer bimServer, DatabaseSession databaseSession, Project project) throws BimserverLockConflictException, BimserverDatabaseException {
+		ConcreteRevision concreteRevision = project.getLastConcreteRevision();
+		if (concreteRevision == null) {
+			return false;
+		}
+		CopyOnWriteBases copyOnWriteBases = bimServer.getDatabase().getCopyOnWriteBases();
+		Base base = copyOnWriteBases.get(project.getId(), concreteRevision.getId(), databaseSession);
+		if (base == null) {
+			return false;
+		}
+		databaseSession.copyRecords(bimServer.getMetaDataManager().getEPackage(project.getSchema()), base.getPid(), base.getRid(), base.getStopRid(), project.getId(),
+				concreteRevision.getId());
+		copyOnWriteBases.remove(project.getId(), concreteRevision.getId(), databaseSession);
+		Revision revision = project.getLastRevision();
+		for (ConcreteRevision old : new ArrayList<ConcreteRevision>(revision.getConcreteRevisions())) {
+			revision.getConcreteRevisions().remove(old);
+			databaseSession.store(old);
+		}
+		revision.getConcreteRevisions().add(concreteRevision);
+		revision.setLastConcreteRevision(concreteRevision);
+		databaseSession.store(revision);
+		databaseSession.store(concreteRevision);
+		return true;
+	}
+
+	public long getPoid() {
+		return poid;
+	}
+}
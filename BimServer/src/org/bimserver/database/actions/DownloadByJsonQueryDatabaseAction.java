@@ -19,6 +19,7 @@ package org.bimserver.database.actions;
 
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -161,6 +162,12 @@ public class DownloadByJsonQueryDatabaseAction extends AbstractDownloadDatabaseA
 		if (typeQuery.has("type")) {
 			String type = typeQuery.get("type").getAsString();
 			EClass typeClass = getDatabaseSession().getEClass(schema, type);
+			if (typeQuery.has("fields")) {
+				// Only decode the listed fields (and the ones followed by "include") of objects of this type
+				Query projectedQuery = new Query(queryInterface.getPackageMetaData(), queryInterface.getPid(), queryInterface.getRid(), null, Deep.NO, queryInterface.getStopRid());
+				projectedQuery.setProjection(typeClass, getProjectedFeatures(query, typeQuery, typeClass));
+				queryInterface = projectedQuery;
+			}
 			getDatabaseSession().getAllOfType(model, schema, type, queryInterface);
 			if (typeQuery.has("include")) {
 				processInclude(query, typeQuery, model, queryInterface, model.getAllWithSubTypes(typeClass));
@@ -168,6 +175,38 @@ public class DownloadByJsonQueryDatabaseAction extends AbstractDownloadDatabaseA
 		}
 	}
 
+	private Set<EStructuralFeature> getProjectedFeatures(JsonObject query, JsonObject typeQuery, EClass typeClass) throws BimserverDatabaseException {
+		Set<EStructuralFeature> features = new HashSet<EStructuralFeature>();
+		for (JsonElement field : typeQuery.get("fields").getAsJsonArray()) {
+			EStructuralFeature eStructuralFeature = typeClass.getEStructuralFeature(field.getAsString());
+			if (eStructuralFeature == null) {
+				throw new BimserverDatabaseException("No field with name '" + field.getAsString() + "' found in class '" + typeClass.getName() + "'");
+			}
+			features.add(eStructuralFeature);
+		}
+		if (typeQuery.has("include")) {
+			addIncludedFeatures(query, typeQuery.get("include"), typeClass, features);
+		}
+		return features;
+	}
+
+	private void addIncludedFeatures(JsonObject query, JsonElement include, EClass typeClass, Set<EStructuralFeature> features) {
+		if (include.isJsonArray()) {
+			for (JsonElement element : include.getAsJsonArray()) {
+				addIncludedFeatures(query, element, typeClass, features);
+			}
+		} else if (include.isJsonPrimitive()) {
+			if (query.has("defines") && query.get("defines").getAsJsonObject().has(include.getAsString())) {
+				addIncludedFeatures(query, query.get("defines").getAsJsonObject().get(include.getAsString()), typeClass, features);
+			}
+		} else if (include.isJsonObject() && include.getAsJsonObject().has("field")) {
+			EStructuralFeature eStructuralFeature = typeClass.getEStructuralFeature(include.getAsJsonObject().get("field").getAsString());
+			if (eStructuralFeature != null) {
+				features.add(eStructuralFeature);
+			}
+		}
+	}
+
 	private void processInclude(JsonObject query, JsonObject queryPart, IfcModelInterface model, QueryInterface queryInterface, List<IdEObject> objects) throws BimserverDatabaseException, IfcModelInterfaceException {
 		if (queryPart.get("include").isJsonArray()) {
 			JsonArray includes = queryPart.get("include").getAsJsonArray();
@@ -36,7 +36,7 @@ import org.bimserver.shared.exceptions.UserException;
 
 public abstract class GenericCheckinDatabaseAction extends BimDatabaseAction<ConcreteRevision>{
 
-	private final IfcModelInterface model;
+	private IfcModelInterface model;
 
 	public static class CreateRevisionResult {
 		private final List<Revision> revisions = new ArrayList<Revision>();
@@ -65,6 +65,15 @@ public abstract class GenericCheckinDatabaseAction extends BimDatabaseAction<Con
 	}
 
 	protected void checkCheckSum(Project project) throws UserException {
+		checkCheckSum(project, getModel().getModelMetaData().getChecksum());
+	}
+
+	/**
+	 * Also used before a checkin is scheduled, with the checksums of the
+	 * upload: revisions checked in before the deserializers parsed bytes have
+	 * the checksum of CheckinSpool.getLegacyChecksum
+	 */
+	public static void checkCheckSum(Project project, byte[]... checksums) throws UserException {
 		ConcreteRevision lastConcreteRevision = project.getLastConcreteRevision();
 		if (lastConcreteRevision != null) {
 			int revisionId = -1;
@@ -74,9 +83,11 @@ public abstract class GenericCheckinDatabaseAction extends BimDatabaseAction<Con
 				}
 			}
 			byte[] revisionChecksum = lastConcreteRevision.getChecksum();
-			if (revisionChecksum != null && getModel().getModelMetaData().getChecksum() != null) {
-				if (Arrays.equals(revisionChecksum, getModel().getModelMetaData().getChecksum())) {
-					throw new UserException("Uploaded model is the same as last revision (" + revisionId + "), duplicate model not stored");
+			if (revisionChecksum != null) {
+				for (byte[] checksum : checksums) {
+					if (checksum != null && Arrays.equals(revisionChecksum, checksum)) {
+						throw new UserException("Uploaded model is the same as last revision (" + revisionId + "), duplicate model not stored");
+					}
 				}
 			}
 		}
@@ -159,4 +170,8 @@ public abstract class GenericCheckinDatabaseAction extends BimDatabaseAction<Con
 	public IfcModelInterface getModel() {
 		return model;
 	}
+
+	protected void setModel(IfcModelInterface model) {
+		this.model = model;
+	}
 }
\ No newline at end of file
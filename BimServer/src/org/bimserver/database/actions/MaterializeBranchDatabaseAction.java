@@ -0,0 +1,73 @@
+package org.bimserver.database.actions;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import org.bimserver.BimServer;
+import org.bimserver.database.BimserverDatabaseException;
+import org.bimserver.database.BimserverLockConflictException;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.models.log.AccessMethod;
+import org.bimserver.models.store.ConcreteRevision;
+import org.bimserver.models.store.Project;
+import org.bimserver.models.store.User;
+import org.bimserver.shared.exceptions.UserException;
+import org.bimserver.webservices.authorization.Authorization;
+
+/**
+ * Copies the records of the base of a copy-on-write branch into the branch,
+ * see CopyOnWriteBranchDatabaseAction.materialize. This is the part of
+ * branching that copy-on-write mode defers: it reads and writes every record
+ * of the base revision once, in a transaction of its own, so it is run as a
+ * LongBranchAction before the first transaction on the branch is committed.
+ */
+public class MaterializeBranchDatabaseAction extends AbstractBranchDatabaseAction {
+	private final BimServer bimServer;
+	private final Authorization authorization;
+	private final long poid;
+
+	public MaterializeBranchDatabaseAction(DatabaseSession databaseSession, AccessMethod accessMethod, BimServer bimServer, Authorization authorization, long poid) {
+		super(databaseSession, accessMethod);
+		this.bimServer = bimServer;
+		this.authorization = authorization;
+		this.poid = poid;
+	}
+
+	@Override
+	public Long getPoid() {
+		return poid;
+	}
+
+	@Override
+	public Long getRoid() {
+		return -1L;
+	}
+
+	@Override
+	public ConcreteRevision execute() throws UserException, BimserverLockConflictException, BimserverDatabaseException {
+		Project project = getProjectByPoid(poid);
+		if (project == null) {
+			throw new UserException("Project with poid " + poid + " not found");
+		}
+		User user = getUserByUoid(authorization.getUoid());
+		if (!authorization.hasRightsOnProjectOrSuperProjects(user, project)) {
+			throw new UserException("User has no rights to checkin models to this project");
+		}
+		CopyOnWriteBranchDatabaseAction.materialize(bimServer, getDatabaseSession(), project);
+		return project.getLastConcreteRevision();
+	}
+}
@@ -0,0 +1,195 @@
+package org.bimserver.database.actions;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.Map;
+
+import org.bimserver.BimServer;
+import org.bimserver.CheckinSpool;
+import org.bimserver.SummaryMap;
+import org.bimserver.database.BimserverDatabaseException;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.PostCommitAction;
+import org.bimserver.emf.ModelMetaData;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.interfaces.objects.SIfcHeader;
+import org.bimserver.mail.MailSystem;
+import org.bimserver.models.log.AccessMethod;
+import org.bimserver.models.log.NewRevisionAdded;
+import org.bimserver.models.store.ConcreteRevision;
+import org.bimserver.models.store.IfcHeader;
+import org.bimserver.models.store.Project;
+import org.bimserver.models.store.Revision;
+import org.bimserver.models.store.User;
+import org.bimserver.notifications.NewRevisionNotification;
+import org.bimserver.plugins.deserializers.DeserializeException;
+import org.bimserver.plugins.streamingdeserializers.StreamingDeserializer;
+import org.bimserver.plugins.streamingdeserializers.StreamingDeserializerPlugin;
+import org.bimserver.shared.exceptions.UserException;
+import org.bimserver.webservices.authorization.Authorization;
+import org.eclipse.emf.ecore.EClass;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checkin that does not build an IfcModel, the (already uploaded) file is
+ * parsed by a StreamingDeserializer that writes the objects directly to the
+ * database session of this action. Because the file is read from disk, a retry
+ * of this action simply parses the file again. Uploads that are the same as the
+ * last revision are refused with the checksums of the spool, before any object
+ * has been written.
+ */
+public class StreamingCheckinDatabaseAction extends GenericCheckinDatabaseAction {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(StreamingCheckinDatabaseAction.class);
+	private final BimServer bimServer;
+	private final long poid;
+	private final Authorization authorization;
+	private final String comment;
+	private final String fileName;
+	private final CheckinSpool checkinSpool;
+	private final StreamingDeserializerPlugin streamingDeserializerPlugin;
+	private ConcreteRevision concreteRevision;
+	private Project project;
+
+	public StreamingCheckinDatabaseAction(BimServer bimServer, DatabaseSession databaseSession, AccessMethod accessMethod, long poid, Authorization authorization, String comment,
+			String fileName, CheckinSpool checkinSpool, StreamingDeserializerPlugin streamingDeserializerPlugin) {
+		super(databaseSession, accessMethod, null);
+		this.bimServer = bimServer;
+		this.poid = poid;
+		this.authorization = authorization;
+		this.comment = comment;
+		this.fileName = fileName;
+		this.checkinSpool = checkinSpool;
+		this.streamingDeserializerPlugin = streamingDeserializerPlugin;
+	}
+
+	@Override
+	public ConcreteRevision execute() throws UserException, BimserverDatabaseException {
+		try {
+			authorization.canCheckin(poid);
+			project = getProjectByPoid(poid);
+			if (project == null) {
+				throw new UserException("Project with poid " + poid + " not found");
+			}
+			int nrConcreteRevisionsBefore = project.getConcreteRevisions().size();
+			User user = getUserByUoid(authorization.getUoid());
+			if (!authorization.hasRightsOnProjectOrSuperProjects(user, project)) {
+				throw new UserException("User has no rights to checkin models to this project");
+			}
+			if (!MailSystem.isValidEmailAddress(user.getUsername())) {
+				throw new UserException("Users must have a valid e-mail address to checkin");
+			}
+			checkCheckSum(project, checkinSpool.getChecksum(), checkinSpool.getLegacyChecksum());
+
+			// The size is not known until the file has been parsed, it is added to the revisions afterwards
+			CreateRevisionResult result = createNewConcreteRevision(getDatabaseSession(), 0, project, user, comment.trim());
+			concreteRevision = result.getConcreteRevision();
+			int rid = concreteRevision.getId();
+			PackageMetaData packageMetaData = bimServer.getMetaDataManager().getEPackage(project.getSchema());
+			StreamingDeserializer deserializer = streamingDeserializerPlugin.createDeserializer(null);
+			deserializer.init(packageMetaData);
+			setProgress("Parsing " + fileName + "...", -1);
+			InputStream inputStream = new FileInputStream(checkinSpool.getFile());
+			try {
+				deserializer.read(inputStream, getDatabaseSession(), project.getId(), rid, fileName, checkinSpool.getFile().length());
+			} finally {
+				inputStream.close();
+			}
+			ModelMetaData modelMetaData = deserializer.getModelMetaData();
+
+			long size = 0;
+			for (Map.Entry<EClass, Integer> entry : deserializer.getSummaryMap().entrySet()) {
+				if (entry.getKey().getEAnnotation("hidden") == null) {
+					size += entry.getValue();
+				}
+			}
+			if (size == 0) {
+				throw new UserException("Cannot checkin empty model");
+			}
+			concreteRevision.setSize(size);
+			for (Revision revision : concreteRevision.getRevisions()) {
+				revision.setSize(revision.getSize() + size);
+				getDatabaseSession().store(revision);
+			}
+			SIfcHeader ifcHeader = modelMetaData.getIfcHeader();
+			if (ifcHeader != null) {
+				IfcHeader convertFromSObject = bimServer.getSConverter().convertFromSObject(ifcHeader, getDatabaseSession());
+				getDatabaseSession().store(convertFromSObject);
+				concreteRevision.setIfcHeader(convertFromSObject);
+			}
+			project.getConcreteRevisions().add(concreteRevision);
+			concreteRevision.setChecksum(modelMetaData.getChecksum());
+			concreteRevision.setSummary(new SummaryMap(packageMetaData, deserializer.getSummaryMap()).toRevisionSummary(getDatabaseSession()));
+
+			final NewRevisionAdded newRevisionAdded = getDatabaseSession().create(NewRevisionAdded.class);
+			newRevisionAdded.setDate(new Date());
+			newRevisionAdded.setExecutor(user);
+			final Revision revision = concreteRevision.getRevisions().get(0);
+			newRevisionAdded.setRevision(revision);
+			newRevisionAdded.setProject(project);
+			newRevisionAdded.setAccessMethod(getAccessMethod());
+
+			if (nrConcreteRevisionsBefore != 0) {
+				// There already was a revision, lets delete it
+				concreteRevision.setClear(true);
+			}
+
+			getDatabaseSession().addPostCommitAction(new PostCommitAction() {
+				@Override
+				public void execute() throws UserException {
+					bimServer.getNotificationsManager().notify(new NewRevisionNotification(bimServer, project.getOid(), revision.getOid()));
+				}
+			});
+
+			getDatabaseSession().store(concreteRevision);
+			getDatabaseSession().store(project);
+		} catch (DeserializeException e) {
+			throw new UserException(e);
+		} catch (IOException e) {
+			LOGGER.error("", e);
+			throw new UserException(e);
+		} catch (Throwable e) {
+			if (e instanceof BimserverDatabaseException) {
+				throw (BimserverDatabaseException) e;
+			}
+			if (e instanceof UserException) {
+				throw (UserException) e;
+			}
+			LOGGER.error("", e);
+			throw new UserException(e);
+		}
+		return concreteRevision;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public ConcreteRevision getConcreteRevision() {
+		return concreteRevision;
+	}
+
+	public long getPoid() {
+		return poid;
+	}
+}
@@ -19,8 +19,11 @@ package org.bimserver.database.berkeley;
 
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
@@ -34,6 +37,9 @@ import org.bimserver.database.KeyValueStore;
 import org.bimserver.database.Record;
 import org.bimserver.database.RecordIterator;
 import org.bimserver.database.SearchingRecordIterator;
+import org.bimserver.database.WriteBatch;
+import org.bimserver.database.WriteBatch.Write;
+import org.eclipse.emf.ecore.EClass;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,6 +66,7 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 	private int committedWrites;
 	private int reads;
 	private final Map<String, Database> tables = new HashMap<String, Database>();
+	private final Map<EClass, Database> tablesPerEClass = new ConcurrentHashMap<EClass, Database>();
 	private boolean isNew;
 	private TransactionConfig transactionConfig;
 	private CursorConfig cursorConfig;
@@ -167,6 +174,15 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 		return database;
 	}
 
+	private Database getDatabase(EClass eClass) throws BimserverDatabaseException {
+		Database database = tablesPerEClass.get(eClass);
+		if (database == null) {
+			database = getDatabase(eClass.getEPackage().getName() + "_" + eClass.getName());
+			tablesPerEClass.put(eClass, database);
+		}
+		return database;
+	}
+
 	private Transaction getTransaction(DatabaseSession databaseSession) {
 		if (databaseSession != null) {
 			return ((BerkeleyTransaction) databaseSession.getBimTransaction()).getTransaction();
@@ -175,6 +191,7 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 	}
 
 	public void close() {
+		tablesPerEClass.clear();
 		for (Database database : tables.values()) {
 			try {
 				database.close();
@@ -373,20 +390,71 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 			Database database = getDatabase(tableName);
 			OperationStatus putNoOverwrite = database.putNoOverwrite(getTransaction(databaseSession), dbKey, dbValue);
 			if (putNoOverwrite == OperationStatus.KEYEXIST) {
-				ByteBuffer keyBuffer = ByteBuffer.wrap(key);
-				if (key.length == 16) {
-					int pid = keyBuffer.getInt();
-					long oid = keyBuffer.getLong();
-					int rid = -keyBuffer.getInt();
-					throw new BimserverConcurrentModificationDatabaseException("Key exists: pid: " + pid + ", oid: " + oid + ", rid: " + rid);
-				} else {
-					throw new BimserverConcurrentModificationDatabaseException("Key exists: " );
-				}
+				throw createKeyExistsException(key);
 			}
 		} catch (LockConflictException e) {
 			throw new BimserverLockConflictException(e);
 		} catch (DatabaseException e) {
 			throw new BimserverDatabaseException("", e);
+		}
+	}
+
+	private BimserverConcurrentModificationDatabaseException createKeyExistsException(byte[] key) {
+		ByteBuffer keyBuffer = ByteBuffer.wrap(key);
+		if (key.length == 16) {
+			int pid = keyBuffer.getInt();
+			long oid = keyBuffer.getLong();
+			int rid = -keyBuffer.getInt();
+			return new BimserverConcurrentModificationDatabaseException("Key exists: pid: " + pid + ", oid: " + oid + ", rid: " + rid);
+		} else {
+			return new BimserverConcurrentModificationDatabaseException("Key exists: " );
+		}
+	}
+
+	/**
+	 * Writes the batch table by table, sorted by key and with one cursor per
+	 * table. Inserting in key order keeps the B-tree nodes that are being
+	 * written to in the cache.
+	 */
+	@Override
+	public void storeBatch(WriteBatch batch, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException {
+		Transaction transaction = getTransaction(databaseSession);
+		for (Entry<EClass, List<Write>> entry : batch.getWrites().entrySet()) {
+			storeSorted(getDatabase(entry.getKey()), entry.getValue(), transaction);
+		}
+		for (Entry<String, List<Write>> entry : batch.getTableWrites().entrySet()) {
+			storeSorted(getDatabase(entry.getKey()), entry.getValue(), transaction);
+		}
+	}
+
+	private void storeSorted(Database database, List<Write> writes, Transaction transaction) throws BimserverDatabaseException, BimserverLockConflictException {
+		Collections.sort(writes);
+		DatabaseEntry dbKey = new DatabaseEntry();
+		DatabaseEntry dbValue = new DatabaseEntry();
+		Cursor cursor = null;
+		try {
+			cursor = database.openCursor(transaction, null);
+			for (Write write : writes) {
+				dbKey.setData(write.getKey());
+				dbValue.setData(write.getValue());
+				if (write.isOverwrite()) {
+					cursor.put(dbKey, dbValue);
+				} else if (cursor.putNoOverwrite(dbKey, dbValue) == OperationStatus.KEYEXIST) {
+					throw createKeyExistsException(write.getKey());
+				}
+			}
+		} catch (LockConflictException e) {
+			throw new BimserverLockConflictException(e);
+		} catch (DatabaseException e) {
+			throw new BimserverDatabaseException("", e);
+		} finally {
+			if (cursor != null) {
+				try {
+					cursor.close();
+				} catch (DatabaseException e) {
+					LOGGER.error("", e);
+				}
+			}
 		}
 	}
 	
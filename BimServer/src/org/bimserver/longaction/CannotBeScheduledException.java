@@ -21,4 +21,11 @@ public class CannotBeScheduledException extends Exception {
 
 	private static final long serialVersionUID = -7221931384143406512L;
 
+	public CannotBeScheduledException() {
+	}
+
+	public CannotBeScheduledException(String message) {
+		super(message);
+	}
+
 }
@@ -31,7 +31,9 @@ import org.bimserver.models.store.StoreFactory;
 import org.bimserver.notifications.ProgressNotification;
 import org.bimserver.notifications.ProgressTopic;
 import org.bimserver.plugins.Reporter;
+import org.bimserver.webservices.authorization.AdminAuthorization;
 import org.bimserver.webservices.authorization.Authorization;
+import org.bimserver.webservices.authorization.SystemAuthorization;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,13 +49,16 @@ public abstract class LongAction<T extends LongActionKey> implements Reporter, P
 	private ActionState actionState = ActionState.UNKNOWN;
 	private GregorianCalendar stop;
 	private final List<String> errors = new ArrayList<String>();
+	// The last error, for callers that wait for this action and report it themselves
+	private volatile Exception exception;
 	private final List<String> warnings = new ArrayList<String>();
 	private final List<String> infos = new ArrayList<String>();
 	private final Authorization authorization;
 	private String title = "Unknown";
 	private int stage = 0;
 	private ProgressTopic progressTopic;
-	private Thread thread;
+	private volatile Thread thread;
+	private volatile boolean terminated;
 
 	public LongAction(BimServer bimServer, String username, String userUsername, Authorization authorization) {
 		this.start = new GregorianCalendar();
@@ -92,7 +97,39 @@ public abstract class LongAction<T extends LongActionKey> implements Reporter, P
 
 	public void terminate() {
 		LOGGER.info("Terminating long action with id " + progressTopic.getKey().getId());
-		thread.interrupt();
+		// Set before looking at thread, an action that has been taken from the queue but has no thread yet sees this flag in init
+		terminated = true;
+		Thread thread = this.thread;
+		if (thread == null) {
+			// Not started yet
+			bimServer.getLongActionManager().cancelQueued(this, "Terminated");
+		} else {
+			thread.interrupt();
+		}
+	}
+
+	public boolean isTerminated() {
+		return terminated;
+	}
+
+	/**
+	 * Called by the LongActionManager when a queued action will never be
+	 * executed
+	 */
+	public void cancel(String reason) {
+		error(new CannotBeScheduledException(reason));
+		done();
+	}
+
+	/**
+	 * Queued actions with a higher priority are started first, by default
+	 * actions of admins (and the system) go first
+	 */
+	public int getPriority() {
+		if (authorization instanceof AdminAuthorization || authorization instanceof SystemAuthorization) {
+			return 1;
+		}
+		return 0;
 	}
 	
 	public GregorianCalendar getStop() {
@@ -119,6 +156,10 @@ public abstract class LongAction<T extends LongActionKey> implements Reporter, P
 
 	public void init(Thread thread) {
 		this.thread = thread;
+		if (terminated) {
+			// terminate was called between taking this action from the queue and now
+			thread.interrupt();
+		}
 	}
 	
 	
@@ -180,9 +221,17 @@ public abstract class LongAction<T extends LongActionKey> implements Reporter, P
 		return ds;
 	}
 	
+	/**
+	 * @return The last error that was reported, or null
+	 */
+	public Exception getException() {
+		return exception;
+	}
+
 	@Override
 	public void error(Exception error) {
 		LOGGER.error("", error);
+		exception = error;
 		errors.add(error.getMessage());
 		stop = new GregorianCalendar();
 		changeActionState(ActionState.AS_ERROR, error == null ? "Unknown Error" : error.getMessage(), 0);
@@ -17,8 +17,16 @@ package org.bimserver.longaction;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.util.ArrayList;
 import java.util.GregorianCalendar;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.bimserver.models.store.ActionState;
 import org.bimserver.shared.exceptions.UserException;
@@ -28,33 +36,140 @@ import org.slf4j.LoggerFactory;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 
+/**
+ * Runs long actions on a bounded number of (pooled) threads per type of
+ * action. When all threads of a type are busy, actions are queued. The next
+ * action to run is the one with the highest priority, with equal priorities
+ * the users take turns, so one user uploading many files does not block
+ * everybody else. When the queue is full, start throws a
+ * CannotBeScheduledException.
+ */
 public class LongActionManager {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(LongActionManager.class);
 	private static final int FIVE_MINUTES_IN_MS = 5000 * 60; // 5 minutes
+	private static final int DEFAULT_MAX_QUEUED = 100;
 	private final BiMap<Long, LongAction<?>> actions = HashBiMap.create();
+	private final ActionPool checkinPool;
+	private final ActionPool downloadPool;
+	private final ActionPool branchPool;
+	private final ActionPool otherPool;
+	private final ExecutorService executor;
 	private volatile boolean running = true;
 
+	public LongActionManager() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		// Checkins need a lot of memory and write a lot, fewer of them can run at the same time
+		checkinPool = new ActionPool("checkin", Math.max(1, processors / 2), DEFAULT_MAX_QUEUED);
+		downloadPool = new ActionPool("download", processors, DEFAULT_MAX_QUEUED);
+		branchPool = new ActionPool("branch", Math.max(1, processors / 4), DEFAULT_MAX_QUEUED);
+		otherPool = new ActionPool("other", processors, DEFAULT_MAX_QUEUED);
+		executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "LongAction Runner");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
 	public synchronized void start(final LongAction<?> longAction) throws CannotBeScheduledException {
-		if (running) {
-			Thread thread = new Thread(new Runnable() {
-				@Override
-				public void run() {
-					longAction.execute();
-				}
-			}, "LongAction Runner");
-			longAction.init(thread);
-			thread.setDaemon(true);
-			thread.setName(longAction.getDescription());
+		if (!running) {
+			throw new CannotBeScheduledException("Server is shutting down");
+		}
+		ActionPool pool = getPool(longAction);
+		if (pool.canRun()) {
 			actions.put(longAction.getProgressTopic().getKey().getId(), longAction);
-			thread.start();
+			run(pool, longAction);
+		} else if (pool.getNrQueued() >= pool.getMaxQueued()) {
+			throw new CannotBeScheduledException("Too many " + pool.getName() + " actions waiting (" + pool.getNrQueued() + "), please try again later");
 		} else {
-			throw new CannotBeScheduledException();
+			actions.put(longAction.getProgressTopic().getKey().getId(), longAction);
+			pool.add(longAction);
+			reportQueuePositions(pool);
+		}
+	}
+
+	private ActionPool getPool(LongAction<?> longAction) {
+		if (longAction instanceof LongCheckinAction) {
+			return checkinPool;
+		} else if (longAction instanceof LongDownloadOrCheckoutAction) {
+			return downloadPool;
+		} else if (longAction instanceof LongBranchAction) {
+			return branchPool;
 		}
+		return otherPool;
+	}
+
+	private void run(final ActionPool pool, final LongAction<?> longAction) {
+		pool.incrementRunning();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				Thread thread = Thread.currentThread();
+				thread.setName(longAction.getDescription());
+				try {
+					if (longAction.isTerminated()) {
+						// Terminated after it was taken from the queue, init would only open sessions that execute closes
+						longAction.cancel("Terminated");
+					} else {
+						longAction.init(thread);
+						longAction.execute();
+					}
+				} finally {
+					// Clear a possible interrupt, the thread is reused
+					Thread.interrupted();
+					thread.setName("LongAction Runner");
+					finished(pool);
+				}
+			}
+		});
+	}
+
+	private synchronized void finished(ActionPool pool) {
+		pool.decrementRunning();
+		if (running) {
+			boolean started = false;
+			while (pool.canRunQueued()) {
+				run(pool, pool.next());
+				started = true;
+			}
+			if (started) {
+				reportQueuePositions(pool);
+			}
+		}
+	}
+
+	private void reportQueuePositions(ActionPool pool) {
+		List<LongAction<?>> order = pool.getOrder();
+		for (int i = 0; i < order.size(); i++) {
+			order.get(i).updateProgress("Waiting in queue (position " + (i + 1) + " of " + order.size() + ")", -1);
+		}
+	}
+
+	/**
+	 * Removes the action from its queue when it has not been started yet
+	 *
+	 * @return Whether the action was still queued
+	 */
+	public synchronized boolean cancelQueued(LongAction<?> longAction, String reason) {
+		ActionPool pool = getPool(longAction);
+		if (pool.remove(longAction)) {
+			longAction.cancel(reason);
+			reportQueuePositions(pool);
+			return true;
+		}
+		return false;
 	}
 
 	public synchronized void shutdown() {
 		running = false;
+		for (ActionPool pool : new ActionPool[] { checkinPool, downloadPool, branchPool, otherPool }) {
+			while (pool.getNrQueued() > 0) {
+				pool.next().cancel("Server is shutting down");
+			}
+		}
 	}
 
 	public synchronized LongAction<?> getLongAction(long id) {
@@ -71,6 +186,7 @@ public class LongActionManager {
 				GregorianCalendar stop = longAction.getStop();
 				if (now.getTimeInMillis() - stop.getTimeInMillis() > FIVE_MINUTES_IN_MS) {
 					LOGGER.info("Cleaning up long running action: " + longAction.getDescription() + " - " + longAction.getClass().getSimpleName());
+					longAction.stop();
 					iterator.remove();
 				}
 			}
@@ -80,11 +196,14 @@ public class LongActionManager {
 	/*
 	 * Untested method
 	 */
-	public synchronized void shutdownGracefully() {
-		running = false;
-		Iterator<LongAction<?>> iterator = actions.values().iterator();
-		while (iterator.hasNext()) {
-			LongAction<?> longAction = iterator.next();
+	public void shutdownGracefully() {
+		List<LongAction<?>> longActions;
+		synchronized (this) {
+			shutdown();
+			longActions = new ArrayList<LongAction<?>>(actions.values());
+		}
+		// Not holding the lock, running actions need it to finish
+		for (LongAction<?> longAction : longActions) {
 			longAction.waitForCompletion();
 		}
 	}
@@ -93,6 +212,7 @@ public class LongActionManager {
 		LongAction<?> longAction = actions.get(topicId);
 		if (longAction != null) {
 			LOGGER.debug("Cleaning up long running action: " + longAction.getDescription() + " (" + longAction.getProgressTopic().getKey().getId() + ")");
+			cancelQueued(longAction, "Removed");
 			longAction.stop();
 			actions.remove(topicId);
 		} else {
@@ -102,7 +222,129 @@ public class LongActionManager {
 
 	public synchronized void remove(LongAction<?> action) {
 		LOGGER.info("Cleaning up long running action: " + action.getDescription());
+		cancelQueued(action, "Removed");
 		action.stop();
 		actions.inverse().remove(action);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * The running count and the queues of one type of long action. There is
+	 * a queue per user, the order of the users is the order in which they
+	 * are served next.
+	 */
+	private static class ActionPool {
+		private final String name;
+		private final int maxRunning;
+		private final int maxQueued;
+		private final LinkedHashMap<String, LinkedList<LongAction<?>>> queues = new LinkedHashMap<String, LinkedList<LongAction<?>>>();
+		private int running;
+		private int nrQueued;
+
+		public ActionPool(String name, int maxRunning, int maxQueued) {
+			this.name = name;
+			this.maxRunning = maxRunning;
+			this.maxQueued = maxQueued;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getMaxQueued() {
+			return maxQueued;
+		}
+
+		public int getNrQueued() {
+			return nrQueued;
+		}
+
+		public boolean canRun() {
+			return running < maxRunning && nrQueued == 0;
+		}
+
+		public boolean canRunQueued() {
+			return running < maxRunning && nrQueued > 0;
+		}
+
+		public void incrementRunning() {
+			running++;
+		}
+
+		public void decrementRunning() {
+			running--;
+		}
+
+		public void add(LongAction<?> longAction) {
+			LinkedList<LongAction<?>> queue = queues.get(longAction.getUserUsername());
+			if (queue == null) {
+				queue = new LinkedList<LongAction<?>>();
+				queues.put(longAction.getUserUsername(), queue);
+			}
+			queue.add(longAction);
+			nrQueued++;
+		}
+
+		public boolean remove(LongAction<?> longAction) {
+			LinkedList<LongAction<?>> queue = queues.get(longAction.getUserUsername());
+			if (queue != null && queue.remove(longAction)) {
+				if (queue.isEmpty()) {
+					queues.remove(longAction.getUserUsername());
+				}
+				nrQueued--;
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Takes the next action, the user it belongs to moves to the back
+		 */
+		public LongAction<?> next() {
+			String user = selectUser(queues);
+			LinkedList<LongAction<?>> queue = queues.remove(user);
+			LongAction<?> longAction = queue.removeFirst();
+			if (!queue.isEmpty()) {
+				queues.put(user, queue);
+			}
+			nrQueued--;
+			return longAction;
+		}
+
+		/**
+		 * @return The queued actions in the order next would return them
+		 */
+		public List<LongAction<?>> getOrder() {
+			LinkedHashMap<String, LinkedList<LongAction<?>>> copy = new LinkedHashMap<String, LinkedList<LongAction<?>>>();
+			for (Map.Entry<String, LinkedList<LongAction<?>>> entry : queues.entrySet()) {
+				copy.put(entry.getKey(), new LinkedList<LongAction<?>>(entry.getValue()));
+			}
+			List<LongAction<?>> order = new ArrayList<LongAction<?>>(nrQueued);
+			while (!copy.isEmpty()) {
+				String user = selectUser(copy);
+				LinkedList<LongAction<?>> queue = copy.remove(user);
+				order.add(queue.removeFirst());
+				if (!queue.isEmpty()) {
+					copy.put(user, queue);
+				}
+			}
+			return order;
+		}
+
+		/**
+		 * The user with the highest priority action at the front of the queue,
+		 * with equal priorities the user that has waited longest
+		 */
+		private static String selectUser(LinkedHashMap<String, LinkedList<LongAction<?>>> queues) {
+			String selected = null;
+			int highestPriority = Integer.MIN_VALUE;
+			for (Map.Entry<String, LinkedList<LongAction<?>>> entry : queues.entrySet()) {
+				int priority = entry.getValue().getFirst().getPriority();
+				if (priority > highestPriority) {
+					highestPriority = priority;
+					selected = entry.getKey();
+				}
+			}
+			return selected;
+		}
+	}
+}
@@ -21,6 +21,8 @@ import org.bimserver.BimServer;
 import org.bimserver.database.DatabaseSession;
 import org.bimserver.database.ProgressHandler;
 import org.bimserver.database.actions.CheckinDatabaseAction;
+import org.bimserver.database.actions.GenericCheckinDatabaseAction;
+import org.bimserver.database.actions.StreamingCheckinDatabaseAction;
 import org.bimserver.database.berkeley.BimserverConcurrentModificationDatabaseException;
 import org.bimserver.interfaces.objects.SProgressTopicType;
 import org.bimserver.models.store.ActionState;
@@ -32,15 +34,23 @@ import org.slf4j.LoggerFactory;
 public class LongCheckinAction extends LongAction<LongCheckinActionKey> {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(LongCheckinAction.class);
-	private CheckinDatabaseAction checkinDatabaseAction;
+	private GenericCheckinDatabaseAction checkinDatabaseAction;
 	private String fileName;
 
 	public LongCheckinAction(BimServer bimServer, String username, String userUsername, Authorization authorization, CheckinDatabaseAction checkinDatabaseAction) {
+		this(bimServer, username, userUsername, authorization, checkinDatabaseAction, checkinDatabaseAction.getPoid(), checkinDatabaseAction.getFileName());
+	}
+
+	public LongCheckinAction(BimServer bimServer, String username, String userUsername, Authorization authorization, StreamingCheckinDatabaseAction checkinDatabaseAction) {
+		this(bimServer, username, userUsername, authorization, checkinDatabaseAction, checkinDatabaseAction.getPoid(), checkinDatabaseAction.getFileName());
+	}
+
+	private LongCheckinAction(BimServer bimServer, String username, String userUsername, Authorization authorization, GenericCheckinDatabaseAction checkinDatabaseAction, long poid, String fileName) {
 		super(bimServer, username, userUsername, authorization);
 		this.checkinDatabaseAction = checkinDatabaseAction;
-		this.fileName = checkinDatabaseAction.getFileName();
+		this.fileName = fileName;
 		
-		setProgressTopic(bimServer.getNotificationsManager().createProgressOnProjectTopic(authorization.getUoid(), checkinDatabaseAction.getPoid(), SProgressTopicType.UPLOAD, "Checkin"));
+		setProgressTopic(bimServer.getNotificationsManager().createProgressOnProjectTopic(authorization.getUoid(), poid, SProgressTopicType.UPLOAD, "Checkin"));
 		checkinDatabaseAction.addProgressListener(this);
 	}
 
@@ -20,6 +20,7 @@ package org.bimserver.longaction;
 import javax.activation.DataHandler;
 
 import org.bimserver.BimServer;
+import org.bimserver.ObjectSpill;
 import org.bimserver.database.BimserverDatabaseException;
 import org.bimserver.database.DatabaseSession;
 import org.bimserver.database.Query;
@@ -50,6 +51,8 @@ public abstract class LongDownloadOrCheckoutAction extends LongAction<DownloadPa
 	protected final AccessMethod accessMethod;
 	protected final DownloadParameters downloadParameters;
 	protected SCheckoutResult checkoutResult;
+	// Of the session the model was read in, closed when this action is removed
+	private ObjectSpill objectSpill;
 
 	protected LongDownloadOrCheckoutAction(BimServer bimServer, String username, String userUsername, DownloadParameters downloadParameters, AccessMethod accessMethod,
 			Authorization authorization) {
@@ -67,6 +70,14 @@ public abstract class LongDownloadOrCheckoutAction extends LongAction<DownloadPa
 		return checkoutResult;
 	}
 
+	@Override
+	public void stop() {
+		super.stop();
+		if (objectSpill != null) {
+			objectSpill.close();
+		}
+	}
+
 	protected SCheckoutResult convertModelToCheckoutResult(Project project, String username, IfcModelInterface model, RenderEnginePlugin renderEnginePlugin, DownloadParameters downloadParameters)
 			throws UserException, NoSerializerFoundException {
 		SCheckoutResult checkoutResult = new SCheckoutResult();
@@ -112,6 +123,8 @@ public abstract class LongDownloadOrCheckoutAction extends LongAction<DownloadPa
 															// executeAndCommitAction
 															// the session won't
 															// be usable
+				// The model is serialized after the session has been closed
+				objectSpill = session.detachObjectSpill();
 				IfcModelInterface ifcModel = session.executeAndCommitAction(action);
 				// Session is closed after this
 
@@ -62,6 +62,7 @@ public class NotificationsManager {
 
 	private final JsonSocketReflectorFactory jsonSocketReflectorFactory;
 	private final BimServer bimServer;
+	private final ProgressDispatcher progressDispatcher = new ProgressDispatcher();
 	private String url;
 
 	public NotificationsManager(BimServer bimServer, JsonSocketReflectorFactory jsonSocketReflectorFactory) {
@@ -107,6 +108,11 @@ public class NotificationsManager {
 	}
 	
 	public void shutdown() {
+		progressDispatcher.shutdown();
+	}
+
+	public ProgressDispatcher getProgressDispatcher() {
+		return progressDispatcher;
 	}
 
 	public NewRevisionTopic getNewRevisionTopic() {
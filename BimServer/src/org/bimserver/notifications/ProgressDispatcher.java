@@ -0,0 +1,274 @@
+package org.bimserver.notifications;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bimserver.endpoints.EndPoint;
+import org.bimserver.interfaces.SConverter;
+import org.bimserver.models.store.ActionState;
+import org.bimserver.models.store.LongActionState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers progress updates to endpoints on its own threads, so a slow
+ * endpoint (for example a remote JSON channel) does not hold up the action
+ * that reports progress or the other endpoints.
+ *
+ * Every endpoint has a queue with at most one update per topic, a newer
+ * update replaces the queued one (coalesced). An endpoint gets at most one
+ * batch of updates per RATE_LIMIT_NANO_SECONDS, new endpoints get their first
+ * update right away. When an endpoint has MAX_QUEUED_TOPICS topics queued, the
+ * oldest queued update is dropped, final updates (finished, error, 100%) are
+ * only dropped when there is nothing else.
+ *
+ * A batch is sent on a thread of its own (at most one per endpoint), the
+ * scheduler thread only starts batches, so one endpoint that blocks never
+ * delays another. A batch that takes longer than SEND_TIMEOUT_MILLIS is
+ * interrupted and the rest of it is dropped. Until the send has returned,
+ * new updates for that endpoint are only queued (and coalesced).
+ *
+ * Administrators can see the counters with the download servlet (action
+ * getfile, type progressdispatcher), see getReport.
+ */
+public class ProgressDispatcher {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProgressDispatcher.class);
+	private static final long RATE_LIMIT_NANO_SECONDS = 200000000; // 200ms
+	private static final long SEND_TIMEOUT_MILLIS = 10000;
+	private static final int MAX_QUEUED_TOPICS = 100;
+	private final Map<EndPoint, EndPointQueue> queues = new HashMap<EndPoint, EndPointQueue>();
+	private final AtomicLong nrDelivered = new AtomicLong();
+	private final AtomicLong nrCoalesced = new AtomicLong();
+	private final AtomicLong nrDropped = new AtomicLong();
+	private final AtomicLong nrTimedOut = new AtomicLong();
+	private final ScheduledExecutorService scheduler;
+	private final ExecutorService senders;
+
+	public ProgressDispatcher() {
+		ScheduledThreadPoolExecutor scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("ProgressDispatcher"));
+		scheduledThreadPoolExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		this.scheduler = scheduledThreadPoolExecutor;
+		this.senders = Executors.newCachedThreadPool(new NamedThreadFactory("ProgressSender"));
+	}
+
+	public void dispatch(EndPoint endPoint, long topicId, LongActionState state) {
+		synchronized (queues) {
+			EndPointQueue queue = queues.get(endPoint);
+			if (queue == null) {
+				queue = new EndPointQueue(endPoint);
+				queues.put(endPoint, queue);
+			}
+			queue.add(topicId, state);
+			if (!queue.scheduled) {
+				queue.scheduled = true;
+				try {
+					scheduler.execute(queue);
+				} catch (RejectedExecutionException e) {
+					// Shutting down
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The number of updates sent to endpoints
+	 */
+	public long getNrDelivered() {
+		return nrDelivered.get();
+	}
+
+	/**
+	 * @return The number of updates that were replaced by a newer update of
+	 *         the same topic before they were sent
+	 */
+	public long getNrCoalesced() {
+		return nrCoalesced.get();
+	}
+
+	/**
+	 * @return The number of updates that were dropped because the queue of an
+	 *         endpoint was full, or because sending them timed out
+	 */
+	public long getNrDropped() {
+		return nrDropped.get();
+	}
+
+	/**
+	 * @return The number of batches that were interrupted because the
+	 *         endpoint did not take them within SEND_TIMEOUT_MILLIS
+	 */
+	public long getNrTimedOut() {
+		return nrTimedOut.get();
+	}
+
+	/**
+	 * @return The counters, one per line
+	 */
+	public String getReport() {
+		StringBuilder report = new StringBuilder();
+		synchronized (queues) {
+			report.append("Endpoints\t").append(queues.size()).append("\n");
+		}
+		report.append("Delivered\t").append(getNrDelivered()).append("\n");
+		report.append("Coalesced\t").append(getNrCoalesced()).append("\n");
+		report.append("Dropped\t").append(getNrDropped()).append("\n");
+		report.append("Timed out batches\t").append(getNrTimedOut()).append("\n");
+		return report.toString();
+	}
+
+	public void shutdown() {
+		scheduler.shutdownNow();
+		senders.shutdownNow();
+		LOGGER.info("Progress updates delivered: " + nrDelivered.get() + ", coalesced: " + nrCoalesced.get() + ", dropped: " + nrDropped.get() + ", timed out batches: " + nrTimedOut.get());
+	}
+
+	private static boolean isFinal(LongActionState state) {
+		return state.getProgress() == 100 || state.getState() == ActionState.FINISHED || state.getState() == ActionState.AS_ERROR;
+	}
+
+	private static class NamedThreadFactory implements ThreadFactory {
+		private final AtomicInteger counter = new AtomicInteger();
+		private final String name;
+
+		public NamedThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	private class EndPointQueue implements Runnable {
+		private final EndPoint endPoint;
+		// Guarded by queues
+		private final LinkedHashMap<Long, LongActionState> pending = new LinkedHashMap<Long, LongActionState>();
+		private boolean scheduled;
+
+		public EndPointQueue(EndPoint endPoint) {
+			this.endPoint = endPoint;
+		}
+
+		private void add(long topicId, LongActionState state) {
+			if (pending.put(topicId, state) != null) {
+				nrCoalesced.incrementAndGet();
+			} else if (pending.size() > MAX_QUEUED_TOPICS) {
+				dropOldest();
+			}
+		}
+
+		private void dropOldest() {
+			Iterator<LongActionState> iterator = pending.values().iterator();
+			while (iterator.hasNext()) {
+				if (!isFinal(iterator.next())) {
+					iterator.remove();
+					nrDropped.incrementAndGet();
+					return;
+				}
+			}
+			pending.remove(pending.keySet().iterator().next());
+			nrDropped.incrementAndGet();
+		}
+
+		/**
+		 * Hands what is queued to a sender thread, which runs this again
+		 * after the rate limit when it is done. When nothing has been queued
+		 * in the meantime the queue is removed, so the rate limit also holds
+		 * for updates that come in one by one.
+		 */
+		@Override
+		public void run() {
+			final Map<Long, LongActionState> toSend;
+			synchronized (queues) {
+				if (pending.isEmpty()) {
+					scheduled = false;
+					queues.remove(endPoint);
+					return;
+				}
+				toSend = new LinkedHashMap<Long, LongActionState>(pending);
+				pending.clear();
+			}
+			try {
+				final AtomicBoolean started = new AtomicBoolean();
+				final Future<?> sending = senders.submit(new Runnable() {
+					@Override
+					public void run() {
+						started.set(true);
+						send(toSend);
+					}
+				});
+				scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						// A batch that has not started yet can not be cancelled, it has to run to schedule the next one
+						if (started.get() && sending.cancel(true)) {
+							nrTimedOut.incrementAndGet();
+							LOGGER.warn("Sending progress updates to endpoint " + endPoint.getEndPointId() + " took more than " + SEND_TIMEOUT_MILLIS + "ms");
+						}
+					}
+				}, SEND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// Shutting down
+			}
+		}
+
+		private void send(Map<Long, LongActionState> toSend) {
+			int sent = 0;
+			try {
+				SConverter converter = new SConverter();
+				for (Map.Entry<Long, LongActionState> entry : toSend.entrySet()) {
+					if (Thread.currentThread().isInterrupted()) {
+						break;
+					}
+					try {
+						endPoint.getNotificationInterface().progress(entry.getKey(), converter.convertToSObject(entry.getValue()));
+						nrDelivered.incrementAndGet();
+					} catch (Exception e) {
+						LOGGER.error("", e);
+					}
+					sent++;
+				}
+			} finally {
+				nrDropped.addAndGet(toSend.size() - sent);
+				try {
+					scheduler.schedule(this, RATE_LIMIT_NANO_SECONDS, TimeUnit.NANOSECONDS);
+				} catch (RejectedExecutionException e) {
+					// Shutting down
+				}
+			}
+		}
+	}
+}
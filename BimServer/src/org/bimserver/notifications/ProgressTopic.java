@@ -19,9 +19,7 @@ package org.bimserver.notifications;
 
 import org.bimserver.database.BimserverDatabaseException;
 import org.bimserver.endpoints.EndPoint;
-import org.bimserver.interfaces.SConverter;
 import org.bimserver.interfaces.objects.SProgressTopicType;
-import org.bimserver.models.store.ActionState;
 import org.bimserver.models.store.LongActionState;
 import org.bimserver.shared.exceptions.ServerException;
 import org.bimserver.shared.exceptions.UserException;
@@ -31,12 +29,10 @@ import org.slf4j.LoggerFactory;
 public class ProgressTopic extends Topic {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(ProgressTopic.class);
-	private static final int RATE_LIMIT_NANO_SECONDS = 200000000; // 400ms
 	private SProgressTopicType type;
 	private String description;
 	private ProgressTopicKey key;
 	private volatile LongActionState lastProgress;
-	private long lastSent = -1;
 
 	public ProgressTopic(NotificationsManager notificationsManager, ProgressTopicKey key, SProgressTopicType type, String description) {
 		super(notificationsManager);
@@ -49,25 +45,22 @@ public class ProgressTopic extends Topic {
 		return key;
 	}
 
-	public synchronized void updateProgress(final LongActionState state) {
-		// Actually we should be keeping track of when we last sent a message to A SPECIFIC ENDPOINT, this way, new endpoints won't receive the message rights away
-		if (lastSent == -1 || System.nanoTime() - lastSent > RATE_LIMIT_NANO_SECONDS || state.getProgress() == 100 || state.getState() == ActionState.FINISHED || state.getState() == ActionState.AS_ERROR) {
-			try {
-				map(new Mapper(){
-					@Override
-					public void map(EndPoint endPoint) throws UserException, ServerException, BimserverDatabaseException {
-						try {
-							endPoint.getNotificationInterface().progress(key.getId(), new SConverter().convertToSObject(state));
-						} catch (Exception e) {
-							LOGGER.error("", e);
-						}
-					}
-				});
-			} catch (Exception e) {
-				LOGGER.error("", e);
-			}
-			lastProgress = state;
-			lastSent = System.nanoTime();
+	/**
+	 * Queues the update for every endpoint in the ProgressDispatcher, which does
+	 * the rate limiting and the actual (possibly slow) sending
+	 */
+	public void updateProgress(final LongActionState state) {
+		lastProgress = state;
+		final ProgressDispatcher progressDispatcher = getNotificationsManager().getProgressDispatcher();
+		try {
+			map(new Mapper(){
+				@Override
+				public void map(EndPoint endPoint) throws UserException, ServerException, BimserverDatabaseException {
+					progressDispatcher.dispatch(endPoint, key.getId(), state);
+				}
+			});
+		} catch (Exception e) {
+			LOGGER.error("", e);
 		}
 	}
 
@@ -18,10 +18,12 @@ package org.bimserver.servlets;
  *****************************************************************************/
 
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.zip.GZIPOutputStream;
@@ -52,6 +54,8 @@ import org.bimserver.shared.exceptions.ServerException;
 import org.bimserver.shared.exceptions.ServiceException;
 import org.bimserver.shared.exceptions.UserException;
 import org.bimserver.webservices.ServiceMap;
+import org.bimserver.webservices.authorization.AdminAuthorization;
+import org.bimserver.webservices.authorization.SystemAuthorization;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,6 +63,7 @@ import com.google.common.base.Charsets;
 
 public class DownloadServlet extends SubServlet {
 	private static final Logger LOGGER = LoggerFactory.getLogger(DownloadServlet.class);
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
 
 	public DownloadServlet(BimServer bimServer, ServletContext servletContext) {
 		super(bimServer, servletContext);
@@ -66,6 +71,7 @@ public class DownloadServlet extends SubServlet {
 
 	@Override
 	public void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		OutputStream outputStream = null;
 		try {
 			if (request.getHeader("Origin") != null && !getBimServer().getServerSettingsCache().isHostAllowed(request.getHeader("Origin"))) {
 				response.setStatus(403);
@@ -73,13 +79,7 @@ public class DownloadServlet extends SubServlet {
 			}
 			response.setHeader("Access-Control-Allow-Origin", request.getHeader("Origin"));
 			response.setHeader("Access-Control-Allow-Headers", "Content-Type");
-			boolean useGzip = true;
-			OutputStream outputStream = response.getOutputStream();
 			boolean zip = request.getParameter("zip") != null && request.getParameter("zip").equals("on");
-			if (useGzip && !zip) {
-				response.setHeader("Content-Encoding", "gzip");
-				outputStream = new GZIPOutputStream(response.getOutputStream());
-			}
 			String token = (String) request.getSession().getAttribute("token");
 
 			if (token == null) {
@@ -89,6 +89,7 @@ public class DownloadServlet extends SubServlet {
 
 			String action = request.getParameter("action");
 			if (action != null) {
+				outputStream = createOutputStream(request, response, zip);
 				if (action.equals("extendeddata")) {
 					SExtendedData sExtendedData = serviceMap.getBimsie1ServiceInterface().getExtendedData(Long.parseLong(request.getParameter("edid")));
 					SFile file = serviceMap.getServiceInterface().getFile(sExtendedData.getFileId());
@@ -124,6 +125,24 @@ public class DownloadServlet extends SubServlet {
 						} catch (UserException e) {
 							LOGGER.error("", e);
 						}
+					} else if (type.equals("outputfilecache")) {
+						if (serviceMap.getAuthorization() instanceof AdminAuthorization || serviceMap.getAuthorization() instanceof SystemAuthorization) {
+							response.setContentType("text/plain; charset=UTF-8");
+							OutputStreamWriter writer = new OutputStreamWriter(outputStream, Charsets.UTF_8);
+							writer.write(getBimServer().getDiskCacheManager().getReport());
+							writer.flush();
+						} else {
+							response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+						}
+					} else if (type.equals("progressdispatcher")) {
+						if (serviceMap.getAuthorization() instanceof AdminAuthorization || serviceMap.getAuthorization() instanceof SystemAuthorization) {
+							response.setContentType("text/plain; charset=UTF-8");
+							OutputStreamWriter writer = new OutputStreamWriter(outputStream, Charsets.UTF_8);
+							writer.write(getBimServer().getNotificationsManager().getProgressDispatcher().getReport());
+							writer.flush();
+						} else {
+							response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+						}
 					}
 				}
 			} else {
@@ -222,6 +241,7 @@ public class DownloadServlet extends SubServlet {
 							response.setHeader("Content-Disposition", "inline; filename=\"" + dataSource.getName() + ".zip" + "\"");
 						}
 						response.setContentType("application/zip");
+						outputStream = createOutputStream(request, response, zip);
 						String nameInZip = checkoutResult.getProjectName() + "." + checkoutResult.getRevisionNr() + "." + pluginConfiguration.getString(SerializerPlugin.EXTENSION);
 						ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
 						zipOutputStream.putNextEntry(new ZipEntry(nameInZip));
@@ -248,9 +268,13 @@ public class DownloadServlet extends SubServlet {
 						try {
 							if (dataSource == null) {
 								LOGGER.error("No datasource");
+							} else if (dataSource instanceof FileInputStreamDataSource) {
+								sendFile(request, response, (FileInputStreamDataSource) dataSource);
 							} else if (dataSource instanceof EmfSerializerDataSource) {
+								outputStream = createOutputStream(request, response, zip);
 								((EmfSerializerDataSource) dataSource).writeToOutputStream(outputStream);
 							} else {
+								outputStream = createOutputStream(request, response, zip);
 								InputStream inputStream = dataSource.getInputStream();
 								IOUtils.copy(inputStream, outputStream);
 								inputStream.close();
@@ -264,7 +288,9 @@ public class DownloadServlet extends SubServlet {
 			if (outputStream instanceof GZIPOutputStream) {
 				((GZIPOutputStream) outputStream).finish();
 			}
-			outputStream.flush();
+			if (outputStream != null) {
+				outputStream.flush();
+			}
 		} catch (NumberFormatException e) {
 			LOGGER.error("", e);
 			response.getWriter().println("Some number was incorrectly formatted");
@@ -276,4 +302,119 @@ public class DownloadServlet extends SubServlet {
 			LOGGER.error("", e);
 		}
 	}
+
+	private OutputStream createOutputStream(HttpServletRequest request, HttpServletResponse response, boolean zip) throws IOException {
+		if (!zip && acceptsGzip(request)) {
+			response.setHeader("Content-Encoding", "gzip");
+			response.setHeader("Vary", "Accept-Encoding");
+			return new GZIPOutputStream(response.getOutputStream());
+		}
+		return response.getOutputStream();
+	}
+
+	static boolean acceptsGzip(HttpServletRequest request) {
+		String acceptEncoding = request.getHeader("Accept-Encoding");
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parts = coding.trim().split(";");
+			if (parts[0].trim().equalsIgnoreCase("gzip") || parts[0].trim().equals("*")) {
+				return parts.length == 1 || !parts[1].trim().matches("q=0(\\.0*)?");
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Sends a file from the DiskCacheManager. A cached file belongs to one
+	 * revision (or compare) and serializer and doesn't change, so it gets a
+	 * strong ETag. The gzip variant is sent as it is, byte ranges are served
+	 * from the uncompressed file.
+	 */
+	static void sendFile(HttpServletRequest request, HttpServletResponse response, FileInputStreamDataSource dataSource) throws IOException {
+		File file = dataSource.getFile();
+		String version = file.getName() + "-" + Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified());
+		String eTag = "\"" + version + "\"";
+		response.setHeader("Accept-Ranges", "bytes");
+		response.setHeader("Vary", "Accept-Encoding");
+		String range = request.getHeader("Range");
+		if (range != null && request.getHeader("If-Range") != null && !request.getHeader("If-Range").equals(eTag)) {
+			range = null;
+		}
+		if (range == null && dataSource.getGzipFile() != null && acceptsGzip(request)) {
+			file = dataSource.getGzipFile();
+			eTag = "\"" + version + "-gzip\"";
+			response.setHeader("Content-Encoding", "gzip");
+		}
+		response.setHeader("ETag", eTag);
+		if (matches(request.getHeader("If-None-Match"), eTag)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		long length = file.length();
+		long start = 0;
+		long end = length - 1;
+		if (range != null && range.startsWith("bytes=") && !range.contains(",")) {
+			String[] bounds = range.substring(6).trim().split("-", -1);
+			try {
+				if (bounds[0].isEmpty()) {
+					start = Math.max(0, length - Long.parseLong(bounds[1]));
+				} else {
+					start = Long.parseLong(bounds[0]);
+					if (!bounds[1].isEmpty()) {
+						end = Math.min(end, Long.parseLong(bounds[1]));
+					}
+				}
+			} catch (NumberFormatException e) {
+				// Invalid ranges are ignored, the whole file is sent
+				start = 0;
+				end = length - 1;
+			}
+			if (start >= length || start > end) {
+				response.setHeader("Content-Range", "bytes */" + length);
+				response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+			if (start != 0 || end != length - 1) {
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+			}
+		}
+		response.setHeader("Content-Length", Long.toString(end - start + 1));
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			randomAccessFile.seek(start);
+			OutputStream outputStream = response.getOutputStream();
+			byte[] buffer = new byte[COPY_BUFFER_SIZE];
+			long remaining = end - start + 1;
+			while (remaining > 0) {
+				int read = randomAccessFile.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (read == -1) {
+					throw new EOFException("Cached file " + file.getName() + " is shorter than expected");
+				}
+				outputStream.write(buffer, 0, read);
+				remaining -= read;
+			}
+			outputStream.flush();
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	static boolean matches(String ifNoneMatch, String eTag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals("*") || candidate.equals(eTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
 }
\ No newline at end of file
@@ -21,13 +21,22 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
-import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
+import java.util.Arrays;
 import java.util.GregorianCalendar;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.activation.DataSource;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.NullWriter;
 import org.bimserver.BimServer;
 import org.bimserver.cache.FileInputStreamDataSource;
@@ -66,63 +75,176 @@ public class Streamer implements EndPoint {
 		remoteServiceInterface = bimServer.getReflectorFactory().createReflector(Bimsie1RemoteServiceInterface.class, new JsonWebsocketReflector(bimServer.getServicesMap(), streamingSocketInterface));
 	}
 
+	/**
+	 * @return The threads downloads over websockets share, more downloads have
+	 *         to wait, the BimServer owns them
+	 */
+	public static ExecutorService createDownloadExecutor() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(Runtime.getRuntime().availableProcessors() * 2, Runtime.getRuntime().availableProcessors() * 2, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger counter = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "Streamer-" + counter.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
 	public void onOpen() {
 		JsonObject welcome = new JsonObject();
 		welcome.add("welcome", new JsonPrimitive(new GregorianCalendar().getTimeInMillis()));
 		streamingSocketInterface.send(welcome);
 	}
 	
+	/**
+	 * Everything written between two flushes is one logical message, it is
+	 * sent as one or more binary websocket messages of at most BUFFER_SIZE
+	 * bytes. Each one starts with a HEADER_SIZE header: the topic id and an
+	 * int that is 1 when more parts of the same logical message follow and 0
+	 * for the last part. The client (bimserverapi.js) concatenates the parts
+	 * and hands the listener the topic id followed by the data, so listeners
+	 * still get a whole message. The parts are not sent as websocket
+	 * fragments because text notifications can be sent in between.
+	 *
+	 * All parts but the last carry a multiple of 4 bytes of data, so
+	 * align4() can align relative to the position in the buffer.
+	 *
+	 * Two pooled buffers are used, one is filled while the other one is being
+	 * sent. Before a buffer is reused the send of it has to be completed, so a
+	 * slow client slows down the serializer instead of making the server
+	 * buffer everything. A buffer whose send timed out or failed might still
+	 * be read by the socket, it is dropped instead of reused.
+	 */
 	public static class WebSocketifier extends OutputStream implements AligningOutputStream {
-		private byte[] buffer = new byte[1024 * 1024 * 100];
+		public static final int BUFFER_SIZE = 64 * 1024;
+		public static final int HEADER_SIZE = 8;
+		private static final BlockingQueue<byte[]> BUFFER_POOL = new ArrayBlockingQueue<byte[]>(256);
+		private static final long SEND_TIMEOUT_SECONDS = 300;
+		private final StreamingSocketInterface streamingSocketInterface;
+		private final int topicId;
+		private byte[] buffer;
+		private byte[] sendingBuffer;
+		private Future<Void> sending;
 		private int pos = 0;
-		private StreamingSocketInterface streamingSocketInterface;
-		private int topicId;
 		
 		public WebSocketifier(int topicId, StreamingSocketInterface streamingSocketInterface) {
 			this.topicId = topicId;
 			this.streamingSocketInterface = streamingSocketInterface;
-			ByteBuffer wrap = ByteBuffer.wrap(buffer);
-			IntBuffer intBuffer = wrap.asIntBuffer();
-			intBuffer.put(topicId);
-			pos = 4;
+			buffer = takeBuffer();
+			writeHeader();
 		}
 		
 		public int getTopicId() {
 			return topicId;
 		}
 
+		private void writeHeader() {
+			buffer[0] = (byte) (topicId >>> 24);
+			buffer[1] = (byte) (topicId >>> 16);
+			buffer[2] = (byte) (topicId >>> 8);
+			buffer[3] = (byte) topicId;
+			pos = HEADER_SIZE;
+		}
+
+		private static byte[] takeBuffer() {
+			byte[] buffer = BUFFER_POOL.poll();
+			return buffer == null ? new byte[BUFFER_SIZE] : buffer;
+		}
+
+		private static void returnBuffer(byte[] buffer) {
+			if (buffer != null && buffer.length == BUFFER_SIZE) {
+				BUFFER_POOL.offer(buffer);
+			}
+		}
+
 		@Override
 		public void write(int val) throws IOException {
-//			if (pos + 1 >= HARD_LIMIT) {
-//				flush();
-//			}
+			if (pos == BUFFER_SIZE) {
+				send(false);
+			}
 			buffer[pos] = (byte) val;
 			pos++;
 		}
 
 		@Override
 		public void write(byte[] b, int off, int len) throws IOException {
-//			if (pos + len >= HARD_LIMIT) {
-//				flush();
-//			}
-			System.arraycopy(b, off, buffer, pos, len);
-			pos += len;
+			while (len > 0) {
+				if (pos == BUFFER_SIZE) {
+					send(false);
+				}
+				int length = Math.min(len, BUFFER_SIZE - pos);
+				System.arraycopy(b, off, buffer, pos, length);
+				pos += length;
+				off += length;
+				len -= length;
+			}
 		}
 		
 		public void align4() {
 			int skip = 4 - (pos % 4);
 			if(skip != 0 && skip != 4) {
+				// BUFFER_SIZE is a multiple of 4, so the padding always fits. Pooled buffers contain old data
+				Arrays.fill(buffer, pos, pos + skip, (byte) 0);
 				pos += skip;
 			}
 		}
 		
 		@Override
 		public void flush() throws IOException {
-			streamingSocketInterface.send(buffer, 0, pos);
-			ByteBuffer wrap = ByteBuffer.wrap(buffer);
-			IntBuffer intBuffer = wrap.asIntBuffer();
-			intBuffer.put(topicId);
-			pos = 4;
+			send(true);
+		}
+
+		private void send(boolean last) throws IOException {
+			waitForSend();
+			buffer[4] = 0;
+			buffer[5] = 0;
+			buffer[6] = 0;
+			buffer[7] = (byte) (last ? 0 : 1);
+			sending = streamingSocketInterface.send(buffer, 0, pos);
+			byte[] filled = buffer;
+			buffer = sendingBuffer == null ? takeBuffer() : sendingBuffer;
+			sendingBuffer = filled;
+			writeHeader();
+		}
+
+		private void waitForSend() throws IOException {
+			if (sending != null) {
+				boolean completed = false;
+				try {
+					sending.get(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+					completed = true;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException(e);
+				} catch (ExecutionException e) {
+					throw new IOException(e.getCause());
+				} catch (TimeoutException e) {
+					throw new IOException("Client did not receive data for " + SEND_TIMEOUT_SECONDS + " seconds", e);
+				} finally {
+					sending = null;
+					if (!completed) {
+						// The socket might still read from it, never reuse or pool it
+						sendingBuffer = null;
+					}
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				waitForSend();
+			} finally {
+				returnBuffer(buffer);
+				returnBuffer(sendingBuffer);
+				buffer = null;
+				sendingBuffer = null;
+			}
 		}
 	}
 	
@@ -141,7 +263,7 @@ public class Streamer implements EndPoint {
 					try {
 						final ServiceMap serviceMap = bimServer.getServiceFactory().get(token, AccessMethod.INTERNAL);
 						final long downloadId = request.get("longActionId").getAsLong();
-						new Thread(){
+						bimServer.getStreamingDownloadExecutor().execute(new Runnable(){
 							@Override
 							public void run() {
 								try {
@@ -149,12 +271,26 @@ public class Streamer implements EndPoint {
 									if (checkoutResult != null) {
 										DataSource dataSource = checkoutResult.getFile().getDataSource();
 										OutputStream outputStream = new WebSocketifier(topicId, streamingSocketInterface);
-										if (dataSource instanceof FileInputStreamDataSource) {
-											InputStream inputStream = ((FileInputStreamDataSource) dataSource).getInputStream();
-											IOUtils.copy(inputStream, outputStream);
-											inputStream.close();
-										} else {
-											((EmfSerializerDataSource) dataSource).writeToOutputStream(outputStream);
+										try {
+											if (dataSource instanceof FileInputStreamDataSource) {
+												InputStream inputStream = ((FileInputStreamDataSource) dataSource).getInputStream();
+												try {
+													// Every read fills the rest of one part
+													byte[] chunk = new byte[WebSocketifier.BUFFER_SIZE - WebSocketifier.HEADER_SIZE];
+													int read = inputStream.read(chunk);
+													while (read != -1) {
+														outputStream.write(chunk, 0, read);
+														read = inputStream.read(chunk);
+													}
+												} finally {
+													inputStream.close();
+												}
+												outputStream.flush();
+											} else {
+												((EmfSerializerDataSource) dataSource).writeToOutputStream(outputStream);
+											}
+										} finally {
+											outputStream.close();
 										}
 									}
 								} catch (ServerException e) {
@@ -167,7 +303,7 @@ public class Streamer implements EndPoint {
 									LOGGER.error("", e);
 								}
 							}
-						}.start();
+						});
 						
 					} catch (UserException e) {
 						LOGGER.error("", e);
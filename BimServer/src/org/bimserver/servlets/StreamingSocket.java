@@ -19,6 +19,7 @@ package org.bimserver.servlets;
 
 import java.io.StringReader;
 import java.nio.ByteBuffer;
+import java.util.concurrent.Future;
 
 import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.api.WebSocketAdapter;
@@ -64,7 +65,7 @@ public class StreamingSocket extends WebSocketAdapter implements StreamingSocket
 	}
 
 	@Override
-	public void send(byte[] data, int start, int length) {
-		session.getRemote().sendBytesByFuture(ByteBuffer.wrap(data, start, length));
+	public Future<Void> send(byte[] data, int start, int length) {
+		return session.getRemote().sendBytesByFuture(ByteBuffer.wrap(data, start, length));
 	}
 }
\ No newline at end of file
@@ -17,10 +17,16 @@ package org.bimserver.servlets;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.util.concurrent.Future;
+
 import com.google.gson.JsonObject;
 
 public interface StreamingSocketInterface {
 
 	void send(JsonObject request);
-	void send(byte[] data, int start, int length);
+	/**
+	 * Sends a binary message, the data must not be changed before the returned
+	 * future is done
+	 */
+	Future<Void> send(byte[] data, int start, int length);
 }
@@ -22,10 +22,12 @@ import java.io.InputStream;
 import java.io.Reader;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.util.concurrent.Future;
 
 import org.apache.catalina.websocket.StreamInbound;
 import org.apache.catalina.websocket.WsOutbound;
 
+import com.google.common.util.concurrent.Futures;
 import com.google.gson.JsonObject;
 
 public class TomcatStreamInbound extends StreamInbound implements StreamingSocketInterface {
@@ -69,11 +71,14 @@ public class TomcatStreamInbound extends StreamInbound implements StreamingSocke
 	}
 
 	@Override
-	public void send(byte[] data, int start, int length) {
+	public Future<Void> send(byte[] data, int start, int length) {
+		// Tomcat writes synchronously, the data can be reused right away
 		try {
 			outbound.writeBinaryMessage(ByteBuffer.wrap(data, start, length));
 			outbound.flush();
 		} catch (IOException e) {
+			return Futures.immediateFailedFuture(e);
 		}
+		return Futures.immediateFuture(null);
 	}
 }
\ No newline at end of file
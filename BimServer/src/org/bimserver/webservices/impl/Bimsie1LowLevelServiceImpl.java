@@ -38,17 +38,22 @@ import org.bimserver.database.Query;
 import org.bimserver.database.Query.Deep;
 import org.bimserver.database.actions.BimDatabaseAction;
 import org.bimserver.database.actions.CommitTransactionDatabaseAction;
+import org.bimserver.database.actions.CopyOnWriteBranchDatabaseAction;
 import org.bimserver.database.actions.CountDatabaseAction;
 import org.bimserver.database.actions.GetDataObjectByGuidDatabaseAction;
 import org.bimserver.database.actions.GetDataObjectByOidDatabaseAction;
 import org.bimserver.database.actions.GetDataObjectsByTypeDatabaseAction;
 import org.bimserver.database.actions.GetDataObjectsDatabaseAction;
+import org.bimserver.database.actions.MaterializeBranchDatabaseAction;
 import org.bimserver.emf.IdEObject;
 import org.bimserver.interfaces.objects.SDataObject;
+import org.bimserver.longaction.LongBranchAction;
 import org.bimserver.models.store.ConcreteRevision;
 import org.bimserver.models.store.DataObject;
 import org.bimserver.models.store.Project;
 import org.bimserver.models.store.Revision;
+import org.bimserver.models.store.StorePackage;
+import org.bimserver.models.store.User;
 import org.bimserver.shared.exceptions.ServerException;
 import org.bimserver.shared.exceptions.UserException;
 import org.bimserver.shared.interfaces.bimsie1.Bimsie1LowLevelInterface;
@@ -82,6 +87,8 @@ public class Bimsie1LowLevelServiceImpl extends GenericServiceImpl implements Bi
 			if (project.getLastRevision() != null) {
 				Revision revision = project.getLastRevision();
 				ConcreteRevision lastConcreteRevision = revision.getLastConcreteRevision();
+				// Not the project itself for a copy-on-write branch that has not been changed yet
+				pid = lastConcreteRevision.getProject().getId();
 				rid = lastConcreteRevision.getId();
 			}
 			LongTransaction longTransaction = getBimServer().getLongTransactionManager().newLongTransaction(poid, pid, rid, project.getSchema());
@@ -102,6 +109,7 @@ public class Bimsie1LowLevelServiceImpl extends GenericServiceImpl implements Bi
 			if (longTransaction == null) {
 				throw new UserException("No transaction with tid " + tid + " was found");
 			}
+			materializeBranch(longTransaction.getPoid());
 			CommitTransactionDatabaseAction action = new CommitTransactionDatabaseAction(getBimServer(), session, getInternalAccessMethod(), getAuthorization(), longTransaction, comment);
 			try {
 				session.executeAndCommitAction(action);
@@ -119,6 +127,31 @@ public class Bimsie1LowLevelServiceImpl extends GenericServiceImpl implements Bi
 		return -1L;
 	}
 
+	/**
+	 * The first commit on a copy-on-write branch copies the records of its
+	 * base first. That copy is as big as the base, so it gets a long action
+	 * (and a transaction) of its own instead of being part of the commit.
+	 */
+	private void materializeBranch(long poid) throws Exception {
+		DatabaseSession session = getBimServer().getDatabase().createSession();
+		try {
+			Project project = (Project) session.get(poid, Query.getDefault());
+			if (project == null || CopyOnWriteBranchDatabaseAction.isMaterialized(getBimServer(), session, project)) {
+				return;
+			}
+			User user = session.get(StorePackage.eINSTANCE.getUser(), getAuthorization().getUoid(), Query.getDefault());
+			MaterializeBranchDatabaseAction action = new MaterializeBranchDatabaseAction(null, getInternalAccessMethod(), getBimServer(), getAuthorization(), poid);
+			LongBranchAction longAction = new LongBranchAction(getBimServer(), user.getName(), user.getUsername(), getAuthorization(), action);
+			getBimServer().getLongActionManager().start(longAction);
+			longAction.waitForCompletion();
+			if (longAction.getException() != null) {
+				handleException(longAction.getException());
+			}
+		} finally {
+			session.close();
+		}
+	}
+
 	@Override
 	public void abortTransaction(Long tid) throws UserException, ServerException {
 		requireAuthenticationAndRunningServer();
@@ -116,11 +116,7 @@ public class Bimsie1ServiceIImpl extends GenericServiceImpl implements Bimsie1Se
 			DownloadParameters downloadParameters = DownloadParameters.fromRoids(getBimServer(), Collections.singleton(roid), serializerOid);
 			user = (User) session.get(StorePackage.eINSTANCE.getUser(), getAuthorization().getUoid(), Query.getDefault());
 			LongDownloadOrCheckoutAction longDownloadAction = new LongCheckoutAction(getBimServer(), user.getName(), user.getUsername(), downloadParameters, getAuthorization(), getInternalAccessMethod());
-			try {
-				getBimServer().getLongActionManager().start(longDownloadAction);
-			} catch (CannotBeScheduledException e) {
-				LOGGER.error("", e);
-			}
+			getBimServer().getLongActionManager().start(longDownloadAction);
 			if (sync) {
 				longDownloadAction.waitForCompletion();
 			}
@@ -165,8 +161,8 @@ public class Bimsie1ServiceIImpl extends GenericServiceImpl implements Bimsie1Se
 		LongDownloadOrCheckoutAction longDownloadAction = new LongDownloadAction(getBimServer(), user == null ? "Unknown" : user.getName(), user == null ? "Unknown" : user.getUsername(), downloadParameters, getAuthorization(), getInternalAccessMethod());
 		try {
 			getBimServer().getLongActionManager().start(longDownloadAction);
-		} catch (Exception e) {
-			LOGGER.error("", e);
+		} catch (CannotBeScheduledException e) {
+			return handleException(e);
 		}
 		if (sync) {
 			longDownloadAction.waitForCompletion();
@@ -24,6 +24,7 @@ import org.bimserver.database.DatabaseSession;
 import org.bimserver.database.Query;
 import org.bimserver.database.berkeley.BimserverConcurrentModificationDatabaseException;
 import org.bimserver.interfaces.objects.SUser;
+import org.bimserver.longaction.CannotBeScheduledException;
 import org.bimserver.models.log.AccessMethod;
 import org.bimserver.models.store.ServerState;
 import org.bimserver.models.store.StorePackage;
@@ -128,6 +129,8 @@ public class GenericServiceImpl {
 		} else if (e instanceof BimserverDatabaseException) {
 			LOGGER.error("", e);
 			throw new ServerException("Database error", e);
+		} else if (e instanceof CannotBeScheduledException) {
+			throw new ServerException(e.getMessage(), e);
 		}
 		LOGGER.error("", e);
 		throw new ServerException("Unknown error: " + e.getMessage(), e);
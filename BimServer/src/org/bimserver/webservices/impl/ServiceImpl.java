@@ -18,7 +18,7 @@ package org.bimserver.webservices.impl;
  *****************************************************************************/
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
@@ -38,6 +38,7 @@ import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
 
 import org.apache.commons.collections.comparators.ComparatorChain;
+import org.bimserver.CheckinSpool;
 import org.bimserver.client.json.JsonBimServerClientFactory;
 import org.bimserver.database.BimserverDatabaseException;
 import org.bimserver.database.DatabaseSession;
@@ -57,6 +58,7 @@ import org.bimserver.database.actions.CheckinDatabaseAction;
 import org.bimserver.database.actions.CompareDatabaseAction;
 import org.bimserver.database.actions.DeleteServiceDatabaseAction;
 import org.bimserver.database.actions.DeleteUserDatabaseAction;
+import org.bimserver.database.actions.GenericCheckinDatabaseAction;
 import org.bimserver.database.actions.GetAllAuthorizedUsersOfProjectDatabaseAction;
 import org.bimserver.database.actions.GetAllCheckoutsByUserDatabaseAction;
 import org.bimserver.database.actions.GetAllCheckoutsOfProjectDatabaseAction;
@@ -86,6 +88,7 @@ import org.bimserver.database.actions.RemoveModelCheckerFromProjectDatabaseActio
 import org.bimserver.database.actions.RemoveUserFromExtendedDataSchemaDatabaseAction;
 import org.bimserver.database.actions.RemoveUserFromProjectDatabaseAction;
 import org.bimserver.database.actions.SetRevisionTagDatabaseAction;
+import org.bimserver.database.actions.StreamingCheckinDatabaseAction;
 import org.bimserver.database.actions.UndeleteUserDatabaseAction;
 import org.bimserver.database.actions.UpdateGeoTagDatabaseAction;
 import org.bimserver.database.actions.UpdateModelCheckerDatabaseAction;
@@ -100,6 +103,7 @@ import org.bimserver.database.query.conditions.Condition;
 import org.bimserver.database.query.literals.StringLiteral;
 import org.bimserver.emf.IdEObject;
 import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.emf.Schema;
 import org.bimserver.interfaces.objects.SAccessMethod;
 import org.bimserver.interfaces.objects.SCheckout;
 import org.bimserver.interfaces.objects.SCompareResult;
@@ -145,17 +149,17 @@ import org.bimserver.models.store.User;
 import org.bimserver.models.store.UserType;
 import org.bimserver.notifications.NewExtendedDataOnRevisionNotification;
 import org.bimserver.notifications.NewRevisionNotification;
-import org.bimserver.plugins.deserializers.DeserializeException;
 import org.bimserver.plugins.deserializers.Deserializer;
+import org.bimserver.plugins.deserializers.DeserializerPlugin;
 import org.bimserver.plugins.queryengine.QueryEnginePlugin;
 import org.bimserver.plugins.services.BimServerClientInterface;
+import org.bimserver.plugins.streamingdeserializers.StreamingDeserializerPlugin;
 import org.bimserver.shared.BimServerClientFactory;
 import org.bimserver.shared.compare.CompareWriter;
 import org.bimserver.shared.exceptions.ServerException;
 import org.bimserver.shared.exceptions.UserException;
 import org.bimserver.shared.interfaces.ServiceInterface;
 import org.bimserver.shared.interfaces.SettingsInterface;
-import org.bimserver.utils.MultiplexingInputStream;
 import org.bimserver.utils.NetUtils;
 import org.bimserver.webservices.CheckoutComparator;
 import org.bimserver.webservices.SRevisionComparator;
@@ -186,6 +190,9 @@ public class ServiceImpl extends GenericServiceImpl implements ServiceInterface
 		try {
 			User user = (User) session.get(StorePackage.eINSTANCE.getUser(), getAuthorization().getUoid(), Query.getDefault());
 			Project project = session.get(poid, Query.getDefault());
+			if (project == null) {
+				throw new UserException("Project with poid " + poid + " not found");
+			}
 			username = user.getName();
 			userUsername = user.getUsername();
 			File homeDirIncoming = new File(getBimServer().getHomeDir(), "incoming");
@@ -205,34 +212,32 @@ public class ServiceImpl extends GenericServiceImpl implements ServiceInterface
 			DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss");
 			String cacheFileName = dateFormat.format(new Date()) + "-" + fileName;
 			File file = new File(userDirIncoming, cacheFileName);
-			InputStream inputStream = new MultiplexingInputStream(dataHandler.getInputStream(), new FileOutputStream(file));
-			try {
-				DeserializerPluginConfiguration deserializerObject = session.get(StorePackage.eINSTANCE.getDeserializerPluginConfiguration(), deserializerOid, Query.getDefault());
-				if (deserializerObject == null) {
-					throw new UserException("Deserializer with oid " + deserializerOid + " not found");
-				}
-				Deserializer deserializer = getBimServer().getDeserializerFactory().createDeserializer(deserializerOid);
-				deserializer.init(getBimServer().getDatabase().getMetaDataManager().getEPackage(project.getSchema()));
-				IfcModelInterface model = deserializer.read(inputStream, cacheFileName, fileSize);
-				if (model.size() == 0) {
-					throw new DeserializeException("Cannot checkin empty model");
-				}
-				CheckinDatabaseAction checkinDatabaseAction = new CheckinDatabaseAction(getBimServer(), null, getInternalAccessMethod(), poid, getAuthorization(), model, comment, fileName, merge);
-				LongCheckinAction longAction = new LongCheckinAction(getBimServer(), username, userUsername, getAuthorization(), checkinDatabaseAction);
-				getBimServer().getLongActionManager().start(longAction);
-				if (sync) {
-					longAction.waitForCompletion();
-				}
-				return longAction.getProgressTopic().getKey().getId();
-			} catch (UserException e) {
-				throw e;
-			} catch (DeserializeException e) {
-				throw new UserException(e);
-			} finally {
-				inputStream.close();
+			DeserializerPluginConfiguration deserializerObject = getDeserializerObject(session, deserializerOid);
+			StreamingDeserializerPlugin streamingDeserializerPlugin = getStreamingDeserializerPlugin(deserializerObject, project, fileName, merge);
+			Deserializer deserializer = null;
+			if (streamingDeserializerPlugin == null) {
+				deserializer = createDeserializer(deserializerOid, project.getSchema());
 			}
+			// Store the upload first, the long action parses it, so this request does not have to wait for that
+			CheckinSpool checkinSpool = spoolUpload(dataHandler.getInputStream(), file, fileName, project);
+			LongCheckinAction longAction;
+			if (streamingDeserializerPlugin != null) {
+				StreamingCheckinDatabaseAction checkinDatabaseAction = new StreamingCheckinDatabaseAction(getBimServer(), null, getInternalAccessMethod(), poid, getAuthorization(), comment, fileName, checkinSpool, streamingDeserializerPlugin);
+				longAction = new LongCheckinAction(getBimServer(), username, userUsername, getAuthorization(), checkinDatabaseAction);
+			} else {
+				CheckinDatabaseAction checkinDatabaseAction = new CheckinDatabaseAction(getBimServer(), null, getInternalAccessMethod(), poid, getAuthorization(), deserializer, file, comment, fileName, merge);
+				longAction = new LongCheckinAction(getBimServer(), username, userUsername, getAuthorization(), checkinDatabaseAction);
+			}
+			getBimServer().getLongActionManager().start(longAction);
+			if (sync) {
+				longAction.waitForCompletion();
+				throwCheckinError(longAction);
+			}
+			return longAction.getProgressTopic().getKey().getId();
 		} catch (UserException e) {
 			throw e;
+		} catch (ServerException e) {
+			throw e;
 		} catch (Throwable e) {
 			LOGGER.error("", e);
 			throw new ServerException(e);
@@ -241,6 +246,67 @@ public class ServiceImpl extends GenericServiceImpl implements ServiceInterface
 		}
 	}
 	
+	private DeserializerPluginConfiguration getDeserializerObject(DatabaseSession session, Long deserializerOid) throws BimserverDatabaseException, UserException {
+		DeserializerPluginConfiguration deserializerObject = session.get(StorePackage.eINSTANCE.getDeserializerPluginConfiguration(), deserializerOid, Query.getDefault());
+		if (deserializerObject == null) {
+			throw new UserException("Deserializer with oid " + deserializerOid + " not found");
+		}
+		return deserializerObject;
+	}
+
+	private Deserializer createDeserializer(Long deserializerOid, String schema) throws BimserverDatabaseException, UserException {
+		Deserializer deserializer = getBimServer().getDeserializerFactory().createDeserializer(deserializerOid);
+		deserializer.init(getBimServer().getDatabase().getMetaDataManager().getEPackage(schema));
+		return deserializer;
+	}
+
+	/**
+	 * A synchronous checkin fails like it did when the model was parsed on the
+	 * request thread, instead of returning the topic of a failed action
+	 */
+	private void throwCheckinError(LongCheckinAction longAction) throws UserException, ServerException {
+		Exception exception = longAction.getException();
+		if (exception instanceof UserException) {
+			throw (UserException) exception;
+		} else if (exception != null) {
+			throw new ServerException(exception);
+		}
+	}
+
+	/**
+	 * Writes the upload to the file and refuses it when it is the same as the
+	 * last revision of the project, the file is removed in that case
+	 */
+	private CheckinSpool spoolUpload(InputStream inputStream, File file, String fileName, Project project) throws IOException, UserException {
+		CheckinSpool checkinSpool = new CheckinSpool(file);
+		checkinSpool.spool(inputStream, fileName);
+		try {
+			GenericCheckinDatabaseAction.checkCheckSum(project, checkinSpool.getChecksum(), checkinSpool.getLegacyChecksum());
+		} catch (UserException e) {
+			file.delete();
+			throw e;
+		}
+		return checkinSpool;
+	}
+
+	/**
+	 * @return The streaming counterpart of the chosen deserializer for this checkin, or null when there is none or the checkin needs a complete model in memory (merging, geometry generation or model checkers)
+	 */
+	private StreamingDeserializerPlugin getStreamingDeserializerPlugin(DeserializerPluginConfiguration deserializerObject, Project project, String fileName, Boolean merge) {
+		if ((merge != null && merge) || project.getModelCheckers().size() > 0 || getBimServer().getServerSettingsCache().getServerSettings().isGenerateGeometryOnCheckin()) {
+			return null;
+		}
+		if (!fileName.contains(".")) {
+			return null;
+		}
+		String extension = fileName.substring(fileName.lastIndexOf(".") + 1);
+		try {
+			return getBimServer().getPluginManager().getStreamingDeserializerPlugin(deserializerObject.getPluginDescriptor().getPluginClassName(), extension, Schema.valueOf(project.getSchema().toUpperCase()));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
 	@Override
 	public Long checkinFromUrl(Long poid, String comment, Long deserializerOid, String fileName, String urlString, Boolean merge, Boolean sync) throws ServerException, UserException {
 		requireAuthenticationAndRunningServer();
@@ -249,6 +315,10 @@ public class ServiceImpl extends GenericServiceImpl implements ServiceInterface
 		String userUsername = "Unknown";
 		try {
 			User user = (User) session.get(StorePackage.eINSTANCE.getUser(), getAuthorization().getUoid(), Query.getDefault());
+			Project project = session.get(poid, Query.getDefault());
+			if (project == null) {
+				throw new UserException("Project with poid " + poid + " not found");
+			}
 			username = user.getName();
 			userUsername = user.getUsername();
 			File homeDirIncoming = new File(getBimServer().getHomeDir(), "incoming");
@@ -259,6 +329,12 @@ public class ServiceImpl extends GenericServiceImpl implements ServiceInterface
 			if (!userDirIncoming.exists()) {
 				userDirIncoming.mkdir();
 			}
+			DeserializerPluginConfiguration deserializerObject = getDeserializerObject(session, deserializerOid);
+			DeserializerPlugin deserializerPlugin = getBimServer().getPluginManager().getDeserializerPlugin(deserializerObject.getPluginDescriptor().getPluginClassName(), true);
+			if (deserializerPlugin == null || !deserializerPlugin.getSupportedSchemas().contains(Schema.valueOf(project.getSchema().toUpperCase()))) {
+				throw new UserException("Deserializer " + deserializerObject.getName() + " cannot be used for projects with schema " + project.getSchema());
+			}
+			Deserializer deserializer = createDeserializer(deserializerOid, project.getSchema());
 			
 			URL url = new URL(urlString);
 			InputStream input = url.openStream();
@@ -273,34 +349,19 @@ public class ServiceImpl extends GenericServiceImpl implements ServiceInterface
 				fileName = dateFormat.format(new Date()) + "-" + fileName;
 			}
 			File file = new File(userDirIncoming, fileName);
-			InputStream inputStream = new MultiplexingInputStream(input, new FileOutputStream(file));
-			try {
-				DeserializerPluginConfiguration deserializerObject = session.get(StorePackage.eINSTANCE.getDeserializerPluginConfiguration(), deserializerOid, Query.getDefault());
-				if (deserializerObject == null) {
-					throw new UserException("Deserializer with oid " + deserializerOid + " not found");
-				}
-				Deserializer deserializer = getBimServer().getDeserializerFactory().createDeserializer(deserializerOid);
-				deserializer.init(getBimServer().getDatabase().getMetaDataManager().getEPackage("ifc2x3tc1"));
-				IfcModelInterface model = deserializer.read(inputStream, fileName, 0);
-				if (model.size() == 0) {
-					throw new DeserializeException("Cannot checkin empty model");
-				}
-				CheckinDatabaseAction checkinDatabaseAction = new CheckinDatabaseAction(getBimServer(), null, getInternalAccessMethod(), poid, getAuthorization(), model, comment, fileName, merge);
-				LongCheckinAction longAction = new LongCheckinAction(getBimServer(), username, userUsername, getAuthorization(), checkinDatabaseAction);
-				getBimServer().getLongActionManager().start(longAction);
-				if (sync) {
-					longAction.waitForCompletion();
-				}
-				return longAction.getProgressTopic().getKey().getId();
-			} catch (UserException e) {
-				throw e;
-			} catch (DeserializeException e) {
-				throw new UserException(e);
-			} finally {
-				inputStream.close();
+			spoolUpload(input, file, fileName, project);
+			CheckinDatabaseAction checkinDatabaseAction = new CheckinDatabaseAction(getBimServer(), null, getInternalAccessMethod(), poid, getAuthorization(), deserializer, file, comment, fileName, merge);
+			LongCheckinAction longAction = new LongCheckinAction(getBimServer(), username, userUsername, getAuthorization(), checkinDatabaseAction);
+			getBimServer().getLongActionManager().start(longAction);
+			if (sync) {
+				longAction.waitForCompletion();
+				throwCheckinError(longAction);
 			}
+			return longAction.getProgressTopic().getKey().getId();
 		} catch (UserException e) {
 			throw e;
+		} catch (ServerException e) {
+			throw e;
 		} catch (Throwable e) {
 			LOGGER.error("", e);
 			throw new ServerException(e);
@@ -81,6 +81,7 @@ function BimServerApi(baseUrl, notifier) {
 	othis.debug = false;
 	othis.classes = {};
 	othis.binaryDataListener = {};
+	othis.binaryDataParts = {};
 	othis.schemas = {};
 
 	this.init = function(callback) {
@@ -140,10 +141,33 @@ function BimServerApi(baseUrl, notifier) {
 	
 	this.processNotification = function(message) {
 		if (message instanceof ArrayBuffer) {
-			var view = new DataView(message, 0, 4);
+			// Header: channel id, 1 when more parts of this message follow, 0 for the last part
+			var view = new DataView(message, 0, 8);
 			var channelId = view.getInt32(0);
+			var parts = othis.binaryDataParts[channelId];
+			if (parts == null) {
+				parts = [];
+				othis.binaryDataParts[channelId] = parts;
+			}
+			parts.push(message);
+			if (view.getInt32(4) != 0) {
+				return;
+			}
+			delete othis.binaryDataParts[channelId];
+			// The listener gets the channel id followed by the data of all parts
+			var length = 4;
+			parts.forEach(function(part){
+				length += part.byteLength - 8;
+			});
+			var data = new Uint8Array(length);
+			new DataView(data.buffer).setInt32(0, channelId);
+			var offset = 4;
+			parts.forEach(function(part){
+				data.set(new Uint8Array(part, 8), offset);
+				offset += part.byteLength - 8;
+			});
 			var listener = othis.binaryDataListener[channelId];
-			listener(message);
+			listener(data.buffer);
 		} else {
 			var intf = message["interface"];
 			if (othis.listeners[intf] != null) {
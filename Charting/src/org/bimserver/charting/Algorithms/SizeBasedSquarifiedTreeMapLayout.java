@@ -4,16 +4,10 @@ import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
 
-import prefuse.action.layout.graph.TreeLayout;
-import prefuse.data.Graph;
-import prefuse.data.Schema;
-import prefuse.data.tuple.TupleSet;
-import prefuse.data.util.TreeNodeIterator;
-import prefuse.visual.NodeItem;
-import prefuse.visual.VisualItem;
+import org.bimserver.charting.Containers.TreeNode;
+import org.bimserver.charting.Delegates.ITreeNodeBoundsHandler;
 
 /**
  * <p>
@@ -26,40 +20,23 @@ import prefuse.visual.VisualItem;
  * For more information on TreeMaps in general, see <a href="http://www.cs.umd.edu/hcil/treemap-history/"> http://www.cs.umd.edu/hcil/treemap-history/</a>.
  * </p>
  *
+ * <p>
+ * Adapted from the prefuse SquarifiedTreeMapLayout to run on a TreeNode tree instead of a prefuse graph. The areas of the children of a node are computed when that node is laid out, from the sizes of the leaves below them, and every leaf is handed to an {@link ITreeNodeBoundsHandler} as soon as it has its bounds. Nothing but the TreeNode tree is kept in memory.
+ * </p>
+ *
  * @version 1.0
  * @author <a href="http://jheer.org">jeffrey heer</a>
  */
-public class SizeBasedSquarifiedTreeMapLayout extends TreeLayout {
-
-	// column value in which layout stores area information
-	public static final String AREA = "_area";
-	public static final Schema AREA_SCHEMA = new Schema();
-	static {
-		AREA_SCHEMA.addColumn(AREA, double.class);
-	}
-
-	private static Comparator s_cmp = new Comparator() {
-		public int compare(Object o1, Object o2) {
-			double s1 = ((VisualItem) o1).getDouble(AREA);
-			double s2 = ((VisualItem) o2).getDouble(AREA);
-			return (s1 > s2 ? 1 : (s1 < s2 ? -1 : 0));
-		}
-	};
-	private ArrayList m_kids = new ArrayList();
-	private ArrayList m_row = new ArrayList();
-	private Rectangle2D m_r = new Rectangle2D.Double();
+public class SizeBasedSquarifiedTreeMapLayout {
 
 	private double m_frame; // space between parents border and children
 
 	/**
 	 * Creates a new SquarifiedTreeMapLayout with no spacing between
 	 * parent areas and their enclosed children.
-	 * 
-	 * @param group
-	 *            the data group to layout. Must resolve to a Graph instance.
 	 */
-	public SizeBasedSquarifiedTreeMapLayout(String group) {
-		this(group, 0);
+	public SizeBasedSquarifiedTreeMapLayout() {
+		this(0);
 	}
 
 	/**
@@ -69,11 +46,8 @@ public class SizeBasedSquarifiedTreeMapLayout extends TreeLayout {
 	 * @param frame
 	 *            the amount of desired framing space between
 	 *            parent areas and their enclosed children.
-	 * @param group
-	 *            the data group to layout. Must resolve to a Graph instance.
 	 */
-	public SizeBasedSquarifiedTreeMapLayout(String group, double frame) {
-		super(group);
+	public SizeBasedSquarifiedTreeMapLayout(double frame) {
 		setFrameWidth(frame);
 	}
 
@@ -104,168 +78,129 @@ public class SizeBasedSquarifiedTreeMapLayout extends TreeLayout {
 	}
 
 	/**
-	 * @see prefuse.action.Action#run(double)
+	 * Lays out the tree.
+	 *
+	 * @param root
+	 * @param layoutBounds
+	 * @param leafHandler
+	 *            called for every leaf that has an area, with its bounds
 	 */
-	public void run(double frac) {
-		// setup
-		NodeItem root = getLayoutRoot();
-		Rectangle2D b = getLayoutBounds();
-		m_r.setRect(b.getX(), b.getY(), b.getWidth() - 1, b.getHeight() - 1);
-
-		// process size values
-		computeAreas(root);
-
+	public void run(TreeNode root, Rectangle2D layoutBounds, ITreeNodeBoundsHandler leafHandler) {
 		// layout root node
-		setX(root, null, 0);
-		setY(root, null, 0);
-		root.setBounds(0, 0, m_r.getWidth(), m_r.getHeight());
+		Rectangle2D b = new Rectangle2D.Double(0, 0, layoutBounds.getWidth() - 1, layoutBounds.getHeight() - 1);
+		if (root.isLeaf()) {
+			leafHandler.handleNode(root, b);
+			return;
+		}
 
 		// layout the tree
-		updateArea(root, m_r);
-		layout(root, m_r);
+		layout(root, b, b.getWidth() * b.getHeight(), leafHandler);
 	}
 
 	/**
-	 * Compute the pixel areas of nodes based on their size values.
+	 * Compute the tree map layout of the children of p, then recurse.
 	 */
-	private void computeAreas(NodeItem root) {
-		int leafCount = 0;
-
-		// ensure area data column exists
-		Graph g = (Graph) m_vis.getGroup(m_group);
-		TupleSet nodes = g.getNodes();
-		nodes.addColumns(AREA_SCHEMA);
-
-		// reset all sizes to zero
-		Iterator iter = new TreeNodeIterator(root);
-		while (iter.hasNext()) {
-			NodeItem n = (NodeItem) iter.next();
-			n.setDouble(AREA, 0);
-		}
+	private void layout(TreeNode p, Rectangle2D b, double area, ITreeNodeBoundsHandler leafHandler) {
+		TreeNode[] kids = p.Children;
 
-		// set raw sizes, compute leaf count
-		iter = new TreeNodeIterator(root, false);
-		while (iter.hasNext()) {
-			NodeItem n = (NodeItem) iter.next();
-			double area = 0;
-			if (n.getChildCount() == 0) {
-				area = n.getSize();
-				++leafCount;
-			} else if (n.isExpanded()) {
-				NodeItem c = (NodeItem) n.getFirstChild();
-				for (; c != null; c = (NodeItem) c.getNextSibling()) {
-					area += c.getDouble(AREA);
-					++leafCount;
-				}
-			}
-			n.setDouble(AREA, area);
+		// areas of the children, in proportion to the sizes of their leaves
+		final double[] areas = new double[kids.length];
+		double s = 0;
+		for (int i = 0; i < kids.length; i++) {
+			areas[i] = getSize(kids[i]);
+			s += areas[i];
 		}
+		if (s <= 0)
+			return;
 
-		// scale sizes by display area factor
-		Rectangle2D b = getLayoutBounds();
-		double area = (b.getWidth() - 1) * (b.getHeight() - 1);
-		double scale = area / root.getDouble(AREA);
-		iter = new TreeNodeIterator(root);
-		while (iter.hasNext()) {
-			NodeItem n = (NodeItem) iter.next();
-			n.setDouble(AREA, n.getDouble(AREA) * scale);
+		// take the frame off the area and the bounding rectangle
+		Rectangle2D r = new Rectangle2D.Double();
+		if (m_frame == 0.0) {
+			r.setRect(b);
+		} else {
+			area -= 2 * m_frame * (b.getWidth() + b.getHeight() - 2 * m_frame);
+			r.setRect(b.getX() + m_frame, b.getY() + m_frame, b.getWidth() - 2 * m_frame, b.getHeight() - 2 * m_frame);
 		}
-	}
+		double t = area / s;
+		for (int i = 0; i < kids.length; i++)
+			areas[i] *= t;
 
-	/**
-	 * Compute the tree map layout.
-	 */
-	private void layout(NodeItem p, Rectangle2D r) {
 		// create sorted list of children
-		Iterator childIter = p.children();
-		while (childIter.hasNext())
-			m_kids.add(childIter.next());
-		Collections.sort(m_kids, s_cmp);
+		List<Integer> sorted = new ArrayList<>(kids.length);
+		for (int i = 0; i < kids.length; i++)
+			sorted.add(i);
+		Collections.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer o1, Integer o2) {
+				double s1 = areas[o1];
+				double s2 = areas[o2];
+				return (s1 > s2 ? 1 : (s1 < s2 ? -1 : 0));
+			}
+		});
 
 		// do squarified layout of siblings
+		Rectangle2D[] bounds = new Rectangle2D[kids.length];
 		double w = Math.min(r.getWidth(), r.getHeight());
-		squarify(m_kids, m_row, w, r);
-		m_kids.clear(); // clear m_kids
+		squarify(sorted, new ArrayList<Integer>(), areas, bounds, w, r);
 
-		// recurse
-		childIter = p.children();
-		while (childIter.hasNext()) {
-			NodeItem c = (NodeItem) childIter.next();
-			if (c.getChildCount() > 0 && c.getDouble(AREA) > 0) {
-				updateArea(c, r);
-				layout(c, r);
-			}
+		// hand out the leaves, recurse
+		for (int i = 0; i < kids.length; i++) {
+			if (bounds[i] == null)
+				continue;
+			if (kids[i].isLeaf())
+				leafHandler.handleNode(kids[i], bounds[i]);
+			else if (areas[i] > 0)
+				layout(kids[i], bounds[i], areas[i], leafHandler);
 		}
 	}
 
-	private void updateArea(NodeItem n, Rectangle2D r) {
-		Rectangle2D b = n.getBounds();
-		if (m_frame == 0.0) {
-			// if no framing, simply update bounding rectangle
-			r.setRect(b);
-			return;
-		}
-
-		// compute area loss due to frame
-		double dA = 2 * m_frame * (b.getWidth() + b.getHeight() - 2 * m_frame);
-		double A = n.getDouble(AREA) - dA;
-
-		// compute renormalization factor
-		double s = 0;
-		Iterator childIter = n.children();
-		while (childIter.hasNext())
-			s += ((NodeItem) childIter.next()).getDouble(AREA);
-		double t = A / s;
-
-		// re-normalize children areas
-		childIter = n.children();
-		while (childIter.hasNext()) {
-			NodeItem c = (NodeItem) childIter.next();
-			c.setDouble(AREA, c.getDouble(AREA) * t);
-		}
-
-		// set bounding rectangle and return
-		r.setRect(b.getX() + m_frame, b.getY() + m_frame, b.getWidth() - 2 * m_frame, b.getHeight() - 2 * m_frame);
-		return;
+	/**
+	 * @return The size of a leaf, or the sum of the sizes of the leaves below a node.
+	 */
+	private double getSize(TreeNode n) {
+		if (n.isLeaf())
+			return (n.Size != null) ? n.Size : 0;
+		double size = 0;
+		for (TreeNode c : n.Children)
+			size += getSize(c);
+		return size;
 	}
 
-	private void squarify(List c, List row, double w, Rectangle2D r) {
+	private void squarify(List<Integer> c, List<Integer> row, double[] areas, Rectangle2D[] bounds, double w, Rectangle2D r) {
 		double worst = Double.MAX_VALUE, nworst;
 		int len;
 
 		while ((len = c.size()) > 0) {
 			// add item to the row list, ignore if negative area
-			VisualItem item = (VisualItem) c.get(len - 1);
-			double a = item.getDouble(AREA);
+			int item = c.get(len - 1);
+			double a = areas[item];
 			if (a <= 0.0) {
 				c.remove(len - 1);
 				continue;
 			}
 			row.add(item);
 
-			nworst = worst(row, w);
+			nworst = worst(row, areas, w);
 			if (nworst <= worst) {
 				c.remove(len - 1);
 				worst = nworst;
 			} else {
 				row.remove(row.size() - 1); // remove the latest addition
-				r = layoutRow(row, w, r); // layout the current row
+				r = layoutRow(row, areas, bounds, w, r); // layout the current row
 				w = Math.min(r.getWidth(), r.getHeight()); // recompute w
 				row.clear(); // clear the row
 				worst = Double.MAX_VALUE;
 			}
 		}
 		if (row.size() > 0) {
-			r = layoutRow(row, w, r); // layout the current row
+			r = layoutRow(row, areas, bounds, w, r); // layout the current row
 			row.clear(); // clear the row
 		}
 	}
 
-	private double worst(List rlist, double w) {
+	private double worst(List<Integer> rlist, double[] areas, double w) {
 		double rmax = Double.MIN_VALUE, rmin = Double.MAX_VALUE, s = 0.0;
-		Iterator iter = rlist.iterator();
-		while (iter.hasNext()) {
-			double r = ((VisualItem) iter.next()).getDouble(AREA);
+		for (int item : rlist) {
+			double r = areas[item];
 			rmin = Math.min(rmin, r);
 			rmax = Math.max(rmax, r);
 			s += r;
@@ -275,33 +210,22 @@ public class SizeBasedSquarifiedTreeMapLayout extends TreeLayout {
 		return Math.max(w * rmax / s, s / (w * rmin));
 	}
 
-	private Rectangle2D layoutRow(List row, double w, Rectangle2D r) {
+	private Rectangle2D layoutRow(List<Integer> row, double[] areas, Rectangle2D[] bounds, double w, Rectangle2D r) {
 		double s = 0; // sum of row areas
-		Iterator rowIter = row.iterator();
-		while (rowIter.hasNext())
-			s += ((VisualItem) rowIter.next()).getDouble(AREA);
+		for (int item : row)
+			s += areas[item];
 		double x = r.getX(), y = r.getY(), d = 0;
 		double h = w == 0 ? 0 : s / w;
 		boolean horiz = (w == r.getWidth());
 
 		// set node positions and dimensions
-		rowIter = row.iterator();
-		while (rowIter.hasNext()) {
-			NodeItem n = (NodeItem) rowIter.next();
-			NodeItem p = (NodeItem) n.getParent();
+		for (int item : row) {
+			double nw = areas[item] / h;
 			if (horiz) {
-				setX(n, p, x + d);
-				setY(n, p, y);
-			} else {
-				setX(n, p, x);
-				setY(n, p, y + d);
-			}
-			double nw = n.getDouble(AREA) / h;
-			if (horiz) {
-				setNodeDimensions(n, nw, h);
+				bounds[item] = new Rectangle2D.Double(x + d, y, nw, h);
 				d += nw;
 			} else {
-				setNodeDimensions(n, h, nw);
+				bounds[item] = new Rectangle2D.Double(x, y + d, h, nw);
 				d += nw;
 			}
 		}
@@ -312,9 +236,4 @@ public class SizeBasedSquarifiedTreeMapLayout extends TreeLayout {
 			r.setRect(x + h, y, r.getWidth() - h, r.getHeight());
 		return r;
 	}
-
-	private void setNodeDimensions(NodeItem n, double w, double h) {
-		n.setBounds(n.getX(), n.getY(), w, h);
-	}
-
-} // end of class SquarifiedTreeMapLayout
\ No newline at end of file
+}
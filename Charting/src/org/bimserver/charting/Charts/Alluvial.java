@@ -17,6 +17,7 @@ package org.bimserver.charting.Charts;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -74,7 +75,7 @@ public class Alluvial extends Chart {
 	}
 
 	@Override
-	public StringBuilder writeSVGChartSpecificPayload(StringBuilder builder, ChartRows filteredData) {
+	public void writeSVGChartSpecificPayload(PrintWriter out, ChartRows filteredData) {
 		// Get "steps" and "size" dimensions.
 		ModelDimension steps = Model.getDimensionByKey("steps");
 		ModelDimension size = Model.getDimensionByKey("size");
@@ -203,7 +204,7 @@ public class Alluvial extends Chart {
 			title.text(String.format("%s is %s units (%.2f%%) %s.", link.Source.Name, link.getValue(), 100.0 * link.getValue() / link.Source.getValue(), link.Target.Name));
 			path.child(title);
 			//
-			builder.append(path.buildString(1));
+			path.write(out, 1);
 		}
 		// Markers.
 		for (SankeyNode node : nodes) {
@@ -224,10 +225,8 @@ public class Alluvial extends Chart {
 			text.attribute("transform", String.format("translate(%s, %s)", node.Location.x(), node.getCenterY()));
 			text.text(node.Name);
 			//
-			builder.append(text.buildString(1));
-			builder.append(rect.buildString(1));
+			text.write(out, 1);
+			rect.write(out, 1);
 		}
-		//
-		return builder;
 	}
 }
@@ -17,6 +17,7 @@ package org.bimserver.charting.Charts;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -77,7 +78,7 @@ public class BumpChart extends Chart {
 	}
 
 	@Override
-	public StringBuilder writeSVGChartSpecificPayload(StringBuilder builder, ChartRows filteredData) {
+	public void writeSVGChartSpecificPayload(PrintWriter out, ChartRows filteredData) {
 		// Get "group", "date", and "size" dimensions.
 		ModelDimension group = Model.getDimensionByKey("group");
 		ModelDimension date = Model.getDimensionByKey("date");
@@ -125,8 +126,8 @@ public class BumpChart extends Chart {
 		Axis yAxis = new Axis("y", layout.sizeExtent, new Vector2d(horizontalBorderMargin, 0), new Vector2d(width - horizontalBorderMargin * 2, 0), Axis.Movement.BottomToTop);
 		yAxis.LineSettings.IncludeLabels = false;
 		//
-		builder.append(yAxis.buildString(1));
-		builder.append(xAxis.buildString(1));
+		yAxis.write(out, 1);
+		xAxis.write(out, 1);
 		//
 		int subChartIndex = 0;
 		Layer[] layers = layout.layers;
@@ -201,14 +202,12 @@ public class BumpChart extends Chart {
 			//
 			subChartIndex++;
 		}
-		builder.append(defs.buildString(1));
+		defs.write(out, 1);
 		//
-		builder.append(pathGroup.buildString(1));
+		pathGroup.write(out, 1);
 		// Add text.
 		if (textGroup.Children.size() > 0)
-			builder.append(textGroup.buildString(1));
-		//
-		return builder;
+			textGroup.write(out, 1);
 	}
 
 	/**
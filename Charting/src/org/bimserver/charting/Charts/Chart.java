@@ -19,6 +19,7 @@ package org.bimserver.charting.Charts;
 
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -27,6 +28,7 @@ import java.util.Map.Entry;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
+import org.bimserver.charting.Containers.ChartDataTable;
 import org.bimserver.charting.Containers.ChartOption;
 import org.bimserver.charting.Containers.ChartRow;
 import org.bimserver.charting.Containers.ChartRows;
@@ -148,7 +150,30 @@ public class Chart {
 	 * @return
 	 */
 	public StringBuilder writeSVG(ArrayList<LinkedHashMap<String, Object>> data) {
-		StringBuilder builder = new StringBuilder();
+		StringWriter stringWriter = new StringWriter();
+		PrintWriter out = new PrintWriter(stringWriter);
+		writeSVG(out, Model.filterData(data));
+		out.flush();
+		return new StringBuilder(stringWriter.getBuffer());
+	}
+
+	/**
+	 * Writes out an SVG file given columnar data, streaming the elements to the output as they are produced.
+	 *
+	 * @param out
+	 * @param data
+	 */
+	public void writeSVG(PrintWriter out, ChartDataTable data) {
+		writeSVG(out, Model.filterData(data));
+	}
+
+	/**
+	 * Writes out an SVG file given data that is already filtered by dimension. This method is not meant to be overriden.
+	 *
+	 * @param out
+	 * @param filteredData
+	 */
+	public void writeSVG(PrintWriter out, ChartRows filteredData) {
 		// Create a chart identification string based around the chart's title.
 		String chartId = Title.toLowerCase().replace(' ', '-');
 		// If there is a diameter option, treat as both width and height. Otherwise, specifically look for them.
@@ -156,7 +181,7 @@ public class Chart {
 			// Look for "Diameter" in options (in pixels).
 			int diameter = (hasOption("Diameter")) ? (int)getOptionValue("Diameter") : 1000;
 			// Write the SVG header.
-			builder.append(
+			out.print(
 				String.format(
 					"<svg version=\"1.1\" baseProfile=\"%s\" id=\"%s\" width=\"100%%\" height=\"100%%\" viewBox=\"0 0 %d %d\" xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">",
 					"tiny", chartId, diameter, diameter
@@ -169,58 +194,37 @@ public class Chart {
 			// Look for "Height" in options (in pixels).
 			int height = (hasOption("Height")) ? (int)getOptionValue("Height") : 500;
 			// Write the SVG header.
-			builder.append(
+			out.print(
 				String.format(
 					"<svg version=\"1.1\" baseProfile=\"%s\" id=\"%s\" width=\"100%%\" height=\"100%%\" viewBox=\"0 0 %d %d\" xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">",
 					"tiny", chartId, width, height
 				)
 			);
 		}
-		builder.append("\n");
+		out.print("\n");
 		// Write title (undrawn).
-		builder.append(
+		out.print(
 			String.format(
 				"	<title id=\"chart-title\">%s</title>",
 				Title
 			)
 		);
-		builder.append("\n");
-		// Defer to model functionality to write SVG.
-		writeSVGBody(builder, data);
+		out.print("\n");
+		// Write axes, backgrounds and shapes.
+		writeSVGChartSpecificPayload(out, filteredData);
 		// Close the SVG.
-		builder.append("</svg>");
-		// Return builder.
-		return builder;
-	}
-
-	/**
-	 * Functionality to call functionality to write out non-header components of the SVG file, representing the chart. 
-	 *
-	 * @param builder
-	 * @param data
-	 * @return
-	 */
-	public StringBuilder writeSVGBody(StringBuilder builder, ArrayList<LinkedHashMap<String, Object>> data) {
-		// Obtain data, filtered by dimension.
-		ChartRows filteredData = Model.filterData(data);
-		// Write axes and/or backgrounds.
-		writeSVGChartSpecificPayload(builder, filteredData);
-		// Send it back.
-		return builder;
+		out.print("</svg>");
 	}
 
 	/**
 	 * Functionality to calculate and write out axes and/or backgrounds.
 	 *
-	 * @param builder
+	 * @param out
 	 * @param filteredData
-	 * @return
 	 */
-	public StringBuilder writeSVGChartSpecificPayload(StringBuilder builder, ChartRows filteredData) {
+	public void writeSVGChartSpecificPayload(PrintWriter out, ChartRows filteredData) {
 		// Pass-through. Calculate necessary metrics and backgrounds.
 		// Pass-through. Write necessary metrics and backgrounds.
-		// Pass-through.
-		return builder;
 	}
 
 	public boolean setDimensionLookupKey(String dimensionKey, String dataKey) {
@@ -292,13 +296,12 @@ public class Chart {
 	}
 
 	public void saveToSVG(ArrayList<LinkedHashMap<String, Object>> rawData, String directoryPath, String filename) {
-		StringBuilder builder = this.writeSVG(rawData);
-		String data = builder.toString();
 		PrintWriter writer;
 		String file = FilenameUtils.concat(directoryPath, filename);
 		try {
 			writer = new PrintWriter(file, "UTF-8");
-			writer.println(data);
+			writeSVG(writer, Model.filterData(rawData));
+			writer.println();
 			writer.close();
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
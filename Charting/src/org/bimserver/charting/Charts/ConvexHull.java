@@ -17,6 +17,7 @@ package org.bimserver.charting.Charts;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -68,7 +69,7 @@ public class ConvexHull extends Chart {
 	}
 
 	@Override
-	public StringBuilder writeSVGChartSpecificPayload(StringBuilder builder, ChartRows filteredData) {
+	public void writeSVGChartSpecificPayload(PrintWriter out, ChartRows filteredData) {
 		// Get "x" and "y" dimensions.
 		ModelDimension x = Model.getDimensionByKey("x");
 		ModelDimension y = Model.getDimensionByKey("y");
@@ -148,8 +149,6 @@ public class ConvexHull extends Chart {
 		if (circlesGroup.Children.size() > 0)
 			group.child(circlesGroup);
 		// Write it out.
-		builder.append(group.buildString(1));
-		// Send it back.
-		return builder;
+		group.write(out, 1);
 	}
 }
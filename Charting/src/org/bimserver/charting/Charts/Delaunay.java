@@ -17,6 +17,7 @@ package org.bimserver.charting.Charts;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -68,7 +69,7 @@ public class Delaunay extends Chart {
 	}
 
 	@Override
-	public StringBuilder writeSVGChartSpecificPayload(StringBuilder builder, ChartRows filteredData) {
+	public void writeSVGChartSpecificPayload(PrintWriter out, ChartRows filteredData) {
 		// Get "x" and "y" dimensions.
 		ModelDimension x = Model.getDimensionByKey("x");
 		ModelDimension y = Model.getDimensionByKey("y");
@@ -135,8 +136,6 @@ public class Delaunay extends Chart {
 			group.child(path);
 		}
 		// Write it out.
-		builder.append(group.buildString(1));
-		// Send it back.
-		return builder;
+		group.write(out, 1);
 	}
 }
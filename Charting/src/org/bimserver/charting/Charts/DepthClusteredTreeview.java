@@ -19,6 +19,7 @@ package org.bimserver.charting.Charts;
 
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -104,7 +105,7 @@ public class DepthClusteredTreeview extends Chart {
 	}
 
 	@Override
-	public StringBuilder writeSVGChartSpecificPayload(StringBuilder builder, ChartRows filteredData) {
+	public void writeSVGChartSpecificPayload(PrintWriter out, ChartRows filteredData) {
 		// Get "hierarchy" and "size" dimensions.
 		ModelDimension hierarchy = Model.getDimensionByKey("hierarchy");
 		// Get the width and height options.
@@ -162,10 +163,8 @@ public class DepthClusteredTreeview extends Chart {
 		iterateTreeCollapsingEdges(visualization, graph);
 		// Fit values along vertical axis.
 		iterateTreeToFitY(visualization, graph, halfSizeOfPointMarker, bounds);
-		// Add shapes to builder.
-		iterateTree(visualization, graph, halfSizeOfPointMarker, builder);
-		//
-		return builder;
+		// Write shapes.
+		iterateTree(visualization, graph, halfSizeOfPointMarker, out);
 	}
 
 	/**
@@ -258,7 +257,7 @@ public class DepthClusteredTreeview extends Chart {
 	 * @param node
 	 */
 	@SuppressWarnings("unused")
-	public StringBuilder iterateTree(Visualization visualization, Graph graph, Point2D.Double halfSizeOfPointMarker, StringBuilder builder) {
+	public void iterateTree(Visualization visualization, Graph graph, Point2D.Double halfSizeOfPointMarker, PrintWriter out) {
 		double horizontalDiameter = halfSizeOfPointMarker.x * 2;
 		ElementLike boxGroup = new ElementLike("g");
 		// Edges: lines between points.
@@ -349,7 +348,6 @@ public class DepthClusteredTreeview extends Chart {
 			boxGroup.child(pointGroup);
 		}
 		//
-		builder.append(boxGroup.buildString(1));
-		return builder;
+		boxGroup.write(out, 1);
 	}
 }
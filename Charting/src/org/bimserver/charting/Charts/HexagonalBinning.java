@@ -17,6 +17,7 @@ package org.bimserver.charting.Charts;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -72,7 +73,7 @@ public class HexagonalBinning extends Chart {
 	}
 
 	@Override
-	public StringBuilder writeSVGChartSpecificPayload(StringBuilder builder, ChartRows filteredData) {
+	public void writeSVGChartSpecificPayload(PrintWriter out, ChartRows filteredData) {
 		// Get "x" and "y" dimensions.
 		ModelDimension x = Model.getDimensionByKey("x");
 		ModelDimension y = Model.getDimensionByKey("y");
@@ -119,7 +120,7 @@ public class HexagonalBinning extends Chart {
 		// Create clip path. Not used until referenced in SVG.
 		ElementLike clipPath = ElementLike.createRectangularClipPath("clip", marginLeft, marginBottom, xAxisTickHeight, yAxisTickWidth);
 		// Add reference-capable clip path.
-		builder.append(clipPath.buildString(1));
+		clipPath.write(out, 1);
 		// Handle x axis, which is a series of vertical lines.
 		Axis xAxis = new Axis("x", xExtent, new Vector2d(0, innerHeight - radius), new Vector2d(0, xAxisTickHeight), Axis.Movement.LeftToRight);
 		xAxis.LineSettings.StartLineCapAmount = 6.0;
@@ -129,8 +130,8 @@ public class HexagonalBinning extends Chart {
 		yAxis.LineSettings.StartLineCapAmount = 6.0;
 		yAxis.LineSettings.OnlyDrawLineForFirstAndLastTick = true;
 		// Add the axes.
-		builder.append(xAxis.buildString(1));
-		builder.append(yAxis.buildString(1));
+		xAxis.write(out, 1);
+		yAxis.write(out, 1);
 		// Show small points in addition to data visualizations.
 		boolean showPoints = (hasOption("Show Points")) ? (boolean)getOptionValue("Show Points") : false;
 		// Create context-specific handlers.
@@ -196,8 +197,6 @@ public class HexagonalBinning extends Chart {
 		if (showPoints && pointsGroup.Children.size() > 0)
 			group.child(pointsGroup);
 		// Write everything out.
-		builder.append(group.buildString(1));
-		// Send it back.
-		return builder;
+		group.write(out, 1);
 	}
 }
@@ -17,6 +17,7 @@ package org.bimserver.charting.Charts;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -104,7 +105,7 @@ public class Packing extends Chart {
 	}
 
 	@Override
-	public StringBuilder writeSVGChartSpecificPayload(StringBuilder builder, ChartRows filteredData) {
+	public void writeSVGChartSpecificPayload(PrintWriter out, ChartRows filteredData) {
 		// Get "hierarchy" and "size" dimensions.
 		ModelDimension hierarchy = Model.getDimensionByKey("hierarchy");
 		ModelDimension size = Model.getDimensionByKey("size");
@@ -161,9 +162,7 @@ public class Packing extends Chart {
 		// Zero elapsed time.
 		layout.run(0.0);
 		//
-		iterateTree(visualization, graph, showLabels, colorExtent, colorScale, builder);
-		//
-		return builder;
+		iterateTree(visualization, graph, showLabels, colorExtent, colorScale, out);
 	}
 
 	/**
@@ -171,7 +170,7 @@ public class Packing extends Chart {
 	 * @param node
 	 */
 	@SuppressWarnings("unused")
-	public StringBuilder iterateTree(Visualization visualization, Graph graph, boolean showLabels, ChartExtent colorExtent, GroupedChartExtents<String> colorScale, StringBuilder builder) {
+	public void iterateTree(Visualization visualization, Graph graph, boolean showLabels, ChartExtent colorExtent, GroupedChartExtents<String> colorScale, PrintWriter out) {
 		//
 		java.awt.geom.Rectangle2D bounds = visualization.getBounds("tree");
 		double maxComponent = Math.max(1, Math.max(bounds.getWidth(), bounds.getHeight()));
@@ -235,8 +234,7 @@ public class Packing extends Chart {
 				//
 				pointGroup.child(text);
 			}
-			builder.append(pointGroup.buildString(1));
+			pointGroup.write(out, 1);
 		}
-		return builder;
 	}
 }
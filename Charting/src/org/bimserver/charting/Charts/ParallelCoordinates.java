@@ -17,6 +17,7 @@ package org.bimserver.charting.Charts;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -67,7 +68,7 @@ public class ParallelCoordinates extends Chart {
 	}
 
 	@Override
-	public StringBuilder writeSVGChartSpecificPayload(StringBuilder builder, ChartRows filteredData) {
+	public void writeSVGChartSpecificPayload(PrintWriter out, ChartRows filteredData) {
 		ModelDimension dimensions = Model.getDimensionByKey("dimensions");
 		// Get optional dimensions.
 		ModelDimension color = Model.getDimensionByKey("color");
@@ -129,9 +130,9 @@ public class ParallelCoordinates extends Chart {
 			text.attribute("style", "font-size: 10px; font-family: Arial, Helvetica;");
 			text.text(dimensions.KeysToBeFiltered.get(i));
 			// Add the axes.
-			builder.append(axis.buildString(1));
+			axis.write(out, 1);
 			// Add text.
-			builder.append(text.buildString(1));
+			text.write(out, 1);
 		}
 		// Iterate rows.
 		for (ChartRow row : filteredData) {
@@ -179,9 +180,7 @@ public class ParallelCoordinates extends Chart {
 				}
 			}
 			// Add the group.
-			builder.append(group.buildString(1));
+			group.write(out, 1);
 		}
-		// Send it back.
-		return builder;
 	}
 }
@@ -22,6 +22,7 @@ import java.awt.font.FontRenderContext;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -103,7 +104,7 @@ public class RadialDendrogram extends Chart {
 	}
 
 	@Override
-	public StringBuilder writeSVGChartSpecificPayload(StringBuilder builder, ChartRows filteredData) {
+	public void writeSVGChartSpecificPayload(PrintWriter out, ChartRows filteredData) {
 		// Get "hierarchy" and "size" dimensions.
 		ModelDimension hierarchy = Model.getDimensionByKey("hierarchy");
 		// Get the width and height options.
@@ -166,10 +167,8 @@ public class RadialDendrogram extends Chart {
 		layout.run(0.0);
 		//
 		iterateTreeCollapsingEdges(visualization, graph);
-		iterateTreeToFitXAndY(visualization, graph, bounds, halfSizeOfPointMarker, builder);
-		iterateTree(visualization, graph, anchor, halfSizeOfPointMarker, builder);
-		//
-		return builder;
+		iterateTreeToFitXAndY(visualization, graph, bounds, halfSizeOfPointMarker, out);
+		iterateTree(visualization, graph, anchor, halfSizeOfPointMarker, out);
 	}
 
 	/**
@@ -210,7 +209,7 @@ public class RadialDendrogram extends Chart {
 		}
 	}
 
-	public void iterateTreeToFitXAndY(Visualization visualization, Graph graph, Rectangle2D.Double bounds, Point2D.Double halfSizeOfPointMarker, StringBuilder builder) {
+	public void iterateTreeToFitXAndY(Visualization visualization, Graph graph, Rectangle2D.Double bounds, Point2D.Double halfSizeOfPointMarker, PrintWriter out) {
 		double horizontalDiameter = halfSizeOfPointMarker.x * 2;
 		// Prepare to measure text.
 		Font font = FontLib.getFont("Arial", 20);
@@ -330,7 +329,7 @@ public class RadialDendrogram extends Chart {
 	 * @param node
 	 */
 	@SuppressWarnings("unused")
-	public StringBuilder iterateTree(Visualization visualization, Graph graph, Point2D.Double center, Point2D.Double halfSizeOfPointMarker, StringBuilder builder) {
+	public void iterateTree(Visualization visualization, Graph graph, Point2D.Double center, Point2D.Double halfSizeOfPointMarker, PrintWriter out) {
 		double horizontalDiameter = halfSizeOfPointMarker.x * 2;
 		ElementLike boxGroup = new ElementLike("g");
 		// Edges: lines between points.
@@ -515,7 +514,6 @@ public class RadialDendrogram extends Chart {
 			boxGroup.child(pointGroup);
 		}
 		//
-		builder.append(boxGroup.buildString(1));
-		return builder;
+		boxGroup.write(out, 1);
 	}
 }
@@ -17,6 +17,7 @@ package org.bimserver.charting.Charts;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -74,7 +75,7 @@ public class ScatterPlot extends Chart {
 	}
 
 	@Override
-	public StringBuilder writeSVGChartSpecificPayload(StringBuilder builder, ChartRows filteredData) {
+	public void writeSVGChartSpecificPayload(PrintWriter out, ChartRows filteredData) {
 		// Get "x" and "y" dimensions.
 		ModelDimension x = Model.getDimensionByKey("x");
 		ModelDimension y = Model.getDimensionByKey("y");
@@ -135,8 +136,8 @@ public class ScatterPlot extends Chart {
 		Axis yAxis = new Axis("y", yExtent, new Vector2d(marginLeft, 0), new Vector2d(yAxisTickWidth, 0), Axis.Movement.BottomToTop);
 		yAxis.LineSettings.LineColor = new Colord(0.8);
 		// Add the axes.
-		builder.append(xAxis.buildString(1));
-		builder.append(yAxis.buildString(1));
+		xAxis.write(out, 1);
+		yAxis.write(out, 1);
 		//
 		ElementLike circlesGroup = new ElementLike("g");
 		ElementLike pointsGroup = new ElementLike("g");
@@ -237,11 +238,9 @@ public class ScatterPlot extends Chart {
 		}
 		// Write the points as circles.
 		if (circlesGroup.Children.size() > 0)
-			builder.append(circlesGroup.buildString(1));
+			circlesGroup.write(out, 1);
 		// Write the points as dots.
 		if (showPoints && pointsGroup.Children.size() > 0)
-			builder.append(pointsGroup.buildString(1));
-		// Send it back.
-		return builder;
+			pointsGroup.write(out, 1);
 	}
 }
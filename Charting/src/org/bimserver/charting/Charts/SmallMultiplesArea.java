@@ -17,6 +17,7 @@ package org.bimserver.charting.Charts;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -97,7 +98,7 @@ public class SmallMultiplesArea extends Chart {
 	};
 
 	@Override
-	public StringBuilder writeSVGChartSpecificPayload(StringBuilder builder, ChartRows filteredData) {
+	public void writeSVGChartSpecificPayload(PrintWriter out, ChartRows filteredData) {
 		// Get "group", "date", and "size" dimensions.
 		ModelDimension group = Model.getDimensionByKey("group");
 		ModelDimension date = Model.getDimensionByKey("date");
@@ -163,7 +164,7 @@ public class SmallMultiplesArea extends Chart {
 		clipPath.attribute("id", clipPathName);
 		clipPath.child(clipPathRectanglePrototype);
 		definitions.child(clipPath);
-		builder.append(definitions.buildString(1));
+		definitions.write(out, 1);
 		//
 		int subChartIndex = 0;
 		for (TreeNode subChartNode : root.Children) {
@@ -232,12 +233,10 @@ public class SmallMultiplesArea extends Chart {
 			path.attribute("d", d.toString());
 			thisGroup.Children.add(0, path);
 			//
-			builder.append(thisGroup.buildString(1));
+			thisGroup.write(out, 1);
 			//
 			subChartIndex++;
 		}
-		//
-		return builder;
 	}
 
 	private static double getDateFromTreeNodeData(ModelDimension date, TreeNode node) {
@@ -17,6 +17,7 @@ package org.bimserver.charting.Charts;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -77,7 +78,7 @@ public class Streamgraph extends Chart {
 	}
 
 	@Override
-	public StringBuilder writeSVGChartSpecificPayload(StringBuilder builder, ChartRows filteredData) {
+	public void writeSVGChartSpecificPayload(PrintWriter out, ChartRows filteredData) {
 		// Get "group", "date", and "size" dimensions.
 		ModelDimension group = Model.getDimensionByKey("group");
 		ModelDimension date = Model.getDimensionByKey("date");
@@ -134,8 +135,8 @@ public class Streamgraph extends Chart {
 		Axis yAxis = new Axis("y", layout.sizeExtent, new Vector2d(horizontalBorderMargin, 0), new Vector2d(width - horizontalBorderMargin * 2, 0), Axis.Movement.BottomToTop);
 		yAxis.LineSettings.IncludeLabels = false;
 		//
-		builder.append(yAxis.buildString(1));
-		builder.append(xAxis.buildString(1));
+		yAxis.write(out, 1);
+		xAxis.write(out, 1);
 		//
 		int subChartIndex = 0;
 		Layer[] layers = layout.layers;
@@ -184,14 +185,12 @@ public class Streamgraph extends Chart {
 				textGroup.child(text);
 			}
 			//
-			builder.append(path.buildString(1));
+			path.write(out, 1);
 			//
 			subChartIndex++;
 		}
 		// Add text.
 		if (textGroup.Children.size() > 0)
-			builder.append(textGroup.buildString(1));
-		//
-		return builder;
+			textGroup.write(out, 1);
 	}
 }
@@ -17,12 +17,12 @@ package org.bimserver.charting.Charts;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
-import java.awt.Shape;
 import java.awt.geom.Rectangle2D;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
 
+import org.apache.commons.lang.StringUtils;
 import org.bimserver.charting.Algorithms.SizeBasedSquarifiedTreeMapLayout;
 import org.bimserver.charting.ColorScales.HSLColorScale;
 import org.bimserver.charting.Containers.ChartExtent;
@@ -31,41 +31,12 @@ import org.bimserver.charting.Containers.ChartRows;
 import org.bimserver.charting.Containers.ElementLike;
 import org.bimserver.charting.Containers.GroupedChartExtents;
 import org.bimserver.charting.Containers.TreeNode;
+import org.bimserver.charting.Delegates.ITreeNodeBoundsHandler;
 import org.bimserver.charting.Dimensions.ModelDimension;
 import org.bimserver.charting.Models.TreeModel;
 
-import prefuse.Visualization;
-import prefuse.action.ActionList;
-import prefuse.data.Graph;
-import prefuse.data.Node;
-import prefuse.data.Tree;
-import prefuse.render.AbstractShapeRenderer;
-import prefuse.render.DefaultRendererFactory;
-import prefuse.visual.VisualItem;
-import prefuse.visual.expression.InGroupPredicate;
-
 public class Treemap extends Chart {
 
-	/**
-	 * Data keys: name, value, size, fill, and label.
-	 *
-	 * Obtain on node like: node.get("name")
-	 */
-	private static final prefuse.data.Schema Schema = new prefuse.data.Schema() {{
-		// String representation of actual value. Used in place of label if not specified.
-		addColumn("name", String.class);
-		// Value of hierarchy.
-		addColumn("class", String.class);
-		// String description of node.
-		addColumn("tooltip", String.class);
-		// Relative size of node as compared to all other nodes. A value of "1.0" is meant as a pass-through.
-		addColumn("size", double.class, 1.0);
-		// Relative color of node as compared to all other nodes. A value of "0.0" is meant to fall at the start of the scale.
-		addColumn("color", double.class, null);
-		// Label to be used in place of name.
-		addColumn("label", String.class, null);
-	}};
-
 	public Treemap() {
 		this("Treemap");
 	}
@@ -100,7 +71,7 @@ public class Treemap extends Chart {
 	}
 
 	@Override
-	public StringBuilder writeSVGChartSpecificPayload(StringBuilder builder, ChartRows filteredData) {
+	public void writeSVGChartSpecificPayload(PrintWriter out, ChartRows filteredData) {
 		// Get "hierarchy" and "size" dimensions.
 		ModelDimension hierarchy = Model.getDimensionByKey("hierarchy");
 		ModelDimension size = Model.getDimensionByKey("size");
@@ -117,136 +88,103 @@ public class Treemap extends Chart {
 		GroupedChartExtents<String> colorScale = (GroupedChartExtents<String>)getOptionValue("Color Scale");
 		//
 		TreeNode root = TreeNode.Consume(filteredData, hierarchy, size);
-		// Make place to store transformable data.
-		Tree tree = new Tree();
-		// Add structure to data.
-		tree.addColumns(Schema);
-		// Parse the data in the local tree structure into the prefuse.data structure.
-		root.parseIntoPrefuseTree(tree);
-		// Make graph. Contains data table structure.
-		Graph graph = tree;
-		//
-		Visualization visualization = new Visualization();
-		visualization.add("tree", graph);
-		//
-		iterateTreeSize(visualization, graph);
-		//
-		DefaultRendererFactory drf = new DefaultRendererFactory();
-		drf.add(new InGroupPredicate("tree.nodes"), new NodeRenderer());
-		visualization.setRendererFactory(drf);
-		//
-		ActionList list = new ActionList();
-		// "tree" refers to root of XML document. Second argument is padding versus primary node groups.
-		SizeBasedSquarifiedTreeMapLayout layout = new SizeBasedSquarifiedTreeMapLayout("tree", padding);
-		layout.setLayoutBounds(new Rectangle2D.Double(0, 0, width, height));
-		list.add(layout);
-		//
-		visualization.putAction("layout", list);
-		// Zero elapsed time.
-		layout.run(0.0);
-		//
-		iterateTree(visualization, graph, colorExtent, colorScale, width, builder);
-		//
-		return builder;
+		// Lay out the tree straight from the tree nodes. Cells are written as soon as they have their bounds, a treemap of a large model has too many to hold as elements.
+		CellWriter cellWriter = new CellWriter(colorExtent, colorScale, width, out);
+		// Second argument is padding versus primary node groups.
+		SizeBasedSquarifiedTreeMapLayout layout = new SizeBasedSquarifiedTreeMapLayout(padding);
+		layout.run(root, new Rectangle2D.Double(0, 0, width, height), cellWriter);
+		cellWriter.close();
 	}
 
 	/**
-	 * @param visualization
-	 * @param node
+	 * Writes a leaf of the tree as a cell of the treemap.
 	 */
-	public void iterateTreeSize(Visualization visualization, Graph graph) {
-		Iterator b = graph.nodes();
-		Node child = null;
-		while (b.hasNext()) {
-			child = (Node)b.next();
-			VisualItem item = visualization.getVisualItem("tree", child);
-			// If it's a leaf, set its size. Don't set value otherwise.
-			if (child.getChildCount() == 0) {
-				Double size = ((Number)child.get("size")).doubleValue();
-				item.setSize(size);
-			}
-		}
-	}
+	private static class CellWriter implements ITreeNodeBoundsHandler {
+		private final ChartExtent colorExtent;
+		private final GroupedChartExtents<String> colorScale;
+		private final double viewportWidth;
+		private final PrintWriter out;
+		private boolean hasCells = false;
 
-	/**
-	 * @param visualization
-	 * @param node
-	 */
-	public StringBuilder iterateTree(Visualization visualization, Graph graph, ChartExtent colorExtent, GroupedChartExtents<String> colorScale, double viewportWidth, StringBuilder builder) {
-		Iterator b = graph.nodes();
-		Node child = null;
-		ElementLike boxGroup = new ElementLike("g");
-		while (b.hasNext()) {
-			child = (Node)b.next();
-			if (child.getChildCount() == 0) {
-				VisualItem item = visualization.getVisualItem("tree", child);
-				//
-				Rectangle2D bounds = (Rectangle2D)item.get("_bounds");
-				String tooltip = child.getString("tooltip");
-				Double thisRawColorValue = child.getDouble("color");
-				String label = child.getString("label");
-				// Derive color value.
-				Double colorValue = colorExtent.getLinearWorldSpaceValueAtXGivenActualValue(thisRawColorValue);
-				// Derive tooltip.
-				if (label != null)
-					tooltip = String.format("%s: %s", tooltip, label);
-				else
-					tooltip = String.format("%s: %s", tooltip, item.getSize());
-				// Derive label.
-				if (label == null)
-					label = child.getString("name");
-				// Get color in color scale.
-				String color = colorScale.getModulatedLinearWorldSpaceValueAtXGivenActualValue(colorValue, false);
-				//
-				ElementLike rect = new ElementLike("rect");
-				rect.attribute("class", "cell");
-				rect.attribute("width", String.format("%s", bounds.getWidth()));
-				rect.attribute("height", String.format("%s", bounds.getHeight()));
-				rect.attribute("style", String.format("fill: %s;", color));
-				rect.attribute("stroke", "white");
-				rect.attribute("transform", String.format("translate(%s, %s)", bounds.getX(), bounds.getY()));
-				//
-				ElementLike title = new ElementLike("title");
-				title.text(tooltip);
-				// Figure out a size (based around Arial near 11px) that will be relative to the viewport's coordinates (re: vw) so that the font's scale with their containers.
-				double containerWidth = bounds.getWidth();
-				double paddedPercentageOfViewportWidth = 60.0 * containerWidth / viewportWidth;
-				double numberOfLetters = (label != null) ? label.length() : 1;
-				//
-				ElementLike text = new ElementLike("text");
-				double viewportPercentagePerLetter = paddedPercentageOfViewportWidth / numberOfLetters;
-				if (11.0 * numberOfLetters < containerWidth)
-					text.attribute("style", "font-size: 11px; font-family: Arial, Helvetica;");
-				else
-					text.attribute("style", String.format("font-size: %svw; font-family: Arial, Helvetica;", viewportPercentagePerLetter));
-				text.attribute("text-anchor", "middle");
-				text.attribute("dy", "0.45em");
-				text.attribute("transform", String.format("translate(%s, %s)", bounds.getCenterX(), bounds.getCenterY()));
-				text.text(label);
-				//
-				rect.child(title);
-				boxGroup.child(rect);
-				boxGroup.child(text);
-			}
+		public CellWriter(ChartExtent colorExtent, GroupedChartExtents<String> colorScale, double viewportWidth, PrintWriter out) {
+			this.colorExtent = colorExtent;
+			this.colorScale = colorScale;
+			this.viewportWidth = viewportWidth;
+			this.out = out;
 		}
-		builder.append(boxGroup.buildString(1));
-		return builder;
-	}
 
-	/**
-	 * A renderer for treemap nodes. Draws simple rectangles, but defers
-	 * the bounds management to the layout.
-	 */
-	public static class NodeRenderer extends AbstractShapeRenderer {
-		private Rectangle2D m_bounds = new Rectangle2D.Double();
-		
-		public NodeRenderer() {
-			m_manageBounds = false;
+		@Override
+		public void handleNode(TreeNode node, Rectangle2D bounds) {
+			String tooltip = node.getTooltip();
+			// Color is a value relative to other data based on magnitude, 0 when there is none.
+			double thisRawColorValue = 0.0;
+			String label = null;
+			if (node.Data != null) {
+				ArrayList<Object> colorValues = node.Data.getValueListByDimensionId("color");
+				if (colorValues != null && colorValues.size() > 0) {
+					Object colorValue = colorValues.get(0);
+					if (colorValue instanceof String)
+						thisRawColorValue = ((String)colorValue).hashCode();
+					else if (colorValue instanceof Number)
+						thisRawColorValue = ((Number)colorValue).doubleValue();
+				}
+				ArrayList<Object> labelValues = node.Data.getValueListByDimensionId("label");
+				if (labelValues != null && labelValues.size() > 0)
+					label = StringUtils.join(labelValues, ", ");
+			}
+			// Derive color value.
+			Double colorValue = colorExtent.getLinearWorldSpaceValueAtXGivenActualValue(thisRawColorValue);
+			// Derive tooltip.
+			if (label != null)
+				tooltip = String.format("%s: %s", tooltip, label);
+			else
+				tooltip = String.format("%s: %s", tooltip, node.Size);
+			// Derive label.
+			if (label == null)
+				label = node.Name;
+			// Get color in color scale.
+			String color = colorScale.getModulatedLinearWorldSpaceValueAtXGivenActualValue(colorValue, false);
+			//
+			ElementLike rect = new ElementLike("rect");
+			rect.attribute("class", "cell");
+			rect.attribute("width", String.format("%s", bounds.getWidth()));
+			rect.attribute("height", String.format("%s", bounds.getHeight()));
+			rect.attribute("style", String.format("fill: %s;", color));
+			rect.attribute("stroke", "white");
+			rect.attribute("transform", String.format("translate(%s, %s)", bounds.getX(), bounds.getY()));
+			//
+			ElementLike title = new ElementLike("title");
+			title.text(tooltip);
+			// Figure out a size (based around Arial near 11px) that will be relative to the viewport's coordinates (re: vw) so that the font's scale with their containers.
+			double containerWidth = bounds.getWidth();
+			double paddedPercentageOfViewportWidth = 60.0 * containerWidth / viewportWidth;
+			double numberOfLetters = (label != null) ? label.length() : 1;
+			//
+			ElementLike text = new ElementLike("text");
+			double viewportPercentagePerLetter = paddedPercentageOfViewportWidth / numberOfLetters;
+			if (11.0 * numberOfLetters < containerWidth)
+				text.attribute("style", "font-size: 11px; font-family: Arial, Helvetica;");
+			else
+				text.attribute("style", String.format("font-size: %svw; font-family: Arial, Helvetica;", viewportPercentagePerLetter));
+			text.attribute("text-anchor", "middle");
+			text.attribute("dy", "0.45em");
+			text.attribute("transform", String.format("translate(%s, %s)", bounds.getCenterX(), bounds.getCenterY()));
+			text.text(label);
+			//
+			rect.child(title);
+			if (!hasCells) {
+				out.print("	<g>\n");
+				hasCells = true;
+			}
+			rect.write(out, 2);
+			text.write(out, 2);
 		}
 
-		protected Shape getRawShape(VisualItem item) {
-			m_bounds.setRect(item.getBounds());
-			return m_bounds;
+		public void close() {
+			if (hasCells)
+				out.print("	</g>\n");
+			else
+				out.print("	<g/>\n");
 		}
-	} // end of inner class NodeRenderer
+	}
 }
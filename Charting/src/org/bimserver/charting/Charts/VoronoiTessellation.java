@@ -17,6 +17,7 @@ package org.bimserver.charting.Charts;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -77,7 +78,7 @@ public class VoronoiTessellation extends Chart {
 	}
 
 	@Override
-	public StringBuilder writeSVGChartSpecificPayload(StringBuilder builder, ChartRows filteredData) {
+	public void writeSVGChartSpecificPayload(PrintWriter out, ChartRows filteredData) {
 		// Get "x" and "y" dimensions.
 		ModelDimension x = Model.getDimensionByKey("x");
 		ModelDimension y = Model.getDimensionByKey("y");
@@ -185,12 +186,10 @@ public class VoronoiTessellation extends Chart {
 			group.child(path);
 		}
 		// Write it out.
-		builder.append(group.buildString(1));
+		group.write(out, 1);
 		// Add points as circles.
 		if (showPoints && circlesGroup.Children.size() > 0)
-			builder.append(circlesGroup.buildString(1));
-		// Send it back.
-		return builder;
+			circlesGroup.write(out, 1);
 	}
 
 	/**
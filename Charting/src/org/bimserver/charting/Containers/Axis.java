@@ -17,6 +17,7 @@ package org.bimserver.charting.Containers;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -72,6 +73,14 @@ public class Axis {
 	}
 
 	public StringBuilder buildString(int indentation) {
+		return buildElement().buildString(indentation);
+	}
+
+	public void write(PrintWriter out, int indentation) {
+		buildElement().write(out, indentation);
+	}
+
+	public ElementLike buildElement() {
 		ElementLike svgGroupElementRepresentingAxis = new ElementLike("g");
 		// Provide class names that double as a comment about which axis this is. 
 		if (Name != null && !Name.isEmpty())
@@ -224,7 +233,7 @@ public class Axis {
 			// Add line group.
 			svgGroupElementRepresentingAxis.Children.add(lineGroup);
 		}
-		return svgGroupElementRepresentingAxis.buildString(indentation);
+		return svgGroupElementRepresentingAxis;
 	}
 
 	public double getWorldSpaceValueGivenActualValue(double actualValue) {
@@ -0,0 +1,166 @@
+package org.bimserver.charting.Containers;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * Provides a column oriented alternative to a list of LinkedHashMap data rows. Text columns store each distinct value once (the hierarchy of a model repeats the same few names for every leaf) and refer to it by index, number columns store primitive doubles. Rows are never turned into objects as a whole, {@link org.bimserver.charting.Models.Model#filterData(ChartDataTable) Model.filterData} gives views over row indices ({@link ChartRowView}).
+ */
+public class ChartDataTable {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final LinkedHashMap<String, Column> columns = new LinkedHashMap<>();
+	private int size = 0;
+	private int capacity = INITIAL_CAPACITY;
+
+	/**
+	 * Add a row in which every column is null.
+	 *
+	 * @return The index of the new row.
+	 */
+	public int addRow() {
+		if (size == capacity) {
+			capacity *= 2;
+			for (Column column : columns.values())
+				column.grow(capacity);
+		}
+		return size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean hasColumn(String name) {
+		return columns.containsKey(name);
+	}
+
+	public Set<String> getColumnNames() {
+		return columns.keySet();
+	}
+
+	public void setString(String name, int row, String value) {
+		Column column = columns.get(name);
+		if (column == null) {
+			column = new StringColumn(capacity);
+			columns.put(name, column);
+		}
+		((StringColumn) column).set(row, value);
+	}
+
+	public void setDouble(String name, int row, Double value) {
+		Column column = columns.get(name);
+		if (column == null) {
+			column = new DoubleColumn(capacity);
+			columns.put(name, column);
+		}
+		((DoubleColumn) column).set(row, value);
+	}
+
+	/**
+	 * @param name
+	 * @param row
+	 * @return The value as a String or Double, or null if there is no such column or no value in that row.
+	 */
+	public Object get(String name, int row) {
+		Column column = columns.get(name);
+		if (column == null)
+			return null;
+		return column.get(row);
+	}
+
+	private static abstract class Column {
+		public abstract void grow(int capacity);
+
+		public abstract Object get(int row);
+	}
+
+	private static class StringColumn extends Column {
+		private final ArrayList<String> values = new ArrayList<>();
+		private final HashMap<String, Integer> codes = new HashMap<>();
+		// Index into values, -1 for null.
+		private int[] rows;
+
+		public StringColumn(int capacity) {
+			rows = new int[capacity];
+			Arrays.fill(rows, -1);
+		}
+
+		@Override
+		public void grow(int capacity) {
+			int oldCapacity = rows.length;
+			rows = Arrays.copyOf(rows, capacity);
+			Arrays.fill(rows, oldCapacity, capacity, -1);
+		}
+
+		public void set(int row, String value) {
+			if (value == null) {
+				rows[row] = -1;
+				return;
+			}
+			Integer code = codes.get(value);
+			if (code == null) {
+				code = values.size();
+				values.add(value);
+				codes.put(value, code);
+			}
+			rows[row] = code;
+		}
+
+		@Override
+		public Object get(int row) {
+			int code = rows[row];
+			return (code >= 0) ? values.get(code) : null;
+		}
+	}
+
+	private static class DoubleColumn extends Column {
+		private double[] rows;
+		private final BitSet present = new BitSet();
+
+		public DoubleColumn(int capacity) {
+			rows = new double[capacity];
+		}
+
+		@Override
+		public void grow(int capacity) {
+			rows = Arrays.copyOf(rows, capacity);
+		}
+
+		public void set(int row, Double value) {
+			if (value == null)
+				present.clear(row);
+			else {
+				rows[row] = value;
+				present.set(row);
+			}
+		}
+
+		@Override
+		public Object get(int row) {
+			return present.get(row) ? rows[row] : null;
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package org.bimserver.charting.Containers;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bimserver.charting.Dimensions.ModelDimension;
+
+/**
+ * The rows of a ChartDataTable as filtered by the dimensions of a model, see {@link org.bimserver.charting.Models.Model#filterData(ChartDataTable) Model.filterData}. Nothing is copied: every row is a {@link ChartRowView} on a row index of the table, made when it is asked for and not kept, so iterating the rows only has one of them in memory at a time.
+ */
+public class ChartDataTableRows extends ChartRows {
+
+	private final ChartDataTable data;
+	private final List<ModelDimension> dimensions;
+
+	/**
+	 * @param data
+	 * @param dimensions
+	 */
+	public ChartDataTableRows(ChartDataTable data, ArrayList<ModelDimension> dimensions) {
+		this.data = data;
+		this.dimensions = dimensions;
+	}
+
+	@Override
+	public ChartRow get(int index) {
+		if (index < 0 || index >= data.size())
+			throw new IndexOutOfBoundsException(String.format("Row %s of %s.", index, data.size()));
+		return new ChartRowView(data, index, dimensions);
+	}
+
+	@Override
+	public int size() {
+		return data.size();
+	}
+
+	@Override
+	public ChartRow set(int index, ChartRow row) {
+		throw new UnsupportedOperationException("Rows of a ChartDataTable can not be changed.");
+	}
+
+	@Override
+	public void add(int index, ChartRow row) {
+		throw new UnsupportedOperationException("Rows of a ChartDataTable can not be changed.");
+	}
+
+	@Override
+	public ChartRow remove(int index) {
+		throw new UnsupportedOperationException("Rows of a ChartDataTable can not be changed.");
+	}
+}
@@ -0,0 +1,117 @@
+package org.bimserver.charting.Containers;
+
+/******************************************************************************
+ * Copyright (C) 2009-2015  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bimserver.charting.Dimensions.ModelDimension;
+
+/**
+ * A row of a ChartDataTable, as seen through the dimensions of a model. Holds the table and the row index only, the values of a dimension are filtered from the table each time they are asked for (see {@link ModelDimension#filterDataEntry(ChartDataTable, int) ModelDimension.filterDataEntry}). Can not be changed.
+ */
+public class ChartRowView extends ChartRow {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -6287143306937722405L;
+
+	private final ChartDataTable data;
+	private final int row;
+	private final List<ModelDimension> dimensions;
+
+	/**
+	 * @param data
+	 * @param row
+	 * @param dimensions
+	 */
+	public ChartRowView(ChartDataTable data, int row, List<ModelDimension> dimensions) {
+		super();
+		this.data = data;
+		this.row = row;
+		this.dimensions = dimensions;
+	}
+
+	public int getRow() {
+		return row;
+	}
+
+	@Override
+	public ArrayList<Object> get(Object key) {
+		if (!dimensions.contains(key))
+			return null;
+		return ((ModelDimension)key).filterDataEntry(data, row);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return dimensions.contains(key);
+	}
+
+	@Override
+	public int size() {
+		return dimensions.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return dimensions.isEmpty();
+	}
+
+	@Override
+	public Set<ModelDimension> keySet() {
+		return Collections.unmodifiableSet(new LinkedHashSet<>(dimensions));
+	}
+
+	@Override
+	public Collection<ArrayList<Object>> values() {
+		return Collections.unmodifiableCollection(toMap().values());
+	}
+
+	@Override
+	public Set<Map.Entry<ModelDimension, ArrayList<Object>>> entrySet() {
+		return Collections.unmodifiableSet(toMap().entrySet());
+	}
+
+	@Override
+	public ArrayList<Object> put(ModelDimension key, ArrayList<Object> value) {
+		throw new UnsupportedOperationException("A row of a ChartDataTable can not be changed.");
+	}
+
+	@Override
+	public ArrayList<Object> remove(Object key) {
+		throw new UnsupportedOperationException("A row of a ChartDataTable can not be changed.");
+	}
+
+	/**
+	 * @return The values of all dimensions, in a map of their own.
+	 */
+	private LinkedHashMap<ModelDimension, ArrayList<Object>> toMap() {
+		LinkedHashMap<ModelDimension, ArrayList<Object>> map = new LinkedHashMap<>();
+		for (ModelDimension dimension : dimensions)
+			map.put(dimension, dimension.filterDataEntry(data, row));
+		return map;
+	}
+}
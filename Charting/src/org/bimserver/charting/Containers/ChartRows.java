@@ -17,6 +17,7 @@ package org.bimserver.charting.Containers;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -24,32 +25,57 @@ import java.util.Date;
 import org.bimserver.charting.Delegates.IModulateValueDelegate;
 import org.bimserver.charting.Dimensions.ModelDimension;
 
-public class ChartRows extends ArrayList<ChartRow> {
+/**
+ * The filtered rows of a chart. Rows added to it are kept in a list, {@link ChartDataTableRows} overrides the access methods to make the rows from a ChartDataTable when they are asked for.
+ */
+public class ChartRows extends AbstractList<ChartRow> {
 
-	/**
-	 * 
-	 */
-	private static final long serialVersionUID = -4418653975462360616L;
+	private final ArrayList<ChartRow> rows;
 
 	/**
 	 * 
 	 */
 	public ChartRows() {
-		super();
+		rows = new ArrayList<>();
 	}
 
 	/**
 	 * @param c
 	 */
 	public ChartRows(Collection<? extends ChartRow> c) {
-		super(c);
+		rows = new ArrayList<>(c);
 	}
 
 	/**
 	 * @param initialCapacity
 	 */
 	public ChartRows(int initialCapacity) {
-		super(initialCapacity);
+		rows = new ArrayList<>(initialCapacity);
+	}
+
+	@Override
+	public ChartRow get(int index) {
+		return rows.get(index);
+	}
+
+	@Override
+	public int size() {
+		return rows.size();
+	}
+
+	@Override
+	public ChartRow set(int index, ChartRow row) {
+		return rows.set(index, row);
+	}
+
+	@Override
+	public void add(int index, ChartRow row) {
+		rows.add(index, row);
+	}
+
+	@Override
+	public ChartRow remove(int index) {
+		return rows.remove(index);
 	}
 
 	/**
@@ -17,6 +17,8 @@ package org.bimserver.charting.Containers;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.Locale;
@@ -125,54 +127,70 @@ public class ElementLike {
 	 * @return
 	 */
 	public StringBuilder buildString(int indentation) {
+		StringWriter stringWriter = new StringWriter();
+		PrintWriter out = new PrintWriter(stringWriter);
+		write(out, indentation);
+		out.flush();
+		return new StringBuilder(stringWriter.getBuffer());
+	}
+
+	/**
+	 * Write this element and its children straight to the output, so a whole chart never has to be held as one string.
+	 *
+	 * @param out
+	 * @param indentation
+	 */
+	public void write(PrintWriter out, int indentation) {
 		// Calculate indentation.
-		String indentationString = "";
+		StringBuilder indentationBuilder = new StringBuilder();
 		for (int level = 0; level < indentation; level++)
-			indentationString += "	";
-		// Prepare a builder.
-		StringBuilder builder = new StringBuilder();
+			indentationBuilder.append("	");
+		String indentationString = indentationBuilder.toString();
 		// Write opening element.
-		builder.append(indentationString + String.format("<%s", getValidName()));
-		if (Attributes.size() > 0)
-		{
-			for (Entry<String, String> attribute : Attributes.entrySet()) {
-				builder.append(String.format(" %s=\"%s\"", attribute.getKey(), attribute.getValue()));
-			}
+		out.print(indentationString);
+		out.print("<");
+		out.print(getValidName());
+		for (Entry<String, String> attribute : Attributes.entrySet()) {
+			out.print(" ");
+			out.print(attribute.getKey());
+			out.print("=\"");
+			out.print(attribute.getValue());
+			out.print("\"");
 		}
 		boolean canCloseRightAway = (Children.size() == 0 && Text == null);
 		if (canCloseRightAway)
-			builder.append("/>");
+			out.print("/>");
 		else {
 			// Close opening tag declaration.
-			builder.append(">");
+			out.print(">");
 			boolean canSimplifyToOneLine = (Children.size() == 0);
 			// Write text.
 			if (Text != null) {
 				boolean textContainsBadCharacter = Text.contains("&") || Text.contains("<") || Text.contains(">");
 				String thisText = (!textContainsBadCharacter) ? Text : String.format("<![CDATA[%s]]>", Text);
 				if (canSimplifyToOneLine)
-					builder.append(thisText);
+					out.print(thisText);
 				else {
-					builder.append("\n");
-					builder.append(indentationString + String.format("	%s", thisText));
+					out.print("\n");
+					out.print(indentationString);
+					out.print("	");
+					out.print(thisText);
 				}
 			}
 			// Write child elements.
 			if (Children.size() > 0) {
-				builder.append("\n");
-				for (ElementLike element : Children) {
-					builder.append(element.buildString(indentation + 1));
-				}
+				out.print("\n");
+				for (ElementLike element : Children)
+					element.write(out, indentation + 1);
 			}
 			// Close tag.
-			if (canSimplifyToOneLine)
-				builder.append(String.format("</%s>", getValidName()));
-			else {
-				builder.append(indentationString + String.format("</%s>", getValidName()));
-			}
+			if (!canSimplifyToOneLine)
+				out.print(indentationString);
+			out.print("</");
+			out.print(getValidName());
+			out.print(">");
 		}
-		builder.append("\n");
-		return builder;
+		out.print("\n");
 	}
 
 	/**
@@ -19,10 +19,9 @@ package org.bimserver.charting;
 
 import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
 
 import org.bimserver.charting.Charts.Chart;
+import org.bimserver.charting.Containers.ChartDataTable;
 import org.bimserver.charting.Charts.DepthClusteredTreeview;
 import org.bimserver.charting.Charts.Treeview;
 import org.bimserver.emf.IfcModelInterface;
@@ -41,12 +40,11 @@ public class DepthClusteredTreeviewChartSerializer extends EmfSerializer {
 	private static final Logger LOGGER = LoggerFactory.getLogger(DepthClusteredTreeviewChartSerializer.class);
 
 	private Chart chart = null;
-	private ArrayList<LinkedHashMap<String, Object>> rawData = null;
+	private ChartDataTable rawData = null;
 
 	@Override
 	public void reset() {
-		if (rawData != null)
-			rawData.clear();
+		rawData = null;
 		setMode(Mode.BODY);
 	}
 
@@ -55,8 +53,6 @@ public class DepthClusteredTreeviewChartSerializer extends EmfSerializer {
 		super.init(model, projectInfo, pluginManager, renderEnginePlugin, packageMetaData, normalizeOids);
 		// Pick chart.
 		chart = new DepthClusteredTreeview();
-		// Prepare for data.
-		rawData = new ArrayList<>();
 	}
 
 	@Override
@@ -67,7 +63,7 @@ public class DepthClusteredTreeviewChartSerializer extends EmfSerializer {
 			// Write chart.
 			PrintWriter writer = new UTF8PrintWriter(outputStream);
 			try {
-				writer.print(chart.writeSVG(rawData));
+				chart.writeSVG(writer, rawData);
 				writer.flush();
 			} catch (Exception e) {
 				LOGGER.error("", e);
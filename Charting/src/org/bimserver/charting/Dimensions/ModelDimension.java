@@ -21,6 +21,8 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 
+import org.bimserver.charting.Containers.ChartDataTable;
+
 /**
  * Provides a class that consumes 1 or more keys in a data entry, yielding a correctly named entry. This class does not store data. In densitydesign/raw, objects of the analogous class are used directly as functions, like: dimensionObject(fullDataEntryInSet). After the use, the data is translated into just the applicable data. So, the first element of [{'A': 1, 'B': '2', 'C': 3}, ...] pushed into some dimension, "X", that looks for key "A" would yield the value: 1. In this version, this functionality is covered by {@link ModelDimension#filterDataEntry ModelDimension.filterDataEntry}.
  */
@@ -174,6 +176,25 @@ public class ModelDimension {
 		return list;
 	}
 
+	/**
+	 * Filter one row of columnar data, the same way as {@link ModelDimension#filterDataEntry(HashMap) filterDataEntry} does for a data row.
+	 *
+	 * @param data
+	 * @param row
+	 * @return
+	 */
+	public ArrayList<Object> filterDataEntry(ChartDataTable data, int row) {
+		// Prepare storage for the list of values.
+		ArrayList<Object> list = new ArrayList<>();
+		// Iterate the keys.
+		for (String dataRowKey : KeysToBeFiltered) {
+			if (data.hasColumn(dataRowKey))
+				list.add(data.get(dataRowKey, row));
+		}
+		// Send out: ArrayList<Object>
+		return list;
+	}
+
 	public boolean addLookupKey(String key) {
 		boolean alreadyExists = KeysToBeFiltered.contains(key);
 		boolean canAdd = (AllowMultipleValues && !alreadyExists) || (KeysToBeFiltered.size() == 0);
@@ -21,6 +21,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 
+import org.bimserver.charting.Containers.ChartDataTable;
+import org.bimserver.charting.Containers.ChartDataTableRows;
 import org.bimserver.charting.Containers.ChartExtent;
 import org.bimserver.charting.Containers.ChartRow;
 import org.bimserver.charting.Containers.ChartRows;
@@ -101,6 +103,17 @@ public class Model {
 		return list;
 	}
 
+	/**
+	 * This method filters columnar data the same way as {@link Model#filterData(ArrayList) filterData}, without copying it: the returned rows are views over the row indices of the table, made one at a time while they are iterated.
+	 *
+	 * @param data
+	 * @return
+	 */
+	public ChartRows filterData(ChartDataTable data)
+	{
+		return new ChartDataTableRows(data, Dimensions);
+	}
+
 	/**
 	 * Provide a method to facilitate getting a dimension of this model by its key.
 	 *
@@ -19,10 +19,9 @@ package org.bimserver.charting;
 
 import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
 
 import org.bimserver.charting.Charts.Chart;
+import org.bimserver.charting.Containers.ChartDataTable;
 import org.bimserver.charting.Charts.RadialDendrogram;
 import org.bimserver.emf.IfcModelInterface;
 import org.bimserver.emf.PackageMetaData;
@@ -40,12 +39,11 @@ public class RadialDendrogramChartSerializer extends EmfSerializer {
 	private static final Logger LOGGER = LoggerFactory.getLogger(RadialDendrogramChartSerializer.class);
 
 	private Chart chart = null;
-	private ArrayList<LinkedHashMap<String, Object>> rawData = null;
+	private ChartDataTable rawData = null;
 
 	@Override
 	public void reset() {
-		if (rawData != null)
-			rawData.clear();
+		rawData = null;
 		setMode(Mode.BODY);
 	}
 
@@ -54,8 +52,6 @@ public class RadialDendrogramChartSerializer extends EmfSerializer {
 		super.init(model, projectInfo, pluginManager, renderEnginePlugin, packageMetaData, normalizeOids);
 		// Pick chart.
 		chart = new RadialDendrogram();
-		// Prepare for data.
-		rawData = new ArrayList<>();
 	}
 
 	@Override
@@ -66,7 +62,7 @@ public class RadialDendrogramChartSerializer extends EmfSerializer {
 			// Write chart.
 			PrintWriter writer = new UTF8PrintWriter(outputStream);
 			try {
-				writer.print(chart.writeSVG(rawData));
+				chart.writeSVG(writer, rawData);
 				writer.flush();
 			} catch (Exception e) {
 				LOGGER.error("", e);
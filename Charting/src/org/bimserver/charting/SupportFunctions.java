@@ -18,11 +18,11 @@ package org.bimserver.charting;
  *****************************************************************************/
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Map;
 
 import org.bimserver.charting.Charts.Chart;
+import org.bimserver.charting.Containers.ChartDataTable;
 import org.bimserver.charting.Export.IfcObjectWithTrace;
 import org.bimserver.charting.Export.StackTrace;
 import org.bimserver.emf.IdEObject;
@@ -46,11 +46,11 @@ import org.openmali.vecmath2.Vector3d;
 
 public class SupportFunctions {
 
-	public static ArrayList<LinkedHashMap<String, Object>> getTreeStructureWithAreaFromIFCData(IfcModelInterface model, Chart chart) {
+	public static ChartDataTable getTreeStructureWithAreaFromIFCData(IfcModelInterface model, Chart chart) {
 		return getDataWithTreeStructure("hierarchy", model, chart);
 	}
 
-	public static ArrayList<LinkedHashMap<String, Object>> getClusterStructureWithAreaFromIFCData(IfcModelInterface model, Chart chart) {
+	public static ChartDataTable getClusterStructureWithAreaFromIFCData(IfcModelInterface model, Chart chart) {
 		return getDataWithTreeStructure("clusters", model, chart);
 	}
 
@@ -59,8 +59,8 @@ public class SupportFunctions {
 	 * @param chart
 	 * @return
 	 */
-	public static ArrayList<LinkedHashMap<String, Object>> getDataWithTreeStructure(String structureKeyword, IfcModelInterface model, Chart chart) {
-		ArrayList<LinkedHashMap<String, Object>> rawData = new ArrayList<>();
+	public static ChartDataTable getDataWithTreeStructure(String structureKeyword, IfcModelInterface model, Chart chart) {
+		ChartDataTable rawData = new ChartDataTable();
 		// Get units.
 		String units = "units";
 		SIPrefix prefix = SupportFunctions.getLengthUnitPrefix(model);
@@ -132,7 +132,7 @@ public class SupportFunctions {
 			StackTrace traceAtThisPoint = leaf.Key;
 			IfcObject leafObject = leaf.Value;
 			// Prepare to store this raw data entry.
-			LinkedHashMap<String, Object> leafDataEntry = new LinkedHashMap<>();
+			int row = rawData.addRow();
 			// Prepare to iterate backwards along column names (ex. hierarchy10, ..., hierarchy1).
 			int leafDepthIndex = maxDepth - 1;
 			int sizeOfStack = traceAtThisPoint.size();
@@ -150,18 +150,16 @@ public class SupportFunctions {
 						else
 							value += String.format(" %s %s\u00B2", leaf.Size, units);
 					}
-					leafDataEntry.put("label", leafObject.getName());
-					leafDataEntry.put("size", leaf.Size);
+					rawData.setString("label", row, leafObject.getName());
+					rawData.setDouble("size", row, leaf.Size);
 				} else if (stackLowerRange < i && i <= stackUpperBound) {
 					int index = sizeOfStack - (stackUpperBound - i) - 1;
 					value = traceAtThisPoint.get(index);
 				} else
 					value = null;
 				// Add column.
-				leafDataEntry.put(column, value);
+				rawData.setString(column, row, value);
 			}
-			// Add the data.
-			rawData.add(leafDataEntry);
 		}
 		// Send it all back.
 		return rawData;
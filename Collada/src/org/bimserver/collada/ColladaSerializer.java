@@ -37,26 +37,8 @@ import org.bimserver.emf.IfcModelInterface;
 import org.bimserver.emf.PackageMetaData;
 import org.bimserver.models.geometry.GeometryData;
 import org.bimserver.models.geometry.GeometryInfo;
-import org.bimserver.models.ifc2x3tc1.IfcBuildingElementProxy;
-import org.bimserver.models.ifc2x3tc1.IfcColumn;
-import org.bimserver.models.ifc2x3tc1.IfcCurtainWall;
-import org.bimserver.models.ifc2x3tc1.IfcDoor;
 import org.bimserver.models.ifc2x3tc1.IfcFeatureElementSubtraction;
-import org.bimserver.models.ifc2x3tc1.IfcFlowFitting;
-import org.bimserver.models.ifc2x3tc1.IfcFlowSegment;
-import org.bimserver.models.ifc2x3tc1.IfcFurnishingElement;
-import org.bimserver.models.ifc2x3tc1.IfcMember;
-import org.bimserver.models.ifc2x3tc1.IfcPlate;
 import org.bimserver.models.ifc2x3tc1.IfcProduct;
-import org.bimserver.models.ifc2x3tc1.IfcRailing;
-import org.bimserver.models.ifc2x3tc1.IfcRoof;
-import org.bimserver.models.ifc2x3tc1.IfcSlab;
-import org.bimserver.models.ifc2x3tc1.IfcSpace;
-import org.bimserver.models.ifc2x3tc1.IfcStair;
-import org.bimserver.models.ifc2x3tc1.IfcStairFlight;
-import org.bimserver.models.ifc2x3tc1.IfcWall;
-import org.bimserver.models.ifc2x3tc1.IfcWallStandardCase;
-import org.bimserver.models.ifc2x3tc1.IfcWindow;
 import org.bimserver.models.store.SIPrefix;
 import org.bimserver.plugins.PluginManager;
 import org.bimserver.plugins.renderengine.RenderEngineException;
@@ -82,7 +64,7 @@ public class ColladaSerializer extends AbstractGeometrySerializer {
 	private Vector3d lowestObserved = new Vector3d();
 	private Vector3d highestObserved = new Vector3d();
 	// Materials for converting a general class or a specific IfcProduct into a material (where an IfcProduct has a surface style).
-	private ConvertorsKeyedCollection convertors = new ConvertorsKeyedCollection();
+	private ConvertorsKeyedCollection convertors = ConvertorsKeyedCollection.createDefaults();
 	private Map<IfcProduct, String> materialCalls = new HashMap<IfcProduct, String>();
 	// Unit name.
 	private SIPrefix lengthUnitPrefix;
@@ -91,26 +73,7 @@ public class ColladaSerializer extends AbstractGeometrySerializer {
 
 	public ColladaSerializer() {
 		// WARN: Do not configure here, since "model" is not initialized at this point. Use the init method.
-		// Add default convertors. More specific IfcProduct convertors may be created in the process of parsing IfcProduct objects. Only the materials that are used will be put in the Collada file. 
-		convertors.add(new Convertor(IfcRoof.class, new double[] { 0.837255f, 0.203922f, 0.270588f }, 1.0f));
-		convertors.add(new Convertor(IfcSlab.class, new double[] { 0.637255f, 0.603922f, 0.670588f }, 1.0f));
-		convertors.add(new Convertor(IfcWindow.class, new double[] { 0.2f, 0.2f, 0.8f }, 0.5f));
-		convertors.add(new Convertor(IfcSpace.class, new double[] { 0.5f, 0.4f, 0.1f }, 0.05f));
-		convertors.add(new Convertor(IfcDoor.class, new double[] { 0.637255f, 0.603922f, 0.670588f }, 1.0f));
-		convertors.add(new Convertor(IfcStair.class, new double[] { 0.637255f, 0.603922f, 0.670588f }, 1.0f));
-		convertors.add(new Convertor(IfcStairFlight.class, new double[] { 0.637255f, 0.603922f, 0.670588f }, 1.0f));
-		convertors.add(new Convertor(IfcFlowSegment.class, new double[] { 0.6f, 0.4f, 0.5f }, 1.0f));
-		convertors.add(new Convertor(IfcFurnishingElement.class, new double[] { 0.437255f, 0.603922f, 0.370588f }, 1.0f));
-		convertors.add(new Convertor(IfcPlate.class, new double[] { 0.437255f, 0.603922f, 0.370588f }, 1.0f));
-		convertors.add(new Convertor(IfcMember.class, new double[] { 0.437255f, 0.603922f, 0.370588f }, 1.0f));
-		convertors.add(new Convertor(IfcWallStandardCase.class, new double[] { 0.537255f, 0.337255f, 0.237255f }, 1.0f));
-		convertors.add(new Convertor(IfcWall.class, new double[] { 0.537255f, 0.337255f, 0.237255f }, 1.0f));
-		convertors.add(new Convertor(IfcCurtainWall.class, new double[] { 0.5f, 0.5f, 0.5f }, 0.5f));
-		convertors.add(new Convertor(IfcRailing.class, new double[] { 0.137255f, 0.203922f, 0.270588f }, 1.0f));
-		convertors.add(new Convertor(IfcColumn.class, new double[] { 0.437255f, 0.603922f, 0.370588f, }, 1.0f));
-		convertors.add(new Convertor(IfcBuildingElementProxy.class, new double[] { 0.5f, 0.5f, 0.5f }, 1.0f));
-		convertors.add(new Convertor(IfcFlowFitting.class, new double[] { 0.7215686274509804f, 0.45098039215686275f, 0.2f }, 1.0f));
-		convertors.add(new Convertor(IfcProduct.class, new double[] { 0.5f, 0.5f, 0.5f }, 1.0f));
+		// Default convertors are added by ConvertorsKeyedCollection.createDefaults. More specific IfcProduct convertors may be created in the process of parsing IfcProduct objects. Only the materials that are used will be put in the Collada file. 
 	}
 
 	@Override
@@ -20,9 +20,26 @@ package org.bimserver.collada;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.bimserver.models.ifc2x3tc1.IfcBuildingElementProxy;
+import org.bimserver.models.ifc2x3tc1.IfcColumn;
+import org.bimserver.models.ifc2x3tc1.IfcCurtainWall;
+import org.bimserver.models.ifc2x3tc1.IfcDoor;
+import org.bimserver.models.ifc2x3tc1.IfcFlowFitting;
+import org.bimserver.models.ifc2x3tc1.IfcFlowSegment;
+import org.bimserver.models.ifc2x3tc1.IfcFurnishingElement;
+import org.bimserver.models.ifc2x3tc1.IfcMember;
+import org.bimserver.models.ifc2x3tc1.IfcPlate;
 import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcRailing;
+import org.bimserver.models.ifc2x3tc1.IfcRoof;
 import org.bimserver.models.ifc2x3tc1.IfcSlab;
 import org.bimserver.models.ifc2x3tc1.IfcSlabTypeEnum;
+import org.bimserver.models.ifc2x3tc1.IfcSpace;
+import org.bimserver.models.ifc2x3tc1.IfcStair;
+import org.bimserver.models.ifc2x3tc1.IfcStairFlight;
+import org.bimserver.models.ifc2x3tc1.IfcWall;
+import org.bimserver.models.ifc2x3tc1.IfcWallStandardCase;
+import org.bimserver.models.ifc2x3tc1.IfcWindow;
 
 // A keyed collection for storing convertors. Convertors exist in a pool that can be checked against by a generic class name (like IfcRoof-fx)
 public class ConvertorsKeyedCollection {
@@ -32,6 +49,31 @@ public class ConvertorsKeyedCollection {
 		list = new ArrayList<Convertor>();
 	}
 
+	// The default class-level materials, shared by the serializers of this plugin.
+	public static ConvertorsKeyedCollection createDefaults() {
+		ConvertorsKeyedCollection convertors = new ConvertorsKeyedCollection();
+		convertors.add(new Convertor(IfcRoof.class, new double[] { 0.837255f, 0.203922f, 0.270588f }, 1.0f));
+		convertors.add(new Convertor(IfcSlab.class, new double[] { 0.637255f, 0.603922f, 0.670588f }, 1.0f));
+		convertors.add(new Convertor(IfcWindow.class, new double[] { 0.2f, 0.2f, 0.8f }, 0.5f));
+		convertors.add(new Convertor(IfcSpace.class, new double[] { 0.5f, 0.4f, 0.1f }, 0.05f));
+		convertors.add(new Convertor(IfcDoor.class, new double[] { 0.637255f, 0.603922f, 0.670588f }, 1.0f));
+		convertors.add(new Convertor(IfcStair.class, new double[] { 0.637255f, 0.603922f, 0.670588f }, 1.0f));
+		convertors.add(new Convertor(IfcStairFlight.class, new double[] { 0.637255f, 0.603922f, 0.670588f }, 1.0f));
+		convertors.add(new Convertor(IfcFlowSegment.class, new double[] { 0.6f, 0.4f, 0.5f }, 1.0f));
+		convertors.add(new Convertor(IfcFurnishingElement.class, new double[] { 0.437255f, 0.603922f, 0.370588f }, 1.0f));
+		convertors.add(new Convertor(IfcPlate.class, new double[] { 0.437255f, 0.603922f, 0.370588f }, 1.0f));
+		convertors.add(new Convertor(IfcMember.class, new double[] { 0.437255f, 0.603922f, 0.370588f }, 1.0f));
+		convertors.add(new Convertor(IfcWallStandardCase.class, new double[] { 0.537255f, 0.337255f, 0.237255f }, 1.0f));
+		convertors.add(new Convertor(IfcWall.class, new double[] { 0.537255f, 0.337255f, 0.237255f }, 1.0f));
+		convertors.add(new Convertor(IfcCurtainWall.class, new double[] { 0.5f, 0.5f, 0.5f }, 0.5f));
+		convertors.add(new Convertor(IfcRailing.class, new double[] { 0.137255f, 0.203922f, 0.270588f }, 1.0f));
+		convertors.add(new Convertor(IfcColumn.class, new double[] { 0.437255f, 0.603922f, 0.370588f, }, 1.0f));
+		convertors.add(new Convertor(IfcBuildingElementProxy.class, new double[] { 0.5f, 0.5f, 0.5f }, 1.0f));
+		convertors.add(new Convertor(IfcFlowFitting.class, new double[] { 0.7215686274509804f, 0.45098039215686275f, 0.2f }, 1.0f));
+		convertors.add(new Convertor(IfcProduct.class, new double[] { 0.5f, 0.5f, 0.5f }, 1.0f));
+		return convertors;
+	}
+
 	public void add(Convertor convertor)
 	{
 		if (!list.contains(convertor))
@@ -0,0 +1,342 @@
+package org.bimserver.collada;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.models.geometry.GeometryData;
+import org.bimserver.models.geometry.GeometryInfo;
+import org.bimserver.models.ifc2x3tc1.IfcFeatureElementSubtraction;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.store.SIPrefix;
+import org.bimserver.plugins.PluginManager;
+import org.bimserver.plugins.renderengine.RenderEnginePlugin;
+import org.bimserver.plugins.serializers.AbstractGeometrySerializer;
+import org.bimserver.plugins.serializers.ProjectInfo;
+import org.bimserver.plugins.serializers.SerializerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Writes binary glTF 2.0 (GLB) directly from the stored GeometryInfo and
+ * GeometryData, without going through a Collada file and the external
+ * COLLADA2GLTF converter.
+ *
+ * Every GeometryData becomes one set of buffer views and accessors, products
+ * that share a GeometryData (and material) get nodes that refer to the same
+ * mesh, so reused geometry is written once. The JSON chunk is built first, the
+ * binary chunk is then written straight from the stored byte arrays, which are
+ * already little endian floats (vertices, normals) and ints (indices).
+ */
+public class GlbSerializer extends AbstractGeometrySerializer {
+	private static final Logger LOGGER = LoggerFactory.getLogger(GlbSerializer.class);
+	private static final int GLB_MAGIC = 0x46546C67; // "glTF"
+	private static final int GLB_VERSION = 2;
+	private static final int CHUNK_TYPE_JSON = 0x4E4F534A; // "JSON"
+	private static final int CHUNK_TYPE_BIN = 0x004E4942; // "BIN\0"
+	private static final int TARGET_ARRAY_BUFFER = 34962;
+	private static final int TARGET_ELEMENT_ARRAY_BUFFER = 34963;
+	private static final int COMPONENT_TYPE_UNSIGNED_INT = 5125;
+	private static final int COMPONENT_TYPE_FLOAT = 5126;
+	private static final float[] IDENTITY = new float[] { 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1 };
+
+	private final ConvertorsKeyedCollection convertors = ConvertorsKeyedCollection.createDefaults();
+	private SIPrefix lengthUnitPrefix;
+
+	// The JSON chunk
+	private final JsonArray nodes = new JsonArray();
+	private final JsonArray meshes = new JsonArray();
+	private final JsonArray materials = new JsonArray();
+	private final JsonArray accessors = new JsonArray();
+	private final JsonArray bufferViews = new JsonArray();
+	// GeometryData oid -> the primitive without material, shared by the meshes of all materials
+	private final Map<Long, JsonObject> primitives = new HashMap<Long, JsonObject>();
+	// GeometryData oid and material name -> mesh index
+	private final Map<String, Integer> meshIndices = new HashMap<String, Integer>();
+	private final Map<String, Integer> materialIndices = new HashMap<String, Integer>();
+	// The binary chunk, in order, these are the stored arrays themselves
+	private final List<byte[]> binaryParts = new ArrayList<byte[]>();
+	private long binaryLength;
+
+	@Override
+	public void init(IfcModelInterface model, ProjectInfo projectInfo, PluginManager pluginManager, RenderEnginePlugin renderEnginePlugin, PackageMetaData packageMetaData, boolean normalizeOids) throws SerializerException {
+		this.lengthUnitPrefix = SupportFunctions.getLengthUnitPrefix(model);
+		super.init(model, projectInfo, pluginManager, renderEnginePlugin, packageMetaData, normalizeOids);
+	}
+
+	@Override
+	public void reset() {
+		setMode(Mode.BODY);
+	}
+
+	@Override
+	protected boolean write(OutputStream outputStream) throws SerializerException {
+		if (getMode() == Mode.BODY) {
+			try {
+				writeGlb(outputStream);
+			} catch (IOException e) {
+				throw new SerializerException(e);
+			}
+			setMode(Mode.FINISHED);
+			return true;
+		} else if (getMode() == Mode.FINISHED) {
+			return false;
+		}
+		return false;
+	}
+
+	private void writeGlb(OutputStream outputStream) throws IOException, SerializerException {
+		long start = System.nanoTime();
+		JsonArray children = new JsonArray();
+		for (IfcProduct ifcProduct : model.getAllWithSubTypes(IfcProduct.class)) {
+			// Mostly just skips IfcOpeningElements, the same as the Collada serializer
+			if (ifcProduct instanceof IfcFeatureElementSubtraction) {
+				continue;
+			}
+			GeometryInfo geometryInfo = ifcProduct.getGeometry();
+			if (geometryInfo == null || geometryInfo.getTransformation() == null || geometryInfo.getData() == null) {
+				continue;
+			}
+			GeometryData geometryData = geometryInfo.getData();
+			if (geometryData.getIndices() == null || geometryData.getIndices().length == 0 || geometryData.getVertices() == null || geometryData.getVertices().length == 0) {
+				continue;
+			}
+			JsonObject node = new JsonObject();
+			node.addProperty("name", ifcProduct.getGlobalId() == null ? String.valueOf(ifcProduct.getOid()) : ifcProduct.getGlobalId());
+			node.addProperty("mesh", getMesh(geometryData, convertors.getValidMaterialName(ifcProduct)));
+			// Stored column-major (the same as glTF) and little endian by GeometryGenerator.createTransformation
+			float[] matrix = new float[16];
+			ByteBuffer.wrap(geometryInfo.getTransformation()).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(matrix);
+			if (!Arrays.equals(matrix, IDENTITY)) {
+				node.add("matrix", toJsonArray(matrix));
+			}
+			JsonObject extras = new JsonObject();
+			extras.addProperty("oid", ifcProduct.getOid());
+			extras.addProperty("type", ifcProduct.eClass().getName());
+			node.add("extras", extras);
+			children.add(new JsonPrimitive(nodes.size()));
+			nodes.add(node);
+		}
+
+		// IFC is Z-up in the length unit of the model, glTF is Y-up in meters
+		float scale = lengthUnitPrefix == null ? 1 : (float) Math.pow(10.0, lengthUnitPrefix.getValue());
+		JsonObject root = new JsonObject();
+		root.addProperty("name", getProjectInfo() == null ? "BIMserver" : getProjectInfo().getName());
+		root.add("matrix", toJsonArray(new float[] { scale, 0, 0, 0, 0, 0, -scale, 0, 0, scale, 0, 0, 0, 0, 0, 1 }));
+		root.add("children", children);
+		JsonArray sceneNodes = new JsonArray();
+		sceneNodes.add(new JsonPrimitive(nodes.size()));
+		nodes.add(root);
+
+		JsonObject gltf = new JsonObject();
+		JsonObject asset = new JsonObject();
+		asset.addProperty("version", "2.0");
+		asset.addProperty("generator", "BIMserver");
+		gltf.add("asset", asset);
+		gltf.addProperty("scene", 0);
+		JsonArray scenes = new JsonArray();
+		JsonObject scene = new JsonObject();
+		scene.add("nodes", sceneNodes);
+		scenes.add(scene);
+		gltf.add("scenes", scenes);
+		gltf.add("nodes", nodes);
+		if (meshes.size() > 0) {
+			gltf.add("meshes", meshes);
+			gltf.add("materials", materials);
+			gltf.add("accessors", accessors);
+			gltf.add("bufferViews", bufferViews);
+			JsonArray buffers = new JsonArray();
+			JsonObject buffer = new JsonObject();
+			buffer.addProperty("byteLength", binaryLength);
+			buffers.add(buffer);
+			gltf.add("buffers", buffers);
+		}
+
+		byte[] json = new Gson().toJson(gltf).getBytes(Charsets.UTF_8);
+		int jsonPadding = padding(json.length);
+		int binaryPadding = padding(binaryLength);
+		long totalLength = 12 + 8 + json.length + jsonPadding + (binaryParts.isEmpty() ? 0 : 8 + binaryLength + binaryPadding);
+		if (totalLength > 0xFFFFFFFFL) {
+			throw new SerializerException("Model too large for GLB (" + totalLength + " bytes)");
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(GLB_MAGIC).putInt(GLB_VERSION).putInt((int) totalLength);
+		header.putInt(json.length + jsonPadding).putInt(CHUNK_TYPE_JSON);
+		outputStream.write(header.array());
+		outputStream.write(json);
+		// The JSON chunk is padded with spaces, the binary chunk with zeros
+		for (int i = 0; i < jsonPadding; i++) {
+			outputStream.write(' ');
+		}
+		if (!binaryParts.isEmpty()) {
+			ByteBuffer binaryHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			binaryHeader.putInt((int) (binaryLength + binaryPadding)).putInt(CHUNK_TYPE_BIN);
+			outputStream.write(binaryHeader.array());
+			for (byte[] part : binaryParts) {
+				outputStream.write(part);
+			}
+			outputStream.write(new byte[binaryPadding]);
+		}
+		outputStream.flush();
+		LOGGER.debug(nodes.size() - 1 + " nodes, " + meshes.size() + " meshes, " + (totalLength / 1024) + "KB in " + ((System.nanoTime() - start) / 1000000) + " ms");
+	}
+
+	private int getMesh(GeometryData geometryData, String materialName) {
+		String key = geometryData.getOid() + "-" + materialName;
+		Integer meshIndex = meshIndices.get(key);
+		if (meshIndex == null) {
+			JsonObject primitive = new JsonObject();
+			for (Map.Entry<String, JsonElement> entry : getPrimitive(geometryData).entrySet()) {
+				primitive.add(entry.getKey(), entry.getValue());
+			}
+			primitive.addProperty("material", getMaterial(materialName));
+			JsonArray meshPrimitives = new JsonArray();
+			meshPrimitives.add(primitive);
+			JsonObject mesh = new JsonObject();
+			mesh.add("primitives", meshPrimitives);
+			meshIndex = meshes.size();
+			meshes.add(mesh);
+			meshIndices.put(key, meshIndex);
+		}
+		return meshIndex;
+	}
+
+	private JsonObject getPrimitive(GeometryData geometryData) {
+		JsonObject primitive = primitives.get(geometryData.getOid());
+		if (primitive == null) {
+			byte[] vertices = geometryData.getVertices();
+			byte[] normals = geometryData.getNormals();
+			JsonObject attributes = new JsonObject();
+			JsonObject position = addAccessor(addBufferView(vertices, TARGET_ARRAY_BUFFER), COMPONENT_TYPE_FLOAT, vertices.length / 12, "VEC3");
+			addBounds(position, vertices);
+			attributes.addProperty("POSITION", accessors.size() - 1);
+			if (normals != null && normals.length == vertices.length) {
+				addAccessor(addBufferView(normals, TARGET_ARRAY_BUFFER), COMPONENT_TYPE_FLOAT, normals.length / 12, "VEC3");
+				attributes.addProperty("NORMAL", accessors.size() - 1);
+			}
+			addAccessor(addBufferView(geometryData.getIndices(), TARGET_ELEMENT_ARRAY_BUFFER), COMPONENT_TYPE_UNSIGNED_INT, geometryData.getIndices().length / 4, "SCALAR");
+			primitive = new JsonObject();
+			primitive.add("attributes", attributes);
+			primitive.addProperty("indices", accessors.size() - 1);
+			primitives.put(geometryData.getOid(), primitive);
+		}
+		return primitive;
+	}
+
+	private int getMaterial(String materialName) {
+		Integer materialIndex = materialIndices.get(materialName);
+		if (materialIndex == null) {
+			Convertor convertor = convertors.get(materialName);
+			double[] colors = convertor.getColors();
+			// getOpacity returns the transparency of the profile
+			float alpha = (float) (1 - convertor.getOpacity());
+			JsonObject pbr = new JsonObject();
+			pbr.add("baseColorFactor", toJsonArray(new float[] { (float) colors[0], (float) colors[1], (float) colors[2], alpha }));
+			pbr.addProperty("metallicFactor", 0);
+			pbr.addProperty("roughnessFactor", 1);
+			JsonObject material = new JsonObject();
+			material.addProperty("name", materialName);
+			material.add("pbrMetallicRoughness", pbr);
+			if (alpha < 1) {
+				material.addProperty("alphaMode", "BLEND");
+			}
+			materialIndex = materials.size();
+			materials.add(material);
+			materialIndices.put(materialName, materialIndex);
+		}
+		return materialIndex;
+	}
+
+	private int addBufferView(byte[] data, int target) {
+		JsonObject bufferView = new JsonObject();
+		bufferView.addProperty("buffer", 0);
+		bufferView.addProperty("byteOffset", binaryLength);
+		bufferView.addProperty("byteLength", data.length);
+		bufferView.addProperty("target", target);
+		bufferViews.add(bufferView);
+		binaryParts.add(data);
+		// All stored arrays consist of 4 byte values, so every view stays aligned
+		binaryLength += data.length;
+		return bufferViews.size() - 1;
+	}
+
+	private JsonObject addAccessor(int bufferView, int componentType, int count, String type) {
+		JsonObject accessor = new JsonObject();
+		accessor.addProperty("bufferView", bufferView);
+		accessor.addProperty("componentType", componentType);
+		accessor.addProperty("count", count);
+		accessor.addProperty("type", type);
+		accessors.add(accessor);
+		return accessor;
+	}
+
+	/**
+	 * POSITION accessors must have min and max, these are in the coordinates of
+	 * the GeometryData, so the bounds of GeometryInfo (which are transformed)
+	 * can not be used
+	 */
+	private void addBounds(JsonObject accessor, byte[] vertices) {
+		FloatBuffer floatBuffer = ByteBuffer.wrap(vertices).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+		float[] min = new float[] { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+		float[] max = new float[] { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+		int i = 0;
+		while (floatBuffer.hasRemaining()) {
+			float value = floatBuffer.get();
+			if (value < min[i]) {
+				min[i] = value;
+			}
+			if (value > max[i]) {
+				max[i] = value;
+			}
+			i = i == 2 ? 0 : i + 1;
+		}
+		accessor.add("min", toJsonArray(min));
+		accessor.add("max", toJsonArray(max));
+	}
+
+	private static JsonArray toJsonArray(float[] values) {
+		JsonArray array = new JsonArray();
+		for (float value : values) {
+			array.add(new JsonPrimitive(value));
+		}
+		return array;
+	}
+
+	private static int padding(long length) {
+		return (int) ((4 - (length % 4)) % 4);
+	}
+}
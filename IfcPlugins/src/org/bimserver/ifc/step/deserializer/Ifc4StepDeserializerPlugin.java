@@ -10,7 +10,7 @@ import org.bimserver.plugins.deserializers.Deserializer;
 public class Ifc4StepDeserializerPlugin extends IfcStepDeserializerPlugin {
 	@Override
 	public Deserializer createDeserializer(PluginConfiguration pluginConfiguration) {
-		return new Ifc4StepDeserializer(Schema.IFC4);
+		return configure(new Ifc4StepDeserializer(Schema.IFC4), pluginConfiguration);
 	}
 	
 	@Override
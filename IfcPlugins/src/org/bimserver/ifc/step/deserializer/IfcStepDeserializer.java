@@ -17,29 +17,25 @@ package org.bimserver.ifc.step.deserializer;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.charset.Charset;
-import java.nio.charset.UnsupportedCharsetException;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
-import org.apache.commons.codec.DecoderException;
-import org.apache.commons.codec.binary.Hex;
 import org.bimserver.emf.IdEObject;
-import org.bimserver.emf.IdEObjectImpl;
 import org.bimserver.emf.IfcModelInterface;
 import org.bimserver.emf.IfcModelInterfaceException;
 import org.bimserver.emf.MetaDataException;
@@ -48,46 +44,31 @@ import org.bimserver.ifc.IfcModel;
 import org.bimserver.interfaces.objects.SIfcHeader;
 import org.bimserver.plugins.deserializers.DeserializeException;
 import org.bimserver.plugins.deserializers.EmfDeserializer;
-import org.bimserver.plugins.schema.Attribute;
-import org.bimserver.plugins.schema.EntityDefinition;
-import org.bimserver.plugins.schema.ExplicitAttribute;
 import org.bimserver.shared.ListWaitingObject;
 import org.bimserver.shared.SingleWaitingObject;
 import org.bimserver.shared.WaitingList;
+import org.bimserver.shared.WaitingObject;
 import org.bimserver.utils.FakeClosingInputStream;
-import org.bimserver.utils.StringUtils;
 import org.bimserver.utils.TokenizeException;
 import org.bimserver.utils.Tokenizer;
 import org.eclipse.emf.common.util.AbstractEList;
 import org.eclipse.emf.ecore.EClass;
-import org.eclipse.emf.ecore.EClassifier;
-import org.eclipse.emf.ecore.EDataType;
-import org.eclipse.emf.ecore.EEnumLiteral;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.EStructuralFeature;
-import org.eclipse.emf.ecore.EcorePackage;
-import org.eclipse.emf.ecore.impl.EClassImpl;
-import org.eclipse.emf.ecore.impl.EEnumImpl;
-
-import com.google.common.base.Charsets;
 
 public abstract class IfcStepDeserializer extends EmfDeserializer {
-	/*
-	 * The following hacks are present
-	 * 
-	 * - For every feature of type double there is an extra feature (name
-	 * appended with "AsString") of type String to keep the original String
-	 * version this is also done for aggregate features - WrappedValues for all
-	 * for derived primitive types and enums that are used in a "select"
-	 */
 
 	private static final int AVERAGE_LINE_LENGTH = 58;
-	private static final String WRAPPED_VALUE = "wrappedValue";
+	private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+	private static final long PARALLEL_THRESHOLD = 16 * 1024 * 1024;
 	private final WaitingList<Integer> waitingList = new WaitingList<Integer>();
 	private Mode mode = Mode.HEADER;
 	private IfcModelInterface model;
 	private int lineNumber;
 	private Schema schema2;
+	private ForkJoinPool parsePool;
+	private DirectRecordParser parser;
+	private ChunkedDataReader chunkedDataReader;
 
 	public enum Mode {
 		HEADER, DATA, FOOTER, DONE
@@ -97,6 +78,16 @@ public abstract class IfcStepDeserializer extends EmfDeserializer {
 		schema2 = schema;
 	}
 
+	/**
+	 * When set, the DATA section of large files is split into chunks at
+	 * record boundaries which are converted on the threads of the pool,
+	 * references are resolved afterwards on the reading thread. The pool
+	 * belongs to the plugin, null parses on the reading thread only.
+	 */
+	public void setParsePool(ForkJoinPool parsePool) {
+		this.parsePool = parsePool;
+	}
+
 	public IfcModelInterface read(InputStream in, String filename, long fileSize) throws DeserializeException {
 		mode = Mode.HEADER;
 		if (filename != null && (filename.toUpperCase().endsWith(".ZIP") || filename.toUpperCase().endsWith(".IFCZIP"))) {
@@ -141,45 +132,52 @@ public abstract class IfcStepDeserializer extends EmfDeserializer {
 	}
 	
 	private IfcModelInterface read(InputStream inputStream, long fileSize) throws DeserializeException {
-		BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, Charsets.UTF_8));
 		int initialCapacity = (int) (fileSize / AVERAGE_LINE_LENGTH);
 		model = new IfcModel(getPackageMetaData(), initialCapacity);
 		lineNumber = 0;
+		parser = new DirectRecordParser();
+		chunkedDataReader = null;
+		if (parsePool != null && fileSize >= PARALLEL_THRESHOLD && Runtime.getRuntime().availableProcessors() > 1) {
+			StepRecordParser.prepareForConcurrentUse(getPackageMetaData());
+			chunkedDataReader = new ChunkedDataReader();
+		}
+		StepTokenizer tokenizer = parser.getTokenizer();
 		try {
-			String line = reader.readLine();
-			MessageDigest md = MessageDigest.getInstance("MD5");
-			while (line != null) {
-				byte[] bytes = line.getBytes(Charsets.UTF_8);
-				md.update(bytes, 0, bytes.length);
+			StepRecordReader reader = new StepRecordReader(inputStream);
+			while (reader.next()) {
+				lineNumber = reader.getLineNumber();
+				parser.setLineNumber(lineNumber);
+				tokenizer.reset(reader.getBuffer(), reader.getStart(), reader.getEnd());
 				try {
-					while (!processLine(line.trim())) {
-						String readLine = reader.readLine();
-						if (readLine == null) {
-							break;
-						}
-						line += readLine;
-						lineNumber++;
+					if (mode == Mode.DATA && chunkedDataReader != null && tokenizer.nextIs('#')) {
+						chunkedDataReader.add(reader);
+					} else {
+						processStatement(tokenizer);
 					}
 				} catch (Exception e) {
 					if (e instanceof DeserializeException) {
-						throw (DeserializeException)e;
+						throw (DeserializeException) e;
 					} else {
-						throw new DeserializeException(lineNumber, " (" + e.getMessage() + ") " + line, e);
+						throw new DeserializeException(lineNumber, " (" + e.getMessage() + ") " + tokenizer, e);
 					}
 				}
-				line = reader.readLine();
-				lineNumber++;
 			}
-			model.getModelMetaData().setChecksum(md.digest());
+			if (chunkedDataReader != null) {
+				// Also when there was no ENDSEC
+				chunkedDataReader.finish();
+			}
+			model.getModelMetaData().setChecksum(reader.getChecksum());
 			if (mode == Mode.HEADER) {
 				throw new DeserializeException(lineNumber, "No valid IFC header found");
 			}
-		} catch (FileNotFoundException e) {
-			throw new DeserializeException(lineNumber, e);
 		} catch (IOException e) {
 			throw new DeserializeException(lineNumber, e);
 		} catch (NoSuchAlgorithmException e) {
 			throw new DeserializeException(lineNumber, e);
+		} finally {
+			if (chunkedDataReader != null) {
+				chunkedDataReader.cancel();
+			}
 		}
 		return model;
 	}
@@ -203,44 +201,34 @@ public abstract class IfcStepDeserializer extends EmfDeserializer {
 		return model;
 	}
 
-	private boolean processLine(String line) throws DeserializeException, MetaDataException {
+	private void processStatement(StepTokenizer tokenizer) throws DeserializeException, MetaDataException, TokenizeException {
 		switch (mode) {
 		case HEADER:
+			String line = tokenizer.readAll().trim();
 			if (line.length() > 0) {
-				if (line.endsWith(";")) {
-					processHeader(line);
-				} else {
-					return false;
-				}
+				processHeader(line);
 			}
 			if (line.equals("DATA;")) {
 				mode = Mode.DATA;
 			}
 			break;
 		case DATA:
-			if (line.equals("ENDSEC;")) {
-				mode = Mode.FOOTER;
-			} else {
-				if (line.length() > 0 && line.charAt(0) == '#') {
-					while (line.endsWith("*/")) {
-						line = line.substring(0, line.lastIndexOf("/*")).trim();
-					}
-					if (line.endsWith(";")) {
-						processRecord(line);
-					} else {
-						return false;
-					}
+			if (tokenizer.startsWith("ENDSEC")) {
+				if (chunkedDataReader != null) {
+					chunkedDataReader.finish();
 				}
+				mode = Mode.FOOTER;
+			} else if (tokenizer.nextIs('#')) {
+				parser.processRecord();
 			}
 			break;
 		case FOOTER:
-			if (line.equals("ENDSEC;")) {
+			if (tokenizer.startsWith("ENDSEC")) {
 				mode = Mode.DONE;
 			}
 			break;
 		case DONE:
 		}
-		return true;
 	}
 
 	private void processHeader(String line) throws DeserializeException {
@@ -328,389 +316,278 @@ public abstract class IfcStepDeserializer extends EmfDeserializer {
 		}
 	}
 
-	public void processRecord(String line) throws DeserializeException, MetaDataException {
-		int equalSignLocation = line.indexOf("=");
-		int lastIndexOfSemiColon = line.lastIndexOf(";");
-		if (lastIndexOfSemiColon == -1) {
-			throw new DeserializeException(lineNumber, "No semicolon found in line");
-		}
-		int indexOfFirstParen = line.indexOf("(", equalSignLocation);
-		if (indexOfFirstParen == -1) {
-			throw new DeserializeException(lineNumber, "No left parenthesis found in line");
-		}
-		int indexOfLastParen = line.lastIndexOf(")", lastIndexOfSemiColon);
-		if (indexOfLastParen == -1) {
-			throw new DeserializeException(lineNumber, "No right parenthesis found in line");
+	/**
+	 * Adds records to the model as they are read, references to records that
+	 * have not been read yet are resolved through the waiting list
+	 */
+	private class DirectRecordParser extends StepRecordParser {
+
+		public DirectRecordParser() {
+			super(getPackageMetaData());
 		}
-		int recordNumber = Integer.parseInt(line.substring(1, equalSignLocation).trim());
-		String name = line.substring(equalSignLocation + 1, indexOfFirstParen).trim();
-		EClass classifier = (EClass) getPackageMetaData().getEClassifierCaseInsensitive(name);
-		if (classifier != null) {
-			IdEObject object = (IdEObject) getPackageMetaData().create(classifier);
+
+		@Override
+		protected void addObject(int expressId, IdEObject object) throws DeserializeException {
 			try {
-				model.add(recordNumber, object);
+				model.add(expressId, object);
 			} catch (IfcModelInterfaceException e) {
 				throw new DeserializeException(lineNumber, e);
 			}
-			((IdEObjectImpl) object).setExpressId(recordNumber);
-			String realData = line.substring(indexOfFirstParen + 1, indexOfLastParen);
-			int lastIndex = 0;
-			EntityDefinition entityBN = getPackageMetaData().getSchemaDefinition().getEntityBN(name);
-			if (entityBN == null) {
-				throw new DeserializeException(lineNumber, "Unknown entity " + name);
-			}
-			for (Attribute attribute : entityBN.getAttributesCached(true)) {
-				if (attribute instanceof ExplicitAttribute) {
-					if (!entityBN.isDerived(attribute.getName())) {
-						EStructuralFeature structuralFeature = classifier.getEStructuralFeature(attribute.getName());
-						if (structuralFeature == null) {
-							throw new DeserializeException(lineNumber, "Unknown feature " + classifier.getName() + "." + attribute.getName());
-						}
-						int nextIndex = StringUtils.nextString(realData, lastIndex);
-						String val = null;
-						try {
-							val = realData.substring(lastIndex, nextIndex - 1).trim();
-						} catch (Exception e) {
-							int expected = 0;
-							for (Attribute attribute2 : entityBN.getAttributesCached(true)) {
-								if (attribute2 instanceof ExplicitAttribute) {
-									expected++;
-								}
-							}
-							throw new DeserializeException(lineNumber, classifier.getName() + " expects " + expected + " fields, but less found");
-						}
-						lastIndex = nextIndex;
-						char firstChar = val.charAt(0);
-						if (firstChar == '$') {
-							object.eUnset(structuralFeature);
-							if (structuralFeature.getEType() == EcorePackage.eINSTANCE.getEDouble()) {
-								EStructuralFeature doubleStringFeature = classifier.getEStructuralFeature(attribute.getName() + "AsString");
-								object.eSet(doubleStringFeature, val);
-							}
-						} else if (firstChar == '#') {
-							readReference(val, object, structuralFeature);
-						} else if (firstChar == '.') {
-							readEnum(val, object, structuralFeature);
-						} else if (firstChar == '(') {
-							readList(val, object, structuralFeature);
-						} else if (firstChar == '*') {
-						} else {
-							if (!structuralFeature.isMany()) {
-								object.eSet(structuralFeature, convert(structuralFeature.getEType(), val));
-								if (structuralFeature.getEType() == EcorePackage.eINSTANCE.getEDouble()) {
-									EStructuralFeature doubleStringFeature = classifier.getEStructuralFeature(attribute.getName() + "AsString");
-									object.eSet(doubleStringFeature, val);
-								}
-							} else {
-								// It's not a list in the file, but it is in the
-								// schema??
-							}
-						}
-					} else {
-						int nextIndex = StringUtils.nextString(realData, lastIndex);
-						lastIndex = nextIndex;
-					}
-				}
-			}
-			if (waitingList.containsKey(recordNumber)) {
-				waitingList.updateNode(recordNumber, classifier, object);
+		}
+
+		@Override
+		protected void objectRead(int expressId, EClass eClass, IdEObject object) throws DeserializeException {
+			if (waitingList.containsKey(expressId)) {
+				waitingList.updateNode(expressId, eClass, object);
 			}
-		} else {
-			throw new DeserializeException(lineNumber, name + " is not a known entity");
 		}
-	}
 
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	private void readList(String val, EObject object, EStructuralFeature structuralFeature) throws DeserializeException, MetaDataException {
-		int index = 0;
-		if (!structuralFeature.isMany()) {
-			throw new DeserializeException(lineNumber, "Field " + structuralFeature.getName() + " of " + structuralFeature.getEContainingClass().getName() + " is no aggregation");
+		@Override
+		protected void addInlineObject(IdEObject object) throws DeserializeException {
+			try {
+				model.add(-1, object);
+			} catch (IfcModelInterfaceException e) {
+				throw new DeserializeException(lineNumber, e);
+			}
 		}
-		AbstractEList list = (AbstractEList) object.eGet(structuralFeature);
-		AbstractEList doubleStringList = null;
-		if (structuralFeature.getEType() == EcorePackage.eINSTANCE.getEDouble()) {
-			EStructuralFeature doubleStringFeature = structuralFeature.getEContainingClass().getEStructuralFeature(structuralFeature.getName() + "AsString");
-			if (doubleStringFeature == null) {
-				throw new DeserializeException(lineNumber, "Field not found: " + structuralFeature.getName() + "AsString");
+
+		@Override
+		protected void readReference(int referenceId, EObject object, EStructuralFeature structuralFeature) throws DeserializeException {
+			if (model.contains(referenceId)) {
+				object.eSet(structuralFeature, model.get(referenceId));
+			} else {
+				waitingList.add(referenceId, new SingleWaitingObject(lineNumber, object, structuralFeature));
 			}
-			doubleStringList = (AbstractEList) object.eGet(doubleStringFeature);
 		}
-		String realData = val.substring(1, val.length() - 1);
-		int lastIndex = 0;
-		while (lastIndex != realData.length() + 1) {
-			int nextIndex = StringUtils.nextString(realData, lastIndex);
-			String stringValue = realData.substring(lastIndex, nextIndex - 1).trim();
-			lastIndex = nextIndex;
-			if (stringValue.length() > 0) {
-				if (stringValue.charAt(0) == '#') {
-					Integer referenceId = Integer.parseInt(stringValue.substring(1));
-					if (model.contains(referenceId)) {
-						EObject referencedObject = model.get(referenceId);
-						if (referencedObject != null) {
-							EClass referenceEClass = referencedObject.eClass();
-							if (((EClass) structuralFeature.getEType()).isSuperTypeOf(referenceEClass)) {
-								while (list.size() <= index) {
-									list.addUnique(getPackageMetaData().create(referenceEClass));
-								}
-								list.setUnique(index, referencedObject);
-							} else {
-								throw new DeserializeException(lineNumber, referenceEClass.getName() + " cannot be stored in " + structuralFeature.getName());
-							}
-						}
-					} else {
-						waitingList.add(referenceId, new ListWaitingObject(lineNumber, object, structuralFeature, index));
-					}
-				} else {
-					Object convert = convert(structuralFeature.getEType(), stringValue);
-					if (convert != null) {
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		@Override
+		protected void readListReference(int referenceId, EObject object, EStructuralFeature structuralFeature, int index) throws DeserializeException {
+			if (model.contains(referenceId)) {
+				EObject referencedObject = model.get(referenceId);
+				if (referencedObject != null) {
+					EClass referenceEClass = referencedObject.eClass();
+					if (((EClass) structuralFeature.getEType()).isSuperTypeOf(referenceEClass)) {
+						AbstractEList list = (AbstractEList) object.eGet(structuralFeature);
 						while (list.size() <= index) {
-							if (doubleStringList != null) {
-								doubleStringList.addUnique(stringValue);
-							}
-							list.addUnique(convert);
-						}
-						if (doubleStringList != null) {
-							doubleStringList.setUnique(index, stringValue);
+							list.addUnique(getPackageMetaData().create(referenceEClass));
 						}
-						list.setUnique(index, convert);
+						list.setUnique(index, referencedObject);
+					} else {
+						throw new DeserializeException(lineNumber, referenceEClass.getName() + " cannot be stored in " + structuralFeature.getName());
 					}
 				}
+			} else {
+				waitingList.add(referenceId, new ListWaitingObject(lineNumber, object, structuralFeature, index));
 			}
-			index++;
 		}
 	}
 
-	private Object convertSimpleValue(Class<?> instanceClass, String value) throws DeserializeException {
-		if (!value.equals("")) {
-			if (instanceClass == Integer.class || instanceClass == int.class) {
-				return Integer.parseInt(value);
-			} else if (instanceClass == Long.class || instanceClass == long.class) {
-				return Long.parseLong(value);
-			} else if (instanceClass == Boolean.class || instanceClass == boolean.class) {
-				return Boolean.parseBoolean(value);
-			} else if (instanceClass == Double.class || instanceClass == double.class) {
-				try {
-					return Double.parseDouble(value);
-				} catch (NumberFormatException e) {
-					throw new DeserializeException(lineNumber, "Incorrect double floating point value", e);
-				}
-			} else if (instanceClass == String.class) {
-				if (value.startsWith("'") && value.endsWith("'")) {
-					return readString(value);
-				} else {
-					return value;
-				}
+	/**
+	 * Collects DATA records into chunks and converts every chunk on the parse
+	 * pool. Finished chunks are merged into the model in file order on the
+	 * reading thread: the objects are added, records waiting for them are
+	 * updated and then the references of the chunk itself are resolved or put
+	 * on the waiting list. The number of chunks in flight is limited so memory
+	 * use stays close to that of the sequential parser.
+	 */
+	private class ChunkedDataReader {
+		private final ForkJoinPool pool = parsePool;
+		private final LinkedList<Chunk> chunks = new LinkedList<Chunk>();
+		private Chunk current = new Chunk();
+
+		public void add(StepRecordReader reader) throws DeserializeException {
+			if (!current.add(reader.getBuffer(), reader.getStart(), reader.getEnd(), reader.getLineNumber())) {
+				submit();
+				current.add(reader.getBuffer(), reader.getStart(), reader.getEnd(), reader.getLineNumber());
 			}
 		}
-		return null;
-	}
 
-	private String readString(String value) throws DeserializeException {
-		String result = value.substring(1, value.length() - 1);
-		// Replace all '' with '
-		while (result.contains("''")) {
-			int index = result.indexOf("''");
-			result = result.substring(0, index) + "'" + result.substring(index + 2);
-		}
-		while (result.contains("\\S\\")) {
-			int index = result.indexOf("\\S\\");
-			char x = result.charAt(index + 3);
-			ByteBuffer b = ByteBuffer.wrap(new byte[] { (byte) (x + 128) });
-			CharBuffer decode = Charsets.ISO_8859_1.decode(b);
-			result = result.substring(0, index) + decode.get() + result.substring(index + 4);
-		}
-		while (result.contains("\\X\\")) {
-			int index = result.indexOf("\\X\\");
-			int code = Integer.parseInt(result.substring(index + 3, index + 5), 16);
-			ByteBuffer b = ByteBuffer.wrap(new byte[] { (byte) (code) });
-			CharBuffer decode = Charsets.ISO_8859_1.decode(b);
-			result = result.substring(0, index) + decode.get() + result.substring(index + 5);
-		}
-		while (result.contains("\\X2\\")) {
-			int index = result.indexOf("\\X2\\");
-			int indexOfEnd = result.indexOf("\\X0\\");
-			if (indexOfEnd == -1) {
-				throw new DeserializeException(lineNumber, "\\X2\\ not closed with \\X0\\");
-			}
-			if ((indexOfEnd - index) % 4 != 0) {
-				throw new DeserializeException(lineNumber, "Number of hex chars in \\X2\\ definition not divisible by 4");
-			}
-			try {
-				ByteBuffer buffer = ByteBuffer.wrap(Hex.decodeHex(result.substring(index + 4, indexOfEnd).toCharArray()));
-				CharBuffer decode = Charsets.UTF_16BE.decode(buffer);
-				result = result.substring(0, index) + decode.toString() + result.substring(indexOfEnd + 4);
-			} catch (DecoderException e) {
-				throw new DeserializeException(lineNumber, e);
+		private void submit() throws DeserializeException {
+			pool.execute(current);
+			chunks.add(current);
+			current = new Chunk();
+			while (chunks.size() > pool.getParallelism() * 2) {
+				chunks.removeFirst().merge();
 			}
 		}
-		while (result.contains("\\X4\\")) {
-			int index = result.indexOf("\\X4\\");
-			int indexOfEnd = result.indexOf("\\X0\\");
-			if (indexOfEnd == -1) {
-				throw new DeserializeException(lineNumber, "\\X4\\ not closed with \\X0\\");
-			}
-			if ((indexOfEnd - index) % 8 != 0) {
-				throw new DeserializeException(lineNumber, "Number of hex chars in \\X4\\ definition not divisible by 8");
+
+		public void finish() throws DeserializeException {
+			if (!current.isEmpty()) {
+				submit();
 			}
-			try {
-				ByteBuffer buffer = ByteBuffer.wrap(Hex.decodeHex(result.substring(index + 4, indexOfEnd).toCharArray()));
-				CharBuffer decode = Charset.forName("UTF-32").decode(buffer);
-				result = result.substring(0, index) + decode.toString() + result.substring(indexOfEnd + 4);
-			} catch (DecoderException e) {
-				throw new DeserializeException(lineNumber, e);
-			} catch (UnsupportedCharsetException e) {
-				throw new DeserializeException(lineNumber, "UTF-32 is not supported on your system", e);
+			while (!chunks.isEmpty()) {
+				chunks.removeFirst().merge();
 			}
 		}
-		// Replace all \\ with \
-		while (result.contains("\\\\")) {
-			int index = result.indexOf("\\\\");
-			result = result.substring(0, index) + "\\" + result.substring(index + 2);
+
+		public void cancel() {
+			for (Chunk chunk : chunks) {
+				chunk.cancel(false);
+			}
+			chunks.clear();
 		}
-		return result;
 	}
 
-	private Object convert(EClassifier classifier, String value) throws DeserializeException, MetaDataException {
-		if (classifier != null) {
-			if (classifier instanceof EClassImpl) {
-				if (null != ((EClassImpl) classifier).getEStructuralFeature(WRAPPED_VALUE)) {
-					IdEObject create = (IdEObject) getPackageMetaData().create((EClass) classifier);
-					Class<?> instanceClass = create.eClass().getEStructuralFeature(WRAPPED_VALUE).getEType().getInstanceClass();
-					if (value.equals("")) {
+	private class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private byte[] data = new byte[CHUNK_SIZE];
+		private int size;
+		private int[] starts = new int[1024];
+		private int[] lineNumbers = new int[1024];
+		// Per statement, the end (exclusive) of its objects, inline objects and references in the lists below
+		private int[] objectEnds = new int[1024];
+		private int[] inlineObjectEnds = new int[1024];
+		private int[] referenceEnds = new int[1024];
+		private int nrStatements;
+		private final List<IdEObject> objects = new ArrayList<IdEObject>();
+		private final List<IdEObject> inlineObjects = new ArrayList<IdEObject>();
+		private final List<WaitingObject> references = new ArrayList<WaitingObject>();
+		private int[] referenceIds = new int[4096];
+		private DeserializeException exception;
 
-					} else {
-						if (instanceClass == Integer.class || instanceClass == int.class) {
-							try {
-								create.eSet(create.eClass().getEStructuralFeature(WRAPPED_VALUE), Integer.parseInt(value));
-							} catch (NumberFormatException e) {
-								throw new DeserializeException(lineNumber, value + " is not a valid integer value");
-							}
-						} else if (instanceClass == Long.class || instanceClass == long.class) {
-							create.eSet(create.eClass().getEStructuralFeature(WRAPPED_VALUE), Long.parseLong(value));
-						} else if (instanceClass == Boolean.class || instanceClass == boolean.class) {
-							create.eSet(create.eClass().getEStructuralFeature(WRAPPED_VALUE), value.equals(".T."));
-						} else if (instanceClass == Double.class || instanceClass == double.class) {
-							try {
-								create.eSet(create.eClass().getEStructuralFeature(WRAPPED_VALUE), Double.parseDouble(value));
-							} catch (NumberFormatException e) {
-								throw new DeserializeException(lineNumber, value + " is not a valid double floating point number");
-							}
-							create.eSet(create.eClass().getEStructuralFeature(WRAPPED_VALUE + "AsString"), value);
-						} else if (instanceClass == String.class) {
-							create.eSet(create.eClass().getEStructuralFeature(WRAPPED_VALUE), readString(value));
-						} else if (instanceClass.getName().equals("Tristate")) {
-							Object tristate = null;
-							if (value.equals(".T.")) {
-								tristate = getPackageMetaData().getEEnumLiteral("Tristate", "TRUE");
-							} else if (value.equals(".F.")) {
-								tristate = getPackageMetaData().getEEnumLiteral("Tristate", "FALSE");
-							} else if (value.equals(".U.")) {
-								tristate = getPackageMetaData().getEEnumLiteral("Tristate", "UNDEFINED");
-							}
-							create.eSet(create.eClass().getEStructuralFeature(WRAPPED_VALUE), tristate);
-						}
-					}
-					return create;
-				} else {
-					return processInline(classifier, value);
+		/**
+		 * @return false when the chunk is full
+		 */
+		public boolean add(byte[] buffer, int start, int end, int lineNumber) {
+			int length = end - start;
+			if (size + length > data.length) {
+				if (nrStatements > 0) {
+					return false;
 				}
-			} else if (classifier instanceof EDataType) {
-				return convertSimpleValue(classifier.getInstanceClass(), value);
+				data = new byte[length];
 			}
+			if (nrStatements + 1 >= starts.length) {
+				starts = Arrays.copyOf(starts, starts.length * 2);
+				lineNumbers = Arrays.copyOf(lineNumbers, lineNumbers.length * 2);
+				objectEnds = Arrays.copyOf(objectEnds, objectEnds.length * 2);
+				inlineObjectEnds = Arrays.copyOf(inlineObjectEnds, inlineObjectEnds.length * 2);
+				referenceEnds = Arrays.copyOf(referenceEnds, referenceEnds.length * 2);
+			}
+			System.arraycopy(buffer, start, data, size, length);
+			starts[nrStatements] = size;
+			lineNumbers[nrStatements] = lineNumber;
+			nrStatements++;
+			size += length;
+			starts[nrStatements] = size;
+			return true;
+		}
+
+		public boolean isEmpty() {
+			return nrStatements == 0;
 		}
-		return null;
-	}
 
-	private Object processInline(EClassifier classifier, String value) throws DeserializeException, MetaDataException {
-		if (value.indexOf("(") != -1) {
-			String typeName = value.substring(0, value.indexOf("(")).trim();
-			String v = value.substring(value.indexOf("(") + 1, value.length() - 1);
-			EClassifier eClassifier = getPackageMetaData().getEClassifierCaseInsensitive(typeName);
-			if (eClassifier instanceof EClass) {
-				Object convert = convert(eClassifier, v);
+		@Override
+		protected void compute() {
+			ChunkRecordParser chunkParser = new ChunkRecordParser(this);
+			StepTokenizer tokenizer = chunkParser.getTokenizer();
+			for (int i = 0; i < nrStatements; i++) {
+				chunkParser.setLineNumber(lineNumbers[i]);
+				tokenizer.reset(data, starts[i], starts[i + 1]);
 				try {
-					model.add(-1, (IdEObject) convert);
-				} catch (IfcModelInterfaceException e) {
-					throw new DeserializeException(lineNumber, e);
+					chunkParser.processRecord();
+					objectEnds[i] = objects.size();
+					inlineObjectEnds[i] = inlineObjects.size();
+					referenceEnds[i] = references.size();
+				} catch (DeserializeException e) {
+					exception = e;
+					return;
+				} catch (Exception e) {
+					exception = new DeserializeException(lineNumbers[i], " (" + e.getMessage() + ") " + tokenizer, e);
+					return;
 				}
-				return convert;
-			} else {
-				throw new DeserializeException(lineNumber, typeName + " is not an existing IFC entity");
 			}
-		} else {
-			return convertSimpleValue(classifier.getInstanceClass(), value);
+			// The raw data is not needed anymore while this chunk waits to be merged
+			data = null;
 		}
-	}
 
-	private void readEnum(String val, EObject object, EStructuralFeature structuralFeature) throws DeserializeException, MetaDataException {
-		if (val.equals(".T.")) {
-			if (structuralFeature.getEType().getName().equals("Tristate")) {
-				object.eSet(structuralFeature, getPackageMetaData().getEEnumLiteral("Tristate", "TRUE").getInstance());
-			} else if (structuralFeature.getEType().getName().equals("IfcBoolean")) {
-				EClass eClass = getPackageMetaData().getEClass("IfcBoolean");
-				EObject createIfcBoolean = getPackageMetaData().create(eClass);
-				createIfcBoolean.eSet(eClass.getEStructuralFeature("WrappedValue"), getPackageMetaData().getEEnumLiteral("Tristate", "TRUE").getInstance());
-				object.eSet(structuralFeature, createIfcBoolean);
-			} else if (structuralFeature.getEType() == EcorePackage.eINSTANCE.getEBoolean()) {
-				object.eSet(structuralFeature, true);
-			} else {
-				EClass eClass = getPackageMetaData().getEClass("IfcLogical");
-				EObject createIfcBoolean = getPackageMetaData().create(eClass);
-				createIfcBoolean.eSet(eClass.getEStructuralFeature("WrappedValue"), getPackageMetaData().getEEnumLiteral("Tristate", "TRUE").getInstance());
-				object.eSet(structuralFeature, createIfcBoolean);
+		private void addReference(int referenceId, WaitingObject waitingObject) {
+			if (references.size() == referenceIds.length) {
+				referenceIds = Arrays.copyOf(referenceIds, referenceIds.length * 2);
 			}
-		} else if (val.equals(".F.")) {
-			if (structuralFeature.getEType().getName().equals("Tristate")) {
-				object.eSet(structuralFeature, getPackageMetaData().getEEnumLiteral("Tristate", "FALSE").getInstance());
-			} else if (structuralFeature.getEType().getName().equals("IfcBoolean")) {
-				EClass eClass = getPackageMetaData().getEClass("IfcBoolean");
-				EObject createIfcBoolean = getPackageMetaData().create(eClass);
-				createIfcBoolean.eSet(eClass.getEStructuralFeature("WrappedValue"), getPackageMetaData().getEEnumLiteral("Tristate", "FALSE").getInstance());
-				object.eSet(structuralFeature, createIfcBoolean);
-			} else if (structuralFeature.getEType() == EcorePackage.eINSTANCE.getEBoolean()) {
-				object.eSet(structuralFeature, false);
-			} else {
-				EClass eClass = getPackageMetaData().getEClass("IfcLogical");
-				EObject createIfcBoolean = getPackageMetaData().create(eClass);
-				createIfcBoolean.eSet(eClass.getEStructuralFeature("WrappedValue"), getPackageMetaData().getEEnumLiteral("Tristate", "FALSE").getInstance());
-				object.eSet(structuralFeature, createIfcBoolean);
-			}
-		} else if (val.equals(".U.")) {
-			if (structuralFeature.getEType().getName().equals("Tristate")) {
-				object.eSet(structuralFeature, getPackageMetaData().getEEnumLiteral("Tristate", "UNDEFINED").getInstance());
-			} else if (structuralFeature.getEType() == EcorePackage.eINSTANCE.getEBoolean()) {
-				object.eUnset(structuralFeature);
-			} else {
-				EClass eClass = getPackageMetaData().getEClass("IfcLogical");
-				EObject createIfcBoolean = getPackageMetaData().create(eClass);
-				createIfcBoolean.eSet(eClass.getEStructuralFeature("WrappedValue"), getPackageMetaData().getEEnumLiteral("Tristate", "UNDEFINED").getInstance());
-				object.eSet(structuralFeature, createIfcBoolean);
+			referenceIds[references.size()] = referenceId;
+			references.add(waitingObject);
+		}
+
+		/**
+		 * Merges statement by statement in the same order as the
+		 * DirectRecordParser: the object, its own references and then the
+		 * records that were waiting for it, so inverse lists get the same
+		 * order as with sequential parsing
+		 */
+		public void merge() throws DeserializeException {
+			join();
+			if (exception != null) {
+				throw exception;
 			}
-		} else {
-			if (structuralFeature.getEType() instanceof EEnumImpl) {
-				String realEnumValue = val.substring(1, val.length() - 1);
-				EEnumLiteral enumValue = (((EEnumImpl) structuralFeature.getEType()).getEEnumLiteral(realEnumValue));
-				if (enumValue == null) {
-					throw new DeserializeException(lineNumber, "Enum type " + structuralFeature.getEType().getName() + " has no literal value '" + realEnumValue + "'");
+			int object = 0;
+			int inlineObject = 0;
+			int reference = 0;
+			for (int i = 0; i < nrStatements; i++) {
+				int firstObject = object;
+				try {
+					for (; object < objectEnds[i]; object++) {
+						model.add(objects.get(object).getExpressId(), objects.get(object));
+					}
+					for (; inlineObject < inlineObjectEnds[i]; inlineObject++) {
+						model.add(-1, inlineObjects.get(inlineObject));
+					}
+				} catch (IfcModelInterfaceException e) {
+					throw new DeserializeException(lineNumbers[i], e);
+				}
+				for (; reference < referenceEnds[i]; reference++) {
+					int referenceId = referenceIds[reference];
+					if (model.contains(referenceId)) {
+						IdEObject referencedObject = model.get(referenceId);
+						waitingList.updateWaitingObject(references.get(reference), referencedObject.eClass(), referencedObject);
+					} else {
+						waitingList.add(referenceId, references.get(reference));
+					}
+				}
+				for (int j = firstObject; j < object; j++) {
+					IdEObject idEObject = objects.get(j);
+					if (waitingList.containsKey(idEObject.getExpressId())) {
+						waitingList.updateNode(idEObject.getExpressId(), idEObject.eClass(), idEObject);
+					}
 				}
-				object.eSet(structuralFeature, enumValue.getInstance());
-			} else {
-				throw new DeserializeException(lineNumber, "Value " + val + " indicates enum type but " + structuralFeature.getEType().getName() + " expected");
 			}
 		}
 	}
 
-	private void readReference(String val, EObject object, EStructuralFeature structuralFeature) throws DeserializeException {
-		int referenceId;
-		try {
-			referenceId = Integer.parseInt(val.substring(1));
-		} catch (NumberFormatException e) {
-			throw new DeserializeException(lineNumber, "'" + val + "' is not a valid reference");
+	/**
+	 * Only creates objects and sets their attributes, all references are
+	 * stored in the chunk to be resolved when the chunk is merged
+	 */
+	private class ChunkRecordParser extends StepRecordParser {
+		private final Chunk chunk;
+
+		public ChunkRecordParser(Chunk chunk) {
+			super(getPackageMetaData());
+			this.chunk = chunk;
 		}
-		if (model.contains(referenceId)) {
-			object.eSet(structuralFeature, model.get(referenceId));
-		} else {
-			waitingList.add(referenceId, new SingleWaitingObject(lineNumber, object, structuralFeature));
+
+		@Override
+		protected void addObject(int expressId, IdEObject object) {
+			chunk.objects.add(object);
+		}
+
+		@Override
+		protected void objectRead(int expressId, EClass eClass, IdEObject object) {
+		}
+
+		@Override
+		protected void addInlineObject(IdEObject object) {
+			chunk.inlineObjects.add(object);
+		}
+
+		@Override
+		protected void readReference(int referenceId, EObject object, EStructuralFeature structuralFeature) {
+			chunk.addReference(referenceId, new SingleWaitingObject(lineNumber, object, structuralFeature));
+		}
+
+		@Override
+		protected void readListReference(int referenceId, EObject object, EStructuralFeature structuralFeature, int index) {
+			chunk.addReference(referenceId, new ListWaitingObject(lineNumber, object, structuralFeature, index));
 		}
 	}
-}
\ No newline at end of file
+}
@@ -17,15 +17,27 @@ package org.bimserver.ifc.step.deserializer;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.Closeable;
+import java.util.concurrent.ForkJoinPool;
+
+import org.bimserver.models.store.BooleanType;
 import org.bimserver.models.store.ObjectDefinition;
+import org.bimserver.models.store.ParameterDefinition;
+import org.bimserver.models.store.PrimitiveDefinition;
+import org.bimserver.models.store.PrimitiveEnum;
+import org.bimserver.models.store.StoreFactory;
+import org.bimserver.plugins.PluginConfiguration;
 import org.bimserver.plugins.PluginException;
 import org.bimserver.plugins.PluginManager;
 import org.bimserver.plugins.deserializers.DeserializerPlugin;
 import org.bimserver.plugins.schema.SchemaException;
 
-public abstract class IfcStepDeserializerPlugin implements DeserializerPlugin {
+public abstract class IfcStepDeserializerPlugin implements DeserializerPlugin, Closeable {
+
+	private static final String PARALLEL_PARSING = "parallelParsing";
 
 	boolean initialized = false;
+	private ForkJoinPool parsePool;
 	
 	@Override
 	public String getVersion() {
@@ -47,8 +59,48 @@ public abstract class IfcStepDeserializerPlugin implements DeserializerPlugin {
 		return initialized;
 	}
 
+	protected IfcStepDeserializer configure(IfcStepDeserializer deserializer, PluginConfiguration pluginConfiguration) {
+		Boolean parallel = pluginConfiguration == null ? null : pluginConfiguration.getBoolean(PARALLEL_PARSING);
+		if (parallel == null || parallel) {
+			deserializer.setParsePool(getParsePool());
+		}
+		return deserializer;
+	}
+
+	private synchronized ForkJoinPool getParsePool() {
+		if (parsePool == null) {
+			parsePool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		}
+		return parsePool;
+	}
+
+	/**
+	 * Stops the parse threads, a deserializer created afterwards starts new ones
+	 */
+	@Override
+	public synchronized void close() {
+		if (parsePool != null) {
+			parsePool.shutdown();
+			parsePool = null;
+		}
+	}
+
 	@Override
 	public ObjectDefinition getSettingsDefinition() {
-		return null;
+		ObjectDefinition objectDefinition = StoreFactory.eINSTANCE.createObjectDefinition();
+
+		PrimitiveDefinition booleanDefinition = StoreFactory.eINSTANCE.createPrimitiveDefinition();
+		booleanDefinition.setType(PrimitiveEnum.BOOLEAN);
+
+		ParameterDefinition parallelParameter = StoreFactory.eINSTANCE.createParameterDefinition();
+		parallelParameter.setName(PARALLEL_PARSING);
+		parallelParameter.setDescription("Parse the records of large files on all available processors");
+		BooleanType defaultValue = StoreFactory.eINSTANCE.createBooleanType();
+		defaultValue.setValue(true);
+		parallelParameter.setDefaultValue(defaultValue);
+		parallelParameter.setType(booleanDefinition);
+		objectDefinition.getParameters().add(parallelParameter);
+
+		return objectDefinition;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,410 @@
+package org.bimserver.ifc.step.deserializer;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IdEObjectImpl;
+import org.bimserver.emf.MetaDataException;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.plugins.deserializers.DeserializeException;
+import org.bimserver.plugins.schema.Attribute;
+import org.bimserver.plugins.schema.EntityDefinition;
+import org.bimserver.plugins.schema.ExplicitAttribute;
+import org.bimserver.utils.TokenizeException;
+import org.eclipse.emf.common.util.AbstractEList;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EClassifier;
+import org.eclipse.emf.ecore.EDataType;
+import org.eclipse.emf.ecore.EEnumLiteral;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.EcorePackage;
+import org.eclipse.emf.ecore.impl.EClassImpl;
+import org.eclipse.emf.ecore.impl.EEnumImpl;
+
+/**
+ * Converts DATA records to EMF objects. What happens with the created objects
+ * and their references is left to the subclasses, so the same conversion can
+ * be used to build a model directly, or on multiple threads with the
+ * references resolved afterwards.
+ *
+ * Not thread safe, every thread needs its own instance.
+ */
+public abstract class StepRecordParser {
+	/*
+	 * The following hacks are present
+	 * 
+	 * - For every feature of type double there is an extra feature (name
+	 * appended with "AsString") of type String to keep the original String
+	 * version this is also done for aggregate features - WrappedValues for all
+	 * for derived primitive types and enums that are used in a "select"
+	 */
+
+	private static final String WRAPPED_VALUE = "wrappedValue";
+	private static final Set<PackageMetaData> PREPARED = Collections.newSetFromMap(new WeakHashMap<PackageMetaData, Boolean>());
+	private final StepTokenizer tokenizer = new StepTokenizer();
+	private final PackageMetaData packageMetaData;
+	protected int lineNumber;
+
+	public StepRecordParser(PackageMetaData packageMetaData) {
+		this.packageMetaData = packageMetaData;
+	}
+
+	/**
+	 * EMF and the schema definition fill some of their caches lazily, which is
+	 * not thread safe. This fills them up front, so multiple parsers can be
+	 * used concurrently on the same package.
+	 */
+	public static void prepareForConcurrentUse(PackageMetaData packageMetaData) {
+		synchronized (PREPARED) {
+			if (!PREPARED.add(packageMetaData)) {
+				return;
+			}
+			EPackage ePackage = packageMetaData.getEPackage();
+			ePackage.getEClassifier("");
+			for (EClassifier eClassifier : ePackage.getEClassifiers()) {
+				if (eClassifier instanceof EClass) {
+					EClass eClass = (EClass) eClassifier;
+					eClass.getEAllSuperTypes();
+					eClass.getEAllContainments();
+					eClass.getEStructuralFeature("");
+					for (EStructuralFeature eStructuralFeature : eClass.getEAllStructuralFeatures()) {
+						eClass.getFeatureID(eStructuralFeature);
+						eStructuralFeature.getDefaultValue();
+						((EStructuralFeature.Internal) eStructuralFeature).getSettingDelegate();
+					}
+				}
+			}
+			for (EntityDefinition entityDefinition : packageMetaData.getSchemaDefinition().getEntities()) {
+				entityDefinition.getAttributesCached(true);
+			}
+		}
+	}
+
+	public StepTokenizer getTokenizer() {
+		return tokenizer;
+	}
+
+	public void setLineNumber(int lineNumber) {
+		this.lineNumber = lineNumber;
+	}
+
+	/**
+	 * Called for every record, before its attributes are read
+	 */
+	protected abstract void addObject(int expressId, IdEObject object) throws DeserializeException;
+
+	/**
+	 * Called when all attributes of a record have been read
+	 */
+	protected abstract void objectRead(int expressId, EClass eClass, IdEObject object) throws DeserializeException;
+
+	/**
+	 * Called for typed values inside a record, like IFCLABEL('x') in a select
+	 */
+	protected abstract void addInlineObject(IdEObject object) throws DeserializeException;
+
+	protected abstract void readReference(int referenceId, EObject object, EStructuralFeature structuralFeature) throws DeserializeException;
+
+	protected abstract void readListReference(int referenceId, EObject object, EStructuralFeature structuralFeature, int index) throws DeserializeException;
+
+	public void processRecord() throws DeserializeException, MetaDataException, TokenizeException {
+		int recordNumber = tokenizer.readExpressId();
+		tokenizer.expect('=');
+		String name = tokenizer.readName();
+		EClass classifier = (EClass) packageMetaData.getEClassifierCaseInsensitive(name);
+		if (classifier != null) {
+			IdEObject object = (IdEObject) packageMetaData.create(classifier);
+			addObject(recordNumber, object);
+			((IdEObjectImpl) object).setExpressId(recordNumber);
+			EntityDefinition entityBN = packageMetaData.getSchemaDefinition().getEntityBN(name);
+			if (entityBN == null) {
+				throw new DeserializeException(lineNumber, "Unknown entity " + name);
+			}
+			tokenizer.expect('(');
+			boolean more = true;
+			if (tokenizer.nextIs(')')) {
+				tokenizer.expect(')');
+				more = false;
+			}
+			for (Attribute attribute : entityBN.getAttributesCached(true)) {
+				if (attribute instanceof ExplicitAttribute) {
+					if (!more) {
+						int expected = 0;
+						for (Attribute attribute2 : entityBN.getAttributesCached(true)) {
+							if (attribute2 instanceof ExplicitAttribute) {
+								expected++;
+							}
+						}
+						throw new DeserializeException(lineNumber, classifier.getName() + " expects " + expected + " fields, but less found");
+					}
+					if (!entityBN.isDerived(attribute.getName())) {
+						EStructuralFeature structuralFeature = classifier.getEStructuralFeature(attribute.getName());
+						if (structuralFeature == null) {
+							throw new DeserializeException(lineNumber, "Unknown feature " + classifier.getName() + "." + attribute.getName());
+						}
+						readAttribute(object, attribute, structuralFeature);
+					} else {
+						tokenizer.skipValue();
+					}
+					more = tokenizer.readSeparator();
+				}
+			}
+			objectRead(recordNumber, classifier, object);
+		} else {
+			throw new DeserializeException(lineNumber, name + " is not a known entity");
+		}
+	}
+
+	private void readAttribute(IdEObject object, Attribute attribute, EStructuralFeature structuralFeature) throws DeserializeException, MetaDataException, TokenizeException {
+		EClass classifier = object.eClass();
+		char firstChar = tokenizer.peek();
+		if (firstChar == '$') {
+			tokenizer.expect('$');
+			object.eUnset(structuralFeature);
+			if (structuralFeature.getEType() == EcorePackage.eINSTANCE.getEDouble()) {
+				EStructuralFeature doubleStringFeature = classifier.getEStructuralFeature(attribute.getName() + "AsString");
+				object.eSet(doubleStringFeature, "$");
+			}
+		} else if (firstChar == '#') {
+			readReference(tokenizer.readExpressId(), object, structuralFeature);
+		} else if (firstChar == '.') {
+			readEnum(tokenizer.readEnum(), object, structuralFeature);
+		} else if (firstChar == '(') {
+			readList(object, structuralFeature);
+		} else if (firstChar == '*') {
+			tokenizer.expect('*');
+		} else {
+			if (!structuralFeature.isMany()) {
+				object.eSet(structuralFeature, readValue(structuralFeature.getEType()));
+				if (structuralFeature.getEType() == EcorePackage.eINSTANCE.getEDouble()) {
+					EStructuralFeature doubleStringFeature = classifier.getEStructuralFeature(attribute.getName() + "AsString");
+					object.eSet(doubleStringFeature, tokenizer.getLastToken());
+				}
+			} else {
+				// It's not a list in the file, but it is in the
+				// schema??
+				tokenizer.skipValue();
+			}
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void readList(EObject object, EStructuralFeature structuralFeature) throws DeserializeException, MetaDataException, TokenizeException {
+		int index = 0;
+		if (!structuralFeature.isMany()) {
+			throw new DeserializeException(lineNumber, "Field " + structuralFeature.getName() + " of " + structuralFeature.getEContainingClass().getName() + " is no aggregation");
+		}
+		AbstractEList list = (AbstractEList) object.eGet(structuralFeature);
+		AbstractEList doubleStringList = null;
+		if (structuralFeature.getEType() == EcorePackage.eINSTANCE.getEDouble()) {
+			EStructuralFeature doubleStringFeature = structuralFeature.getEContainingClass().getEStructuralFeature(structuralFeature.getName() + "AsString");
+			if (doubleStringFeature == null) {
+				throw new DeserializeException(lineNumber, "Field not found: " + structuralFeature.getName() + "AsString");
+			}
+			doubleStringList = (AbstractEList) object.eGet(doubleStringFeature);
+		}
+		tokenizer.expect('(');
+		if (tokenizer.nextIs(')')) {
+			tokenizer.expect(')');
+			return;
+		}
+		do {
+			if (tokenizer.nextIs('#')) {
+				readListReference(tokenizer.readExpressId(), object, structuralFeature, index);
+			} else if (tokenizer.nextIs('$')) {
+				tokenizer.expect('$');
+			} else {
+				Object convert = readValue(structuralFeature.getEType());
+				if (convert != null) {
+					String stringValue = doubleStringList != null ? tokenizer.getLastToken() : null;
+					while (list.size() <= index) {
+						if (doubleStringList != null) {
+							doubleStringList.addUnique(stringValue);
+						}
+						list.addUnique(convert);
+					}
+					if (doubleStringList != null) {
+						doubleStringList.setUnique(index, stringValue);
+					}
+					list.setUnique(index, convert);
+				}
+			}
+			index++;
+		} while (tokenizer.readSeparator());
+	}
+
+	private boolean isEmptyValue() {
+		char c = tokenizer.peek();
+		return c == ',' || c == ')';
+	}
+
+	private Object readSimpleValue(Class<?> instanceClass) throws DeserializeException, TokenizeException {
+		if (isEmptyValue()) {
+			return null;
+		}
+		try {
+			if (instanceClass == Integer.class || instanceClass == int.class) {
+				return tokenizer.readInt();
+			} else if (instanceClass == Long.class || instanceClass == long.class) {
+				return tokenizer.readLong();
+			} else if (instanceClass == Boolean.class || instanceClass == boolean.class) {
+				if (tokenizer.nextIs('.')) {
+					return tokenizer.readEnum().equals("T");
+				}
+			} else if (instanceClass == Double.class || instanceClass == double.class) {
+				return tokenizer.readDouble();
+			} else if (instanceClass == String.class) {
+				if (tokenizer.nextIs('\'')) {
+					return tokenizer.readString();
+				} else {
+					int start = tokenizer.getPosition();
+					tokenizer.skipValue();
+					return tokenizer.getText(start, tokenizer.getPosition()).trim();
+				}
+			}
+		} catch (TokenizeException e) {
+			throw new DeserializeException(lineNumber, e.getMessage());
+		}
+		tokenizer.skipValue();
+		return null;
+	}
+
+	private Object readValue(EClassifier classifier) throws DeserializeException, MetaDataException, TokenizeException {
+		if (classifier != null) {
+			if (classifier instanceof EClassImpl) {
+				EStructuralFeature wrappedValueFeature = ((EClassImpl) classifier).getEStructuralFeature(WRAPPED_VALUE);
+				if (null != wrappedValueFeature) {
+					IdEObject create = (IdEObject) packageMetaData.create((EClass) classifier);
+					Class<?> instanceClass = wrappedValueFeature.getEType().getInstanceClass();
+					if (isEmptyValue()) {
+
+					} else {
+						try {
+							if (instanceClass == Integer.class || instanceClass == int.class) {
+								create.eSet(wrappedValueFeature, tokenizer.readInt());
+							} else if (instanceClass == Long.class || instanceClass == long.class) {
+								create.eSet(wrappedValueFeature, tokenizer.readLong());
+							} else if (instanceClass == Boolean.class || instanceClass == boolean.class) {
+								create.eSet(wrappedValueFeature, tokenizer.readEnum().equals("T"));
+							} else if (instanceClass == Double.class || instanceClass == double.class) {
+								create.eSet(wrappedValueFeature, tokenizer.readDouble());
+								create.eSet(create.eClass().getEStructuralFeature(WRAPPED_VALUE + "AsString"), tokenizer.getLastToken());
+							} else if (instanceClass == String.class) {
+								create.eSet(wrappedValueFeature, tokenizer.readString());
+							} else if (instanceClass.getName().equals("Tristate")) {
+								create.eSet(wrappedValueFeature, readTristate(tokenizer.readEnum()));
+							} else {
+								tokenizer.skipValue();
+							}
+						} catch (TokenizeException e) {
+							throw new DeserializeException(lineNumber, e.getMessage());
+						}
+					}
+					return create;
+				} else {
+					return readInline(classifier);
+				}
+			} else if (classifier instanceof EDataType) {
+				return readSimpleValue(classifier.getInstanceClass());
+			}
+		}
+		tokenizer.skipValue();
+		return null;
+	}
+
+	private Object readTristate(String literal) {
+		if (literal.equals("T")) {
+			return packageMetaData.getEEnumLiteral("Tristate", "TRUE").getInstance();
+		} else if (literal.equals("F")) {
+			return packageMetaData.getEEnumLiteral("Tristate", "FALSE").getInstance();
+		} else if (literal.equals("U")) {
+			return packageMetaData.getEEnumLiteral("Tristate", "UNDEFINED").getInstance();
+		}
+		return null;
+	}
+
+	/**
+	 * Reads a typed value like IFCLABEL('Label'), as used for select types
+	 */
+	private Object readInline(EClassifier classifier) throws DeserializeException, MetaDataException, TokenizeException {
+		if (StepTokenizer.isNameStart(tokenizer.peek())) {
+			String typeName = tokenizer.readName();
+			EClassifier eClassifier = packageMetaData.getEClassifierCaseInsensitive(typeName);
+			if (eClassifier instanceof EClass) {
+				tokenizer.expect('(');
+				Object convert = readValue(eClassifier);
+				tokenizer.expect(')');
+				addInlineObject((IdEObject) convert);
+				return convert;
+			} else {
+				throw new DeserializeException(lineNumber, typeName + " is not an existing IFC entity");
+			}
+		} else {
+			return readSimpleValue(classifier.getInstanceClass());
+		}
+	}
+
+	private void setLogical(EObject object, EStructuralFeature structuralFeature, String literal, Boolean value) {
+		Object tristate = packageMetaData.getEEnumLiteral("Tristate", literal).getInstance();
+		if (structuralFeature.getEType().getName().equals("Tristate")) {
+			object.eSet(structuralFeature, tristate);
+		} else if (structuralFeature.getEType().getName().equals("IfcBoolean") && value != null) {
+			EClass eClass = packageMetaData.getEClass("IfcBoolean");
+			EObject createIfcBoolean = packageMetaData.create(eClass);
+			createIfcBoolean.eSet(eClass.getEStructuralFeature(WRAPPED_VALUE), tristate);
+			object.eSet(structuralFeature, createIfcBoolean);
+		} else if (structuralFeature.getEType() == EcorePackage.eINSTANCE.getEBoolean()) {
+			if (value == null) {
+				object.eUnset(structuralFeature);
+			} else {
+				object.eSet(structuralFeature, value);
+			}
+		} else {
+			EClass eClass = packageMetaData.getEClass("IfcLogical");
+			EObject createIfcLogical = packageMetaData.create(eClass);
+			createIfcLogical.eSet(eClass.getEStructuralFeature(WRAPPED_VALUE), tristate);
+			object.eSet(structuralFeature, createIfcLogical);
+		}
+	}
+
+	private void readEnum(String val, EObject object, EStructuralFeature structuralFeature) throws DeserializeException, MetaDataException {
+		if (val.equals("T")) {
+			setLogical(object, structuralFeature, "TRUE", true);
+		} else if (val.equals("F")) {
+			setLogical(object, structuralFeature, "FALSE", false);
+		} else if (val.equals("U")) {
+			setLogical(object, structuralFeature, "UNDEFINED", null);
+		} else {
+			if (structuralFeature.getEType() instanceof EEnumImpl) {
+				EEnumLiteral enumValue = (((EEnumImpl) structuralFeature.getEType()).getEEnumLiteral(val));
+				if (enumValue == null) {
+					throw new DeserializeException(lineNumber, "Enum type " + structuralFeature.getEType().getName() + " has no literal value '" + val + "'");
+				}
+				object.eSet(structuralFeature, enumValue.getInstance());
+			} else {
+				throw new DeserializeException(lineNumber, "Value ." + val + ". indicates enum type but " + structuralFeature.getEType().getName() + " expected");
+			}
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package org.bimserver.ifc.step.deserializer;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Splits a STEP file into statements (everything up to and including a ';'
+ * that is not part of a string or comment) without decoding the bytes. The
+ * statements can be tokenized with a StepTokenizer directly on the returned
+ * buffer.
+ *
+ * The MD5 checksum is calculated over all bytes except line endings, so it
+ * does not depend on the line endings of the file. This is not the checksum
+ * the line based deserializers calculated: those only hashed the first line
+ * of a statement that spans several lines. Checksums stored with older
+ * revisions are compared by the checkin (CheckinSpool), not here.
+ */
+public class StepRecordReader {
+
+	private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+	private final InputStream inputStream;
+	private final MessageDigest messageDigest;
+	private byte[] buffer;
+	private byte[] checksumBuffer;
+	private int limit;
+	private int scanPosition;
+	private int statementStart;
+	private int statementEnd;
+	private int nextStatementStart;
+	private int lineNumber;
+	private int statementLineNumber;
+	private boolean endOfStream;
+	private boolean inString;
+	private boolean inComment;
+	// Whether the last byte inside the comment was a '*', the '*' opening the comment does not count, so /*/ does not close it
+	private boolean commentStar;
+
+	public StepRecordReader(InputStream inputStream) throws NoSuchAlgorithmException {
+		this(inputStream, DEFAULT_BUFFER_SIZE);
+	}
+
+	public StepRecordReader(InputStream inputStream, int bufferSize) throws NoSuchAlgorithmException {
+		this.inputStream = inputStream;
+		this.buffer = new byte[bufferSize];
+		this.messageDigest = MessageDigest.getInstance("MD5");
+	}
+
+	/**
+	 * Moves to the next statement
+	 *
+	 * @return false when there are no more statements, any trailing bytes
+	 *         without a ';' are returned as a last statement
+	 */
+	public boolean next() throws IOException {
+		statementStart = nextStatementStart;
+		scanPosition = Math.max(scanPosition, statementStart);
+		statementLineNumber = lineNumber;
+		while (true) {
+			// Work on locals, this loop sees every byte of the file
+			byte[] buffer = this.buffer;
+			int position = scanPosition;
+			int limit = this.limit;
+			int lines = lineNumber;
+			boolean inString = this.inString;
+			boolean inComment = this.inComment;
+			boolean commentStar = this.commentStar;
+			boolean needMore = false;
+			while (position < limit) {
+				byte b = buffer[position];
+				if (b == '\n') {
+					lines++;
+					commentStar = false;
+				} else if (inString) {
+					if (b == '\'') {
+						// Two quotes are an escaped quote, this also works for that case because the string is simply re-opened
+						inString = false;
+					} else if (b == '\\') {
+						if (position + 3 >= limit && !endOfStream) {
+							needMore = true;
+							break;
+						}
+						if (position + 3 < limit && buffer[position + 1] == 'S' && buffer[position + 2] == '\\') {
+							// \S\ escapes the next character, which might be a quote
+							position += 3;
+						}
+					}
+				} else if (inComment) {
+					if (b == '/' && commentStar) {
+						inComment = false;
+					}
+					commentStar = b == '*';
+				} else if (b == ';') {
+					scanPosition = position + 1;
+					lineNumber = lines;
+					this.inString = false;
+					this.inComment = false;
+					statementEnd = scanPosition;
+					nextStatementStart = statementEnd;
+					return true;
+				} else if (b == '\'') {
+					inString = true;
+				} else if (b == '*' && position > statementStart && buffer[position - 1] == '/') {
+					inComment = true;
+					commentStar = false;
+				}
+				position++;
+			}
+			scanPosition = position;
+			lineNumber = lines;
+			this.inString = inString;
+			this.inComment = inComment;
+			this.commentStar = commentStar;
+			if (endOfStream && !needMore) {
+				if (statementStart < limit && !isWhitespace(statementStart, limit)) {
+					statementEnd = limit;
+					nextStatementStart = limit;
+					return true;
+				}
+				return false;
+			}
+			fill();
+		}
+	}
+
+	private boolean isWhitespace(int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (buffer[i] != ' ' && buffer[i] != '\t' && buffer[i] != '\r' && buffer[i] != '\n') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Moves the current statement to the start of the buffer (growing it when
+	 * needed) and reads more bytes behind it
+	 */
+	private void fill() throws IOException {
+		if (statementStart > 0) {
+			System.arraycopy(buffer, statementStart, buffer, 0, limit - statementStart);
+			limit -= statementStart;
+			scanPosition -= statementStart;
+			nextStatementStart -= statementStart;
+			statementStart = 0;
+		}
+		if (limit == buffer.length) {
+			byte[] newBuffer = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, newBuffer, 0, limit);
+			buffer = newBuffer;
+		}
+		int read = inputStream.read(buffer, limit, buffer.length - limit);
+		if (read == -1) {
+			endOfStream = true;
+		} else {
+			updateChecksum(limit, limit + read);
+			limit += read;
+		}
+	}
+
+	/**
+	 * Line endings are left out of the checksum, the remaining bytes are
+	 * collected first so the digest is only updated once per read
+	 */
+	private void updateChecksum(int start, int end) {
+		if (checksumBuffer == null || checksumBuffer.length < end - start) {
+			checksumBuffer = new byte[end - start];
+		}
+		byte[] buffer = this.buffer;
+		byte[] checksumBuffer = this.checksumBuffer;
+		int length = 0;
+		for (int i = start; i < end; i++) {
+			byte b = buffer[i];
+			if (b != '\n' && b != '\r') {
+				checksumBuffer[length++] = b;
+			}
+		}
+		messageDigest.update(checksumBuffer, 0, length);
+	}
+
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return The index of the first byte of the current statement, this
+	 *         might be whitespace or a comment
+	 */
+	public int getStart() {
+		return statementStart;
+	}
+
+	/**
+	 * @return The index after the last byte of the current statement (after
+	 *         the ';')
+	 */
+	public int getEnd() {
+		return statementEnd;
+	}
+
+	/**
+	 * @return The (0 based) line the current statement started on
+	 */
+	public int getLineNumber() {
+		return statementLineNumber;
+	}
+
+	/**
+	 * @return The checksum of all bytes read so far, only complete after next
+	 *         returned false
+	 */
+	public byte[] getChecksum() {
+		return messageDigest.digest();
+	}
+}
@@ -0,0 +1,602 @@
+package org.bimserver.ifc.step.deserializer;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.util.Arrays;
+
+import org.bimserver.utils.TokenizeException;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Tokenizer for one STEP statement, working directly on the bytes of the
+ * file. Numbers, references and enums are parsed in place, names and enum
+ * literals are interned so reading them does not create new Strings after
+ * they have been seen once. Only decoded string values (and the textual
+ * version of a double when asked for) are new objects.
+ *
+ * Instances are not thread safe, but can be reused for many statements with
+ * reset.
+ */
+public class StepTokenizer {
+
+	private static final double[] POWERS_OF_TEN = new double[23];
+	private byte[] buffer;
+	private int position;
+	private int end;
+	private int tokenStart;
+	private int tokenEnd;
+	private final StringBuilder stringBuilder = new StringBuilder();
+	private final NameTable names = new NameTable();
+
+	static {
+		double value = 1;
+		for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = value;
+			value *= 10;
+		}
+	}
+
+	public StepTokenizer reset(byte[] buffer, int start, int end) {
+		this.buffer = buffer;
+		this.position = start;
+		this.end = end;
+		return this;
+	}
+
+	public int getPosition() {
+		return position;
+	}
+
+	/**
+	 * Skips spaces, tabs, line endings and comments
+	 */
+	public void skipWhitespace() {
+		while (position < end) {
+			byte b = buffer[position];
+			if (b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+				position++;
+			} else if (b == '/' && position + 1 < end && buffer[position + 1] == '*') {
+				position += 2;
+				while (position + 1 < end && !(buffer[position] == '*' && buffer[position + 1] == '/')) {
+					position++;
+				}
+				position = Math.min(end, position + 2);
+			} else {
+				return;
+			}
+		}
+	}
+
+	public boolean isEmpty() {
+		skipWhitespace();
+		return position >= end;
+	}
+
+	/**
+	 * @return The next non-whitespace character, or 0 at the end of the statement
+	 */
+	public char peek() {
+		skipWhitespace();
+		return position < end ? (char) buffer[position] : 0;
+	}
+
+	public boolean nextIs(char c) {
+		return peek() == c;
+	}
+
+	public boolean startsWith(String keyword) {
+		skipWhitespace();
+		if (end - position < keyword.length()) {
+			return false;
+		}
+		for (int i = 0; i < keyword.length(); i++) {
+			if (buffer[position + i] != keyword.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void expect(char c) throws TokenizeException {
+		if (peek() != c) {
+			throw new TokenizeException("'" + c + "' expected at " + this);
+		}
+		position++;
+	}
+
+	/**
+	 * Reads a reference like #123
+	 */
+	public int readExpressId() throws TokenizeException {
+		expect('#');
+		tokenStart = position;
+		int value = 0;
+		while (position < end && buffer[position] >= '0' && buffer[position] <= '9') {
+			value = value * 10 + (buffer[position++] - '0');
+		}
+		tokenEnd = position;
+		if (tokenEnd == tokenStart) {
+			throw new TokenizeException("Invalid reference at " + this);
+		}
+		return value;
+	}
+
+	/**
+	 * Reads an entity or type name, returned in upper case and interned
+	 */
+	public String readName() throws TokenizeException {
+		skipWhitespace();
+		tokenStart = position;
+		while (position < end && isNameChar(buffer[position])) {
+			position++;
+		}
+		tokenEnd = position;
+		if (tokenEnd == tokenStart) {
+			throw new TokenizeException("Name expected at " + this);
+		}
+		return names.get(buffer, tokenStart, tokenEnd);
+	}
+
+	/**
+	 * Reads an enumeration like .ELEMENT., returns the literal without dots,
+	 * interned
+	 */
+	public String readEnum() throws TokenizeException {
+		expect('.');
+		tokenStart = position;
+		while (position < end && buffer[position] != '.') {
+			position++;
+		}
+		if (position >= end) {
+			throw new TokenizeException("Enum not closed at " + this);
+		}
+		tokenEnd = position;
+		position++;
+		return names.get(buffer, tokenStart, tokenEnd);
+	}
+
+	public int readInt() throws TokenizeException {
+		long value = readLong();
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw new TokenizeException(getLastToken() + " is not a valid integer value");
+		}
+		return (int) value;
+	}
+
+	public long readLong() throws TokenizeException {
+		skipWhitespace();
+		tokenStart = position;
+		boolean negative = false;
+		if (position < end && (buffer[position] == '-' || buffer[position] == '+')) {
+			negative = buffer[position] == '-';
+			position++;
+		}
+		long value = 0;
+		int digitsStart = position;
+		while (position < end && buffer[position] >= '0' && buffer[position] <= '9') {
+			value = value * 10 + (buffer[position++] - '0');
+		}
+		tokenEnd = position;
+		if (position == digitsStart || (position < end && (buffer[position] == '.' || buffer[position] == 'E' || buffer[position] == 'e'))) {
+			skipNumber();
+			throw new TokenizeException(getLastToken() + " is not a valid integer value");
+		}
+		if (position - digitsStart > 18) {
+			// Might have overflown
+			try {
+				return Long.parseLong(getLastToken());
+			} catch (NumberFormatException e) {
+				throw new TokenizeException(getLastToken() + " is not a valid integer value");
+			}
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Reads a double. When the mantissa has at most 15 digits and the exponent
+	 * is small, both are exactly representable so the result is computed
+	 * directly, otherwise Double.parseDouble is used
+	 */
+	public double readDouble() throws TokenizeException {
+		skipWhitespace();
+		tokenStart = position;
+		boolean negative = false;
+		if (position < end && (buffer[position] == '-' || buffer[position] == '+')) {
+			negative = buffer[position] == '-';
+			position++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int decimals = 0;
+		boolean seenDigit = false;
+		while (position < end && buffer[position] >= '0' && buffer[position] <= '9') {
+			seenDigit = true;
+			if (mantissa != 0 || buffer[position] != '0') {
+				digits++;
+			}
+			mantissa = mantissa * 10 + (buffer[position++] - '0');
+		}
+		if (position < end && buffer[position] == '.') {
+			position++;
+			while (position < end && buffer[position] >= '0' && buffer[position] <= '9') {
+				seenDigit = true;
+				if (mantissa != 0 || buffer[position] != '0') {
+					digits++;
+				}
+				mantissa = mantissa * 10 + (buffer[position++] - '0');
+				decimals++;
+			}
+		}
+		int exponent = 0;
+		boolean validExponent = true;
+		if (position < end && (buffer[position] == 'E' || buffer[position] == 'e')) {
+			position++;
+			boolean negativeExponent = false;
+			if (position < end && (buffer[position] == '-' || buffer[position] == '+')) {
+				negativeExponent = buffer[position] == '-';
+				position++;
+			}
+			int exponentStart = position;
+			while (position < end && buffer[position] >= '0' && buffer[position] <= '9') {
+				if (exponent < 10000) {
+					exponent = exponent * 10 + (buffer[position] - '0');
+				}
+				position++;
+			}
+			validExponent = position > exponentStart;
+			if (negativeExponent) {
+				exponent = -exponent;
+			}
+		}
+		tokenEnd = position;
+		if (!seenDigit || !validExponent) {
+			skipNumber();
+			throw new TokenizeException(getLastToken() + " is not a valid double floating point number");
+		}
+		int scale = exponent - decimals;
+		if (digits <= 15 && scale >= -22 && scale <= 22) {
+			double value = mantissa;
+			if (scale < 0) {
+				value = value / POWERS_OF_TEN[-scale];
+			} else {
+				value = value * POWERS_OF_TEN[scale];
+			}
+			return negative ? -value : value;
+		}
+		try {
+			return Double.parseDouble(getLastToken());
+		} catch (NumberFormatException e) {
+			throw new TokenizeException(getLastToken() + " is not a valid double floating point number");
+		}
+	}
+
+	private void skipNumber() {
+		while (position < end && buffer[position] != ',' && buffer[position] != ')' && buffer[position] != ' ' && buffer[position] != '\t' && buffer[position] != '\r' && buffer[position] != '\n') {
+			position++;
+		}
+		tokenEnd = position;
+	}
+
+	/**
+	 * @return The remainder of the statement as a String, without line endings
+	 */
+	public String readAll() {
+		skipWhitespace();
+		StringBuilder sb = new StringBuilder(end - position);
+		String text = new String(buffer, position, end - position, Charsets.UTF_8);
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c != '\r' && c != '\n') {
+				sb.append(c);
+			}
+		}
+		position = end;
+		return sb.toString();
+	}
+
+	public String getText(int start, int end) {
+		return new String(buffer, start, end - start, Charsets.UTF_8);
+	}
+
+	/**
+	 * @return The text of the last read number, reference, name or enum
+	 */
+	public String getLastToken() {
+		return new String(buffer, tokenStart, tokenEnd - tokenStart, Charsets.ISO_8859_1);
+	}
+
+	/**
+	 * Reads a single quoted string and decodes the STEP escape sequences
+	 * ('', \\, \S\, \X\, \X2\ and \X4\), the file itself is read as UTF-8
+	 */
+	public String readString() throws TokenizeException {
+		expect('\'');
+		stringBuilder.setLength(0);
+		while (true) {
+			if (position >= end) {
+				throw new TokenizeException("String not closed");
+			}
+			byte b = buffer[position];
+			if (b == '\'') {
+				if (position + 1 < end && buffer[position + 1] == '\'') {
+					stringBuilder.append('\'');
+					position += 2;
+				} else {
+					position++;
+					return stringBuilder.toString();
+				}
+			} else if (b == '\\') {
+				readEscape();
+			} else if (b >= 0) {
+				stringBuilder.append((char) b);
+				position++;
+			} else {
+				readUtf8();
+			}
+		}
+	}
+
+	/**
+	 * Skips a single quoted string without decoding it
+	 */
+	private void skipString() throws TokenizeException {
+		position++;
+		while (position < end) {
+			byte b = buffer[position++];
+			if (b == '\'') {
+				if (position < end && buffer[position] == '\'') {
+					position++;
+				} else {
+					return;
+				}
+			} else if (b == '\\' && position + 2 < end && buffer[position] == 'S' && buffer[position + 1] == '\\') {
+				position += 3;
+			}
+		}
+		throw new TokenizeException("String not closed");
+	}
+
+	private void readEscape() throws TokenizeException {
+		if (matches("\\\\")) {
+			stringBuilder.append('\\');
+			position += 2;
+		} else if (matches("\\S\\")) {
+			if (position + 3 >= end) {
+				throw new TokenizeException("Incomplete \\S\\ escape");
+			}
+			stringBuilder.append((char) ((buffer[position + 3] & 0xFF) + 128));
+			position += 4;
+		} else if (matches("\\X2\\") || matches("\\X4\\")) {
+			int charSize = buffer[position + 2] == '2' ? 4 : 8;
+			position += 4;
+			int hexStart = position;
+			while (position < end && buffer[position] != '\\') {
+				position++;
+			}
+			if (!matches("\\X0\\")) {
+				throw new TokenizeException("\\X" + (charSize / 2) + "\\ not closed with \\X0\\");
+			}
+			if ((position - hexStart) % charSize != 0) {
+				throw new TokenizeException("Number of hex chars in \\X" + (charSize / 2) + "\\ definition not divisible by " + charSize);
+			}
+			for (int i = hexStart; i < position; i += charSize) {
+				stringBuilder.appendCodePoint(readHex(i, charSize));
+			}
+			position += 4;
+		} else if (matches("\\X\\")) {
+			if (position + 4 >= end) {
+				throw new TokenizeException("Incomplete \\X\\ escape");
+			}
+			stringBuilder.append((char) readHex(position + 3, 2));
+			position += 5;
+		} else {
+			stringBuilder.append('\\');
+			position++;
+		}
+	}
+
+	private void readUtf8() throws TokenizeException {
+		int b = buffer[position] & 0xFF;
+		int length;
+		int codePoint;
+		if (b >= 0xF0) {
+			length = 4;
+			codePoint = b & 0x07;
+		} else if (b >= 0xE0) {
+			length = 3;
+			codePoint = b & 0x0F;
+		} else if (b >= 0xC0) {
+			length = 2;
+			codePoint = b & 0x1F;
+		} else {
+			stringBuilder.append('\uFFFD');
+			position++;
+			return;
+		}
+		if (position + length > end) {
+			throw new TokenizeException("Invalid UTF-8 sequence");
+		}
+		for (int i = 1; i < length; i++) {
+			codePoint = (codePoint << 6) | (buffer[position + i] & 0x3F);
+		}
+		stringBuilder.appendCodePoint(codePoint);
+		position += length;
+	}
+
+	private int readHex(int start, int length) throws TokenizeException {
+		int value = 0;
+		for (int i = start; i < start + length; i++) {
+			int digit = Character.digit(buffer[i], 16);
+			if (digit == -1) {
+				throw new TokenizeException("Invalid hex character '" + (char) buffer[i] + "'");
+			}
+			value = (value << 4) | digit;
+		}
+		return value;
+	}
+
+	private boolean matches(String text) {
+		if (position + text.length() > end) {
+			return false;
+		}
+		for (int i = 0; i < text.length(); i++) {
+			if (buffer[position + i] != text.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Skips one value of any kind, including nested aggregates and typed values
+	 */
+	public void skipValue() throws TokenizeException {
+		char c = peek();
+		if (c == '\'') {
+			skipString();
+		} else if (c == '(') {
+			position++;
+			if (!nextIs(')')) {
+				do {
+					skipValue();
+				} while (readSeparator());
+			} else {
+				position++;
+			}
+		} else if (c == '.') {
+			readEnum();
+		} else if (c == '#') {
+			readExpressId();
+		} else if (c == '$' || c == '*') {
+			position++;
+		} else if (isNameStart(c)) {
+			readName();
+			skipValue();
+		} else {
+			while (position < end && buffer[position] != ',' && buffer[position] != ')') {
+				position++;
+			}
+		}
+	}
+
+	/**
+	 * Reads a ',' or the closing ')' of an aggregate or parameter list
+	 *
+	 * @return true when a comma was read (more values follow), false when the
+	 *         list was closed
+	 */
+	public boolean readSeparator() throws TokenizeException {
+		char c = peek();
+		if (c == ',') {
+			position++;
+			return true;
+		} else if (c == ')') {
+			position++;
+			return false;
+		}
+		throw new TokenizeException("',' or ')' expected at " + this);
+	}
+
+	public static boolean isNameStart(char c) {
+		return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == '_';
+	}
+
+	private static boolean isNameChar(byte b) {
+		return (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') || b == '_' || b == '-';
+	}
+
+	@Override
+	public String toString() {
+		int length = Math.min(end - position, 100);
+		return new String(buffer, position, Math.max(0, length), Charsets.UTF_8);
+	}
+
+	/**
+	 * Small open addressing hash table that maps byte sequences to (upper
+	 * case) Strings, so the same name is only decoded once
+	 */
+	private static class NameTable {
+		private byte[][] keys = new byte[1024][];
+		private String[] values = new String[1024];
+		private int size;
+
+		public String get(byte[] buffer, int start, int end) {
+			int hash = 1;
+			for (int i = start; i < end; i++) {
+				hash = 31 * hash + (buffer[i] & 0xDF);
+			}
+			int mask = keys.length - 1;
+			int index = (hash ^ (hash >>> 16)) & mask;
+			while (keys[index] != null) {
+				if (equals(keys[index], buffer, start, end)) {
+					return values[index];
+				}
+				index = (index + 1) & mask;
+			}
+			byte[] key = Arrays.copyOfRange(buffer, start, end);
+			String value = new String(key, Charsets.ISO_8859_1).toUpperCase();
+			keys[index] = key;
+			values[index] = value;
+			if (++size > keys.length / 2) {
+				grow();
+			}
+			return value;
+		}
+
+		private static boolean equals(byte[] key, byte[] buffer, int start, int end) {
+			if (key.length != end - start) {
+				return false;
+			}
+			for (int i = 0; i < key.length; i++) {
+				if (key[i] != buffer[start + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void grow() {
+			byte[][] oldKeys = keys;
+			String[] oldValues = values;
+			keys = new byte[oldKeys.length * 2][];
+			values = new String[oldValues.length * 2];
+			size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != null) {
+					put(oldKeys[i], oldValues[i]);
+				}
+			}
+		}
+
+		private void put(byte[] key, String value) {
+			int hash = 1;
+			for (byte b : key) {
+				hash = 31 * hash + (b & 0xDF);
+			}
+			int mask = keys.length - 1;
+			int index = (hash ^ (hash >>> 16)) & mask;
+			while (keys[index] != null) {
+				index = (index + 1) & mask;
+			}
+			keys[index] = key;
+			values[index] = value;
+			size++;
+		}
+	}
+}
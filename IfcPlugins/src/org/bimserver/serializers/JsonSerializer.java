@@ -73,7 +73,8 @@ public class JsonSerializer extends IfcSerializer {
 						} else {
 							firstObject = false;
 						}
-						if (((IdEObjectImpl) object).getLoadingState() != State.LOADED) {
+						State loadingState = ((IdEObjectImpl) object).getLoadingState();
+						if (loadingState != State.LOADED && loadingState != State.PROJECTED) {
 							out.write("{");
 							out.write("\"__oid\":" + object.getOid() + ",");
 							out.write("\"__type\":\"" + object.eClass().getName() + "\",");
@@ -83,7 +84,8 @@ public class JsonSerializer extends IfcSerializer {
 							out.write("{");
 							out.write("\"__oid\":" + object.getOid() + ",");
 							out.write("\"__type\":\"" + object.eClass().getName() + "\",");
-							out.write("\"__state\":\"LOADED\"");
+							// Features outside the projection of a projected object are written as if they are empty
+							out.write("\"__state\":\"" + loadingState.name() + "\"");
 							for (EStructuralFeature eStructuralFeature : object.eClass().getEAllStructuralFeatures()) {
 								if (eStructuralFeature.getEAnnotation("nolazyload") == null && eStructuralFeature.getEAnnotation("hidden") == null) {
 									if (eStructuralFeature instanceof EReference) {
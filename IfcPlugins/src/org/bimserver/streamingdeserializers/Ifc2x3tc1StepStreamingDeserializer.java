@@ -1,6 +1,10 @@
-//package org.bimserver.streamingdeserializers;
-//
-//public class Ifc2x3tc1StepStreamingDeserializer extends IfcStepStreamingDeserializer {
-//	public Ifc2x3tc1StepStreamingDeserializer() {
-//	}
-//}
+package org.bimserver.streamingdeserializers;
+
+import org.bimserver.emf.Schema;
+
+public class Ifc2x3tc1StepStreamingDeserializer extends IfcStepStreamingDeserializer {
+
+	public Ifc2x3tc1StepStreamingDeserializer(Schema schema) {
+		super(schema);
+	}
+}
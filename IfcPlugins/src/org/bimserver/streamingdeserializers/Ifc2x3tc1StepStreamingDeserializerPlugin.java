@@ -1,21 +1,38 @@
-//package org.bimserver.streamingdeserializers;
-//
-//import org.bimserver.plugins.PluginConfiguration;
-//import org.bimserver.plugins.streamingdeserializers.StreamingDeserializer;
-//
-//public class Ifc2x3tc1StepStreamingDeserializerPlugin extends IfcStepStreamingDeserializerPlugin {
-//	@Override
-//	public StreamingDeserializer createDeserializer(PluginConfiguration pluginConfiguration) {
-//		return new Ifc2x3tc1StepStreamingDeserializer();
-//	}
-//
-//	@Override
-//	public String getDescription() {
-//		return "Ifc2x3tc1 Step Streaming Deserializer";
-//	}
-//
-//	@Override
-//	public String getDefaultName() {
-//		return "Ifc2x3tc1 Step Streaming Deserializer";
-//	}
-//}
\ No newline at end of file
+package org.bimserver.streamingdeserializers;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.bimserver.emf.Schema;
+import org.bimserver.ifc.step.deserializer.Ifc2x3tc1StepDeserializerPlugin;
+import org.bimserver.plugins.PluginConfiguration;
+import org.bimserver.plugins.streamingdeserializers.StreamingDeserializer;
+
+public class Ifc2x3tc1StepStreamingDeserializerPlugin extends IfcStepStreamingDeserializerPlugin {
+	@Override
+	public StreamingDeserializer createDeserializer(PluginConfiguration pluginConfiguration) {
+		return new Ifc2x3tc1StepStreamingDeserializer(Schema.IFC2X3TC1);
+	}
+
+	@Override
+	public Set<Schema> getSupportedSchemas() {
+		Set<Schema> set = new HashSet<>();
+		set.add(Schema.IFC2X3TC1);
+		return set;
+	}
+
+	@Override
+	public String getDeserializerPluginClassName() {
+		return Ifc2x3tc1StepDeserializerPlugin.class.getName();
+	}
+
+	@Override
+	public String getDescription() {
+		return "Ifc2x3tc1 Step Streaming Deserializer";
+	}
+
+	@Override
+	public String getDefaultName() {
+		return "Ifc2x3tc1 Step Streaming Deserializer";
+	}
+}
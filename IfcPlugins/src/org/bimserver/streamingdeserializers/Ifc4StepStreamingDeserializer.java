@@ -1,5 +1,10 @@
-//package org.bimserver.streamingdeserializers;
-//
-//public class Ifc4StepStreamingDeserializer extends IfcStepStreamingDeserializer {
-//
-//}
+package org.bimserver.streamingdeserializers;
+
+import org.bimserver.emf.Schema;
+
+public class Ifc4StepStreamingDeserializer extends IfcStepStreamingDeserializer {
+
+	public Ifc4StepStreamingDeserializer(Schema schema) {
+		super(schema);
+	}
+}
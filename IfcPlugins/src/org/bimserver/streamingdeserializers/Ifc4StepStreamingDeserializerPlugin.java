@@ -1,21 +1,38 @@
-//package org.bimserver.streamingdeserializers;
-//
-//import org.bimserver.plugins.PluginConfiguration;
-//import org.bimserver.plugins.streamingdeserializers.StreamingDeserializer;
-//
-//public class Ifc4StepStreamingDeserializerPlugin extends IfcStepStreamingDeserializerPlugin {
-//	@Override
-//	public StreamingDeserializer createDeserializer(PluginConfiguration pluginConfiguration) {
-//		return new Ifc4StepStreamingDeserializer();
-//	}
-//
-//	@Override
-//	public String getDescription() {
-//		return "Ifc4 Step Streaming Deserializer";
-//	}
-//
-//	@Override
-//	public String getDefaultName() {
-//		return "Ifc4 Step Streaming Deserializer";
-//	}
-//}
+package org.bimserver.streamingdeserializers;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.bimserver.emf.Schema;
+import org.bimserver.ifc.step.deserializer.Ifc4StepDeserializerPlugin;
+import org.bimserver.plugins.PluginConfiguration;
+import org.bimserver.plugins.streamingdeserializers.StreamingDeserializer;
+
+public class Ifc4StepStreamingDeserializerPlugin extends IfcStepStreamingDeserializerPlugin {
+	@Override
+	public StreamingDeserializer createDeserializer(PluginConfiguration pluginConfiguration) {
+		return new Ifc4StepStreamingDeserializer(Schema.IFC4);
+	}
+
+	@Override
+	public Set<Schema> getSupportedSchemas() {
+		Set<Schema> set = new HashSet<>();
+		set.add(Schema.IFC4);
+		return set;
+	}
+
+	@Override
+	public String getDeserializerPluginClassName() {
+		return Ifc4StepDeserializerPlugin.class.getName();
+	}
+
+	@Override
+	public String getDescription() {
+		return "Ifc4 Step Streaming Deserializer";
+	}
+
+	@Override
+	public String getDefaultName() {
+		return "Ifc4 Step Streaming Deserializer";
+	}
+}
@@ -24,6 +24,11 @@ public abstract class IfcStepStreamingDeserializerPlugin implements StreamingDes
 		return null;
 	}
 
+	@Override
+	public boolean canHandleExtension(String extension) {
+		return extension.equalsIgnoreCase("ifc") || extension.equalsIgnoreCase("ifczip");
+	}
+
 	@Override
 	public boolean isInitialized() {
 		return initialized;
@@ -13,18 +13,22 @@ import org.bimserver.plugins.schema.SchemaPlugin;
 import org.bimserver.plugins.serializers.Serializer;
 import org.bimserver.plugins.serializers.SerializerPlugin;
 
+import fi.ni.ExpressReader;
+
 public class IfcToRdfPlugin implements SerializerPlugin {
 
 	private boolean initialized;
-	private File schemaFile;
+	private RdfSchemaMapping schemaMapping;
 
 	@Override
 	public void init(PluginManager pluginManager) throws PluginException {
 		SchemaPlugin schemaPlugin = pluginManager.getFirstSchemaPlugin("ifc2x3tc1", true);
-		schemaFile = schemaPlugin.getExpressSchemaFile();
+		File schemaFile = schemaPlugin.getExpressSchemaFile();
 		if (schemaFile == null) {
 			throw new RenderEngineException("No schema file");
 		}
+		// Parsed once, shared by all serializers
+		schemaMapping = new RdfSchemaMapping(new ExpressReader(schemaFile.getAbsolutePath()));
 		initialized = true;
 	}
 
@@ -55,7 +59,7 @@ public class IfcToRdfPlugin implements SerializerPlugin {
 
 	@Override
 	public Serializer createSerializer(PluginConfiguration plugin) {
-		return new IfcToRdfSerializer(schemaFile);
+		return new IfcToRdfSerializer(schemaMapping);
 	}
 
 	@Override
@@ -1,53 +1,176 @@
 package org.bimserver.serializers.ifctordf;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.sql.SQLException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
 
+import org.bimserver.emf.IdEObject;
 import org.bimserver.plugins.serializers.EmfSerializer;
-import org.bimserver.plugins.serializers.Serializer;
 import org.bimserver.plugins.serializers.SerializerException;
-import org.bimserver.plugins.serializers.SerializerPlugin;
+import org.bimserver.serializers.ifctordf.RdfSchemaMapping.RdfProperty;
+import org.eclipse.emf.common.util.Enumerator;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EStructuralFeature;
 
-import fi.ni.ExpressReader;
-import fi.ni.IFC_ClassModel;
+import com.google.common.base.Charsets;
 
+import fi.ni.rdf.Namespace;
+
+/**
+ * Writes the model as Turtle, object by object, straight from the EMF model.
+ * The output follows IFC_ClassModel.listRDF (which needed the model written
+ * to STEP and parsed again).
+ */
 public class IfcToRdfSerializer extends EmfSerializer {
 
-	private File expressFile;
+	private static final String WRAPPED_VALUE = "wrappedValue";
+	private final RdfSchemaMapping schemaMapping;
+	private String subjectPrefix;
 
 	@Override
 	public void reset() {
 	}
 
-	public IfcToRdfSerializer(File expressFile) {
-		this.expressFile = expressFile;
+	public IfcToRdfSerializer(RdfSchemaMapping schemaMapping) {
+		this.schemaMapping = schemaMapping;
 	}
 	
 	@Override
 	protected boolean write(OutputStream outputStream) throws SerializerException {
-		// Quite inefficient, first write the model to IFC (byte buffer), then call the IfcToRdf code
-
-		SerializerPlugin serializerPlugin = getPluginManager().getSerializerPlugin("org.bimserver.ifc.step.serializer.Ifc2x3tc1StepSerializerPlugin", true);
-		Serializer serializer = serializerPlugin.createSerializer(null);
-		serializer.init(getModel(), null, getPluginManager(), null, getPackageMetaData(), true);
-		ByteArrayOutputStream outputStream2 = new ByteArrayOutputStream();
-		serializer.writeToOutputStream(outputStream2);
-		InputStream inputStream = new ByteArrayInputStream(outputStream2.toByteArray());
-		String fileName = "test.ifc";
-		ExpressReader er = new ExpressReader(expressFile.getAbsolutePath());
-		IFC_ClassModel model = new IFC_ClassModel(fileName, inputStream, er.getEntities(), er.getTypes(), "model name");
+		String modelName = getProjectInfo() == null || getProjectInfo().getName() == null ? "model" : getProjectInfo().getName().replaceAll("[^A-Za-z0-9_]", "_");
+		subjectPrefix = "instances:" + modelName + "_iref_";
 		try {
-			model.listRDF(outputStream, "ifc", null);
+			Writer out = new BufferedWriter(new OutputStreamWriter(outputStream, Charsets.UTF_8));
+			out.write("@prefix : <ifc>.\n");
+			out.write("@prefix instances: <http://drum.cs.hut.fi/instances#>. \n");
+			out.write("@prefix owl: <" + Namespace.OWL + "> .\n");
+			out.write("@prefix ifc: <" + Namespace.IFC + "> .\n");
+			out.write("@prefix xsd: <" + Namespace.XSD + "> .\n");
+			out.write("\n");
+			for (IdEObject object : getModel().getValues()) {
+				EClass eClass = object.eClass();
+				// Wrapped values are written inline where they are used
+				if (eClass.getEAnnotation("hidden") == null && eClass.getEAnnotation("wrapped") == null && schemaMapping.isEntity(eClass)) {
+					writeObject(out, object);
+				}
+			}
+			out.flush();
 		} catch (IOException e) {
 			throw new SerializerException(e);
-		} catch (SQLException e) {
-			throw new SerializerException(e);
 		}
 		return false;
 	}
-}
\ No newline at end of file
+
+	private void writeObject(Writer out, IdEObject object) throws IOException {
+		String subject = getSubject(object);
+		out.write(subject);
+		out.write(" a ifc:");
+		out.write(object.eClass().getName());
+		out.write(".\n");
+		out.write(subject);
+		out.write(" ifc:line_number  \"");
+		out.write(subject.substring(subjectPrefix.length()));
+		out.write("\"^^xsd:integer.\n");
+		for (RdfProperty property : schemaMapping.getProperties(object.eClass())) {
+			EStructuralFeature feature = property.getFeature();
+			if (feature.isUnsettable() && !object.eIsSet(feature)) {
+				continue;
+			}
+			Object value = object.eGet(feature);
+			if (value == null) {
+				continue;
+			}
+			if (feature.isMany()) {
+				List<?> list = (List<?>) value;
+				if (list.isEmpty()) {
+					continue;
+				}
+				if (property.isSet()) {
+					for (Object item : list) {
+						writeTriple(out, subject, property, item, "decimal");
+					}
+				} else {
+					out.write(subject);
+					out.write(" ");
+					out.write(property.getPredicate());
+					out.write("  (\n");
+					for (Object item : list) {
+						// As listRDF, doubles are xsd:double in lists and xsd:decimal elsewhere
+						writeValue(out, item, "double");
+						out.write("\n");
+					}
+					out.write(").\n");
+				}
+			} else {
+				writeTriple(out, subject, property, value, "decimal");
+			}
+		}
+	}
+
+	private void writeTriple(Writer out, String subject, RdfProperty property, Object value, String doubleType) throws IOException {
+		if (value instanceof Enumerator && "NULL".equals(((Enumerator) value).getName())) {
+			return;
+		}
+		out.write(subject);
+		out.write(" ");
+		out.write(property.getPredicate());
+		out.write(" ");
+		writeValue(out, value, doubleType);
+		out.write(".\n");
+	}
+
+	private void writeValue(Writer out, Object value, String doubleType) throws IOException {
+		if (value instanceof IdEObject) {
+			IdEObject idEObject = (IdEObject) value;
+			EStructuralFeature wrappedValue = idEObject.eClass().getEStructuralFeature(WRAPPED_VALUE);
+			if (idEObject.eClass().getEAnnotation("wrapped") != null && wrappedValue != null) {
+				writeValue(out, idEObject.eGet(wrappedValue), doubleType);
+			} else {
+				out.write(getSubject(idEObject));
+			}
+		} else if (value instanceof Double || value instanceof Float) {
+			writeLiteral(out, value.toString(), doubleType);
+		} else if (value instanceof Integer || value instanceof Long) {
+			writeLiteral(out, value.toString(), "integer");
+		} else if (value instanceof Boolean) {
+			writeLiteral(out, value.toString(), "boolean");
+		} else if (value instanceof Enumerator) {
+			writeLiteral(out, ((Enumerator) value).getName(), "string");
+		} else {
+			writeLiteral(out, value.toString(), "string");
+		}
+	}
+
+	private void writeLiteral(Writer out, String value, String type) throws IOException {
+		out.write(" \"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				out.write("\\\"");
+				break;
+			case '\\':
+				out.write("\\\\");
+				break;
+			case '\n':
+				out.write("\\n");
+				break;
+			case '\r':
+				out.write("\\r");
+				break;
+			default:
+				out.write(c);
+			}
+		}
+		out.write("\"^^xsd:");
+		out.write(type);
+	}
+
+	private String getSubject(IdEObject object) {
+		int expressId = getExpressId(object);
+		return subjectPrefix + (expressId == -1 ? object.getOid() : expressId);
+	}
+}
@@ -0,0 +1,104 @@
+package org.bimserver.serializers.ifctordf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EStructuralFeature;
+
+import fi.ni.ExpressReader;
+import fi.ni.vo.AttributeVO;
+import fi.ni.vo.EntityVO;
+import fi.ni.vo.InverseVO;
+
+/**
+ * The EXPRESS schema as needed for RDF output: which features of an EClass
+ * become which predicates, in schema order. The schema is parsed once per
+ * plugin, the properties of an EClass are looked up on first use and shared by
+ * all serializers.
+ */
+public class RdfSchemaMapping {
+	private static final List<RdfProperty> NO_PROPERTIES = Collections.emptyList();
+	private final Map<String, EntityVO> entities;
+	private final Map<EClass, List<RdfProperty>> properties = new ConcurrentHashMap<EClass, List<RdfProperty>>();
+
+	public RdfSchemaMapping(ExpressReader expressReader) {
+		this.entities = expressReader.getEntities();
+	}
+
+	public boolean isEntity(EClass eClass) {
+		return entities.containsKey(ExpressReader.formatClassName(eClass.getName()));
+	}
+
+	/**
+	 * @return The explicit attributes followed by the inverse attributes, empty
+	 *         for classes that are not an entity in the schema
+	 */
+	public List<RdfProperty> getProperties(EClass eClass) {
+		List<RdfProperty> result = properties.get(eClass);
+		if (result == null) {
+			result = createProperties(eClass);
+			properties.put(eClass, result);
+		}
+		return result;
+	}
+
+	private List<RdfProperty> createProperties(EClass eClass) {
+		EntityVO entity = entities.get(ExpressReader.formatClassName(eClass.getName()));
+		if (entity == null) {
+			return NO_PROPERTIES;
+		}
+		// The reader starts attribute names with a lower case letter, EMF uses the names of the schema
+		Map<String, EStructuralFeature> features = new HashMap<String, EStructuralFeature>();
+		for (EStructuralFeature feature : eClass.getEAllStructuralFeatures()) {
+			features.put(feature.getName().toLowerCase(), feature);
+		}
+		List<RdfProperty> result = new ArrayList<RdfProperty>();
+		for (AttributeVO attribute : entity.getDerived_attribute_list()) {
+			EStructuralFeature feature = features.get(attribute.getName().toLowerCase());
+			if (feature != null) {
+				// A LIST is also marked as set by the reader
+				result.add(new RdfProperty(feature, ExpressReader.formatProperty(attribute.getName()), attribute.isSet() && !attribute.isList()));
+			}
+		}
+		for (InverseVO inverse : entity.getDerived_inverse_list()) {
+			EStructuralFeature feature = features.get(inverse.getName().toLowerCase());
+			if (feature != null) {
+				result.add(new RdfProperty(feature, ExpressReader.formatProperty(inverse.getName()), false));
+			}
+		}
+		return result;
+	}
+
+	public static class RdfProperty {
+		private final EStructuralFeature feature;
+		private final String predicate;
+		private final boolean set;
+
+		public RdfProperty(EStructuralFeature feature, String name, boolean set) {
+			this.feature = feature;
+			this.predicate = "ifc:" + name;
+			this.set = set;
+		}
+
+		public EStructuralFeature getFeature() {
+			return feature;
+		}
+
+		public String getPredicate() {
+			return predicate;
+		}
+
+		/**
+		 * Values of a SET are written as one triple each, values of a LIST as
+		 * an RDF collection
+		 */
+		public boolean isSet() {
+			return set;
+		}
+	}
+}
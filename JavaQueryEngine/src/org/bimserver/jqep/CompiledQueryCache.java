@@ -0,0 +1,175 @@
+package org.bimserver.jqep;
+
+/******************************************************************************
+ * Copyright (C) 2009-2012  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.Diagnostic;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.bimserver.plugins.VirtualClassLoader;
+import org.bimserver.plugins.VirtualFile;
+import org.bimserver.plugins.VirtualFileManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.hash.Hashing;
+
+/**
+ * Compiled query classes of one plugin, keyed by the SHA-256 of the class path
+ * and the source code, so running the same query again only creates a new
+ * instance. Compilation runs on a small pool of its own, concurrent requests
+ * for the same code wait for the same compilation. The pool bounds the number
+ * of compilations that run at the same time, it does not free the requesting
+ * thread: QueryEngine.query returns the result of the query, so that thread
+ * waits until the class is compiled.
+ *
+ * Each class has its own VirtualClassLoader. The least recently used classes
+ * are evicted, their class loader (and the classes it defined) can be unloaded
+ * as soon as no running query uses it anymore. Failed compilations are not
+ * kept.
+ */
+public class CompiledQueryCache {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CompiledQueryCache.class);
+	private static final int COMPILER_THREADS = 2;
+	private final ClassLoader classLoader;
+	private final JavaFileManager pluginFileManager;
+	private final Cache<String, Future<Class<? extends QueryInterface>>> cache;
+	private final ExecutorService executor;
+
+	public CompiledQueryCache(ClassLoader classLoader, JavaFileManager pluginFileManager, int maxSize) {
+		this.classLoader = classLoader;
+		this.pluginFileManager = pluginFileManager;
+		this.cache = CacheBuilder.newBuilder().maximumSize(maxSize).removalListener(new RemovalListener<String, Future<Class<? extends QueryInterface>>>() {
+			@Override
+			public void onRemoval(RemovalNotification<String, Future<Class<? extends QueryInterface>>> notification) {
+				LOGGER.debug("Query class " + notification.getKey() + " removed (" + notification.getCause() + ")");
+			}
+		}).build();
+		this.executor = Executors.newFixedThreadPool(COMPILER_THREADS, new ThreadFactory() {
+			private final AtomicInteger counter = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "QueryCompiler-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Returns the cached class, or compiles it and waits for the compilation
+	 * to finish
+	 */
+	public Class<? extends QueryInterface> getQueryClass(final String code, final String libPath) throws CompileException {
+		final String key = Hashing.sha256().newHasher().putString(libPath, Charsets.UTF_8).putByte((byte) 0).putString(code, Charsets.UTF_8).hash().toString();
+		Future<Class<? extends QueryInterface>> future;
+		try {
+			future = cache.get(key, new Callable<Future<Class<? extends QueryInterface>>>() {
+				@Override
+				public Future<Class<? extends QueryInterface>> call() {
+					return executor.submit(new Callable<Class<? extends QueryInterface>>() {
+						@Override
+						public Class<? extends QueryInterface> call() throws CompileException {
+							return compile(code, libPath);
+						}
+					});
+				}
+			});
+		} catch (ExecutionException e) {
+			throw new CompileException(e);
+		}
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CompileException(e);
+		} catch (ExecutionException e) {
+			cache.asMap().remove(key, future);
+			if (e.getCause() instanceof CompileException) {
+				throw (CompileException) e.getCause();
+			}
+			throw new CompileException(e);
+		}
+	}
+
+	/**
+	 * Stops the compiler threads, compilations that are running still finish
+	 */
+	public void close() {
+		executor.shutdown();
+	}
+
+	private Class<? extends QueryInterface> compile(String code, String libPath) throws CompileException {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			throw new CompileException("JDK needed for compile tasks");
+		}
+		VirtualFile baseDir = new VirtualFile();
+		VirtualFile file = baseDir.createFile("org" + File.separator + "bimserver" + File.separator + "jqep" + File.separator + "Query.java");
+		file.setStringContent(code);
+		VirtualFileManager myFileManager = new VirtualFileManager(pluginFileManager, classLoader, baseDir);
+
+		List<VirtualFile> compilationUnits = baseDir.getAllJavaFileObjects();
+
+		List<String> options = new ArrayList<String>();
+		options.add("-cp");
+		options.add(libPath);
+
+		long start = System.nanoTime();
+		DiagnosticCollector<JavaFileObject> diagnosticsCollector = new DiagnosticCollector<JavaFileObject>();
+		compiler.getTask(null, myFileManager, diagnosticsCollector, options, null, compilationUnits).call();
+		List<Diagnostic<? extends JavaFileObject>> diagnostics = diagnosticsCollector.getDiagnostics();
+		for (Diagnostic<? extends JavaFileObject> d : diagnostics) {
+			if (d.getKind() == Kind.ERROR) {
+				throw new CompileException(d.getMessage(Locale.ENGLISH));
+			} else if (d.getKind() == Kind.WARNING) {
+				throw new CompileException(d.getMessage(Locale.ENGLISH));
+			}
+		}
+		VirtualClassLoader loader = new VirtualClassLoader(classLoader, baseDir);
+		try {
+			Class<? extends QueryInterface> queryClass = loader.loadClass("org.bimserver.jqep.Query").asSubclass(QueryInterface.class);
+			LOGGER.debug("Query compiled in " + ((System.nanoTime() - start) / 1000000) + " ms");
+			return queryClass;
+		} catch (Exception e) {
+			throw new CompileException(e);
+		}
+	}
+}
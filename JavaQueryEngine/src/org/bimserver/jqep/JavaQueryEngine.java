@@ -1,25 +1,11 @@
 package org.bimserver.jqep;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Locale;
-
-import javax.tools.Diagnostic;
-import javax.tools.Diagnostic.Kind;
-import javax.tools.DiagnosticCollector;
-import javax.tools.JavaCompiler;
-import javax.tools.JavaFileManager;
-import javax.tools.JavaFileObject;
-import javax.tools.ToolProvider;
 
 import org.bimserver.emf.IfcModelInterface;
 import org.bimserver.ifc.IfcModel;
 import org.bimserver.plugins.ModelHelper;
 import org.bimserver.plugins.Reporter;
-import org.bimserver.plugins.VirtualClassLoader;
-import org.bimserver.plugins.VirtualFile;
-import org.bimserver.plugins.VirtualFileManager;
 import org.bimserver.plugins.queryengine.QueryEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,13 +14,10 @@ public class JavaQueryEngine implements QueryEngine {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(JavaQueryEngine.class);
 	private static String libPath = System.getProperty("java.class.path");
-	private final ClassLoader classLoader;
-	private final JavaFileManager pluginFileManager;
+	private final CompiledQueryCache compiledQueryCache;
 
-	public JavaQueryEngine(ClassLoader classLoader, JavaFileManager pluginFileManager) {
-		this.classLoader = classLoader;
-		this.pluginFileManager = pluginFileManager;
-		pluginFileManager = ToolProvider.getSystemJavaCompiler().getStandardFileManager(null, null, null);
+	public JavaQueryEngine(CompiledQueryCache compiledQueryCache) {
+		this.compiledQueryCache = compiledQueryCache;
 	}
 
 	@Override
@@ -62,53 +45,11 @@ public class JavaQueryEngine implements QueryEngine {
 		LOGGER.debug("libPath: " + libPath);
 	}
 	
-	private void getJavaFiles(List<VirtualFile> fileList, VirtualFile baseDir) {
-		for (VirtualFile f : baseDir.listFiles()) {
-			if (f.isDirectory()) {
-				getJavaFiles(fileList, f);
-			} else {
-				if (f.getName().endsWith(".java")) {
-					fileList.add(f);
-				}
-			}
-		}
-	}
-
 	private QueryInterface createQueryInterface(String code) throws CompileException {
-		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-		if (compiler == null) {
-			throw new CompileException("JDK needed for compile tasks");
-		}
-		VirtualFile baseDir = new VirtualFile();
-		VirtualFile file = baseDir.createFile("org" + File.separator + "bimserver" + File.separator + "jqep" + File.separator + "Query.java");
-		file.setStringContent(code);
-		VirtualFileManager myFileManager = new VirtualFileManager(pluginFileManager, classLoader, baseDir);
-
-		List<VirtualFile> fileList = new ArrayList<VirtualFile>();
-		getJavaFiles(fileList, baseDir);
-		List<VirtualFile> compilationUnits = baseDir.getAllJavaFileObjects();
-
-		List<String> options = new ArrayList<String>();
-		options.add("-cp");
-		options.add(libPath);
-//		options.add("-target");
-//		options.add("7");
-
-		DiagnosticCollector<JavaFileObject> diagnosticsCollector = new DiagnosticCollector<JavaFileObject>();
-		compiler.getTask(null, myFileManager, diagnosticsCollector, options, null, compilationUnits).call();
-		List<Diagnostic<? extends JavaFileObject>> diagnostics = diagnosticsCollector.getDiagnostics();
-		for (Diagnostic<? extends JavaFileObject> d : diagnostics) {
-			if (d.getKind() == Kind.ERROR) {
-				throw new CompileException(d.getMessage(Locale.ENGLISH));
-			} else if (d.getKind() == Kind.WARNING) {
-				throw new CompileException(d.getMessage(Locale.ENGLISH));
-			}
-		}
-		VirtualClassLoader loader = new VirtualClassLoader(classLoader, baseDir);
+		Class<? extends QueryInterface> queryClass = compiledQueryCache.getQueryClass(code, libPath);
 		try {
-			Class<?> loadClass = loader.loadClass("org.bimserver.jqep.Query");
-			QueryInterface newInstance = (QueryInterface) loadClass.newInstance();
-			return newInstance;
+			// A new instance per query, fields of a query never leak into the next run
+			return queryClass.newInstance();
 		} catch (Exception e) {
 			throw new CompileException(e);
 		}
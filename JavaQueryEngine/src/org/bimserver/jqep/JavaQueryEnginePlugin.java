@@ -1,5 +1,6 @@
 package org.bimserver.jqep;
 
+import java.io.Closeable;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -15,14 +16,18 @@ import org.bimserver.plugins.queryengine.QueryEnginePlugin;
 
 import com.google.common.base.Charsets;
 
-public class JavaQueryEnginePlugin implements QueryEnginePlugin {
+public class JavaQueryEnginePlugin implements QueryEnginePlugin, Closeable {
+	private static final int MAX_CACHED_QUERIES = 64;
 	private boolean initialized = false;
 	private final Map<String, String> examples = new LinkedHashMap<String, String>();
 	private PluginManager pluginManager;
+	private CompiledQueryCache compiledQueryCache;
 
 	@Override
 	public void init(PluginManager pluginManager) throws PluginException {
 		this.pluginManager = pluginManager;
+		PluginContext pluginContext = pluginManager.getPluginContext(this);
+		compiledQueryCache = new CompiledQueryCache(pluginContext.getClassLoader(), pluginContext.getFileManager(), MAX_CACHED_QUERIES);
 		initialized = true;
 		initExamples(pluginManager);
 	}
@@ -61,8 +66,14 @@ public class JavaQueryEnginePlugin implements QueryEnginePlugin {
 
 	@Override
 	public QueryEngine getQueryEngine(PluginConfiguration pluginConfiguration) {
-		PluginContext pluginContext = pluginManager.getPluginContext(this);
-		return new JavaQueryEngine(pluginContext.getClassLoader(), pluginContext.getFileManager());
+		return new JavaQueryEngine(compiledQueryCache);
+	}
+
+	@Override
+	public void close() {
+		if (compiledQueryCache != null) {
+			compiledQueryCache.close();
+		}
 	}
 
 	@Override
@@ -1,5 +1,25 @@
 package org.bimserver.database;
 
-public interface DatabaseSessionInterface {
+import org.bimserver.emf.OidProvider;
+import org.bimserver.shared.Record;
+import org.eclipse.emf.ecore.EClass;
 
+public interface DatabaseSessionInterface extends OidProvider<Long> {
+
+	EClass getEClassForOid(long oid);
+
+	/**
+	 * Writes a new record directly to the underlying store, all references in the record must already have an oid
+	 */
+	void save(Record record, int pid, int rid) throws BimserverDatabaseException;
+
+	/**
+	 * @return The record as it has been written with save, or null when not found
+	 */
+	Record getRecord(long oid, int pid, int rid) throws BimserverDatabaseException;
+
+	/**
+	 * Overwrites a record that has earlier been written with save
+	 */
+	void update(Record record, int pid, int rid) throws BimserverDatabaseException;
 }
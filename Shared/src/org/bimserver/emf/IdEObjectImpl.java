@@ -26,7 +26,9 @@ import org.eclipse.emf.ecore.impl.EStoreEObjectImpl;
 public class IdEObjectImpl extends EStoreEObjectImpl implements IdEObject {
 
 	public static enum State {
-		NO_LAZY_LOADING, TO_BE_LOADED, LOADING, LOADED, OPPOSITE_SETTING
+		NO_LAZY_LOADING, TO_BE_LOADED, LOADING, LOADED, OPPOSITE_SETTING,
+		// Only the features of a projection are decoded, the object is not lazy loaded and not cached
+		PROJECTED
 	}
 
 	private long oid = -1;
@@ -36,6 +38,8 @@ public class IdEObjectImpl extends EStoreEObjectImpl implements IdEObject {
 	private IfcModelInterface model;
 	private State loadingState = State.NO_LAZY_LOADING;
 	private QueryInterface queryInterface;
+	// Feature values, for EStores that keep them in the object (see CompactServerEStore)
+	private Object[] storeValues;
 
 	public IdEObjectImpl() {
 		eSetStore(new DefaultBimServerEStore());
@@ -107,7 +111,9 @@ public class IdEObjectImpl extends EStoreEObjectImpl implements IdEObject {
 	public void loadExplicit() {
 		setLoadingState(State.LOADING);
 		internalLoad();
-		setLoadingState(State.LOADED);
+		if (loadingState != State.PROJECTED) {
+			setLoadingState(State.LOADED);
+		}
 	}
 
 	private void internalLoad() {
@@ -166,4 +172,18 @@ public class IdEObjectImpl extends EStoreEObjectImpl implements IdEObject {
 	public State getLoadingState() {
 		return loadingState;
 	}
+
+	@Override
+	protected boolean eIsCaching() {
+		// Values the store keeps in this object (see CompactServerEStore) are not cached a second time, that copy would stay on the heap when they are spilled
+		return storeValues == null;
+	}
+
+	public Object[] getStoreValues() {
+		return storeValues;
+	}
+
+	public void setStoreValues(Object[] storeValues) {
+		this.storeValues = storeValues;
+	}
 }
\ No newline at end of file
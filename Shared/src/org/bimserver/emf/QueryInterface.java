@@ -33,6 +33,13 @@ public interface QueryInterface {
 	boolean shouldFollowReference(EClass originalQueryClass, EClass eClass, EStructuralFeature feature);
 
 	boolean shouldIncludeClass(EClass eClass);
+
+	/**
+	 * @return The index (in getEAllStructuralFeatures) of the last feature of
+	 *         a record of the given class that has to be decoded, the rest of
+	 *         the record is not read at all
+	 */
+	int getLastFeatureToDecode(EClass eClass);
 	
 	PackageMetaData getPackageMetaData();
 }
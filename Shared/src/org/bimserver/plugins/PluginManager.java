@@ -17,6 +17,7 @@ package org.bimserver.plugins;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *****************************************************************************/
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -38,6 +39,7 @@ import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 
+import org.bimserver.emf.Schema;
 import org.bimserver.models.store.Parameter;
 import org.bimserver.models.store.ServiceDescriptor;
 import org.bimserver.plugins.classloaders.DelegatingClassLoader;
@@ -64,6 +66,7 @@ import org.bimserver.plugins.services.NewExtendedDataOnRevisionHandler;
 import org.bimserver.plugins.services.NewRevisionHandler;
 import org.bimserver.plugins.services.ServicePlugin;
 import org.bimserver.plugins.stillimagerenderer.StillImageRenderPlugin;
+import org.bimserver.plugins.streamingdeserializers.StreamingDeserializerPlugin;
 import org.bimserver.plugins.web.WebModulePlugin;
 import org.bimserver.shared.AuthenticationInfo;
 import org.bimserver.shared.BimServerClientFactory;
@@ -285,6 +288,22 @@ public class PluginManager {
 		return getPlugins(Plugin.class, onlyEnabled);
 	}
 
+	/**
+	 * Closes the plugins that implement Closeable, for example to stop their
+	 * threads, called when the server stops
+	 */
+	public void shutdown() {
+		for (Plugin plugin : getAllPlugins(false)) {
+			if (plugin instanceof Closeable) {
+				try {
+					((Closeable) plugin).close();
+				} catch (IOException e) {
+					LOGGER.error("", e);
+				}
+			}
+		}
+	}
+
 	public PluginContext getPluginContext(Plugin plugin) {
 		for (Set<PluginContext> pluginContexts : implementations.values()) {
 			for (PluginContext pluginContext : pluginContexts) {
@@ -373,6 +392,34 @@ public class PluginManager {
 		return allDeserializerPlugins;
 	}
 
+	public Collection<StreamingDeserializerPlugin> getAllStreamingDeserializerPlugins(boolean onlyEnabled) {
+		return getPlugins(StreamingDeserializerPlugin.class, onlyEnabled);
+	}
+
+	public Collection<StreamingDeserializerPlugin> getAllStreamingDeserializerPlugins(String extension, boolean onlyEnabled) {
+		Collection<StreamingDeserializerPlugin> allStreamingDeserializerPlugins = getAllStreamingDeserializerPlugins(onlyEnabled);
+		Iterator<StreamingDeserializerPlugin> iterator = allStreamingDeserializerPlugins.iterator();
+		while (iterator.hasNext()) {
+			StreamingDeserializerPlugin streamingDeserializerPlugin = iterator.next();
+			if (!streamingDeserializerPlugin.canHandleExtension(extension)) {
+				iterator.remove();
+			}
+		}
+		return allStreamingDeserializerPlugins;
+	}
+
+	/**
+	 * @return The first enabled streaming deserializer that is the counterpart of the given deserializer plugin and can handle the given extension and schema, or null if there is none
+	 */
+	public StreamingDeserializerPlugin getStreamingDeserializerPlugin(String deserializerPluginClassName, String extension, Schema schema) {
+		for (StreamingDeserializerPlugin streamingDeserializerPlugin : getAllStreamingDeserializerPlugins(extension, true)) {
+			if (streamingDeserializerPlugin.getDeserializerPluginClassName().equals(deserializerPluginClassName) && streamingDeserializerPlugin.getSupportedSchemas().contains(schema)) {
+				return streamingDeserializerPlugin;
+			}
+		}
+		return null;
+	}
+
 	public Collection<SchemaPlugin> getAllSchemaPlugins(boolean onlyEnabled) {
 		return getPlugins(SchemaPlugin.class, onlyEnabled);
 	}
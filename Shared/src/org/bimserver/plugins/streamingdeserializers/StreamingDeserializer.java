@@ -1,13 +1,34 @@
 package org.bimserver.plugins.streamingdeserializers;
 
 import java.io.InputStream;
+import java.util.Map;
 
 import org.bimserver.database.DatabaseSessionInterface;
+import org.bimserver.emf.ModelMetaData;
 import org.bimserver.emf.PackageMetaData;
 import org.bimserver.plugins.deserializers.DeserializeException;
+import org.eclipse.emf.ecore.EClass;
 
+/**
+ * A deserializer that does not build an in-memory model, but writes the
+ * objects to the given session as soon as all their references are known
+ */
 public interface StreamingDeserializer {
 
 	void init(PackageMetaData packageMetaData);
-	void read(InputStream inputStream, DatabaseSessionInterface databaseSession, String filename, long size) throws DeserializeException;
-}
\ No newline at end of file
+
+	/**
+	 * @return The amount of objects written
+	 */
+	long read(InputStream inputStream, DatabaseSessionInterface databaseSession, int pid, int rid, String filename, long size) throws DeserializeException;
+
+	/**
+	 * @return Header information and checksum of the last read file
+	 */
+	ModelMetaData getModelMetaData();
+
+	/**
+	 * @return The amount of objects per EClass written during the last read
+	 */
+	Map<EClass, Integer> getSummaryMap();
+}
@@ -1,8 +1,22 @@
 package org.bimserver.plugins.streamingdeserializers;
 
+import java.util.Set;
+
+import org.bimserver.emf.Schema;
 import org.bimserver.plugins.Plugin;
 import org.bimserver.plugins.PluginConfiguration;
 
 public interface StreamingDeserializerPlugin extends Plugin {
 	StreamingDeserializer createDeserializer(PluginConfiguration pluginConfiguration);
+	
+	boolean canHandleExtension(String extension);
+	
+	Set<Schema> getSupportedSchemas();
+
+	/**
+	 * @return The class name of the DeserializerPlugin that reads the same
+	 *         files into a complete model, a checkin with a configuration of
+	 *         that plugin can be streamed by this one
+	 */
+	String getDeserializerPluginClassName();
 }
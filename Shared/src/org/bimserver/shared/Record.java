@@ -1,44 +1,88 @@
 package org.bimserver.shared;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-import org.eclipse.emf.common.util.Enumerator;
 import org.eclipse.emf.ecore.EClass;
 import org.eclipse.emf.ecore.EStructuralFeature;
 
+/**
+ * A lightweight, EMF-free representation of one database record. Used by the
+ * streaming deserializers to pass objects to the database without building an
+ * IfcModel first.
+ *
+ * Values are stored as follows:
+ * - Primitive attributes: the (boxed) value, enums as their Enumerator
+ * - References: the oid (Long) of the referred record
+ * - Wrapped values (embedded types like IfcLabel): a nested Record without an oid
+ * - Aggregates: a List containing any of the above
+ */
 public class Record {
 
-	private EClass eClass;
+	private static final String WRAPPED_VALUE = "wrappedValue";
+	private final EClass eClass;
 	private final Map<EStructuralFeature, Object> values = new HashMap<EStructuralFeature, Object>();
-	private long oid;
+	private long oid = -1;
+	private int waitingReferences;
 
 	public Record(EClass eClass) {
 		this.eClass = eClass;
 	}
 
+	public Record(EClass eClass, long oid) {
+		this.eClass = eClass;
+		this.oid = oid;
+	}
+
 	public void eUnset(EStructuralFeature structuralFeature) {
+		values.remove(structuralFeature);
 	}
 
-	public void eSet(EStructuralFeature doubleStringFeature, String val) {
+	public void eSet(EStructuralFeature structuralFeature, Object value) {
+		if (value == null) {
+			values.remove(structuralFeature);
+		} else {
+			values.put(structuralFeature, value);
+		}
 	}
 
-	public void eSet(EStructuralFeature doubleStringFeature, boolean val) {
+	public Object eGet(EStructuralFeature structuralFeature) {
+		return values.get(structuralFeature);
 	}
 
-	public void eSet(EStructuralFeature doubleStringFeature, Enumerator enumerator) {
+	public boolean eIsSet(EStructuralFeature structuralFeature) {
+		return values.containsKey(structuralFeature);
 	}
-	
+
 	public void setReference(EStructuralFeature eStructuralFeature, long referredOid) {
+		values.put(eStructuralFeature, referredOid);
 	}
 
-	public void setWrapped(EStructuralFeature structuralFeature, EClass eClass, Enumerator enumerator) {
+	public void setWrapped(EStructuralFeature structuralFeature, EClass eClass, Object value) {
+		values.put(structuralFeature, createWrapped(eClass, value));
+	}
+
+	public static Record createWrapped(EClass eClass, Object value) {
+		Record wrapped = new Record(eClass);
+		wrapped.eSet(eClass.getEStructuralFeature(WRAPPED_VALUE), value);
+		return wrapped;
 	}
 
 	@SuppressWarnings("unchecked")
-	public List<Record> getList(EStructuralFeature structuralFeature) {
-		return (List<Record>) values.get(structuralFeature);
+	public List<Object> getList(EStructuralFeature structuralFeature) {
+		List<Object> list = (List<Object>) values.get(structuralFeature);
+		if (list == null) {
+			list = new ArrayList<Object>();
+			values.put(structuralFeature, list);
+		}
+		return list;
+	}
+
+	public Set<EStructuralFeature> getSetFeatures() {
+		return values.keySet();
 	}
 
 	public EClass eClass() {
@@ -48,4 +92,28 @@ public class Record {
 	public long getOid() {
 		return oid;
 	}
+
+	public void setOid(long oid) {
+		this.oid = oid;
+	}
+
+	public void incrementWaitingReferences() {
+		waitingReferences++;
+	}
+
+	/**
+	 * @return Whether all references of this record have been resolved
+	 */
+	public boolean decrementWaitingReferences() {
+		return --waitingReferences == 0;
+	}
+
+	public boolean hasWaitingReferences() {
+		return waitingReferences > 0;
+	}
+
+	@Override
+	public String toString() {
+		return eClass.getName() + " " + oid;
+	}
 }
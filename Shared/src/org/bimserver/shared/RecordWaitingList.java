@@ -46,36 +46,41 @@ public class RecordWaitingList<T> {
 			waitingObjects.put(referenceId, waitingList);
 		}
 		waitingList.add(waitingObject);
+		waitingObject.getRecord().incrementWaitingReferences();
 	}
 	
-	public void updateNode(T expressId, EClass ec, Record otherRecord) throws DeserializeException {
+	/**
+	 * Resolves all references that were waiting for the record with the given expressId
+	 * 
+	 * @return The records that no longer wait for any reference, these can be stored
+	 */
+	public List<Record> updateNode(T expressId, EClass eClass, long oid) throws DeserializeException {
+		List<Record> completed = new ArrayList<Record>();
 		for (RecordWaitingObject waitingObject : waitingObjects.get(expressId)) {
+			if (!((EClass) waitingObject.getStructuralFeature().getEType()).isSuperTypeOf(eClass)) {
+				throw new DeserializeException(waitingObject.getLineNumber(), "Field " + waitingObject.getStructuralFeature().getName() + " of "
+						+ waitingObject.getStructuralFeature().getEContainingClass().getName() + " cannot contain a " + eClass.getName());
+			}
 			if (waitingObject.getStructuralFeature().isMany()) {
-				List<Record> list = waitingObject.getRecord().getList(waitingObject.getStructuralFeature());
-				if (waitingObject instanceof SingleRecordWaitingObject) {
-					list.add(otherRecord);
-				} else {
+				List<Object> list = waitingObject.getRecord().getList(waitingObject.getStructuralFeature());
+				if (waitingObject instanceof RecordListWaitingObject) {
 					RecordListWaitingObject listWaitingObject = (RecordListWaitingObject)waitingObject;
-					if (((EClass) waitingObject.getStructuralFeature().getEType()).isSuperTypeOf(otherRecord.eClass())) {
-						while (list.size() <= listWaitingObject.getIndex()) {
-							list.add(new Record(otherRecord.eClass()));
-						}
-						list.set(listWaitingObject.getIndex(), otherRecord);
-					} else {
-						throw new DeserializeException(waitingObject.getLineNumber(), "Field " + waitingObject.getStructuralFeature().getName() + " of "
-								+ waitingObject.getStructuralFeature().getEContainingClass().getName() + " cannot contain a " + otherRecord.eClass().getName());
+					while (list.size() <= listWaitingObject.getIndex()) {
+						list.add(null);
 					}
-				}
-			} else {
-				if (((EClass) waitingObject.getStructuralFeature().getEType()).isSuperTypeOf(otherRecord.eClass())) {
-					waitingObject.getRecord().setReference(waitingObject.getStructuralFeature(), otherRecord.getOid());
+					list.set(listWaitingObject.getIndex(), oid);
 				} else {
-					throw new DeserializeException(waitingObject.getLineNumber(), "Field " + waitingObject.getStructuralFeature().getName() + " of "
-							+ waitingObject.getStructuralFeature().getEContainingClass().getName() + " cannot contain a " + otherRecord.eClass().getName());
+					list.add(oid);
 				}
+			} else {
+				waitingObject.getRecord().setReference(waitingObject.getStructuralFeature(), oid);
+			}
+			if (waitingObject.getRecord().decrementWaitingReferences()) {
+				completed.add(waitingObject.getRecord());
 			}
 		}
 		waitingObjects.remove(expressId);
+		return completed;
 	}
 
 	public int size() {
@@ -50,35 +50,43 @@ public class WaitingList<T> {
 		waitingList.add(waitingObject);
 	}
 	
-	@SuppressWarnings("unchecked")
 	public void updateNode(T expressId, EClass ec, EObject eObject) throws DeserializeException {
 		for (WaitingObject waitingObject : waitingObjects.get(expressId)) {
-			if (waitingObject.getStructuralFeature().isMany()) {
-				AbstractEList<EObject> list = (AbstractEList<EObject>) waitingObject.getObject().eGet(waitingObject.getStructuralFeature());
-				if (waitingObject instanceof SingleWaitingObject) {
-					list.addUnique(eObject);
-				} else {
-					ListWaitingObject listWaitingObject = (ListWaitingObject)waitingObject;
-					if (((EClass) waitingObject.getStructuralFeature().getEType()).isSuperTypeOf(eObject.eClass())) {
-						while (list.size() <= listWaitingObject.getIndex()) {
-							list.addUnique(ec.getEPackage().getEFactoryInstance().create(eObject.eClass()));
-						}
-						list.setUnique(listWaitingObject.getIndex(), eObject);
-					} else {
-						throw new DeserializeException(waitingObject.getLineNumber(), "Field " + waitingObject.getStructuralFeature().getName() + " of "
-								+ waitingObject.getStructuralFeature().getEContainingClass().getName() + " cannot contain a " + eObject.eClass().getName());
-					}
-				}
+			updateWaitingObject(waitingObject, ec, eObject);
+		}
+		waitingObjects.remove(expressId);
+	}
+
+	/**
+	 * Connects a single waiting object, can also be used directly when the
+	 * referred object is already known
+	 */
+	@SuppressWarnings("unchecked")
+	public void updateWaitingObject(WaitingObject waitingObject, EClass ec, EObject eObject) throws DeserializeException {
+		if (waitingObject.getStructuralFeature().isMany()) {
+			AbstractEList<EObject> list = (AbstractEList<EObject>) waitingObject.getObject().eGet(waitingObject.getStructuralFeature());
+			if (waitingObject instanceof SingleWaitingObject) {
+				list.addUnique(eObject);
 			} else {
+				ListWaitingObject listWaitingObject = (ListWaitingObject)waitingObject;
 				if (((EClass) waitingObject.getStructuralFeature().getEType()).isSuperTypeOf(eObject.eClass())) {
-					waitingObject.getObject().eSet(waitingObject.getStructuralFeature(), eObject);
+					while (list.size() <= listWaitingObject.getIndex()) {
+						list.addUnique(ec.getEPackage().getEFactoryInstance().create(eObject.eClass()));
+					}
+					list.setUnique(listWaitingObject.getIndex(), eObject);
 				} else {
 					throw new DeserializeException(waitingObject.getLineNumber(), "Field " + waitingObject.getStructuralFeature().getName() + " of "
 							+ waitingObject.getStructuralFeature().getEContainingClass().getName() + " cannot contain a " + eObject.eClass().getName());
 				}
 			}
+		} else {
+			if (((EClass) waitingObject.getStructuralFeature().getEType()).isSuperTypeOf(eObject.eClass())) {
+				waitingObject.getObject().eSet(waitingObject.getStructuralFeature(), eObject);
+			} else {
+				throw new DeserializeException(waitingObject.getLineNumber(), "Field " + waitingObject.getStructuralFeature().getName() + " of "
+						+ waitingObject.getStructuralFeature().getEContainingClass().getName() + " cannot contain a " + eObject.eClass().getName());
+			}
 		}
-		waitingObjects.remove(expressId);
 	}
 
 	public int size() {
@@ -0,0 +1,248 @@
+package org.bimserver.servlets;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.FileUtils;
+import org.bimserver.cache.FileInputStreamDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Sends a cached file with DownloadServlet.sendFile to stubbed requests and
+ * checks the status, headers and body of the responses
+ */
+public class TestDownloadServlet {
+	private static final byte[] CONTENT = "0123456789".getBytes(Charsets.UTF_8);
+	private static final byte[] GZIP_CONTENT = "compressed".getBytes(Charsets.UTF_8);
+	private File file;
+	private File gzipFile;
+	private FileInputStreamDataSource dataSource;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("download", ".ifc");
+		gzipFile = File.createTempFile("download", ".ifc.gz");
+		FileUtils.writeByteArrayToFile(file, CONTENT);
+		FileUtils.writeByteArrayToFile(gzipFile, GZIP_CONTENT);
+		dataSource = new FileInputStreamDataSource(file);
+		dataSource.setGzipFile(gzipFile);
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+		gzipFile.delete();
+	}
+
+	@Test
+	public void testWholeFile() throws IOException {
+		StubResponse response = send(new StubRequest());
+		assertEquals(HttpServletResponse.SC_OK, response.status);
+		assertEquals("10", response.headers.get("Content-Length"));
+		assertEquals("bytes", response.headers.get("Accept-Ranges"));
+		assertNull(response.headers.get("Content-Encoding"));
+		assertArrayEquals(CONTENT, response.body.toByteArray());
+	}
+
+	@Test
+	public void testPartialContent() throws IOException {
+		StubResponse response = send(new StubRequest().header("Range", "bytes=2-5"));
+		assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.status);
+		assertEquals("bytes 2-5/10", response.headers.get("Content-Range"));
+		assertEquals("4", response.headers.get("Content-Length"));
+		assertArrayEquals(Arrays.copyOfRange(CONTENT, 2, 6), response.body.toByteArray());
+
+		response = send(new StubRequest().header("Range", "bytes=7-"));
+		assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.status);
+		assertEquals("bytes 7-9/10", response.headers.get("Content-Range"));
+		assertArrayEquals(Arrays.copyOfRange(CONTENT, 7, 10), response.body.toByteArray());
+
+		response = send(new StubRequest().header("Range", "bytes=-3"));
+		assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.status);
+		assertEquals("bytes 7-9/10", response.headers.get("Content-Range"));
+		assertArrayEquals(Arrays.copyOfRange(CONTENT, 7, 10), response.body.toByteArray());
+	}
+
+	@Test
+	public void testRangesServeTheUncompressedFile() throws IOException {
+		StubResponse response = send(new StubRequest().header("Range", "bytes=0-3").header("Accept-Encoding", "gzip"));
+		assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.status);
+		assertNull(response.headers.get("Content-Encoding"));
+		assertArrayEquals(Arrays.copyOfRange(CONTENT, 0, 4), response.body.toByteArray());
+	}
+
+	@Test
+	public void testIfRangeWithOtherETagSendsWholeFile() throws IOException {
+		StubResponse response = send(new StubRequest().header("Range", "bytes=2-5").header("If-Range", "\"other\""));
+		assertEquals(HttpServletResponse.SC_OK, response.status);
+		assertNull(response.headers.get("Content-Range"));
+		assertArrayEquals(CONTENT, response.body.toByteArray());
+
+		String eTag = send(new StubRequest()).headers.get("ETag");
+		response = send(new StubRequest().header("Range", "bytes=2-5").header("If-Range", eTag));
+		assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.status);
+	}
+
+	@Test
+	public void testRangeNotSatisfiable() throws IOException {
+		StubResponse response = send(new StubRequest().header("Range", "bytes=10-"));
+		assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.status);
+		assertEquals("bytes */10", response.headers.get("Content-Range"));
+		assertEquals(0, response.body.size());
+
+		response = send(new StubRequest().header("Range", "bytes=5-2"));
+		assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.status);
+	}
+
+	@Test
+	public void testNotModified() throws IOException {
+		String eTag = send(new StubRequest()).headers.get("ETag");
+		StubResponse response = send(new StubRequest().header("If-None-Match", eTag));
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.status);
+		assertEquals(eTag, response.headers.get("ETag"));
+		assertEquals(0, response.body.size());
+
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, send(new StubRequest().header("If-None-Match", "\"other\", W/" + eTag)).status);
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, send(new StubRequest().header("If-None-Match", "*")).status);
+		assertEquals(HttpServletResponse.SC_OK, send(new StubRequest().header("If-None-Match", "\"other\"")).status);
+
+		// The gzip variant has its own ETag
+		StubResponse gzipResponse = send(new StubRequest().header("Accept-Encoding", "gzip").header("If-None-Match", eTag));
+		assertEquals(HttpServletResponse.SC_OK, gzipResponse.status);
+		assertFalse(eTag.equals(gzipResponse.headers.get("ETag")));
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, send(new StubRequest().header("Accept-Encoding", "gzip").header("If-None-Match", gzipResponse.headers.get("ETag"))).status);
+	}
+
+	@Test
+	public void testGzip() throws IOException {
+		StubResponse response = send(new StubRequest().header("Accept-Encoding", "deflate, gzip"));
+		assertEquals("gzip", response.headers.get("Content-Encoding"));
+		assertEquals("Accept-Encoding", response.headers.get("Vary"));
+		assertArrayEquals(GZIP_CONTENT, response.body.toByteArray());
+
+		response = send(new StubRequest().header("Accept-Encoding", "gzip;q=0"));
+		assertNull(response.headers.get("Content-Encoding"));
+		assertArrayEquals(CONTENT, response.body.toByteArray());
+
+		dataSource.setGzipFile(null);
+		response = send(new StubRequest().header("Accept-Encoding", "gzip"));
+		assertNull(response.headers.get("Content-Encoding"));
+		assertArrayEquals(CONTENT, response.body.toByteArray());
+	}
+
+	@Test
+	public void testAcceptsGzip() {
+		assertFalse(DownloadServlet.acceptsGzip(new StubRequest().create()));
+		assertTrue(DownloadServlet.acceptsGzip(new StubRequest().header("Accept-Encoding", "gzip").create()));
+		assertTrue(DownloadServlet.acceptsGzip(new StubRequest().header("Accept-Encoding", "deflate, GZIP;q=0.5").create()));
+		assertTrue(DownloadServlet.acceptsGzip(new StubRequest().header("Accept-Encoding", "*").create()));
+		assertFalse(DownloadServlet.acceptsGzip(new StubRequest().header("Accept-Encoding", "gzip;q=0").create()));
+		assertFalse(DownloadServlet.acceptsGzip(new StubRequest().header("Accept-Encoding", "gzip; q=0.000").create()));
+		assertFalse(DownloadServlet.acceptsGzip(new StubRequest().header("Accept-Encoding", "identity, *;q=0").create()));
+		assertFalse(DownloadServlet.acceptsGzip(new StubRequest().header("Accept-Encoding", "deflate").create()));
+	}
+
+	private StubResponse send(StubRequest request) throws IOException {
+		StubResponse response = new StubResponse();
+		DownloadServlet.sendFile(request.create(), response.create(), dataSource);
+		return response;
+	}
+
+	private static class StubRequest implements InvocationHandler {
+		private final Map<String, String> headers = new HashMap<String, String>();
+
+		public StubRequest header(String name, String value) {
+			headers.put(name, value);
+			return this;
+		}
+
+		public HttpServletRequest create() {
+			return (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { HttpServletRequest.class }, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			if (method.getName().equals("getHeader")) {
+				return headers.get(args[0]);
+			}
+			throw new UnsupportedOperationException(method.getName());
+		}
+	}
+
+	private static class StubResponse implements InvocationHandler {
+		private final Map<String, String> headers = new HashMap<String, String>();
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		private int status = HttpServletResponse.SC_OK;
+
+		public HttpServletResponse create() {
+			return (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { HttpServletResponse.class }, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			if (method.getName().equals("setHeader")) {
+				headers.put((String) args[0], (String) args[1]);
+				return null;
+			} else if (method.getName().equals("setStatus")) {
+				status = (Integer) args[0];
+				return null;
+			} else if (method.getName().equals("getOutputStream")) {
+				return new ServletOutputStream() {
+					@Override
+					public void write(int b) {
+						body.write(b);
+					}
+
+					@Override
+					public boolean isReady() {
+						return true;
+					}
+
+					@Override
+					public void setWriteListener(WriteListener writeListener) {
+					}
+				};
+			}
+			throw new UnsupportedOperationException(method.getName());
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package org.bimserver.unittests;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bimserver.CompactServerEStore;
+import org.bimserver.ServerEStore;
+import org.bimserver.emf.BimServerEStore;
+import org.bimserver.emf.IdEObjectImpl;
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EDataType;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EcoreFactory;
+import org.eclipse.emf.ecore.EcorePackage;
+
+/**
+ * Compares the map based ServerEStore with the CompactServerEStore: time to
+ * fill and read objects with some double, int, String and list features, and
+ * the heap used to hold them
+ */
+public class PerformanceTestEStore {
+	private static final int OBJECTS = 500000;
+	private static final int RUNS = 5;
+	private final EClass pointClass;
+	private final EAttribute x;
+	private final EAttribute y;
+	private final EAttribute z;
+	private final EAttribute index;
+	private final EAttribute name;
+	private final EReference neighbours;
+
+	public PerformanceTestEStore() {
+		EcoreFactory factory = EcoreFactory.eINSTANCE;
+		EPackage ePackage = factory.createEPackage();
+		ePackage.setName("performancetest");
+		ePackage.setNsURI("performancetest");
+		pointClass = factory.createEClass();
+		pointClass.setName("Point");
+		ePackage.getEClassifiers().add(pointClass);
+		x = createAttribute(pointClass, "x", EcorePackage.eINSTANCE.getEDouble());
+		y = createAttribute(pointClass, "y", EcorePackage.eINSTANCE.getEDouble());
+		z = createAttribute(pointClass, "z", EcorePackage.eINSTANCE.getEDouble());
+		index = createAttribute(pointClass, "index", EcorePackage.eINSTANCE.getEInt());
+		name = createAttribute(pointClass, "name", EcorePackage.eINSTANCE.getEString());
+		neighbours = factory.createEReference();
+		neighbours.setName("neighbours");
+		neighbours.setEType(pointClass);
+		neighbours.setUpperBound(-1);
+		neighbours.setUnique(false);
+		pointClass.getEStructuralFeatures().add(neighbours);
+	}
+
+	private EAttribute createAttribute(EClass eClass, String name, EDataType type) {
+		EAttribute eAttribute = EcoreFactory.eINSTANCE.createEAttribute();
+		eAttribute.setName(name);
+		eAttribute.setEType(type);
+		eClass.getEStructuralFeatures().add(eAttribute);
+		return eAttribute;
+	}
+
+	// Not a @Test, it takes long and needs a large heap, run it by hand with -Xmx2g or more
+	public static void main(String[] args) {
+		new PerformanceTestEStore().performanceTest();
+	}
+
+	public void performanceTest() {
+		for (int i = 0; i < RUNS; i++) {
+			double mapSum = run("ServerEStore", new ServerEStore(null));
+			double compactSum = run("CompactServerEStore", new CompactServerEStore(null));
+			assertEquals(mapSum, compactSum, 0.0001);
+		}
+	}
+
+	private double run(String storeName, BimServerEStore store) {
+		long memoryBefore = usedMemory();
+		long start = System.nanoTime();
+		List<IdEObjectImpl> objects = fill(store);
+		long fillTime = (System.nanoTime() - start) / 1000000;
+
+		start = System.nanoTime();
+		double sum = read(objects);
+		long readTime = (System.nanoTime() - start) / 1000000;
+
+		long memory = usedMemory() - memoryBefore;
+		System.out.println(storeName + ": fill " + fillTime + "ms, read " + readTime + "ms, " + (memory / 1024 / 1024) + "MB for " + objects.size() + " objects");
+		objects.clear();
+		return sum;
+	}
+
+	private List<IdEObjectImpl> fill(BimServerEStore store) {
+		List<IdEObjectImpl> objects = new ArrayList<IdEObjectImpl>(OBJECTS);
+		for (int i = 0; i < OBJECTS; i++) {
+			IdEObjectImpl object = new IdEObjectImpl();
+			object.eSetClass(pointClass);
+			object.eSetStore(store);
+			object.eSet(x, i * 0.5);
+			object.eSet(y, i * 0.25);
+			object.eSet(z, 1.0);
+			object.eSet(index, i);
+			if (i % 10 == 0) {
+				object.eSet(name, "Point " + i);
+			}
+			objects.add(object);
+		}
+		for (int i = 0; i < OBJECTS; i++) {
+			@SuppressWarnings("unchecked")
+			EList<IdEObjectImpl> list = (EList<IdEObjectImpl>) objects.get(i).eGet(neighbours);
+			for (int j = 1; j <= i % 4; j++) {
+				list.add(objects.get((i + j) % OBJECTS));
+			}
+		}
+		return objects;
+	}
+
+	private double read(List<IdEObjectImpl> objects) {
+		double sum = 0;
+		for (IdEObjectImpl object : objects) {
+			sum += (Double) object.eGet(x) + (Double) object.eGet(y) + (Double) object.eGet(z) + (Integer) object.eGet(index);
+			if (object.eIsSet(name)) {
+				sum += ((String) object.eGet(name)).length();
+			}
+			sum += ((EList<?>) object.eGet(neighbours)).size();
+		}
+		return sum;
+	}
+
+	private long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
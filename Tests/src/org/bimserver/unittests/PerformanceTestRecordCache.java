@@ -0,0 +1,121 @@
+package org.bimserver.unittests;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import java.io.File;
+
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
+
+import org.bimserver.BimServer;
+import org.bimserver.BimServerConfig;
+import org.bimserver.LocalDevPluginLoader;
+import org.bimserver.database.Database;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.actions.DownloadDatabaseAction;
+import org.bimserver.interfaces.objects.SDeserializerPluginConfiguration;
+import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.models.log.AccessMethod;
+import org.bimserver.models.store.ServerState;
+import org.bimserver.shared.LocalDevelopmentResourceFetcher;
+import org.bimserver.shared.interfaces.AdminInterface;
+import org.bimserver.shared.interfaces.ServiceInterface;
+import org.bimserver.shared.interfaces.bimsie1.Bimsie1AuthInterface;
+import org.bimserver.tests.TestFile;
+import org.bimserver.webservices.ServiceMap;
+import org.bimserver.webservices.impl.ServiceImpl;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Downloads the same revision repeatedly on an embedded BIMserver, once with
+ * the RecordCache entries of the project invalidated before every download
+ * (Berkeley still has the data in its own cache) and once with them in
+ * place. The difference is what the RecordCache saves: the table scans and
+ * the reads of records outside the revision. Decoding is the same in both.
+ */
+public class PerformanceTestRecordCache {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PerformanceTestRecordCache.class);
+	private static final int DOWNLOADS = 20;
+	private static final int RUNS = 5;
+	private static BimServer bimServer;
+	private static ServiceImpl service;
+	private static SProject project;
+
+	@BeforeClass
+	public static void initClass() throws Exception {
+		BimServerConfig config = new BimServerConfig();
+		config.setHomeDir(new File("home"));
+		config.setResourceFetcher(new LocalDevelopmentResourceFetcher(new File("../")));
+		bimServer = new BimServer(config);
+		LocalDevPluginLoader.loadPlugins(bimServer.getPluginManager(), new File(".."), null);
+		bimServer.start();
+		if (bimServer.getServerInfo().getServerState() == ServerState.NOT_SETUP) {
+			bimServer.getService(AdminInterface.class).setup("http://localhost", "localhost", "no-reply@bimserver.org", "Administrator", "admin@bimserver.org", "admin");
+		}
+		ServiceMap serviceMap = bimServer.getServiceFactory().get(AccessMethod.INTERNAL);
+		String token = serviceMap.get(Bimsie1AuthInterface.class).login("admin@bimserver.org", "admin");
+		serviceMap = bimServer.getServiceFactory().get(token, AccessMethod.INTERNAL);
+		service = (ServiceImpl) serviceMap.get(ServiceInterface.class);
+		project = serviceMap.getBimsie1ServiceInterface().addProject("recordcache " + System.nanoTime(), "ifc2x3tc1");
+		SDeserializerPluginConfiguration deserializer = serviceMap.getBimsie1ServiceInterface().getSuggestedDeserializerForExtension("ifc", project.getOid());
+		File file = TestFile.AC11.getFile();
+		service.checkin(project.getOid(), "recordcache", deserializer.getOid(), file.length(), file.getName(), new DataHandler(new FileDataSource(file)), false, true);
+		project = serviceMap.getBimsie1ServiceInterface().getProjectByPoid(project.getOid());
+	}
+
+	@AfterClass
+	public static void shutdownClass() {
+		bimServer.stop();
+	}
+
+	@Test
+	public void performanceTest() throws Exception {
+		// Warm up Berkeley's cache and the JIT
+		download(false);
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			for (int j = 0; j < DOWNLOADS; j++) {
+				download(true);
+			}
+			long withoutCache = (System.nanoTime() - start) / 1000000;
+
+			start = System.nanoTime();
+			for (int j = 0; j < DOWNLOADS; j++) {
+				download(false);
+			}
+			long withCache = (System.nanoTime() - start) / 1000000;
+			LOGGER.info(DOWNLOADS + " downloads without RecordCache: " + withoutCache + "ms, with RecordCache: " + withCache + "ms");
+		}
+	}
+
+	private void download(boolean invalidate) throws Exception {
+		if (invalidate) {
+			((Database) bimServer.getDatabase()).getRecordCache().invalidate(project.getId());
+		}
+		DatabaseSession session = bimServer.getDatabase().createSession();
+		try {
+			new DownloadDatabaseAction(bimServer, session, AccessMethod.INTERNAL, project.getLastRevisionId(), -1, -1, service.getAuthorization(), null).execute();
+		} finally {
+			session.close();
+		}
+	}
+}
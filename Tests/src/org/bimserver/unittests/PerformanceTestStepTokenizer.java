@@ -0,0 +1,159 @@
+package org.bimserver.unittests;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.bimserver.ifc.step.deserializer.StepRecordReader;
+import org.bimserver.ifc.step.deserializer.StepTokenizer;
+import org.bimserver.utils.TokenizeException;
+import org.bimserver.utils.Tokenizer;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Compares reading STEP statements with the existing String based Tokenizer
+ * (readLine, per line checksum, zoomIn/readSingleQuoted/readComma) with the
+ * byte based StepRecordReader/StepTokenizer on the same generated data. Only
+ * statements the Tokenizer can read are generated: quoted strings, $ and
+ * lists of quoted strings.
+ */
+public class PerformanceTestStepTokenizer {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PerformanceTestStepTokenizer.class);
+	private static final int RECORDS = 200000;
+	private static final int RUNS = 5;
+
+	@Test
+	public void performanceTest() throws IOException, NoSuchAlgorithmException, TokenizeException {
+		byte[] data = generate();
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			int oldCount = readWithTokenizer(data);
+			long oldTime = (System.nanoTime() - start) / 1000000;
+
+			start = System.nanoTime();
+			int newCount = readWithStepTokenizer(data);
+			long newTime = (System.nanoTime() - start) / 1000000;
+
+			assertEquals(oldCount, newCount);
+			LOGGER.info("Tokenizer: " + oldTime + "ms, StepTokenizer: " + newTime + "ms (" + (data.length / 1024 / 1024) + "MB)");
+		}
+	}
+
+	private byte[] generate() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("ISO-10303-21;\nHEADER;\nFILE_SCHEMA(('IFC2X3'));\nENDSEC;\nDATA;\n");
+		for (int i = 1; i <= RECORDS; i++) {
+			if (i % 2 == 0) {
+				sb.append("#" + i + "=IFCPROPERTYSINGLEVALUE('Name " + i + "','It''s a description',$,$);\n");
+			} else {
+				sb.append("#" + i + "=IFCPROPERTYENUMERATION('Enumeration " + i + "',('First','Second','Third " + i + "'),$);\n");
+			}
+		}
+		sb.append("ENDSEC;\nEND-ISO-10303-21;\n");
+		return sb.toString().getBytes(Charsets.UTF_8);
+	}
+
+	/**
+	 * @return The amount of values read
+	 */
+	private int readWithTokenizer(byte[] data) throws IOException, NoSuchAlgorithmException, TokenizeException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), Charsets.UTF_8));
+		MessageDigest md = MessageDigest.getInstance("MD5");
+		int count = 0;
+		String line = reader.readLine();
+		while (line != null) {
+			byte[] bytes = line.getBytes(Charsets.UTF_8);
+			md.update(bytes, 0, bytes.length);
+			line = line.trim();
+			if (line.startsWith("#")) {
+				Tokenizer tokenizer = new Tokenizer(line.substring(line.indexOf("("), line.lastIndexOf(";")));
+				tokenizer.zoomIn("(", ")");
+				while (!tokenizer.isEmpty()) {
+					if (tokenizer.nextIsDollar()) {
+						tokenizer.readDollar();
+						count++;
+					} else if (tokenizer.startsWith("(")) {
+						tokenizer.zoomIn("(", ")");
+						while (!tokenizer.isEmpty()) {
+							tokenizer.readSingleQuoted();
+							count++;
+							if (tokenizer.nextIsAComma()) {
+								tokenizer.readComma();
+							}
+						}
+						tokenizer.zoomOut();
+					} else {
+						tokenizer.readSingleQuoted();
+						count++;
+					}
+					if (tokenizer.nextIsAComma()) {
+						tokenizer.readComma();
+					}
+				}
+				tokenizer.zoomOut();
+			}
+			line = reader.readLine();
+		}
+		return count;
+	}
+
+	/**
+	 * @return The amount of values read
+	 */
+	private int readWithStepTokenizer(byte[] data) throws IOException, NoSuchAlgorithmException, TokenizeException {
+		StepRecordReader reader = new StepRecordReader(new ByteArrayInputStream(data));
+		StepTokenizer tokenizer = new StepTokenizer();
+		int count = 0;
+		while (reader.next()) {
+			tokenizer.reset(reader.getBuffer(), reader.getStart(), reader.getEnd());
+			if (tokenizer.nextIs('#')) {
+				tokenizer.readExpressId();
+				tokenizer.expect('=');
+				tokenizer.readName();
+				tokenizer.expect('(');
+				do {
+					if (tokenizer.nextIs('$')) {
+						tokenizer.skipValue();
+						count++;
+					} else if (tokenizer.nextIs('(')) {
+						tokenizer.expect('(');
+						do {
+							tokenizer.readString();
+							count++;
+						} while (tokenizer.readSeparator());
+					} else {
+						tokenizer.readString();
+						count++;
+					}
+				} while (tokenizer.readSeparator());
+			}
+		}
+		return count;
+	}
+}
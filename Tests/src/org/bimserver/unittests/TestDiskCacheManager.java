@@ -0,0 +1,186 @@
+package org.bimserver.unittests;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.bimserver.cache.DiskCacheManager;
+import org.bimserver.cache.DiskCacheOutputStream;
+import org.bimserver.longaction.DownloadParameters;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Caches downloads in a temporary directory and checks what is evicted,
+ * what survives a restart and how a cache without index is taken over. The
+ * manager is created without a BimServer, caching is always enabled.
+ */
+public class TestDiskCacheManager {
+	private static final byte[] CONTENT = "ISO-10303-21;\nHEADER;\nENDSEC;\nDATA;\nENDSEC;\nEND-ISO-10303-21;\n".getBytes(Charsets.UTF_8);
+	private File cacheDir;
+
+	@Before
+	public void setUp() throws IOException {
+		cacheDir = File.createTempFile("cache", "");
+		cacheDir.delete();
+		cacheDir.mkdir();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(cacheDir);
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		long entrySize = getEntrySize();
+		DiskCacheManager diskCacheManager = createDiskCacheManager(entrySize * 5 / 2);
+		DownloadParameters a = createDownloadParameters(1);
+		DownloadParameters b = createDownloadParameters(2);
+		DownloadParameters c = createDownloadParameters(3);
+		cache(diskCacheManager, a);
+		cache(diskCacheManager, b);
+		assertNotNull(diskCacheManager.get(a));
+		cache(diskCacheManager, c);
+
+		// b is the least recently used
+		assertEquals(1, diskCacheManager.getEvictions());
+		assertEquals(2, diskCacheManager.getNrFiles());
+		assertEquals(entrySize * 2, diskCacheManager.getSizeInBytes());
+		assertTrue(diskCacheManager.contains(a));
+		assertFalse(diskCacheManager.contains(b));
+		assertTrue(diskCacheManager.contains(c));
+		assertFalse(new File(cacheDir, b.getId()).exists());
+		assertFalse(new File(cacheDir, b.getId() + DiskCacheManager.GZIP_EXTENSION).exists());
+
+		// The most recently used file is kept, even when it is too big on its own
+		diskCacheManager = createDiskCacheManager(1);
+		assertEquals(1, diskCacheManager.getNrFiles());
+		assertTrue(diskCacheManager.contains(c));
+	}
+
+	@Test
+	public void testIndexPersistence() throws IOException {
+		DiskCacheManager diskCacheManager = createDiskCacheManager(0);
+		DownloadParameters a = createDownloadParameters(1);
+		DownloadParameters b = createDownloadParameters(2);
+		cache(diskCacheManager, a);
+		cache(diskCacheManager, b);
+		diskCacheManager.get(a);
+		diskCacheManager.get(a);
+		long sizeInBytes = diskCacheManager.getSizeInBytes();
+		diskCacheManager.close();
+
+		// Left behind by a crash
+		FileUtils.writeByteArrayToFile(new File(cacheDir, "123"), CONTENT);
+
+		diskCacheManager = createDiskCacheManager(0);
+		assertEquals(2, diskCacheManager.getNrFiles());
+		assertEquals(sizeInBytes, diskCacheManager.getSizeInBytes());
+		assertFalse(new File(cacheDir, "123").exists());
+		String[] lines = diskCacheManager.getReport().split("\n");
+		String[] lastUsed = lines[lines.length - 1].split("\t");
+		assertEquals(a.getId(), lastUsed[0]);
+		assertEquals("2", lastUsed[3]);
+		assertEquals("1", lastUsed[4]);
+		assertEquals("a.ifc", lastUsed[5]);
+
+		diskCacheManager.invalidate(Collections.singleton(2L));
+		assertFalse(diskCacheManager.contains(b));
+		assertFalse(new File(cacheDir, b.getId()).exists());
+		diskCacheManager = createDiskCacheManager(0);
+		assertEquals(1, diskCacheManager.getNrFiles());
+		assertTrue(diskCacheManager.contains(a));
+	}
+
+	@Test
+	public void testSeedIndex() throws IOException {
+		FileUtils.writeByteArrayToFile(new File(cacheDir, "111"), CONTENT);
+		FileUtils.writeByteArrayToFile(new File(cacheDir, "111" + DiskCacheManager.GZIP_EXTENSION), CONTENT);
+		// Was being written when the server stopped
+		FileUtils.writeByteArrayToFile(new File(cacheDir, "222"), CONTENT);
+		FileUtils.writeByteArrayToFile(new File(cacheDir, "222" + DiskCacheManager.GZIP_EXTENSION + ".tmp"), CONTENT);
+		// Gzip variant without the file itself
+		FileUtils.writeByteArrayToFile(new File(cacheDir, "333" + DiskCacheManager.GZIP_EXTENSION), CONTENT);
+
+		DiskCacheManager diskCacheManager = createDiskCacheManager(0);
+		assertEquals(1, diskCacheManager.getNrFiles());
+		assertEquals(CONTENT.length * 2, diskCacheManager.getSizeInBytes());
+		assertTrue(new File(cacheDir, "111").exists());
+		assertFalse(new File(cacheDir, "222").exists());
+		assertFalse(new File(cacheDir, "222" + DiskCacheManager.GZIP_EXTENSION + ".tmp").exists());
+		assertFalse(new File(cacheDir, "333" + DiskCacheManager.GZIP_EXTENSION).exists());
+		assertTrue(new File(cacheDir, "index").exists());
+
+		// The revisions of the rebuilt entry are not known, also not after a restart, so any invalidate removes it
+		diskCacheManager = createDiskCacheManager(0);
+		assertEquals(1, diskCacheManager.getNrFiles());
+		diskCacheManager.invalidate(Collections.singleton(999L));
+		assertEquals(0, diskCacheManager.getNrFiles());
+		assertEquals(0, diskCacheManager.getSizeInBytes());
+		assertFalse(new File(cacheDir, "111").exists());
+		assertFalse(new File(cacheDir, "111" + DiskCacheManager.GZIP_EXTENSION).exists());
+	}
+
+	private long getEntrySize() throws IOException {
+		DownloadParameters downloadParameters = createDownloadParameters(0);
+		DiskCacheManager diskCacheManager = createDiskCacheManager(0);
+		cache(diskCacheManager, downloadParameters);
+		long entrySize = diskCacheManager.getSizeInBytes();
+		diskCacheManager.cleanup();
+		return entrySize;
+	}
+
+	private void cache(DiskCacheManager diskCacheManager, DownloadParameters downloadParameters) throws IOException {
+		DiskCacheOutputStream diskCacheOutputStream = diskCacheManager.startCaching(downloadParameters);
+		diskCacheOutputStream.write(CONTENT);
+		diskCacheOutputStream.close();
+	}
+
+	private DiskCacheManager createDiskCacheManager(long maxSizeInBytes) {
+		return new DiskCacheManager(null, cacheDir, maxSizeInBytes) {
+			@Override
+			public boolean isEnabled() {
+				return true;
+			}
+		};
+	}
+
+	private DownloadParameters createDownloadParameters(final long roid) {
+		DownloadParameters downloadParameters = new DownloadParameters(null) {
+			@Override
+			public String getFileName() {
+				return (char) ('a' + roid - 1) + ".ifc";
+			}
+		};
+		downloadParameters.setRoid(roid);
+		downloadParameters.setSerializerOid(1);
+		return downloadParameters;
+	}
+}
@@ -0,0 +1,350 @@
+package org.bimserver.unittests;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bimserver.CompactServerEStore;
+import org.bimserver.LocalDevPluginLoader;
+import org.bimserver.ObjectSpill;
+import org.bimserver.ServerEStore;
+import org.bimserver.emf.BimServerEStore;
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IdEObjectImpl;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.emf.MetaDataManager;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.ifc.IfcModel;
+import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Package;
+import org.bimserver.models.ifc2x3tc1.IfcBuildingStorey;
+import org.bimserver.models.ifc2x3tc1.IfcCartesianPoint;
+import org.bimserver.models.ifc2x3tc1.IfcLabel;
+import org.bimserver.models.ifc2x3tc1.IfcLocalPlacement;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySingleValue;
+import org.bimserver.models.ifc2x3tc1.IfcRelContainedInSpatialStructure;
+import org.bimserver.models.ifc2x3tc1.IfcSIPrefix;
+import org.bimserver.models.ifc2x3tc1.IfcSIUnit;
+import org.bimserver.models.ifc2x3tc1.IfcSIUnitName;
+import org.bimserver.models.ifc2x3tc1.IfcUnitEnum;
+import org.bimserver.models.ifc2x3tc1.IfcWall;
+import org.bimserver.plugins.PluginConfiguration;
+import org.bimserver.plugins.PluginManager;
+import org.bimserver.plugins.deserializers.Deserializer;
+import org.bimserver.plugins.deserializers.DeserializerPlugin;
+import org.bimserver.plugins.serializers.Serializer;
+import org.bimserver.plugins.serializers.SerializerPlugin;
+import org.bimserver.tests.TestFile;
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.EcoreFactory;
+import org.eclipse.emf.ecore.EcorePackage;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+/**
+ * CompactServerEStore has to behave like ServerEStore: the same features set,
+ * the same serializer output, also after its values have been spilled and
+ * read back
+ */
+public class TestEStores {
+	@Test
+	public void testListReadIsSet() {
+		EcoreFactory factory = EcoreFactory.eINSTANCE;
+		EPackage ePackage = factory.createEPackage();
+		ePackage.setName("estoretest");
+		ePackage.setNsURI("estoretest");
+		EClass eClass = factory.createEClass();
+		eClass.setName("Thing");
+		ePackage.getEClassifiers().add(eClass);
+		EAttribute name = factory.createEAttribute();
+		name.setName("name");
+		name.setEType(EcorePackage.eINSTANCE.getEString());
+		eClass.getEStructuralFeatures().add(name);
+		EAttribute size = factory.createEAttribute();
+		size.setName("size");
+		size.setEType(EcorePackage.eINSTANCE.getEDouble());
+		eClass.getEStructuralFeatures().add(size);
+		EReference parts = factory.createEReference();
+		parts.setName("parts");
+		parts.setEType(eClass);
+		parts.setUpperBound(-1);
+		eClass.getEStructuralFeatures().add(parts);
+
+		List<BimServerEStore> stores = new ArrayList<BimServerEStore>();
+		stores.add(new ServerEStore(null));
+		stores.add(new CompactServerEStore(null));
+		List<IdEObjectImpl> objects = new ArrayList<IdEObjectImpl>();
+		for (BimServerEStore store : stores) {
+			IdEObjectImpl object = new IdEObjectImpl();
+			object.eSetClass(eClass);
+			object.eSetStore(store);
+			object.setLoaded();
+			objects.add(object);
+		}
+		assertSameIsSet(objects.get(0), objects.get(1));
+		for (IdEObjectImpl object : objects) {
+			assertNull(object.eGet(name));
+			assertEquals(0, ((EList<?>) object.eGet(parts)).size());
+		}
+		assertSameIsSet(objects.get(0), objects.get(1));
+		for (IdEObjectImpl object : objects) {
+			object.eSet(name, null);
+			object.eSet(size, 1.5);
+			object.eUnset(parts);
+		}
+		assertSameIsSet(objects.get(0), objects.get(1));
+		for (IdEObjectImpl object : objects) {
+			object.eUnset(name);
+			assertEquals(false, ((EList<?>) object.eGet(parts)).contains(object));
+		}
+		assertSameIsSet(objects.get(0), objects.get(1));
+	}
+
+	@Test
+	public void testSameAsServerEStore() throws Exception {
+		PluginManager pluginManager = LocalDevPluginLoader.createPluginManager(new File("home"));
+		MetaDataManager metaDataManager = new MetaDataManager(pluginManager);
+		PackageMetaData packageMetaData = metaDataManager.getEPackage("ifc2x3tc1");
+		DeserializerPlugin deserializerPlugin = pluginManager.getFirstDeserializer("ifc", true);
+		Deserializer deserializer = deserializerPlugin.createDeserializer(new PluginConfiguration());
+		deserializer.init(packageMetaData);
+		IfcModelInterface source = deserializer.read(TestFile.AC11.getFile());
+
+		IfcModel mapModel = copy(source, packageMetaData, new ServerEStore(null));
+		IfcModel compactModel = copy(source, packageMetaData, new CompactServerEStore(null));
+		File spillDirectory = new File("output/spill");
+		spillDirectory.mkdirs();
+		// A budget of 1 byte spills every object that can be spilled
+		CompactServerEStore spillStore = new CompactServerEStore(null, spillDirectory, 1);
+		IfcModel spilledModel = copy(source, packageMetaData, spillStore);
+		for (IdEObject object : spilledModel.getValues()) {
+			spillStore.getObjectSpill().register((IdEObjectImpl) object);
+		}
+
+		assertSameIsSet(mapModel, compactModel);
+		assertSameIsSet(mapModel, spilledModel);
+		String expected = serialize(pluginManager, packageMetaData, mapModel);
+		assertEquals(expected, serialize(pluginManager, packageMetaData, compactModel));
+		assertEquals(expected, serialize(pluginManager, packageMetaData, spilledModel));
+
+		// Reading all features creates the lists in ServerEStore, after that they are set
+		readAll(mapModel);
+		readAll(compactModel);
+		readAll(spilledModel);
+		assertSameIsSet(mapModel, compactModel);
+		assertSameIsSet(mapModel, spilledModel);
+	}
+
+	@Test
+	public void testSpillRoundTrip() {
+		File spillDirectory = new File("output/spill");
+		spillDirectory.mkdirs();
+		CompactServerEStore store = new CompactServerEStore(null, spillDirectory, 1);
+		Ifc2x3tc1Package ifc = Ifc2x3tc1Package.eINSTANCE;
+
+		// References, with opposites
+		IfcWall wall = (IfcWall) create(ifc.getIfcWall(), store);
+		wall.setGlobalId("2O2Fr$t4X7Zf8NOew3FNr2");
+		wall.setName("Wall");
+		IfcLocalPlacement placement = (IfcLocalPlacement) create(ifc.getIfcLocalPlacement(), store);
+		wall.setObjectPlacement(placement);
+		IfcBuildingStorey storey = (IfcBuildingStorey) create(ifc.getIfcBuildingStorey(), store);
+		storey.setElevation(2.75);
+		IfcRelContainedInSpatialStructure containment = (IfcRelContainedInSpatialStructure) create(ifc.getIfcRelContainedInSpatialStructure(), store);
+		containment.setRelatingStructure(storey);
+		containment.getRelatedElements().add(wall);
+		// Lists of primitives and a primitive int
+		IfcCartesianPoint point = (IfcCartesianPoint) create(ifc.getIfcCartesianPoint(), store);
+		point.getCoordinates().addAll(Arrays.asList(1.0, 2.5, -3.0));
+		point.setDim(3);
+		// Enums
+		IfcSIUnit unit = (IfcSIUnit) create(ifc.getIfcSIUnit(), store);
+		unit.setName(IfcSIUnitName.METRE);
+		unit.setPrefix(IfcSIPrefix.MILLI);
+		unit.setUnitType(IfcUnitEnum.LENGTHUNIT);
+		// Wrapped values
+		IfcPropertySingleValue property = (IfcPropertySingleValue) create(ifc.getIfcPropertySingleValue(), store);
+		property.setName("Material");
+		IfcLabel label = (IfcLabel) create(ifc.getIfcLabel(), store);
+		label.setWrappedValue("Concrete");
+		property.setNominalValue(label);
+
+		List<IdEObjectImpl> objects = Arrays.<IdEObjectImpl> asList((IdEObjectImpl) wall, (IdEObjectImpl) placement, (IdEObjectImpl) storey, (IdEObjectImpl) containment,
+				(IdEObjectImpl) point, (IdEObjectImpl) unit, (IdEObjectImpl) property);
+		ObjectSpill spill = store.getObjectSpill();
+		// With a budget of 1 byte every registration spills the objects registered before it
+		for (IdEObjectImpl object : objects) {
+			spill.register(object);
+		}
+		spill.register(create(ifc.getIfcWall(), store));
+		for (IdEObjectImpl object : objects) {
+			assertNull(object.getStoreValues());
+		}
+
+		assertEquals("2O2Fr$t4X7Zf8NOew3FNr2", wall.getGlobalId());
+		assertEquals("Wall", wall.getName());
+		assertSame(placement, wall.getObjectPlacement());
+		assertSame(storey, containment.getRelatingStructure());
+		assertEquals(1, containment.getRelatedElements().size());
+		assertSame(wall, containment.getRelatedElements().get(0));
+		assertEquals(1, wall.getContainedInStructure().size());
+		assertSame(containment, wall.getContainedInStructure().get(0));
+		assertSame(containment, storey.getContainsElements().get(0));
+		assertEquals(2.75, storey.getElevation(), 0);
+		assertEquals(Arrays.asList(1.0, 2.5, -3.0), point.getCoordinates());
+		assertEquals(3, point.getDim());
+		assertSame(IfcSIUnitName.METRE, unit.getName());
+		assertSame(IfcSIPrefix.MILLI, unit.getPrefix());
+		assertSame(IfcUnitEnum.LENGTHUNIT, unit.getUnitType());
+		assertEquals("Material", property.getName());
+		assertEquals("Concrete", ((IfcLabel) property.getNominalValue()).getWrappedValue());
+
+		// Every read spills the others again, the dead values are collected instead of appended to
+		for (int i = 0; i < 50000; i++) {
+			for (IdEObjectImpl object : objects) {
+				object.eIsSet(object.eClass().getEStructuralFeature(0));
+			}
+		}
+		assertEquals("Wall", wall.getName());
+		assertTrue(spill.getMappedSize() <= 3 * 4 * 1024 * 1024);
+
+		spill.close();
+		assertEquals(0, spill.getMappedSize());
+		// The last object read is still on the heap, the others were spilled when the spill was closed
+		assertEquals("Wall", wall.getName());
+		try {
+			unit.getName();
+			fail("Values of a closed spill can not be read back");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	private IfcModel copy(IfcModelInterface source, PackageMetaData packageMetaData, BimServerEStore store) throws Exception {
+		IfcModel target = new IfcModel(packageMetaData);
+		Map<IdEObject, IdEObject> copies = new HashMap<IdEObject, IdEObject>();
+		for (IdEObject original : source.getValues()) {
+			IdEObjectImpl copy = create(original.eClass(), store);
+			copy.setOid(original.getOid());
+			target.add(original.getOid(), copy);
+			copies.put(original, copy);
+		}
+		for (IdEObject original : source.getValues()) {
+			copyFeatures(original, copies.get(original), store, copies);
+		}
+		return target;
+	}
+
+	private IdEObjectImpl create(EClass eClass, BimServerEStore store) {
+		IdEObjectImpl object = (IdEObjectImpl) eClass.getEPackage().getEFactoryInstance().create(eClass);
+		object.eSetStore(store);
+		object.setLoaded();
+		return object;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void copyFeatures(IdEObject original, IdEObject copy, BimServerEStore store, Map<IdEObject, IdEObject> copies) {
+		for (EStructuralFeature feature : original.eClass().getEAllStructuralFeatures()) {
+			if (!original.eIsSet(feature)) {
+				continue;
+			}
+			Object value = original.eGet(feature);
+			if (feature.isMany()) {
+				EList<Object> list = (EList<Object>) copy.eGet(feature);
+				for (Object element : (EList<?>) value) {
+					list.add(copyValue(element, store, copies));
+				}
+			} else {
+				copy.eSet(feature, copyValue(value, store, copies));
+			}
+		}
+	}
+
+	private Object copyValue(Object value, BimServerEStore store, Map<IdEObject, IdEObject> copies) {
+		if (value instanceof IdEObject) {
+			IdEObject original = (IdEObject) value;
+			if (original.eClass().getEAnnotation("wrapped") != null) {
+				IdEObjectImpl wrapped = create(original.eClass(), store);
+				copyFeatures(original, wrapped, store, copies);
+				return wrapped;
+			}
+			IdEObject copy = copies.get(original);
+			assertNotNull(copy);
+			return copy;
+		}
+		return value;
+	}
+
+	private void readAll(IfcModelInterface model) {
+		for (IdEObject object : model.getValues()) {
+			for (EStructuralFeature feature : object.eClass().getEAllStructuralFeatures()) {
+				Object value = object.eGet(feature);
+				if (value instanceof EList) {
+					((EList<?>) value).size();
+				}
+			}
+		}
+	}
+
+	private void assertSameIsSet(IfcModelInterface expected, IfcModelInterface actual) {
+		assertEquals(expected.size(), actual.size());
+		for (IdEObject object : expected.getValues()) {
+			assertSameIsSet(object, actual.get(object.getOid()));
+		}
+	}
+
+	private void assertSameIsSet(IdEObject expected, IdEObject actual) {
+		for (EStructuralFeature feature : expected.eClass().getEAllStructuralFeatures()) {
+			assertEquals(expected.eClass().getName() + "." + feature.getName(), expected.eIsSet(feature), actual.eIsSet(feature));
+		}
+	}
+
+	private String serialize(PluginManager pluginManager, PackageMetaData packageMetaData, IfcModelInterface model) throws Exception {
+		SerializerPlugin serializerPlugin = pluginManager.getSerializerPlugin("org.bimserver.ifc.step.serializer.IfcStepSerializerPlugin", true);
+		Serializer serializer = serializerPlugin.createSerializer(new PluginConfiguration());
+		serializer.init(model, null, pluginManager, pluginManager.requireRenderEngine(), packageMetaData, false);
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		serializer.writeToOutputStream(outputStream);
+		StringBuilder result = new StringBuilder();
+		for (String line : new String(outputStream.toByteArray(), Charsets.UTF_8).split("\n")) {
+			// The header has the time of serialization
+			if (!line.startsWith("FILE_NAME")) {
+				result.append(line).append("\n");
+			}
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,211 @@
+package org.bimserver.unittests;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
+
+import org.bimserver.BimServer;
+import org.bimserver.BimServerConfig;
+import org.bimserver.LocalDevPluginLoader;
+import org.bimserver.database.Database;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.IfcRootIndexes;
+import org.bimserver.database.ObjectIdentifier;
+import org.bimserver.database.Query;
+import org.bimserver.database.WriteBatch;
+import org.bimserver.database.WriteBatch.Write;
+import org.bimserver.interfaces.objects.SDataObject;
+import org.bimserver.interfaces.objects.SDeserializerPluginConfiguration;
+import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.models.log.AccessMethod;
+import org.bimserver.models.store.Revision;
+import org.bimserver.models.store.ServerState;
+import org.bimserver.models.store.StorePackage;
+import org.bimserver.shared.LocalDevelopmentResourceFetcher;
+import org.bimserver.shared.interfaces.AdminInterface;
+import org.bimserver.shared.interfaces.ServiceInterface;
+import org.bimserver.shared.interfaces.bimsie1.Bimsie1AuthInterface;
+import org.bimserver.tests.TestFile;
+import org.bimserver.webservices.ServiceMap;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+/**
+ * Checks the keys IfcRootIndexes writes, the lookups on an indexed revision
+ * and the table scan DatabaseSession falls back to for revisions without the
+ * marker. Writes are done in a session that is never committed, so they do
+ * not stay behind in the database of the embedded BIMserver.
+ */
+public class TestIfcRootIndexes {
+	private static final int PID = Integer.MAX_VALUE;
+	private static final int RID = 1;
+	private static BimServer bimServer;
+	private static SProject project;
+	private static List<SDataObject> dataObjects;
+
+	@BeforeClass
+	public static void initClass() throws Exception {
+		BimServerConfig config = new BimServerConfig();
+		config.setHomeDir(new File("home"));
+		config.setResourceFetcher(new LocalDevelopmentResourceFetcher(new File("../")));
+		bimServer = new BimServer(config);
+		LocalDevPluginLoader.loadPlugins(bimServer.getPluginManager(), new File(".."), null);
+		bimServer.start();
+		if (bimServer.getServerInfo().getServerState() == ServerState.NOT_SETUP) {
+			bimServer.getService(AdminInterface.class).setup("http://localhost", "localhost", "no-reply@bimserver.org", "Administrator", "admin@bimserver.org", "admin");
+		}
+		ServiceMap serviceMap = bimServer.getServiceFactory().get(AccessMethod.INTERNAL);
+		String token = serviceMap.get(Bimsie1AuthInterface.class).login("admin@bimserver.org", "admin");
+		serviceMap = bimServer.getServiceFactory().get(token, AccessMethod.INTERNAL);
+		project = serviceMap.getBimsie1ServiceInterface().addProject("ifcrootindexes " + System.nanoTime(), "ifc2x3tc1");
+		SDeserializerPluginConfiguration deserializer = serviceMap.getBimsie1ServiceInterface().getSuggestedDeserializerForExtension("ifc", project.getOid());
+		File file = TestFile.AC11.getFile();
+		serviceMap.get(ServiceInterface.class).checkin(project.getOid(), "ifcrootindexes", deserializer.getOid(), file.length(), file.getName(), new DataHandler(new FileDataSource(file)), false, true);
+		project = serviceMap.getBimsie1ServiceInterface().getProjectByPoid(project.getOid());
+		dataObjects = serviceMap.getBimsie1LowLevelInterface().getDataObjects(project.getLastRevisionId());
+	}
+
+	@AfterClass
+	public static void shutdownClass() {
+		bimServer.stop();
+	}
+
+	@Test
+	public void testKeyEncoding() {
+		IfcRootIndexes ifcRootIndexes = getIfcRootIndexes();
+		WriteBatch writeBatch = new WriteBatch();
+		ifcRootIndexes.index(PID, RID, 12345L, (short) 67, "2O2Fr$t4X7Zf8NOew3FLOH", "Wall", writeBatch);
+		ifcRootIndexes.markIndexed(PID, RID, writeBatch);
+
+		List<Write> guidWrites = writeBatch.getTableWrites().get(IfcRootIndexes.GUID_INDEX_TABLE);
+		assertEquals(2, guidWrites.size());
+		assertArrayEquals(ByteBuffer.allocate(30).putInt(PID).putInt(RID).put("2O2Fr$t4X7Zf8NOew3FLOH".getBytes(Charsets.UTF_8)).array(), guidWrites.get(0).getKey());
+		assertArrayEquals(ByteBuffer.allocate(10).putShort((short) 67).putLong(12345L).array(), guidWrites.get(0).getValue());
+		assertArrayEquals(ByteBuffer.allocate(8).putInt(PID).putInt(RID).array(), guidWrites.get(1).getKey());
+
+		List<Write> nameWrites = writeBatch.getTableWrites().get(IfcRootIndexes.NAME_INDEX_TABLE);
+		assertEquals(1, nameWrites.size());
+		byte[] hash = Hashing.md5().hashString("Wall", Charsets.UTF_8).asBytes();
+		assertArrayEquals(ByteBuffer.allocate(32).putInt(PID).putInt(RID).put(hash).putLong(12345L).array(), nameWrites.get(0).getKey());
+		assertArrayEquals(ByteBuffer.allocate(6).putShort((short) 67).put("Wall".getBytes(Charsets.UTF_8)).array(), nameWrites.get(0).getValue());
+	}
+
+	@Test
+	public void testIndexedLookups() throws Exception {
+		IfcRootIndexes ifcRootIndexes = getIfcRootIndexes();
+		DatabaseSession session = bimServer.getDatabase().createSession();
+		try {
+			assertFalse(ifcRootIndexes.isIndexed(PID, RID, session));
+			WriteBatch writeBatch = new WriteBatch();
+			ifcRootIndexes.index(PID, RID, 1L, (short) 10, "guid1", "Wall", writeBatch);
+			ifcRootIndexes.index(PID, RID, 2L, (short) 10, "guid2", "Wall", writeBatch);
+			ifcRootIndexes.index(PID, RID, 3L, (short) 11, "guid3", "Wall 2", writeBatch);
+			ifcRootIndexes.index(PID, RID + 1, 4L, (short) 10, "guid4", "Wall", writeBatch);
+			ifcRootIndexes.markIndexed(PID, RID, writeBatch);
+			((Database) bimServer.getDatabase()).getKeyValueStore().storeBatch(writeBatch, session);
+
+			assertTrue(ifcRootIndexes.isIndexed(PID, RID, session));
+			assertFalse(ifcRootIndexes.isIndexed(PID, RID + 1, session));
+
+			ObjectIdentifier objectIdentifier = ifcRootIndexes.getOidOfGuid(PID, RID, "guid3", session);
+			assertEquals(3L, objectIdentifier.getOid());
+			assertEquals(11, objectIdentifier.getCid());
+			assertNull(ifcRootIndexes.getOidOfGuid(PID, RID, "guid4", session));
+			assertNull(ifcRootIndexes.getOidOfGuid(PID, RID, "guid", session));
+
+			assertEquals(oids(1L, 2L), oidsOf(ifcRootIndexes.getOidsOfName(PID, RID, "Wall", session)));
+			assertEquals(oids(3L), oidsOf(ifcRootIndexes.getOidsOfName(PID, RID, "Wall 2", session)));
+			assertEquals(oids(4L), oidsOf(ifcRootIndexes.getOidsOfName(PID, RID + 1, "Wall", session)));
+			assertTrue(ifcRootIndexes.getOidsOfName(PID, RID, "Door", session).isEmpty());
+		} finally {
+			session.close();
+		}
+	}
+
+	@Test
+	public void testScanWithoutMarker() throws Exception {
+		SDataObject dataObject = null;
+		for (SDataObject candidate : dataObjects) {
+			if (candidate.getGuid() != null && candidate.getName() != null && !candidate.getName().isEmpty()) {
+				dataObject = candidate;
+				break;
+			}
+		}
+		assertNotNull(dataObject);
+		IfcRootIndexes ifcRootIndexes = getIfcRootIndexes();
+		DatabaseSession session = bimServer.getDatabase().createSession();
+		try {
+			Revision revision = session.get(StorePackage.eINSTANCE.getRevision(), project.getLastRevisionId(), Query.getDefault());
+			int pid = project.getId();
+			int rid = revision.getLastConcreteRevision().getId();
+			assertTrue(ifcRootIndexes.isIndexed(pid, rid, session));
+			ObjectIdentifier indexed = session.getOidOfGuid(project.getSchema(), dataObject.getGuid(), pid, rid);
+			assertEquals(dataObject.getOid(), indexed.getOid());
+			Set<Long> indexedNames = oidsOf(session.getOidsOfName(project.getSchema(), dataObject.getName(), pid, rid));
+			assertTrue(indexedNames.contains(dataObject.getOid()));
+
+			// A revision stored before the indexes existed has no marker
+			((Database) bimServer.getDatabase()).getKeyValueStore().delete(IfcRootIndexes.GUID_INDEX_TABLE, ByteBuffer.allocate(8).putInt(pid).putInt(rid).array(), session);
+			assertFalse(ifcRootIndexes.isIndexed(pid, rid, session));
+			ObjectIdentifier scanned = session.getOidOfGuid(project.getSchema(), dataObject.getGuid(), pid, rid);
+			assertEquals(indexed.getOid(), scanned.getOid());
+			assertEquals(indexed.getCid(), scanned.getCid());
+			assertEquals(indexedNames, oidsOf(session.getOidsOfName(project.getSchema(), dataObject.getName(), pid, rid)));
+		} finally {
+			session.close();
+		}
+	}
+
+	private IfcRootIndexes getIfcRootIndexes() {
+		return ((Database) bimServer.getDatabase()).getIfcRootIndexes();
+	}
+
+	private Set<Long> oids(Long... oids) {
+		Set<Long> result = new HashSet<Long>();
+		for (Long oid : oids) {
+			result.add(oid);
+		}
+		return result;
+	}
+
+	private Set<Long> oidsOf(Set<ObjectIdentifier> objectIdentifiers) {
+		Set<Long> result = new HashSet<Long>();
+		for (ObjectIdentifier objectIdentifier : objectIdentifiers) {
+			result.add(objectIdentifier.getOid());
+		}
+		return result;
+	}
+}
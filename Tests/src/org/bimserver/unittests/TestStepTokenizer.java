@@ -0,0 +1,139 @@
+package org.bimserver.unittests;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+
+import org.bimserver.ifc.step.deserializer.StepRecordReader;
+import org.bimserver.ifc.step.deserializer.StepTokenizer;
+import org.bimserver.utils.TokenizeException;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class TestStepTokenizer {
+
+	private StepTokenizer tokenize(String text) {
+		byte[] bytes = text.getBytes(Charsets.UTF_8);
+		return new StepTokenizer().reset(bytes, 0, bytes.length);
+	}
+
+	@Test
+	public void testEscapes() throws TokenizeException {
+		assertEquals("It's", tokenize("'It''s'").readString());
+		assertEquals("a\\b", tokenize("'a\\\\b'").readString());
+		assertEquals("\u00C4", tokenize("'\\S\\D'").readString());
+		assertEquals("caf\u00E9", tokenize("'caf\\X\\E9'").readString());
+		assertEquals("\u00E9o", tokenize("'\\X2\\00E9006F\\X0\\'").readString());
+		assertEquals("\uD83D\uDE00", tokenize("'\\X4\\0001F600\\X0\\'").readString());
+		assertEquals("\u00E9", tokenize("'\u00E9'").readString());
+	}
+
+	@Test
+	public void testEscapedQuote() throws TokenizeException {
+		// \S\' is an escaped character, not the end of the string
+		StepTokenizer tokenizer = tokenize("'\\S\\'',1)");
+		assertEquals("\u00A7", tokenizer.readString());
+		assertTrue(tokenizer.readSeparator());
+		assertEquals(1, tokenizer.readInt());
+	}
+
+	@Test
+	public void testNumbers() throws TokenizeException {
+		assertEquals(1500.0, tokenize("1.5E3").readDouble(), 0);
+		assertEquals(-0.025, tokenize("-2.5e-2").readDouble(), 0);
+		assertEquals(0.00001, tokenize("1.E-5").readDouble(), 0);
+		assertEquals(3.0, tokenize("+3.").readDouble(), 0);
+		assertEquals(12345678901234567890.5, tokenize("12345678901234567890.5").readDouble(), 0);
+		assertEquals(1E300, tokenize("1.0E300").readDouble(), 0);
+		assertEquals(-42, tokenize("-42").readInt());
+		assertEquals(9223372036854775807L, tokenize("9223372036854775807").readLong());
+	}
+
+	@Test
+	public void testInvalidNumbers() {
+		for (String invalid : new String[] { "1.5E", "1.5", "9223372036854775808", "." }) {
+			try {
+				if (invalid.equals(".")) {
+					tokenize(invalid).readDouble();
+				} else {
+					tokenize(invalid).readLong();
+				}
+				fail(invalid + " should not be accepted");
+			} catch (TokenizeException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void testInvalidNumberFollowedByWhitespace() throws TokenizeException {
+		for (String separator : new String[] { " ", "\t", "\r\n", "\n" }) {
+			StepTokenizer tokenizer = tokenize("1.5" + separator + ",2)");
+			try {
+				tokenizer.readInt();
+				fail("1.5 is not an integer");
+			} catch (TokenizeException e) {
+				assertEquals("1.5", tokenizer.getLastToken());
+			}
+			assertTrue(tokenizer.readSeparator());
+			assertEquals(2, tokenizer.readInt());
+			assertFalse(tokenizer.readSeparator());
+		}
+	}
+
+	@Test
+	public void testComments() throws TokenizeException {
+		StepTokenizer tokenizer = tokenize("/* comment */ #12 /* x */=\n/*/ still a comment */IFCWALL/**/(.ELEMENT.)");
+		assertEquals(12, tokenizer.readExpressId());
+		tokenizer.expect('=');
+		assertEquals("IFCWALL", tokenizer.readName());
+		tokenizer.expect('(');
+		assertEquals("ELEMENT", tokenizer.readEnum());
+		assertFalse(tokenizer.readSeparator());
+		assertTrue(tokenizer.isEmpty());
+	}
+
+	@Test
+	public void testRecordReaderComments() throws IOException, NoSuchAlgorithmException, TokenizeException {
+		String data = "#1=IFCWALL('a;b');\n/*/ ; */#2=IFCWALL($);/* ; *\n/ ; */#3=IFCWALL($);";
+		StepRecordReader reader = new StepRecordReader(new ByteArrayInputStream(data.getBytes(Charsets.UTF_8)));
+		StepTokenizer tokenizer = new StepTokenizer();
+		for (int i = 1; i <= 3; i++) {
+			assertTrue(reader.next());
+			tokenizer.reset(reader.getBuffer(), reader.getStart(), reader.getEnd());
+			assertEquals(i, tokenizer.readExpressId());
+		}
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void testSkipValue() throws TokenizeException {
+		StepTokenizer tokenizer = tokenize("('a,b',(#1,$),IFCLABEL('x'),.T.,1.5E-3,*),#7)");
+		tokenizer.skipValue();
+		assertTrue(tokenizer.readSeparator());
+		assertEquals(7, tokenizer.readExpressId());
+	}
+}
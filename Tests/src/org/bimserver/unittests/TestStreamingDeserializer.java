@@ -0,0 +1,178 @@
+package org.bimserver.unittests;
+
+/******************************************************************************
+ * Copyright (C) 2009-2014  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.bimserver.LocalDevPluginLoader;
+import org.bimserver.database.BimserverDatabaseException;
+import org.bimserver.database.DatabaseSessionInterface;
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.emf.MetaDataManager;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.emf.Schema;
+import org.bimserver.plugins.PluginConfiguration;
+import org.bimserver.plugins.PluginException;
+import org.bimserver.plugins.PluginManager;
+import org.bimserver.plugins.deserializers.DeserializeException;
+import org.bimserver.plugins.deserializers.Deserializer;
+import org.bimserver.plugins.deserializers.DeserializerPlugin;
+import org.bimserver.plugins.streamingdeserializers.StreamingDeserializer;
+import org.bimserver.plugins.streamingdeserializers.StreamingDeserializerPlugin;
+import org.bimserver.shared.Record;
+import org.bimserver.tests.TestFile;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.junit.Test;
+
+/**
+ * Reads the same file with the in-memory and the streaming deserializer and
+ * compares, per class, the amount of objects, the attribute values and the
+ * amount of (inverse) references
+ */
+public class TestStreamingDeserializer {
+	private static final String DESERIALIZER = "org.bimserver.ifc.step.deserializer.Ifc2x3tc1StepDeserializerPlugin";
+
+	@Test
+	public void testSameAsInMemory() {
+		try {
+			PluginManager pluginManager = LocalDevPluginLoader.createPluginManager(new File("home"));
+			MetaDataManager metaDataManager = new MetaDataManager(pluginManager);
+			PackageMetaData packageMetaData = metaDataManager.getEPackage("ifc2x3tc1");
+			File file = TestFile.AC11.getFile();
+
+			DeserializerPlugin deserializerPlugin = pluginManager.getDeserializerPlugin(DESERIALIZER, true);
+			Deserializer deserializer = deserializerPlugin.createDeserializer(new PluginConfiguration());
+			deserializer.init(packageMetaData);
+			IfcModelInterface model = deserializer.read(file);
+
+			StreamingDeserializerPlugin streamingDeserializerPlugin = pluginManager.getStreamingDeserializerPlugin(DESERIALIZER, "ifc", Schema.IFC2X3TC1);
+			StreamingDeserializer streamingDeserializer = streamingDeserializerPlugin.createDeserializer(new PluginConfiguration());
+			streamingDeserializer.init(packageMetaData);
+			MemoryDatabaseSession databaseSession = new MemoryDatabaseSession();
+			FileInputStream inputStream = new FileInputStream(file);
+			try {
+				long written = streamingDeserializer.read(inputStream, databaseSession, 1, 1, file.getName(), file.length());
+				assertEquals(model.size(), written);
+			} finally {
+				inputStream.close();
+			}
+
+			Map<String, List<String>> expected = new TreeMap<String, List<String>>();
+			for (IdEObject idEObject : model.getValues()) {
+				for (EStructuralFeature eStructuralFeature : idEObject.eClass().getEAllStructuralFeatures()) {
+					add(expected, idEObject.eClass(), eStructuralFeature, idEObject.eGet(eStructuralFeature));
+				}
+			}
+			Map<String, List<String>> actual = new TreeMap<String, List<String>>();
+			for (Record record : databaseSession.records.values()) {
+				for (EStructuralFeature eStructuralFeature : record.eClass().getEAllStructuralFeatures()) {
+					add(actual, record.eClass(), eStructuralFeature, record.eGet(eStructuralFeature));
+				}
+			}
+			assertEquals(expected.keySet(), actual.keySet());
+			for (String key : expected.keySet()) {
+				List<String> expectedValues = expected.get(key);
+				List<String> actualValues = actual.get(key);
+				Collections.sort(expectedValues);
+				Collections.sort(actualValues);
+				assertEquals(key, expectedValues, actualValues);
+			}
+		} catch (PluginException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		} catch (DeserializeException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+
+	/**
+	 * Attributes are compared by value, references by their amount, the oids
+	 * of both models have nothing in common
+	 */
+	private void add(Map<String, List<String>> values, EClass eClass, EStructuralFeature eStructuralFeature, Object value) {
+		if (value == null || (value instanceof List && ((List<?>) value).isEmpty()) || value.equals(eStructuralFeature.getDefaultValue())) {
+			return;
+		}
+		String key = eClass.getName() + "." + eStructuralFeature.getName();
+		List<String> list = values.get(key);
+		if (list == null) {
+			list = new ArrayList<String>();
+			values.put(key, list);
+		}
+		if (eStructuralFeature instanceof EAttribute) {
+			list.add(String.valueOf(value));
+		} else if (eStructuralFeature instanceof EReference) {
+			list.add(String.valueOf(value instanceof List ? ((List<?>) value).size() : 1));
+		}
+	}
+
+	private static class MemoryDatabaseSession implements DatabaseSessionInterface {
+		private final Map<Long, Record> records = new HashMap<Long, Record>();
+		private final Map<Long, EClass> eClasses = new HashMap<Long, EClass>();
+		private long oidCounter = 1;
+
+		@Override
+		public Long newOid(EClass eClass) {
+			long oid = oidCounter++;
+			eClasses.put(oid, eClass);
+			return oid;
+		}
+
+		@Override
+		public EClass getEClassForOid(long oid) {
+			return eClasses.get(oid);
+		}
+
+		@Override
+		public void save(Record record, int pid, int rid) throws BimserverDatabaseException {
+			if (records.containsKey(record.getOid())) {
+				throw new BimserverDatabaseException("Record " + record.getOid() + " saved twice");
+			}
+			records.put(record.getOid(), record);
+		}
+
+		@Override
+		public Record getRecord(long oid, int pid, int rid) throws BimserverDatabaseException {
+			return records.get(oid);
+		}
+
+		@Override
+		public void update(Record record, int pid, int rid) throws BimserverDatabaseException {
+			records.put(record.getOid(), record);
+		}
+	}
+}
@@ -32,7 +32,9 @@ import org.bimserver.tests.lowlevel.RemoveReferenceWithOpposite;
 import org.bimserver.tests.lowlevel.SetReferenceWithOpposite;
 import org.bimserver.tests.lowlevel.UnsetReference;
 import org.bimserver.tests.lowlevel.UnsetReferenceWithOpposite;
+import org.bimserver.tests.serviceinterface.CopyOnWriteBranch;
 import org.bimserver.tests.serviceinterface.MultiCheckinAndDownload;
+import org.bimserver.tests.serviceinterface.ProjectedJsonQuery;
 import org.bimserver.tests.serviceinterface.SingleCheckinAndDownload;
 import org.bimserver.tests.serviceinterface.UpdateProject;
 import org.junit.AfterClass;
@@ -55,10 +57,12 @@ import org.junit.runners.Suite;
         SetReferenceWithOpposite.class,
         UnsetReference.class,
         UnsetReferenceWithOpposite.class,
+        CopyOnWriteBranch.class,
         DeleteObjects.class,
         ListWalls.class,
         LoadCompleteModel.class,
         MultiCheckinAndDownload.class,
+        ProjectedJsonQuery.class,
         ReadTrim.class,
         SingleCheckinAndDownload.class,
         RemoveReferenceList.class,
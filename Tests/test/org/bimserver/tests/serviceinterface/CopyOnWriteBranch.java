@@ -0,0 +1,178 @@
+package org.bimserver.tests.serviceinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.Query;
+import org.bimserver.database.Query.Deep;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.interfaces.objects.SDeserializerPluginConfiguration;
+import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.interfaces.objects.SSerializerPluginConfiguration;
+import org.bimserver.interfaces.objects.SServerSettings;
+import org.bimserver.models.geometry.GeometryData;
+import org.bimserver.models.geometry.GeometryInfo;
+import org.bimserver.models.geometry.GeometryPackage;
+import org.bimserver.models.store.ConcreteRevision;
+import org.bimserver.models.store.Project;
+import org.bimserver.models.store.StorePackage;
+import org.bimserver.plugins.services.BimServerClientInterface;
+import org.bimserver.shared.UsernamePasswordAuthenticationInfo;
+import org.bimserver.shared.interfaces.bimsie1.Bimsie1LowLevelInterface;
+import org.bimserver.tests.utils.TestWithEmbeddedServer;
+import org.junit.Test;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class CopyOnWriteBranch extends TestWithEmbeddedServer {
+
+	@Test
+	public void test() {
+		boolean copyOnWriteBranches = getBimServer().getConfig().isCopyOnWriteBranches();
+		getBimServer().getConfig().setCopyOnWriteBranches(true);
+		try {
+			BimServerClientInterface bimServerClient = getFactory().create(new UsernamePasswordAuthenticationInfo("admin@bimserver.org", "admin"));
+			Bimsie1LowLevelInterface lowLevelInterface = bimServerClient.getBimsie1LowLevelInterface();
+
+			SProject source = bimServerClient.getBimsie1ServiceInterface().addProject("test" + Math.random(), "ifc2x3tc1");
+			File ifcFile = new File("../TestData/data/AC11-FZK-Haus-IFC.ifc");
+			SDeserializerPluginConfiguration deserializer = bimServerClient.getBimsie1ServiceInterface().getSuggestedDeserializerForExtension("ifc", source.getOid());
+			bimServerClient.checkin(source.getOid(), "test", deserializer.getOid(), false, true, ifcFile);
+			source = bimServerClient.getBimsie1ServiceInterface().getProjectByPoid(source.getOid());
+
+			SSerializerPluginConfiguration serializer = bimServerClient.getBimsie1ServiceInterface().getSerializerByContentType("application/json");
+			Map<Long, String> sourceObjects = getObjects(bimServerClient, source.getLastRevisionId(), serializer.getOid());
+
+			// Branch, the branch reads the records of the source
+			SProject branch = bimServerClient.getBimsie1ServiceInterface().addProject("test" + Math.random(), "ifc2x3tc1");
+			bimServerClient.getBimsie1ServiceInterface().branchToExistingProject(source.getLastRevisionId(), branch.getOid(), "branch", true);
+			branch = bimServerClient.getBimsie1ServiceInterface().getProjectByPoid(branch.getOid());
+			assertEquals(sourceObjects, getObjects(bimServerClient, branch.getLastRevisionId(), serializer.getOid()));
+
+			// Commit, the branch gets records of its own
+			Long tid = lowLevelInterface.startTransaction(branch.getOid());
+			Long furnishingOid = lowLevelInterface.createObject(tid, "IfcFurnishingElement");
+			lowLevelInterface.setStringAttribute(tid, furnishingOid, "GlobalId", "0uyjn9Jan3nRq36Uj6gwws");
+			lowLevelInterface.commitTransaction(tid, "change branch");
+			branch = bimServerClient.getBimsie1ServiceInterface().getProjectByPoid(branch.getOid());
+
+			Map<Long, String> branchObjects = getObjects(bimServerClient, branch.getLastRevisionId(), serializer.getOid());
+			assertEquals(sourceObjects.size() + 1, branchObjects.size());
+			assertEquals("IfcFurnishingElement", branchObjects.get(furnishingOid));
+			for (Long oid : sourceObjects.keySet()) {
+				assertTrue(branchObjects.containsKey(oid));
+			}
+
+			// The source has not changed
+			assertFalse(getObjects(bimServerClient, source.getLastRevisionId(), serializer.getOid()).containsKey(furnishingOid));
+			assertEquals(sourceObjects, getObjects(bimServerClient, source.getLastRevisionId(), serializer.getOid()));
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		} finally {
+			getBimServer().getConfig().setCopyOnWriteBranches(copyOnWriteBranches);
+		}
+	}
+
+	@Test
+	public void testReusedGeometry() {
+		boolean copyOnWriteBranches = getBimServer().getConfig().isCopyOnWriteBranches();
+		getBimServer().getConfig().setCopyOnWriteBranches(true);
+		try {
+			BimServerClientInterface bimServerClient = getFactory().create(new UsernamePasswordAuthenticationInfo("admin@bimserver.org", "admin"));
+			SServerSettings serverSettings = bimServerClient.getSettingsInterface().getServerSettings();
+			boolean reuseGeometry = serverSettings.isReuseGeometry();
+			serverSettings.setReuseGeometry(true);
+			bimServerClient.getSettingsInterface().setServerSettings(serverSettings);
+			try {
+				// The second checkin references the GeometryData of the first one
+				SProject source = bimServerClient.getBimsie1ServiceInterface().addProject("test" + Math.random(), "ifc2x3tc1");
+				File ifcFile = new File("../TestData/data/AC11-FZK-Haus-IFC.ifc");
+				SDeserializerPluginConfiguration deserializer = bimServerClient.getBimsie1ServiceInterface().getSuggestedDeserializerForExtension("ifc", source.getOid());
+				bimServerClient.checkin(source.getOid(), "first", deserializer.getOid(), false, true, ifcFile);
+				bimServerClient.checkin(source.getOid(), "second", deserializer.getOid(), false, true, ifcFile);
+				source = bimServerClient.getBimsie1ServiceInterface().getProjectByPoid(source.getOid());
+
+				SProject branch = bimServerClient.getBimsie1ServiceInterface().addProject("test" + Math.random(), "ifc2x3tc1");
+				bimServerClient.getBimsie1ServiceInterface().branchToExistingProject(source.getLastRevisionId(), branch.getOid(), "branch", true);
+				Long tid = bimServerClient.getBimsie1LowLevelInterface().startTransaction(branch.getOid());
+				Long furnishingOid = bimServerClient.getBimsie1LowLevelInterface().createObject(tid, "IfcFurnishingElement");
+				bimServerClient.getBimsie1LowLevelInterface().setStringAttribute(tid, furnishingOid, "GlobalId", "1uyjn9Jan3nRq36Uj6gwws");
+				bimServerClient.getBimsie1LowLevelInterface().commitTransaction(tid, "change branch");
+
+				assertTrue(countReusedGeometry(source.getOid()) > 0);
+				// Every GeometryInfo of the materialized branch finds its GeometryData in the branch itself
+				countReusedGeometry(branch.getOid());
+			} finally {
+				serverSettings.setReuseGeometry(reuseGeometry);
+				bimServerClient.getSettingsInterface().setServerSettings(serverSettings);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		} finally {
+			getBimServer().getConfig().setCopyOnWriteBranches(copyOnWriteBranches);
+		}
+	}
+
+	/**
+	 * Checks that the GeometryData of every GeometryInfo in the last
+	 * ConcreteRevision of the project can be read in that project
+	 * 
+	 * @return The number of GeometryData stored in an older revision
+	 */
+	private int countReusedGeometry(long poid) throws Exception {
+		DatabaseSession session = getBimServer().getDatabase().createSession();
+		try {
+			Project project = session.get(StorePackage.eINSTANCE.getProject(), poid, Query.getDefault());
+			ConcreteRevision concreteRevision = project.getLastConcreteRevision();
+			PackageMetaData packageMetaData = getBimServer().getMetaDataManager().getEPackage(project.getSchema());
+			Query query = new Query(packageMetaData, project.getId(), concreteRevision.getId(), null, Deep.NO, concreteRevision.getId());
+			List<GeometryInfo> geometryInfos = session.getAllOfType(GeometryPackage.eINSTANCE.getGeometryInfo(), query).getAll(GeometryInfo.class);
+			assertFalse(geometryInfos.isEmpty());
+			int reused = 0;
+			for (GeometryInfo geometryInfo : geometryInfos) {
+				assertNotNull(geometryInfo.getData());
+				GeometryData geometryData = session.get(GeometryPackage.eINSTANCE.getGeometryData(), geometryInfo.getData().getOid(), new Query(packageMetaData, project.getId(), concreteRevision.getId()));
+				assertNotNull(geometryData);
+				if (geometryData.getRid() < concreteRevision.getId()) {
+					reused++;
+				}
+			}
+			return reused;
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * @return The types of the objects in the revision, by oid
+	 */
+	private Map<Long, String> getObjects(BimServerClientInterface bimServerClient, long roid, long serializerOid) throws Exception {
+		Long downloadId = bimServerClient.getBimsie1ServiceInterface().download(roid, serializerOid, true, true);
+		InputStream downloadData = bimServerClient.getDownloadData(downloadId, serializerOid);
+		try {
+			JsonObject result = new JsonParser().parse(new InputStreamReader(downloadData, "UTF-8")).getAsJsonObject();
+			Map<Long, String> objects = new HashMap<Long, String>();
+			for (JsonElement object : result.get("objects").getAsJsonArray()) {
+				objects.put(object.getAsJsonObject().get("__oid").getAsLong(), object.getAsJsonObject().get("__type").getAsString());
+			}
+			return objects;
+		} finally {
+			downloadData.close();
+		}
+	}
+}
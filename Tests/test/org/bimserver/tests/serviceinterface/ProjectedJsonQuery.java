@@ -0,0 +1,81 @@
+package org.bimserver.tests.serviceinterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Collections;
+
+import org.bimserver.interfaces.objects.SDeserializerPluginConfiguration;
+import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.interfaces.objects.SSerializerPluginConfiguration;
+import org.bimserver.plugins.services.BimServerClientInterface;
+import org.bimserver.shared.UsernamePasswordAuthenticationInfo;
+import org.bimserver.tests.utils.TestWithEmbeddedServer;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class ProjectedJsonQuery extends TestWithEmbeddedServer {
+
+	@Test
+	public void test() {
+		try {
+			BimServerClientInterface bimServerClient = getFactory().create(new UsernamePasswordAuthenticationInfo("admin@bimserver.org", "admin"));
+
+			SProject newProject = bimServerClient.getBimsie1ServiceInterface().addProject("test" + Math.random(), "ifc2x3tc1");
+			File ifcFile = new File("../TestData/data/AC11-FZK-Haus-IFC.ifc");
+			SDeserializerPluginConfiguration deserializer = bimServerClient.getBimsie1ServiceInterface().getSuggestedDeserializerForExtension("ifc", newProject.getOid());
+			bimServerClient.checkin(newProject.getOid(), "test", deserializer.getOid(), false, true, ifcFile);
+			newProject = bimServerClient.getBimsie1ServiceInterface().getProjectByPoid(newProject.getOid());
+
+			SSerializerPluginConfiguration serializer = bimServerClient.getBimsie1ServiceInterface().getSerializerByContentType("application/json");
+
+			// Only the projected fields
+			JsonArray walls = getWalls(bimServerClient, newProject.getLastRevisionId(), serializer.getOid(), "{\"queries\":[{\"type\":\"IfcWall\",\"fields\":[\"GlobalId\"]}]}");
+			assertFalse(walls.size() == 0);
+			for (JsonElement wall : walls) {
+				assertEquals("PROJECTED", wall.getAsJsonObject().get("__state").getAsString());
+				assertTrue(wall.getAsJsonObject().has("GlobalId"));
+				assertFalse(wall.getAsJsonObject().has("Name"));
+			}
+
+			// The walls the first part decoded partially are complete after the second part
+			JsonArray completedWalls = getWalls(bimServerClient, newProject.getLastRevisionId(), serializer.getOid(), "{\"queries\":[{\"type\":\"IfcWall\",\"fields\":[\"GlobalId\"]},{\"type\":\"IfcProduct\"}]}");
+			assertEquals(walls.size(), completedWalls.size());
+			for (JsonElement wall : completedWalls) {
+				assertEquals("LOADED", wall.getAsJsonObject().get("__state").getAsString());
+				assertTrue(wall.getAsJsonObject().has("GlobalId"));
+				assertTrue(wall.getAsJsonObject().has("Name"));
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+
+	private JsonArray getWalls(BimServerClientInterface bimServerClient, long roid, long serializerOid, String query) throws Exception {
+		Long downloadId = bimServerClient.getBimsie1ServiceInterface().downloadByJsonQuery(Collections.singleton(roid), query, serializerOid, true);
+		InputStream downloadData = bimServerClient.getDownloadData(downloadId, serializerOid);
+		try {
+			JsonObject result = new JsonParser().parse(new InputStreamReader(downloadData, "UTF-8")).getAsJsonObject();
+			JsonArray walls = new JsonArray();
+			for (JsonElement object : result.get("objects").getAsJsonArray()) {
+				String type = object.getAsJsonObject().get("__type").getAsString();
+				if (type.equals("IfcWall") || type.equals("IfcWallStandardCase")) {
+					walls.add(object);
+				}
+			}
+			return walls;
+		} finally {
+			downloadData.close();
+		}
+	}
+}